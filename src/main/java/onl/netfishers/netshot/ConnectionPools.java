@@ -0,0 +1,422 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot;
+
+import java.beans.PropertyVetoException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Stoppable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * The database connection pools, one per subsystem, so that the background
+ * tasks can't starve the REST service (and conversely).
+ * Each thread takes its connections from the pool it was assigned to (see
+ * {@link #use(Pool)}), by default the task pool. The pools are sized from the
+ * number of threads of the matching subsystem.
+ * An instance with a single pool (e.g. for the read-only replica) serves all
+ * the threads.
+ */
+public class ConnectionPools implements ConnectionProvider, Stoppable {
+
+	private static final long serialVersionUID = -2360719508372475165L;
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ConnectionPools.class);
+
+	/** Default time to wait for a connection, in seconds (0 to wait forever). */
+	private static final int DEFAULT_ACQUIRE_TIMEOUT = 30;
+
+	/**
+	 * The subsystems, each one with its own pool.
+	 */
+	public static enum Pool {
+		/** The tasks (Quartz workers) and the other background jobs (log writer, report counters...). */
+		TASKS("tasks", "netshot.tasks.threadcount", 10, 5),
+		/** The device workers of the group tasks (see DeviceWorkerPool). */
+		WORKERS("workers", "netshot.tasks.workers.threadcount", Runtime.getRuntime().availableProcessors(), 2),
+		/** The REST service (HTTP worker threads and interactive device workers). */
+		REST("rest", "netshot.http.threadcount", RestService.DEFAULT_THREAD_COUNT, 4),
+		/** The Syslog, SNMP trap and TFTP collectors. */
+		COLLECTORS("collectors", null, 4, 1),
+		/** The read-only replica (REST read requests and reports). */
+		REPLICA("replica", "netshot.http.threadcount", RestService.DEFAULT_THREAD_COUNT, 5);
+
+		/** The name of the pool. */
+		private String name;
+
+		/** The configuration key of the thread count of the subsystem. */
+		private String threadCountKey;
+
+		/** The default thread count of the subsystem. */
+		private int defaultThreadCount;
+
+		/** The additional connections, for the threads out of the main thread pool. */
+		private int spare;
+
+		private Pool(String name, String threadCountKey, int defaultThreadCount, int spare) {
+			this.name = name;
+			this.threadCountKey = threadCountKey;
+			this.defaultThreadCount = defaultThreadCount;
+			this.spare = spare;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * The statistics of a pool.
+	 */
+	public static class PoolStatistics {
+
+		private String name;
+		private int minSize;
+		private int maxSize;
+		private int acquireTimeout;
+		private int total;
+		private int active;
+		private int idle;
+		private int waiting;
+		private long acquireCount;
+		private long acquireFailures;
+		private double averageAcquireTime;
+		private double maxAcquireTime;
+
+		/**
+		 * Gets the name of the pool.
+		 *
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the minimum number of connections.
+		 *
+		 * @return the min size
+		 */
+		public int getMinSize() {
+			return minSize;
+		}
+
+		/**
+		 * Gets the maximum number of connections.
+		 *
+		 * @return the max size
+		 */
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		/**
+		 * Gets the time to wait for a connection.
+		 *
+		 * @return the acquire timeout, in seconds (0 for no timeout)
+		 */
+		public int getAcquireTimeout() {
+			return acquireTimeout;
+		}
+
+		/**
+		 * Gets the number of open connections.
+		 *
+		 * @return the total
+		 */
+		public int getTotal() {
+			return total;
+		}
+
+		/**
+		 * Gets the number of connections in use.
+		 *
+		 * @return the active connection count
+		 */
+		public int getActive() {
+			return active;
+		}
+
+		/**
+		 * Gets the number of idle connections.
+		 *
+		 * @return the idle connection count
+		 */
+		public int getIdle() {
+			return idle;
+		}
+
+		/**
+		 * Gets the number of threads waiting for a connection.
+		 *
+		 * @return the waiting thread count
+		 */
+		public int getWaiting() {
+			return waiting;
+		}
+
+		/**
+		 * Gets the number of connections acquired from the pool.
+		 *
+		 * @return the acquire count
+		 */
+		public long getAcquireCount() {
+			return acquireCount;
+		}
+
+		/**
+		 * Gets the number of failed connection requests (e.g. timeouts).
+		 *
+		 * @return the failure count
+		 */
+		public long getAcquireFailures() {
+			return acquireFailures;
+		}
+
+		/**
+		 * Gets the average time to get a connection from the pool.
+		 *
+		 * @return the time, in milliseconds
+		 */
+		public double getAverageAcquireTime() {
+			return averageAcquireTime;
+		}
+
+		/**
+		 * Gets the longest time to get a connection from the pool.
+		 *
+		 * @return the time, in milliseconds
+		 */
+		public double getMaxAcquireTime() {
+			return maxAcquireTime;
+		}
+	}
+
+	/**
+	 * A pool, with the counters of the connection requests.
+	 */
+	private static class PoolInstance {
+
+		private Pool pool;
+		private int acquireTimeout;
+		private ComboPooledDataSource dataSource;
+		private AtomicLong acquireCount = new AtomicLong();
+		private AtomicLong acquireFailures = new AtomicLong();
+		private AtomicLong acquireTime = new AtomicLong();
+		private AtomicLong maxAcquireTime = new AtomicLong();
+
+		private PoolInstance(Pool pool) {
+			this.pool = pool;
+		}
+	}
+
+	/** The pool assigned to each thread. */
+	private static ThreadLocal<Pool> threadPool = new ThreadLocal<Pool>() {
+		@Override
+		protected Pool initialValue() {
+			return Pool.TASKS;
+		}
+	};
+
+	/**
+	 * Assigns a pool to the current thread: the following database sessions
+	 * opened by this thread will take their connections from this pool.
+	 *
+	 * @param pool the pool
+	 */
+	public static void use(Pool pool) {
+		threadPool.set(pool);
+	}
+
+	/**
+	 * Reads an integer from the configuration.
+	 */
+	private static int getConfigInt(String key, int defaultValue, int minValue) {
+		try {
+			int value = Integer.parseInt(Netshot.getConfig(key, Integer.toString(defaultValue)));
+			if (value < minValue) {
+				throw new Exception();
+			}
+			return value;
+		}
+		catch (Exception e) {
+			logger.error("Invalid value for {} in the configuration file. Using default of {}.",
+					key, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	/** The pools. */
+	private Map<Pool, PoolInstance> pools = new EnumMap<Pool, PoolInstance>(Pool.class);
+
+	/**
+	 * Creates the pools.
+	 *
+	 * @param driverClass the JDBC driver class
+	 * @param url the JDBC URL
+	 * @param properties the JDBC connection properties (including user and password)
+	 * @param subsystems the pools to create
+	 * @throws HibernateException if a pool can't be created
+	 */
+	public ConnectionPools(String driverClass, String url, Properties properties, Pool... subsystems)
+			throws HibernateException {
+		int defaultAcquireTimeout = getConfigInt("netshot.db.pool.acquiretimeout", DEFAULT_ACQUIRE_TIMEOUT, 0);
+		for (Pool pool : subsystems) {
+			String prefix = "netshot.db.pool." + pool.name + ".";
+			int threadCount = pool.defaultThreadCount;
+			if (pool.threadCountKey != null) {
+				threadCount = getConfigInt(pool.threadCountKey, pool.defaultThreadCount, 1);
+			}
+			int maxSize = getConfigInt(prefix + "maxsize", threadCount + pool.spare, 1);
+			int minSize = Math.min(getConfigInt(prefix + "minsize", Math.min(2, maxSize), 0), maxSize);
+			PoolInstance instance = new PoolInstance(pool);
+			instance.acquireTimeout = getConfigInt(prefix + "acquiretimeout", defaultAcquireTimeout, 0);
+			ComboPooledDataSource dataSource = new ComboPooledDataSource();
+			try {
+				dataSource.setDriverClass(driverClass);
+			}
+			catch (PropertyVetoException e) {
+				throw new HibernateException("Invalid JDBC driver class " + driverClass, e);
+			}
+			dataSource.setDataSourceName("netshot-" + pool.name);
+			dataSource.setJdbcUrl(url);
+			dataSource.setProperties(properties);
+			dataSource.setMinPoolSize(minSize);
+			dataSource.setInitialPoolSize(minSize);
+			dataSource.setMaxPoolSize(maxSize);
+			dataSource.setMaxIdleTime(1800);
+			dataSource.setMaxStatements(50);
+			dataSource.setUnreturnedConnectionTimeout(1800);
+			dataSource.setDebugUnreturnedConnectionStackTraces(true);
+			dataSource.setCheckoutTimeout(instance.acquireTimeout * 1000);
+			instance.dataSource = dataSource;
+			pools.put(pool, instance);
+			logger.info("Database connection pool '{}': {} to {} connections, acquire timeout {}s.",
+					pool.name, minSize, maxSize, instance.acquireTimeout);
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		PoolInstance instance = pools.get(threadPool.get());
+		if (instance == null) {
+			instance = pools.values().iterator().next();
+		}
+		long start = System.nanoTime();
+		try {
+			Connection connection = instance.dataSource.getConnection();
+			long time = System.nanoTime() - start;
+			instance.acquireCount.incrementAndGet();
+			instance.acquireTime.addAndGet(time);
+			long max = instance.maxAcquireTime.get();
+			while (time > max && !instance.maxAcquireTime.compareAndSet(max, time)) {
+				max = instance.maxAcquireTime.get();
+			}
+			return connection;
+		}
+		catch (SQLException e) {
+			instance.acquireFailures.incrementAndGet();
+			logger.warn("Unable to get a connection from the '{}' database pool after {}ms.",
+					instance.pool.name, (System.nanoTime() - start) / 1000000);
+			throw e;
+		}
+	}
+
+	@Override
+	public void closeConnection(Connection connection) throws SQLException {
+		// Back to the pool it comes from
+		connection.close();
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public boolean isUnwrappableAs(Class unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType)
+				|| ConnectionPools.class.isAssignableFrom(unwrapType);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> unwrapType) {
+		if (isUnwrappableAs(unwrapType)) {
+			return (T) this;
+		}
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+
+	@Override
+	public void stop() {
+		for (PoolInstance instance : pools.values()) {
+			instance.dataSource.close();
+		}
+	}
+
+	/**
+	 * Gets the current statistics of the pools.
+	 *
+	 * @return the statistics, one item per pool
+	 */
+	public List<PoolStatistics> getStatistics() {
+		List<PoolStatistics> statistics = new ArrayList<PoolStatistics>();
+		for (PoolInstance instance : pools.values()) {
+			PoolStatistics poolStatistics = new PoolStatistics();
+			poolStatistics.name = instance.pool.name;
+			poolStatistics.minSize = instance.dataSource.getMinPoolSize();
+			poolStatistics.maxSize = instance.dataSource.getMaxPoolSize();
+			poolStatistics.acquireTimeout = instance.acquireTimeout;
+			try {
+				poolStatistics.total = instance.dataSource.getNumConnectionsDefaultUser();
+				poolStatistics.active = instance.dataSource.getNumBusyConnectionsDefaultUser();
+				poolStatistics.idle = instance.dataSource.getNumIdleConnectionsDefaultUser();
+				poolStatistics.waiting = instance.dataSource.getNumThreadsAwaitingCheckoutDefaultUser();
+			}
+			catch (SQLException e) {
+				logger.warn("Unable to read the state of the '{}' database pool.", instance.pool.name, e);
+			}
+			poolStatistics.acquireCount = instance.acquireCount.get();
+			poolStatistics.acquireFailures = instance.acquireFailures.get();
+			if (poolStatistics.acquireCount > 0) {
+				poolStatistics.averageAcquireTime = instance.acquireTime.get() / 1000000.0 / poolStatistics.acquireCount;
+			}
+			poolStatistics.maxAcquireTime = instance.maxAcquireTime.get() / 1000000.0;
+			statistics.add(poolStatistics);
+		}
+		return statistics;
+	}
+
+}
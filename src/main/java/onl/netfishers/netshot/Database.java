@@ -26,11 +26,19 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Properties;
 import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -38,6 +46,7 @@ import javax.persistence.Entity;
 
 import onl.netfishers.netshot.aaa.User;
 import onl.netfishers.netshot.compliance.CheckResult;
+import onl.netfishers.netshot.compliance.CheckResultChange;
 import onl.netfishers.netshot.compliance.Exemption;
 import onl.netfishers.netshot.compliance.HardwareRule;
 import onl.netfishers.netshot.compliance.Policy;
@@ -80,9 +89,11 @@ import onl.netfishers.netshot.diagnostic.DiagnosticResult;
 import onl.netfishers.netshot.diagnostic.DiagnosticTextResult;
 import onl.netfishers.netshot.work.DebugLog;
 import onl.netfishers.netshot.work.Task;
+import onl.netfishers.netshot.work.TaskLogChunk;
 import onl.netfishers.netshot.work.tasks.DeviceJsScript;
 
 import org.apache.commons.lang3.ArrayUtils;
+import org.hibernate.Cache;
 import org.hibernate.EmptyInterceptor;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
@@ -91,8 +102,10 @@ import org.hibernate.SessionFactory;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
 import org.hibernate.cfg.ImprovedNamingStrategy;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
 import org.hibernate.proxy.HibernateProxy;
 import org.hibernate.service.ServiceRegistry;
+import org.hibernate.stat.Statistics;
 import org.hibernate.type.Type;
 import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
 import org.jasypt.hibernate4.encryptor.HibernatePBEEncryptorRegistry;
@@ -121,12 +134,56 @@ public class Database {
 	/** The configuration. */
 	private static Configuration configuration;
 
+	/** The connection pools. */
+	private static ConnectionPools connectionPools;
+
+	/** The session factory of the read-only replica (null if there is no replica). */
+	private static SessionFactory replicaSessionFactory;
+
+	/** The connection pool of the read-only replica. */
+	private static ConnectionPools replicaConnectionPools;
+
+	/** Whether the replica is reachable and in sync enough to be used. */
+	private static volatile boolean replicaAvailable = false;
+
+	/** Maximum replication lag to use the replica, in seconds. */
+	private static int replicaMaxLag = 30;
+
+	/** The query giving the replication lag of a PostgreSQL standby (0 if nothing to replay, null if not a standby). */
+	private static final String POSTGRESQL_LAG_QUERY = "select case when not pg_is_in_recovery() then null "
+			+ "when pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() then 0 "
+			+ "else extract(epoch from now() - pg_last_xact_replay_timestamp()) end";
+
 	/** The logger. */
 	private static Logger logger = LoggerFactory.getLogger(Database.class);
+
+	/** Default number of statements per JDBC batch. */
+	private static final int DEFAULT_BATCH_SIZE = 50;
+
+	/**
+	 * Number of IDs reserved at once by the pooled ID generators (which, unlike
+	 * the identity columns, allow the inserts to be batched). Must match the
+	 * increment of the database sequences.
+	 */
+	public static final String ID_POOL_SIZE = "50";
 	
 	
+	/** Number of SQL statements prepared by each thread, for measurements. */
+	private static ThreadLocal<long[]> statementCounter = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
 	private static class DatabaseInterceptor extends EmptyInterceptor {
 
+		@Override
+		public String onPrepareStatement(String sql) {
+			statementCounter.get()[0]++;
+			return super.onPrepareStatement(sql);
+		}
+
 		public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, 
 				Object[] previousState, String[] propertyNames, Type[] types) {
 			int indexOf = ArrayUtils.indexOf(propertyNames, "changeDate");
@@ -289,14 +346,53 @@ public class Database {
 				.setProperty("hibernate.connection.driver_class", getDriverClass())
 				.setProperty("hibernate.connection.url", getUrl())
 				.setProperty("hibernate.connection.username", getUsername())
-				.setProperty("hibernate.connection.password", getPassword())
-				.setProperty("hibernate.c3p0.min_size", "5")
-				.setProperty("hibernate.c3p0.max_size", "30")
-				.setProperty("hibernate.c3p0.timeout", "1800")
-				.setProperty("hibernate.c3p0.max_statements", "50")
-				.setProperty("hibernate.c3p0.unreturnedConnectionTimeout", "1800")
-				.setProperty("hibernate.c3p0.debugUnreturnedConnectionStackTraces", "true");
+				.setProperty("hibernate.connection.password", getPassword());
+
+			Properties connectionProperties = new Properties();
+			connectionProperties.setProperty("user", getUsername());
+			connectionProperties.setProperty("password", getPassword());
 
+			int batchSize = DEFAULT_BATCH_SIZE;
+			try {
+				int size = Integer.parseInt(Netshot.getConfig("netshot.db.batchsize", Integer.toString(batchSize)));
+				if (size < 0) {
+					throw new Exception();
+				}
+				batchSize = size;
+			}
+			catch (Exception e) {
+				logger.error("Invalid value for netshot.db.batchsize in the configuration file. Using default of {}.",
+						DEFAULT_BATCH_SIZE);
+			}
+			// Group the inserts, updates and deletes of the same table (e.g. the interfaces
+			// and modules of a snapshot) into JDBC batches
+			configuration
+				.setProperty("hibernate.jdbc.batch_size", Integer.toString(batchSize))
+				.setProperty("hibernate.order_inserts", "true")
+				.setProperty("hibernate.order_updates", "true")
+				.setProperty("hibernate.jdbc.batch_versioned_data", "true");
+			if (getDriverClass().startsWith("com.mysql")) {
+				// Otherwise the MySQL driver still sends the batched statements one by one
+				connectionProperties.setProperty("rewriteBatchedStatements", "true");
+			}
+			connectionPools = new ConnectionPools(getDriverClass(), getUrl(), connectionProperties,
+					ConnectionPools.Pool.TASKS, ConnectionPools.Pool.WORKERS, ConnectionPools.Pool.REST,
+					ConnectionPools.Pool.COLLECTORS);
+
+			if (Netshot.getConfig("netshot.db.cache", "true").equals("false")) {
+				logger.warn("The second-level cache of Hibernate is disabled by configuration.");
+			}
+			else {
+				// In-process cache of the reference data (see the @Cache entities),
+				// bounded as configured in netshot-ehcache.xml
+				configuration
+					.setProperty("hibernate.cache.use_second_level_cache", "true")
+					.setProperty("hibernate.cache.use_query_cache", "true")
+					.setProperty("hibernate.cache.region.factory_class",
+							"org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory")
+					.setProperty("net.sf.ehcache.configurationResourceName", "/netshot-ehcache.xml")
+					.setProperty("hibernate.generate_statistics", "true");
+			}
 			
 			StandardPBEStringEncryptor credentialEncryptor = new StandardPBEStringEncryptor();
 			String cryptPassword = Netshot.getConfig("netshot.db.encryptionpassword", null);
@@ -341,10 +437,12 @@ public class Database {
 				.addAnnotatedClass(DeviceTelnetAccount.class)
 				.addAnnotatedClass(Policy.class).addAnnotatedClass(Rule.class)
 				.addAnnotatedClass(Task.class).addAnnotatedClass(DebugLog.class)
+				.addAnnotatedClass(TaskLogChunk.class)
 				.addAnnotatedClass(Exemption.class)
 				.addAnnotatedClass(Exemption.Key.class)
 				.addAnnotatedClass(CheckResult.class)
 				.addAnnotatedClass(CheckResult.Key.class)
+				.addAnnotatedClass(CheckResultChange.class)
 				.addAnnotatedClass(SoftwareRule.class)
 				.addAnnotatedClass(HardwareRule.class)
 				.addAnnotatedClass(DeviceJsScript.class)
@@ -377,9 +475,22 @@ public class Database {
 			configuration.setInterceptor(new DatabaseInterceptor());
 
 			serviceRegistry = new StandardServiceRegistryBuilder().applySettings(
-					configuration.getProperties()).build();
+					configuration.getProperties())
+				.addService(ConnectionProvider.class, connectionPools)
+				.build();
 			sessionFactory = configuration.buildSessionFactory(serviceRegistry);
 
+			String replicaUrl = Netshot.getConfig("netshot.db.replica.url", null);
+			if (replicaUrl != null) {
+				try {
+					initReplica(replicaUrl);
+				}
+				catch (HibernateException e) {
+					replicaSessionFactory = null;
+					logger.error("Unable to set up the read-only replica, only the primary database will be used.", e);
+				}
+			}
+
 		}
 		catch (HibernateException e) {
 			logger.error(MarkerFactory.getMarker("FATAL"),
@@ -399,6 +510,229 @@ public class Database {
 		return sessionFactory.openSession();
 	}
 
+	/**
+	 * Initializes the access to the read-only replica, with its own session factory
+	 * (without second-level cache, so that the possibly late data of the replica
+	 * doesn't end up in the cache), and starts monitoring its replication lag.
+	 *
+	 * @param url the JDBC URL of the replica
+	 */
+	private static void initReplica(String url) {
+		try {
+			replicaMaxLag = Integer.parseInt(Netshot.getConfig("netshot.db.replica.maxlag",
+					Integer.toString(replicaMaxLag)));
+			if (replicaMaxLag < 0) {
+				throw new Exception();
+			}
+		}
+		catch (Exception e) {
+			replicaMaxLag = 30;
+			logger.error("Invalid value for netshot.db.replica.maxlag in the configuration file. Using default of {} seconds.",
+					replicaMaxLag);
+		}
+		int checkInterval = 10;
+		try {
+			checkInterval = Integer.parseInt(Netshot.getConfig("netshot.db.replica.checkinterval",
+					Integer.toString(checkInterval)));
+			if (checkInterval < 1) {
+				throw new Exception();
+			}
+		}
+		catch (Exception e) {
+			checkInterval = 10;
+			logger.error("Invalid value for netshot.db.replica.checkinterval in the configuration file. Using default of {} seconds.",
+					checkInterval);
+		}
+
+		Properties connectionProperties = new Properties();
+		connectionProperties.setProperty("user", Netshot.getConfig("netshot.db.replica.username", getUsername()));
+		connectionProperties.setProperty("password", Netshot.getConfig("netshot.db.replica.password", getPassword()));
+		replicaConnectionPools = new ConnectionPools(getDriverClass(), url, connectionProperties,
+				ConnectionPools.Pool.REPLICA);
+
+		configuration
+			.setProperty("hibernate.cache.use_second_level_cache", "false")
+			.setProperty("hibernate.cache.use_query_cache", "false")
+			.setProperty("hibernate.generate_statistics", "false");
+		configuration.getProperties().remove("hibernate.cache.region.factory_class");
+		ServiceRegistry replicaServiceRegistry = new StandardServiceRegistryBuilder().applySettings(
+				configuration.getProperties())
+			.addService(ConnectionProvider.class, replicaConnectionPools)
+			.build();
+		replicaSessionFactory = configuration.buildSessionFactory(replicaServiceRegistry);
+		logger.info("Read-only replica configured ({}), used while lagging at most {} seconds.", url, replicaMaxLag);
+		try {
+			if (getReplicaLag() == null) {
+				logger.warn("The configured replica ({}) doesn't replicate from a primary database, "
+						+ "it won't be used until it does.", url);
+			}
+		}
+		catch (Exception e) {
+			logger.warn("Unable to check the replica ({}), it won't be used until it answers.", url, e);
+		}
+
+		ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Database Replica Monitor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		monitor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkReplica();
+			}
+		}, 0, checkInterval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Checks the replication lag of the replica, to decide whether it can be used.
+	 */
+	private static void checkReplica() {
+		boolean available = false;
+		try {
+			Double lag = getReplicaLag();
+			if (lag == null) {
+				logger.debug("The replica doesn't replicate.");
+			}
+			else {
+				logger.trace("Replication lag of the replica: {}s.", lag);
+				available = (lag <= replicaMaxLag);
+			}
+		}
+		catch (Exception e) {
+			logger.debug("Unable to check the replica.", e);
+		}
+		if (available != replicaAvailable) {
+			if (available) {
+				logger.info("The read-only replica is in sync, now in use.");
+			}
+			else {
+				logger.warn("The read-only replica is unreachable or late, using the primary database instead.");
+			}
+		}
+		replicaAvailable = available;
+	}
+
+	/**
+	 * Gets the replication lag of the replica.
+	 *
+	 * @return the lag in seconds, or null if the replica doesn't replicate
+	 * @throws SQLException in case of database error
+	 */
+	private static Double getReplicaLag() throws SQLException {
+		Connection connection = replicaConnectionPools.getConnection();
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				if (getDriverClass().startsWith("com.mysql")) {
+					ResultSet result = statement.executeQuery("SHOW SLAVE STATUS");
+					if (!result.next()) {
+						// Not a slave
+						return null;
+					}
+					Object seconds = result.getObject("Seconds_Behind_Master");
+					return (seconds instanceof Number) ? ((Number) seconds).doubleValue() : null;
+				}
+				else if (getDriverClass().startsWith("org.postgresql")) {
+					ResultSet result = statement.executeQuery(POSTGRESQL_LAG_QUERY);
+					if (!result.next()) {
+						return null;
+					}
+					double lag = result.getDouble(1);
+					return result.wasNull() ? null : lag;
+				}
+				else {
+					// No way to know, only check that the replica answers
+					statement.execute("select 1");
+					return 0.0;
+				}
+			}
+			finally {
+				statement.close();
+			}
+		}
+		finally {
+			replicaConnectionPools.closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Gets a session to read data which may be slightly out of date (lists,
+	 * reports...): on the read-only replica if there is one and it is in sync,
+	 * otherwise on the primary database.
+	 *
+	 * @return the session
+	 * @throws HibernateException the hibernate exception
+	 */
+	public static Session getReadOnlySession() throws HibernateException {
+		if (replicaSessionFactory != null && replicaAvailable) {
+			Session session = replicaSessionFactory.openSession();
+			session.setDefaultReadOnly(true);
+			return session;
+		}
+		return getSession();
+	}
+
+	/**
+	 * Gets the JDBC fetch size to use for the queries whose results are streamed
+	 * (scrolled) rather than loaded at once. The MySQL driver only streams the rows
+	 * with Integer.MIN_VALUE (one row at a time), otherwise it reads the whole
+	 * result set into memory; the PostgreSQL driver uses a cursor, within a transaction.
+	 *
+	 * @return the fetch size
+	 */
+	public static int getStreamingFetchSize() {
+		if (getDriverClass().startsWith("com.mysql")) {
+			return Integer.MIN_VALUE;
+		}
+		return 100;
+	}
+
+	/**
+	 * Gets the number of SQL statements prepared so far by the current thread.
+	 * The difference between two calls gives the number of statements (a JDBC
+	 * batch counting as one) sent to the database by the code in between.
+	 *
+	 * @return the statement count
+	 */
+	public static long getStatementCount() {
+		return statementCounter.get()[0];
+	}
+
+	/**
+	 * Gets the second-level cache (e.g. to evict entries).
+	 *
+	 * @return the cache
+	 */
+	public static Cache getCache() {
+		return sessionFactory.getCache();
+	}
+
+	/**
+	 * Gets the Hibernate statistics (including the second-level cache hits and misses).
+	 *
+	 * @return the statistics
+	 */
+	public static Statistics getStatistics() {
+		return sessionFactory.getStatistics();
+	}
+
+	/**
+	 * Gets the state of the database connection pools.
+	 *
+	 * @return the statistics, one item per pool
+	 */
+	public static List<ConnectionPools.PoolStatistics> getPoolStatistics() {
+		List<ConnectionPools.PoolStatistics> statistics = connectionPools.getStatistics();
+		if (replicaConnectionPools != null) {
+			statistics.addAll(replicaConnectionPools.getStatistics());
+		}
+		return statistics;
+	}
+
 	/**
 	 * Gets the real object from the Hibernate proxy.
 	 *
@@ -0,0 +1,506 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import onl.netfishers.netshot.work.Task;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory bus of the server events (task status changes, task log lines,
+ * snapshots, compliance results), pushed to the subscribed clients (e.g. the
+ * Web UI through the events REST resource) rather than having them poll.
+ * Publishing never blocks: each subscriber has a bounded buffer, and the oldest
+ * events are dropped (and the subscriber warned) if it can't keep up.
+ * The events are only notifications: the clients read the actual data over REST.
+ */
+public class EventBus {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(EventBus.class);
+
+	/** Number of buffered events per subscriber. */
+	private static int BUFFER_SIZE = 200;
+
+	/** Interval between two heartbeats, in seconds. */
+	private static final int HEARTBEAT_INTERVAL = 30;
+
+	/** Time for a subscriber to accept an event, in seconds, before being dropped. */
+	private static final int SEND_TIMEOUT = 10;
+
+	static {
+		try {
+			int bufferSize = Integer.parseInt(Netshot.getConfig("netshot.events.buffersize",
+					Integer.toString(BUFFER_SIZE)));
+			if (bufferSize < 1) {
+				throw new Exception();
+			}
+			BUFFER_SIZE = bufferSize;
+		}
+		catch (Exception e) {
+			logger.error("Invalid value for netshot.events.buffersize in the configuration file. Using default of {}.",
+					BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * Type of event.
+	 */
+	public static enum Type {
+		/** The status of a task has changed. */
+		TASK_STATUS,
+		/** Lines were added to the log of a running task. */
+		TASK_LOG,
+		/** A snapshot of a device was taken. */
+		SNAPSHOT,
+		/** The compliance results of a device were updated. */
+		COMPLIANCE,
+		/** Some events were dropped (the subscriber was too slow), the client should reload its data. */
+		OVERFLOW,
+		/** Keeps the connection alive (and detects the gone clients). */
+		HEARTBEAT
+	}
+
+	/**
+	 * An event.
+	 */
+	@XmlRootElement(name = "event")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class Event {
+
+		/** The event ID (sequence). */
+		private long id;
+
+		/** The type. */
+		private Type type;
+
+		/** The date. */
+		private Date date = new Date();
+
+		/** The task ID. */
+		private Long taskId;
+
+		/** The device ID. */
+		private Long deviceId;
+
+		/** The status (of the task). */
+		private String status;
+
+		/** The position of the text in the task log. */
+		private Long position;
+
+		/** The text (new task log lines). */
+		private String text;
+
+		private Event(Type type) {
+			this.id = sequence.incrementAndGet();
+			this.type = type;
+		}
+
+		/**
+		 * Gets the event ID.
+		 *
+		 * @return the ID
+		 */
+		@XmlElement
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * Gets the type.
+		 *
+		 * @return the type
+		 */
+		@XmlElement
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * Gets the date.
+		 *
+		 * @return the date
+		 */
+		@XmlElement
+		public Date getDate() {
+			return date;
+		}
+
+		/**
+		 * Gets the task ID.
+		 *
+		 * @return the task ID
+		 */
+		@XmlElement
+		public Long getTaskId() {
+			return taskId;
+		}
+
+		/**
+		 * Gets the device ID.
+		 *
+		 * @return the device ID
+		 */
+		@XmlElement
+		public Long getDeviceId() {
+			return deviceId;
+		}
+
+		/**
+		 * Gets the task status.
+		 *
+		 * @return the status
+		 */
+		@XmlElement
+		public String getStatus() {
+			return status;
+		}
+
+		/**
+		 * Gets the position of the text in the task log.
+		 *
+		 * @return the position
+		 */
+		@XmlElement
+		public Long getPosition() {
+			return position;
+		}
+
+		/**
+		 * Gets the text.
+		 *
+		 * @return the text
+		 */
+		@XmlElement
+		public String getText() {
+			return text;
+		}
+	}
+
+	/**
+	 * A subscriber, which receives the events matching its filter.
+	 */
+	public static abstract class Subscriber {
+
+		/** The types of event to receive (null for all). */
+		private Set<Type> types;
+
+		/** The task ID to receive the events of (null for all). */
+		private Long taskId;
+
+		/** The device ID to receive the events of (null for all). */
+		private Long deviceId;
+
+		/** The pending events. */
+		private BlockingQueue<Event> buffer = new ArrayBlockingQueue<Event>(BUFFER_SIZE);
+
+		/** Whether events were dropped since the last delivery. */
+		private volatile boolean overflowed = false;
+
+		/** Whether a delivery is scheduled or in progress. */
+		private AtomicBoolean delivering = new AtomicBoolean(false);
+
+		/**
+		 * Instantiates a new subscriber.
+		 *
+		 * @param types the types of event to receive (null or empty for all)
+		 * @param taskId only receive the events of this task (null for all)
+		 * @param deviceId only receive the events of this device (null for all)
+		 */
+		public Subscriber(Set<Type> types, Long taskId, Long deviceId) {
+			this.types = (types == null || types.isEmpty()) ? null : types;
+			this.taskId = taskId;
+			this.deviceId = deviceId;
+		}
+
+		/**
+		 * Checks whether the subscriber is interested in the event.
+		 */
+		private boolean matches(Event event) {
+			if (event.type == Type.HEARTBEAT) {
+				return true;
+			}
+			if (types != null && !types.contains(event.type)) {
+				return false;
+			}
+			if (taskId != null && !taskId.equals(event.taskId)) {
+				return false;
+			}
+			if (deviceId != null && !deviceId.equals(event.deviceId)) {
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Buffers the event, and schedules the delivery.
+		 */
+		private void offer(Event event) {
+			while (!buffer.offer(event)) {
+				buffer.poll();
+				overflowed = true;
+			}
+			if (delivering.compareAndSet(false, true)) {
+				dispatcher.execute(new Runnable() {
+					@Override
+					public void run() {
+						deliver();
+					}
+				});
+			}
+		}
+
+		/**
+		 * Sends the next buffered event, then (once it is accepted by the
+		 * client) the following ones. The dispatcher threads never wait for a
+		 * client: a subscriber failing to accept an event in time is removed.
+		 */
+		private void deliver() {
+			Event event;
+			if (overflowed) {
+				overflowed = false;
+				event = new Event(Type.OVERFLOW);
+			}
+			else {
+				event = buffer.poll();
+			}
+			if (event == null) {
+				delivering.set(false);
+				if (!buffer.isEmpty() && delivering.compareAndSet(false, true)) {
+					dispatcher.execute(new Runnable() {
+						@Override
+						public void run() {
+							deliver();
+						}
+					});
+				}
+				return;
+			}
+			final CompletableFuture<?> sent;
+			try {
+				sent = send(event).toCompletableFuture();
+			}
+			catch (Exception e) {
+				logger.debug("Unable to send the event, unsubscribing.", e);
+				unsubscribe(this);
+				return;
+			}
+			final ScheduledFuture<?> timeout = heartbeat.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (!sent.isDone()) {
+						logger.debug("The subscriber didn't accept the event in time, unsubscribing.");
+						unsubscribe(Subscriber.this);
+					}
+				}
+			}, SEND_TIMEOUT, TimeUnit.SECONDS);
+			sent.whenCompleteAsync(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable error) {
+					timeout.cancel(false);
+					if (error != null) {
+						logger.debug("Unable to send the event, unsubscribing.", error);
+						unsubscribe(Subscriber.this);
+						return;
+					}
+					deliver();
+				}
+			}, dispatcher);
+		}
+
+		/**
+		 * Sends an event to the client, without waiting.
+		 *
+		 * @param event the event
+		 * @return the completion of the sending (the subscriber is removed if it fails)
+		 * @throws Exception if the event can't be sent (the subscriber is then removed)
+		 */
+		protected abstract CompletionStage<?> send(Event event) throws Exception;
+
+		/**
+		 * Called once the subscriber is removed from the bus.
+		 */
+		protected void onClose() {
+		}
+	}
+
+	/** The event sequence. */
+	private static AtomicLong sequence = new AtomicLong();
+
+	/** The subscribers. */
+	private static List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+
+	/** The threads which send the events to the subscribers. */
+	private static ExecutorService dispatcher = Executors.newFixedThreadPool(2, new ThreadFactory() {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, String.format("Event Dispatcher %d", count.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** The heartbeat timer. */
+	private static ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Event Heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		heartbeat.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				if (!subscribers.isEmpty()) {
+					publish(new Event(Type.HEARTBEAT));
+				}
+			}
+		}, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Adds a subscriber.
+	 *
+	 * @param subscriber the subscriber
+	 */
+	public static void subscribe(Subscriber subscriber) {
+		subscribers.add(subscriber);
+		logger.debug("New event subscriber, {} subscriber(s).", subscribers.size());
+	}
+
+	/**
+	 * Removes a subscriber.
+	 *
+	 * @param subscriber the subscriber
+	 */
+	public static void unsubscribe(Subscriber subscriber) {
+		if (subscribers.remove(subscriber)) {
+			subscriber.onClose();
+			logger.debug("Event subscriber removed, {} subscriber(s).", subscribers.size());
+		}
+	}
+
+	/**
+	 * Publishes an event to the matching subscribers.
+	 *
+	 * @param event the event
+	 */
+	private static void publish(Event event) {
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.matches(event)) {
+				subscriber.offer(event);
+			}
+		}
+	}
+
+	/**
+	 * Publishes the new status of a task.
+	 *
+	 * @param task the task
+	 */
+	public static void publishTaskStatus(Task task) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		Event event = new Event(Type.TASK_STATUS);
+		event.taskId = task.getId();
+		event.status = task.getStatus() == null ? null : task.getStatus().toString();
+		publish(event);
+	}
+
+	/**
+	 * Publishes new lines of a task log.
+	 *
+	 * @param taskId the task ID
+	 * @param position the position of the lines in the log
+	 * @param text the new lines
+	 */
+	public static void publishTaskLog(long taskId, long position, String text) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		Event event = new Event(Type.TASK_LOG);
+		event.taskId = taskId;
+		event.position = position;
+		event.text = text;
+		publish(event);
+	}
+
+	/**
+	 * Publishes a new snapshot of a device.
+	 *
+	 * @param taskId the ID of the snapshot task
+	 * @param deviceId the device ID
+	 */
+	public static void publishSnapshot(long taskId, long deviceId) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		Event event = new Event(Type.SNAPSHOT);
+		event.taskId = taskId;
+		event.deviceId = deviceId;
+		publish(event);
+	}
+
+	/**
+	 * Publishes the update of the compliance results of a device.
+	 *
+	 * @param deviceId the device ID
+	 */
+	public static void publishCompliance(long deviceId) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		Event event = new Event(Type.COMPLIANCE);
+		event.deviceId = deviceId;
+		publish(event);
+	}
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Query;
+
+/**
+ * Cursor based (keyset) pagination of the REST collections.
+ * The rows are sorted on a key, then on the ID. The cursor of the next page holds
+ * the key and ID of the last returned row, so that any page is read with an index
+ * range scan, rather than by skipping all the previous rows (and it doesn't shift
+ * when rows are added meanwhile).
+ * The sort keys are named after the properties of the returned objects.
+ */
+public class KeysetPage {
+
+	/** The response header which gives the cursor of the next page. */
+	public static final String NEXT_CURSOR_HEADER = "X-Netshot-Next-Cursor";
+
+	/** Maximum number of rows per page. */
+	public static final int MAX_LIMIT = 10000;
+
+	/**
+	 * Type of a sort key.
+	 */
+	public static enum KeyType {
+		NUMBER,
+		STRING,
+		DATE
+	}
+
+	/**
+	 * A possible sort key.
+	 */
+	public static class SortKey {
+
+		/** The name (property of the returned objects). */
+		private String name;
+
+		/** The HQL expression. */
+		private String expression;
+
+		/** The type. */
+		private KeyType type;
+
+		/**
+		 * Instantiates a new sort key.
+		 *
+		 * @param name the name, i.e. the property of the returned objects
+		 * @param expression the HQL expression (must not be null for any row)
+		 * @param type the type
+		 */
+		public SortKey(String name, String expression, KeyType type) {
+			this.name = name;
+			this.expression = expression;
+			this.type = type;
+		}
+	}
+
+	/** The page size. */
+	private int limit;
+
+	/** The sort key. */
+	private SortKey key;
+
+	/** The ID sort key. */
+	private SortKey id;
+
+	/** Descending order? */
+	private boolean descending;
+
+	/** The key value of the cursor (null for the first page). */
+	private Object cursorValue;
+
+	/** The ID of the cursor. */
+	private long cursorId;
+
+	/** The cursor of the next page, null if this is the last one. */
+	private String nextCursor;
+
+	/**
+	 * Parses the pagination parameters.
+	 *
+	 * @param limit the page size
+	 * @param cursor the cursor, as returned with the previous page (null for the first page)
+	 * @param sort the sort key name, prefixed with '-' for descending order (null for default)
+	 * @param defaultSort the default sort
+	 * @param id the ID key, also used as tie-breaker
+	 * @param keys the other possible sort keys
+	 * @throws IllegalArgumentException if a parameter is invalid
+	 */
+	public KeysetPage(int limit, String cursor, String sort, String defaultSort,
+			SortKey id, SortKey... keys) throws IllegalArgumentException {
+		if (limit < 1 || limit > MAX_LIMIT) {
+			throw new IllegalArgumentException(String.format("The limit must be between 1 and %d.", MAX_LIMIT));
+		}
+		this.limit = limit;
+		this.id = id;
+		if (sort == null || sort.isEmpty()) {
+			sort = defaultSort;
+		}
+		if (sort.startsWith("-")) {
+			this.descending = true;
+			sort = sort.substring(1);
+		}
+		if (id.name.equals(sort)) {
+			this.key = id;
+		}
+		for (SortKey k : keys) {
+			if (k.name.equals(sort)) {
+				this.key = k;
+			}
+		}
+		if (this.key == null) {
+			throw new IllegalArgumentException(String.format("Invalid sort key '%s'.", sort));
+		}
+		if (cursor != null && !cursor.isEmpty()) {
+			this.parseCursor(cursor);
+		}
+	}
+
+	/**
+	 * Decodes a cursor.
+	 *
+	 * @param cursor the cursor
+	 * @throws IllegalArgumentException if the cursor is invalid
+	 */
+	private void parseCursor(String cursor) throws IllegalArgumentException {
+		String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", 3);
+		if (parts.length != 3 || !parts[0].equals((descending ? "-" : "") + key.name)) {
+			throw new IllegalArgumentException("The cursor doesn't match the sort.");
+		}
+		try {
+			this.cursorId = Long.parseLong(parts[1]);
+			switch (key.type) {
+			case NUMBER:
+				this.cursorValue = Long.parseLong(parts[2]);
+				break;
+			case DATE:
+				this.cursorValue = new Date(Long.parseLong(parts[2]));
+				break;
+			default:
+				this.cursorValue = parts[2];
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid cursor.");
+		}
+	}
+
+	/**
+	 * Encodes the cursor pointing after the given row.
+	 *
+	 * @param row the last row of the page
+	 * @return the cursor
+	 */
+	private String makeCursor(Object row) {
+		Object value = getProperty(row, key.name);
+		String textValue;
+		if (value instanceof Date) {
+			textValue = Long.toString(((Date) value).getTime());
+		}
+		else {
+			textValue = (value == null ? "" : value.toString());
+		}
+		String text = String.format("%s%s\n%s\n%s", descending ? "-" : "", key.name,
+				getProperty(row, id.name), textValue);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads a property of a returned object.
+	 */
+	private static Object getProperty(Object row, String name) {
+		try {
+			String getter = "get" + name.substring(0, 1).toUpperCase() + name.substring(1);
+			Method method = row.getClass().getMethod(getter);
+			return method.invoke(row);
+		}
+		catch (Exception e) {
+			throw new IllegalStateException(String.format("Unable to read property %s of the row.", name), e);
+		}
+	}
+
+	/**
+	 * Gets the HQL condition which selects the rows after the cursor.
+	 *
+	 * @return the condition, "1 = 1" for the first page
+	 */
+	public String getCondition() {
+		if (cursorValue == null) {
+			return "1 = 1";
+		}
+		String op = descending ? "<" : ">";
+		if (key == id) {
+			return String.format("%s %s :pageId", id.expression, op);
+		}
+		return String.format("(%s %s :pageValue or (%s = :pageValue and %s %s :pageId))",
+				key.expression, op, key.expression, id.expression, op);
+	}
+
+	/**
+	 * Gets the HQL order by clause.
+	 *
+	 * @return the order by clause
+	 */
+	public String getOrderBy() {
+		String order = descending ? "desc" : "asc";
+		if (key == id) {
+			return String.format(" order by %s %s", id.expression, order);
+		}
+		return String.format(" order by %s %s, %s %s", key.expression, order, id.expression, order);
+	}
+
+	/**
+	 * Sets the cursor parameters and the row limit of the query.
+	 *
+	 * @param query the query, built with getCondition and getOrderBy
+	 * @return the query
+	 */
+	public Query apply(Query query) {
+		if (cursorValue != null) {
+			query.setLong("pageId", cursorId);
+			if (key != id) {
+				if (cursorValue instanceof Date) {
+					query.setTimestamp("pageValue", (Date) cursorValue);
+				}
+				else {
+					query.setParameter("pageValue", cursorValue);
+				}
+			}
+		}
+		// One more row, to know whether there is a next page
+		query.setMaxResults(limit + 1);
+		return query;
+	}
+
+	/**
+	 * Trims the fetched rows to the page size, and computes the cursor
+	 * of the next page.
+	 *
+	 * @param rows the rows, as returned by the query
+	 * @return the rows of the page
+	 */
+	public <T> List<T> getPage(List<T> rows) {
+		if (rows.size() > limit) {
+			rows = new ArrayList<T>(rows.subList(0, limit));
+			this.nextCursor = makeCursor(rows.get(limit - 1));
+		}
+		return rows;
+	}
+
+	/**
+	 * Gets the cursor of the next page.
+	 *
+	 * @return the cursor, or null if this is the last page
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+}
@@ -44,6 +44,7 @@ import ch.qos.logback.core.util.FileSize;
 import onl.netfishers.netshot.collector.SnmpTrapReceiver;
 import onl.netfishers.netshot.collector.SyslogServer;
 import onl.netfishers.netshot.device.DeviceDriver;
+import onl.netfishers.netshot.device.NetworkAddressIndex;
 
 /**
  * The Class Netshot. Starting point of Netshot
@@ -398,6 +399,10 @@ public class Netshot extends Thread {
 			Database.update();
 			logger.info("Initializing access to the database.");
 			Database.init();
+			logger.info("Loading the device address index.");
+			NetworkAddressIndex.init();
+			logger.info("Loading the report aggregates.");
+			ReportAggregates.init();
 			logger.info("Loading the device drivers");
 			DeviceDriver.refreshDrivers();
 			//Tester.createDevices();
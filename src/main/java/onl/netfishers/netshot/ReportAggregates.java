@@ -0,0 +1,899 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import onl.netfishers.netshot.compliance.CheckResult;
+import onl.netfishers.netshot.compliance.SoftwareHardwareRuleSet;
+import onl.netfishers.netshot.compliance.SoftwareRule.ConformanceLevel;
+import onl.netfishers.netshot.device.Device;
+
+import org.hibernate.CacheMode;
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precomputed counters behind the dashboard reports: per group and per
+ * management domain, number of enabled devices, of compliant devices and of
+ * devices per software level; number of enabled devices per end of sale/life date;
+ * number of configuration changes per quarter of hour over the last days.
+ * The counters are loaded at startup, then updated device per device when
+ * the compliance results, software level, EoX dates or configurations change
+ * (after the compliance checks, snapshots, edits, etc.). A periodic job
+ * reloads them from the database and reports any drift.
+ */
+public class ReportAggregates {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ReportAggregates.class);
+
+	/** Are the aggregates enabled? */
+	private static boolean ENABLED = true;
+
+	/** Interval between two consistency checks, in minutes. */
+	private static int CHECK_INTERVAL = 60;
+
+	/** Width of the configuration change buckets (so that any time zone falls on a boundary). */
+	private static final long CHANGE_BUCKET = 15L * 60L * 1000L;
+
+	/** Number of days of configuration changes to keep. */
+	private static final int CHANGE_DAYS = 8;
+
+	/** Counter indexes. */
+	private static final int DEVICES = 0;
+	private static final int COMPLIANT = 1;
+	private static final int GOLD = 2;
+	private static final int SILVER = 3;
+	private static final int BRONZE = 4;
+	private static final int COUNTERS = 5;
+
+	static {
+		if (Netshot.getConfig("netshot.reports.aggregates", "true").equals("false")) {
+			ENABLED = false;
+		}
+		try {
+			int checkInterval = Integer.parseInt(Netshot.getConfig("netshot.reports.aggregates.checkinterval", "60"));
+			if (checkInterval < 1) {
+				throw new Exception();
+			}
+			CHECK_INTERVAL = checkInterval;
+		}
+		catch (Exception e) {
+			logger.error("Invalid value for netshot.reports.aggregates.checkinterval in the configuration file. Using default of {}.",
+					CHECK_INTERVAL);
+		}
+	}
+
+	/**
+	 * What the reports need to know about a device.
+	 */
+	private static class DeviceFacts {
+
+		/** Is the device enabled (in production)? */
+		private boolean enabled;
+
+		/** The management domain ID (0 if none). */
+		private long domainId;
+
+		/** The software level. */
+		private ConformanceLevel level;
+
+		/** The end of sale date. */
+		private Date eosDate;
+
+		/** The end of life date. */
+		private Date eolDate;
+
+		/** Is the device compliant (no non-conforming result)? */
+		private boolean compliant;
+
+		/** The IDs of the groups the device belongs to. */
+		private Set<Long> groupIds;
+
+		private DeviceFacts(Device.Status status, Long domainId, ConformanceLevel level,
+				Date eosDate, Date eolDate, boolean compliant, Set<Long> groupIds) {
+			this.enabled = (status == Device.Status.INPRODUCTION);
+			this.domainId = (domainId == null ? 0 : domainId);
+			this.level = level;
+			// Normalize to plain dates (the JDBC timestamps don't compare to them)
+			this.eosDate = (eosDate == null ? null : new Date(eosDate.getTime()));
+			this.eolDate = (eolDate == null ? null : new Date(eolDate.getTime()));
+			this.compliant = compliant;
+			this.groupIds = groupIds;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (domainId ^ (domainId >>> 32)) + groupIds.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof DeviceFacts))
+				return false;
+			DeviceFacts other = (DeviceFacts) obj;
+			return enabled == other.enabled && domainId == other.domainId && level == other.level &&
+					(eosDate == null ? other.eosDate == null : eosDate.equals(other.eosDate)) &&
+					(eolDate == null ? other.eolDate == null : eolDate.equals(other.eolDate)) &&
+					compliant == other.compliant && groupIds.equals(other.groupIds);
+		}
+	}
+
+	/**
+	 * The counters of a group.
+	 */
+	private static class GroupStats {
+
+		/** The group name. */
+		private String name;
+
+		/** Is the group hidden from the reports? */
+		private boolean hidden;
+
+		/** The counters, per domain ID. */
+		private Map<Long, long[]> counters = new HashMap<Long, long[]>();
+
+		private GroupStats(String name, boolean hidden) {
+			this.name = name;
+			this.hidden = hidden;
+		}
+
+		/**
+		 * Adds (or removes) a device to the counters.
+		 * @param facts the device
+		 * @param sign 1 to add, -1 to remove
+		 */
+		private void apply(DeviceFacts facts, int sign) {
+			if (!facts.enabled) {
+				return;
+			}
+			long[] domainCounters = counters.get(facts.domainId);
+			if (domainCounters == null) {
+				domainCounters = new long[COUNTERS];
+				counters.put(facts.domainId, domainCounters);
+			}
+			domainCounters[DEVICES] += sign;
+			if (facts.compliant) {
+				domainCounters[COMPLIANT] += sign;
+			}
+			if (facts.level == ConformanceLevel.GOLD) {
+				domainCounters[GOLD] += sign;
+			}
+			else if (facts.level == ConformanceLevel.SILVER) {
+				domainCounters[SILVER] += sign;
+			}
+			else if (facts.level == ConformanceLevel.BRONZE) {
+				domainCounters[BRONZE] += sign;
+			}
+		}
+
+		private boolean sameCounters(GroupStats other) {
+			Set<Long> domainIds = new HashSet<Long>(counters.keySet());
+			domainIds.addAll(other.counters.keySet());
+			long[] zero = new long[COUNTERS];
+			for (Long domainId : domainIds) {
+				long[] a = counters.get(domainId);
+				long[] b = other.counters.get(domainId);
+				if (!Arrays.equals(a == null ? zero : a, b == null ? zero : b)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A full set of counters.
+	 */
+	private static class Store {
+
+		/** The devices. */
+		private Map<Long, DeviceFacts> devices = new HashMap<Long, DeviceFacts>();
+
+		/** The groups, by ID. */
+		private Map<Long, GroupStats> groups = new TreeMap<Long, GroupStats>();
+
+		/** Number of enabled devices, per end of sale date (null key for none). */
+		private Map<Date, Long> eosCounts = new HashMap<Date, Long>();
+
+		/** Number of enabled devices, per end of life date (null key for none). */
+		private Map<Date, Long> eolCounts = new HashMap<Date, Long>();
+
+		/** Number of configuration changes, per bucket. */
+		private TreeMap<Long, Long> changeCounts = new TreeMap<Long, Long>();
+
+		/** ID of the last counted configuration. */
+		private long lastConfigId = 0;
+
+		private static void increment(Map<Date, Long> counts, Date date, int sign) {
+			Long count = counts.get(date);
+			long newCount = (count == null ? 0 : count) + sign;
+			if (newCount == 0) {
+				counts.remove(date);
+			}
+			else {
+				counts.put(date, newCount);
+			}
+		}
+
+		/**
+		 * Adds (or removes) a device to all the counters.
+		 * @param facts the device
+		 * @param sign 1 to add, -1 to remove
+		 */
+		private void apply(DeviceFacts facts, int sign) {
+			if (!facts.enabled) {
+				return;
+			}
+			increment(eosCounts, facts.eosDate, sign);
+			increment(eolCounts, facts.eolDate, sign);
+			for (Long groupId : facts.groupIds) {
+				GroupStats group = groups.get(groupId);
+				if (group != null) {
+					group.apply(facts, sign);
+				}
+			}
+		}
+
+		private void putDevice(long deviceId, DeviceFacts facts) {
+			DeviceFacts oldFacts = devices.put(deviceId, facts);
+			if (oldFacts != null) {
+				apply(oldFacts, -1);
+			}
+			apply(facts, 1);
+		}
+
+		private void removeDevice(long deviceId) {
+			DeviceFacts oldFacts = devices.remove(deviceId);
+			if (oldFacts != null) {
+				apply(oldFacts, -1);
+			}
+		}
+
+		private void addConfigChange(long configId, Date changeDate) {
+			if (changeDate != null) {
+				long bucket = changeDate.getTime() / CHANGE_BUCKET;
+				Long count = changeCounts.get(bucket);
+				changeCounts.put(bucket, (count == null ? 0 : count) + 1);
+			}
+			if (configId > lastConfigId) {
+				lastConfigId = configId;
+			}
+		}
+
+		private void pruneConfigChanges() {
+			long oldest = (System.currentTimeMillis() - CHANGE_DAYS * 24L * 3600L * 1000L) / CHANGE_BUCKET;
+			changeCounts.headMap(oldest).clear();
+		}
+
+		/**
+		 * Loads all the counters from the database.
+		 * @param session the session
+		 */
+		private void load(Session session) {
+			Map<Long, Set<Long>> deviceGroups = new HashMap<Long, Set<Long>>();
+			ScrollableResults members = session
+				.createQuery("select d.id, g.id from DeviceGroup g join g.cachedDevices d")
+				.setCacheMode(CacheMode.IGNORE)
+				.scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (members.next()) {
+					Long deviceId = (Long) members.get(0);
+					Set<Long> groupIds = deviceGroups.get(deviceId);
+					if (groupIds == null) {
+						groupIds = new HashSet<Long>();
+						deviceGroups.put(deviceId, groupIds);
+					}
+					groupIds.add((Long) members.get(1));
+				}
+			}
+			finally {
+				members.close();
+			}
+
+			@SuppressWarnings("unchecked")
+			List<Long> nonCompliantIds = session
+				.createQuery("select distinct r.key.device.id from CheckResult r where r.result = :nonConforming")
+				.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING)
+				.list();
+			Set<Long> nonCompliant = new HashSet<Long>(nonCompliantIds);
+
+			@SuppressWarnings("unchecked")
+			List<Object[]> groupRows = session
+				.createQuery("select g.id, g.name, g.hiddenFromReports from DeviceGroup g")
+				.list();
+			for (Object[] row : groupRows) {
+				groups.put((Long) row[0], new GroupStats((String) row[1], Boolean.TRUE.equals(row[2])));
+			}
+
+			ScrollableResults deviceRows = session
+				.createQuery("select d.id, d.status, dom.id, d.softwareLevel, d.eosDate, d.eolDate "
+						+ "from Device d left join d.mgmtDomain dom")
+				.setCacheMode(CacheMode.IGNORE)
+				.scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (deviceRows.next()) {
+					Object[] row = deviceRows.get();
+					Long deviceId = (Long) row[0];
+					Set<Long> groupIds = deviceGroups.get(deviceId);
+					putDevice(deviceId, new DeviceFacts((Device.Status) row[1], (Long) row[2],
+							(ConformanceLevel) row[3], (Date) row[4], (Date) row[5],
+							!nonCompliant.contains(deviceId), groupIds == null ? new HashSet<Long>() : groupIds));
+				}
+			}
+			finally {
+				deviceRows.close();
+			}
+
+			Date since = new Date(System.currentTimeMillis() - CHANGE_DAYS * 24L * 3600L * 1000L);
+			@SuppressWarnings("unchecked")
+			List<Object[]> changes = session
+				.createQuery("select c.id, c.changeDate from Config c where c.changeDate >= :since")
+				.setTimestamp("since", since)
+				.list();
+			for (Object[] change : changes) {
+				addConfigChange((Long) change[0], (Date) change[1]);
+			}
+			Long lastId = (Long) session.createQuery("select max(c.id) from Config c").uniqueResult();
+			if (lastId != null && lastId > lastConfigId) {
+				lastConfigId = lastId;
+			}
+		}
+	}
+
+	/**
+	 * The counters of a group, as returned to the reports.
+	 */
+	public static class GroupCounters {
+
+		private long groupId;
+		private String groupName;
+		private long deviceCount;
+		private long compliantDeviceCount;
+		private long goldDeviceCount;
+		private long silverDeviceCount;
+		private long bronzeDeviceCount;
+
+		public long getGroupId() {
+			return groupId;
+		}
+		public String getGroupName() {
+			return groupName;
+		}
+		public long getDeviceCount() {
+			return deviceCount;
+		}
+		public long getCompliantDeviceCount() {
+			return compliantDeviceCount;
+		}
+		public long getGoldDeviceCount() {
+			return goldDeviceCount;
+		}
+		public long getSilverDeviceCount() {
+			return silverDeviceCount;
+		}
+		public long getBronzeDeviceCount() {
+			return bronzeDeviceCount;
+		}
+	}
+
+	/** The counters. */
+	private static Store store = new Store();
+
+	/** Lock to protect the counters. */
+	private static ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** Are the counters loaded? */
+	private static volatile boolean ready = false;
+
+	/** The devices refreshed while the counters are being reloaded, null if not reloading. */
+	private static Set<Long> refreshedWhileLoading = null;
+
+	/**
+	 * The periodic consistency check.
+	 */
+	public static class ConsistencyCheckJob implements Job {
+		@Override
+		public void execute(JobExecutionContext context) throws JobExecutionException {
+			ReportAggregates.check();
+		}
+	}
+
+	/**
+	 * Loads the counters from the database and schedules the consistency
+	 * check (to be run at startup).
+	 */
+	public static void init() {
+		if (!ENABLED) {
+			logger.info("The report aggregates are disabled, the reports will be computed from the database.");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		if (!reload()) {
+			logger.error("Unable to load the report aggregates, the reports will be computed from the database.");
+		}
+		else {
+			logger.info("The report aggregates have been loaded ({} devices, {} groups) in {}ms.",
+					store.devices.size(), store.groups.size(), System.currentTimeMillis() - start);
+		}
+		try {
+			TaskManager.scheduleInternalJob(ConsistencyCheckJob.class, "ReportAggregatesCheck", CHECK_INTERVAL);
+		}
+		catch (Exception e) {
+			logger.error("Unable to schedule the report aggregate consistency check.", e);
+		}
+	}
+
+	/**
+	 * Reloads all the counters from the database, and compares them to the
+	 * incrementally updated ones.
+	 * @return true if the counters were loaded
+	 */
+	private static boolean reload() {
+		lock.writeLock().lock();
+		try {
+			refreshedWhileLoading = new HashSet<Long>();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		Store newStore = new Store();
+		Session session = Database.getSession();
+		try {
+			newStore.load(session);
+		}
+		catch (HibernateException e) {
+			logger.error("Error while loading the report aggregates.", e);
+			lock.writeLock().lock();
+			try {
+				refreshedWhileLoading = null;
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+			return false;
+		}
+		finally {
+			session.close();
+		}
+		Set<Long> refreshed;
+		lock.writeLock().lock();
+		try {
+			if (ready) {
+				logDrift(store, newStore);
+			}
+			store = newStore;
+			refreshed = refreshedWhileLoading;
+			refreshedWhileLoading = null;
+			ready = true;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+		// The devices updated during the load may have been read before the change
+		for (Long deviceId : refreshed) {
+			refreshDevice(deviceId);
+		}
+		return true;
+	}
+
+	/**
+	 * Logs the differences between the current and the reloaded counters.
+	 */
+	private static void logDrift(Store current, Store reloaded) {
+		int deviceDrift = 0;
+		Set<Long> deviceIds = new HashSet<Long>(current.devices.keySet());
+		deviceIds.addAll(reloaded.devices.keySet());
+		for (Long deviceId : deviceIds) {
+			DeviceFacts a = current.devices.get(deviceId);
+			if (a == null || !a.equals(reloaded.devices.get(deviceId))) {
+				deviceDrift++;
+			}
+		}
+		int groupDrift = 0;
+		Set<Long> groupIds = new HashSet<Long>(current.groups.keySet());
+		groupIds.addAll(reloaded.groups.keySet());
+		for (Long groupId : groupIds) {
+			GroupStats a = current.groups.get(groupId);
+			GroupStats b = reloaded.groups.get(groupId);
+			if (a == null || b == null || !a.sameCounters(b)) {
+				groupDrift++;
+			}
+		}
+		current.pruneConfigChanges();
+		reloaded.pruneConfigChanges();
+		boolean changeDrift = !current.changeCounts.equals(reloaded.changeCounts);
+		if (deviceDrift > 0 || groupDrift > 0 || changeDrift) {
+			logger.warn("Report aggregate drift fixed: {} device(s), {} group(s), configuration changes {}.",
+					deviceDrift, groupDrift, changeDrift ? "differing" : "consistent");
+		}
+		else {
+			logger.debug("The report aggregates are consistent with the database.");
+		}
+	}
+
+	/**
+	 * Checks the counters against the database, and fixes them if needed.
+	 */
+	public static void check() {
+		if (!ENABLED) {
+			return;
+		}
+		logger.debug("Checking the consistency of the report aggregates.");
+		reload();
+	}
+
+	/**
+	 * Reads the facts of a device from the database.
+	 * @param session the session
+	 * @param deviceId the device ID
+	 * @return the facts, or null if the device doesn't exist
+	 */
+	private static DeviceFacts readDevice(Session session, long deviceId) {
+		Object[] row = (Object[]) session
+			.createQuery("select d.status, dom.id, d.softwareLevel, d.eosDate, d.eolDate, "
+					+ "(select count(r) from CheckResult r where r.key.device = d and r.result = :nonConforming) "
+					+ "from Device d left join d.mgmtDomain dom where d.id = :id")
+			.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING)
+			.setLong("id", deviceId)
+			.uniqueResult();
+		if (row == null) {
+			return null;
+		}
+		long nonConformingCount = (row[5] == null ? 0 : (Long) row[5]);
+		return new DeviceFacts((Device.Status) row[0], (Long) row[1], (ConformanceLevel) row[2],
+				(Date) row[3], (Date) row[4], nonConformingCount == 0,
+				SoftwareHardwareRuleSet.getGroupIds(session, deviceId));
+	}
+
+	/**
+	 * Refreshes the counters for a device, and counts the new configurations.
+	 * To be called after the device (or its compliance results) has been
+	 * changed and the change has been committed.
+	 * @param session the session to use to read the device
+	 * @param deviceId the device ID
+	 */
+	public static void refreshDevice(Session session, long deviceId) {
+		if (!ready) {
+			return;
+		}
+		logger.debug("Refreshing the report aggregates for device {}.", deviceId);
+		DeviceFacts facts;
+		List<Object[]> changes;
+		try {
+			facts = readDevice(session, deviceId);
+			long lastConfigId;
+			lock.readLock().lock();
+			try {
+				lastConfigId = store.lastConfigId;
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+			@SuppressWarnings("unchecked")
+			List<Object[]> newChanges = session
+				.createQuery("select c.id, c.changeDate from Config c where c.id > :lastId order by c.id")
+				.setLong("lastId", lastConfigId)
+				.list();
+			changes = newChanges;
+		}
+		catch (HibernateException e) {
+			logger.error("Unable to refresh the report aggregates for device {}.", deviceId, e);
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			if (facts == null) {
+				store.removeDevice(deviceId);
+			}
+			else {
+				store.putDevice(deviceId, facts);
+			}
+			for (Object[] change : changes) {
+				if ((Long) change[0] > store.lastConfigId) {
+					store.addConfigChange((Long) change[0], (Date) change[1]);
+				}
+			}
+			store.pruneConfigChanges();
+			if (refreshedWhileLoading != null) {
+				refreshedWhileLoading.add(deviceId);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Refreshes the counters for a device, using a new session.
+	 * @param deviceId the device ID
+	 */
+	public static void refreshDevice(long deviceId) {
+		if (!ready) {
+			return;
+		}
+		Session session = Database.getSession();
+		try {
+			refreshDevice(session, deviceId);
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Removes a device from the counters.
+	 * @param deviceId the device ID
+	 */
+	public static void removeDevice(long deviceId) {
+		lock.writeLock().lock();
+		try {
+			store.removeDevice(deviceId);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Refreshes a group (name, visibility and member devices), to be called
+	 * after the group has been created or edited.
+	 * @param groupId the group ID
+	 */
+	public static void refreshGroup(long groupId) {
+		if (!ready) {
+			return;
+		}
+		logger.debug("Refreshing the report aggregates for group {}.", groupId);
+		Object[] row;
+		Set<Long> memberIds;
+		Session session = Database.getSession();
+		try {
+			row = (Object[]) session
+				.createQuery("select g.name, g.hiddenFromReports from DeviceGroup g where g.id = :id")
+				.setLong("id", groupId)
+				.uniqueResult();
+			@SuppressWarnings("unchecked")
+			List<Long> members = session
+				.createQuery("select d.id from DeviceGroup g join g.cachedDevices d where g.id = :id")
+				.setLong("id", groupId)
+				.list();
+			memberIds = new HashSet<Long>(members);
+		}
+		catch (HibernateException e) {
+			logger.error("Unable to refresh the report aggregates for group {}.", groupId, e);
+			return;
+		}
+		finally {
+			session.close();
+		}
+		if (row == null) {
+			removeGroup(groupId);
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			GroupStats group = store.groups.get(groupId);
+			if (group == null) {
+				group = new GroupStats((String) row[0], Boolean.TRUE.equals(row[1]));
+				store.groups.put(groupId, group);
+			}
+			else {
+				group.name = (String) row[0];
+				group.hidden = Boolean.TRUE.equals(row[1]);
+			}
+			for (Map.Entry<Long, DeviceFacts> device : store.devices.entrySet()) {
+				DeviceFacts facts = device.getValue();
+				boolean member = memberIds.contains(device.getKey());
+				if (member && facts.groupIds.add(groupId)) {
+					group.apply(facts, 1);
+				}
+				else if (!member && facts.groupIds.remove(groupId)) {
+					group.apply(facts, -1);
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a group from the counters.
+	 * @param groupId the group ID
+	 */
+	public static void removeGroup(long groupId) {
+		lock.writeLock().lock();
+		try {
+			store.groups.remove(groupId);
+			for (DeviceFacts facts : store.devices.values()) {
+				facts.groupIds.remove(groupId);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Refreshes the compliance status of all devices, to be called when
+	 * compliance results are removed at once (rule or policy deletion).
+	 */
+	public static void refreshCompliance() {
+		if (!ready) {
+			return;
+		}
+		logger.debug("Refreshing the compliance status in the report aggregates.");
+		Set<Long> nonCompliant;
+		Session session = Database.getSession();
+		try {
+			@SuppressWarnings("unchecked")
+			List<Long> nonCompliantIds = session
+				.createQuery("select distinct r.key.device.id from CheckResult r where r.result = :nonConforming")
+				.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING)
+				.list();
+			nonCompliant = new HashSet<Long>(nonCompliantIds);
+		}
+		catch (HibernateException e) {
+			logger.error("Unable to refresh the compliance status in the report aggregates.", e);
+			return;
+		}
+		finally {
+			session.close();
+		}
+		lock.writeLock().lock();
+		try {
+			for (Map.Entry<Long, DeviceFacts> device : store.devices.entrySet()) {
+				DeviceFacts facts = device.getValue();
+				boolean compliant = !nonCompliant.contains(device.getKey());
+				if (facts.compliant != compliant) {
+					store.apply(facts, -1);
+					facts.compliant = compliant;
+					store.apply(facts, 1);
+				}
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the counters of the groups which are not hidden from the reports.
+	 * @param domains the management domains to count the devices of (all if empty)
+	 * @return the group counters, or null if the aggregates aren't available
+	 */
+	public static List<GroupCounters> getGroupCounters(Set<Long> domains) {
+		if (!ready) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			List<GroupCounters> results = new ArrayList<GroupCounters>();
+			for (Map.Entry<Long, GroupStats> group : store.groups.entrySet()) {
+				GroupStats stats = group.getValue();
+				if (stats.hidden) {
+					continue;
+				}
+				long[] sum = new long[COUNTERS];
+				for (Map.Entry<Long, long[]> domainCounters : stats.counters.entrySet()) {
+					if (domains == null || domains.isEmpty() || domains.contains(domainCounters.getKey())) {
+						for (int i = 0; i < COUNTERS; i++) {
+							sum[i] += domainCounters.getValue()[i];
+						}
+					}
+				}
+				GroupCounters counters = new GroupCounters();
+				counters.groupId = group.getKey();
+				counters.groupName = stats.name;
+				counters.deviceCount = sum[DEVICES];
+				counters.compliantDeviceCount = sum[COMPLIANT];
+				counters.goldDeviceCount = sum[GOLD];
+				counters.silverDeviceCount = sum[SILVER];
+				counters.bronzeDeviceCount = sum[BRONZE];
+				results.add(counters);
+			}
+			return results;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of enabled devices per end of sale date.
+	 * @return the device counts (null key for no date), or null if the aggregates aren't available
+	 */
+	public static Map<Date, Long> getEosCounts() {
+		if (!ready) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			return new HashMap<Date, Long>(store.eosCounts);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of enabled devices per end of life date.
+	 * @return the device counts (null key for no date), or null if the aggregates aren't available
+	 */
+	public static Map<Date, Long> getEolCounts() {
+		if (!ready) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			return new HashMap<Date, Long>(store.eolCounts);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of configuration changes within the given period, which
+	 * must start and end on a quarter of hour, within the last days.
+	 * @param start the start of the period
+	 * @param end the end of the period (excluded)
+	 * @return the number of changes, or null if the aggregates can't answer
+	 */
+	public static Long getConfigChangeCount(Date start, Date end) {
+		if (!ready || start.getTime() % CHANGE_BUCKET != 0 || end.getTime() % CHANGE_BUCKET != 0 ||
+				start.getTime() < System.currentTimeMillis() - (CHANGE_DAYS - 1) * 24L * 3600L * 1000L) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			long count = 0;
+			for (Long bucketCount : store.changeCounts
+					.subMap(start.getTime() / CHANGE_BUCKET, end.getTime() / CHANGE_BUCKET).values()) {
+				count += bucketCount;
+			}
+			return count;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+}
@@ -18,14 +18,14 @@
  */
 package onl.netfishers.netshot;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.security.Principal;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
@@ -37,6 +37,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -52,6 +56,7 @@ import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.ForbiddenException;
 import javax.ws.rs.GET;
+import javax.ws.rs.NotAcceptableException;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
@@ -64,11 +69,17 @@ import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerRequestFilter;
 import javax.ws.rs.container.PreMatching;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 import javax.ws.rs.ext.ExceptionMapper;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -79,16 +90,22 @@ import javax.xml.bind.annotation.XmlType;
 import onl.netfishers.netshot.aaa.Radius;
 import onl.netfishers.netshot.aaa.User;
 import onl.netfishers.netshot.compliance.CheckResult;
+import onl.netfishers.netshot.compliance.CheckResultChange;
+import onl.netfishers.netshot.compliance.DeviceConfigModel;
 import onl.netfishers.netshot.compliance.Exemption;
 import onl.netfishers.netshot.compliance.HardwareRule;
 import onl.netfishers.netshot.compliance.Policy;
 import onl.netfishers.netshot.compliance.Rule;
+import onl.netfishers.netshot.compliance.SoftwareHardwareRuleSet;
 import onl.netfishers.netshot.compliance.SoftwareRule;
 import onl.netfishers.netshot.compliance.CheckResult.ResultOption;
 import onl.netfishers.netshot.compliance.SoftwareRule.ConformanceLevel;
 import onl.netfishers.netshot.compliance.rules.JavaScriptRule;
+import onl.netfishers.netshot.compliance.rules.JavaScriptRuleCache;
 import onl.netfishers.netshot.compliance.rules.TextRule;
+import onl.netfishers.netshot.compliance.rules.TextRuleSet;
 import onl.netfishers.netshot.device.Config;
+import onl.netfishers.netshot.device.ConfigDiffService;
 import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DeviceDriver;
 import onl.netfishers.netshot.device.DeviceGroup;
@@ -98,10 +115,9 @@ import onl.netfishers.netshot.device.Finder;
 import onl.netfishers.netshot.device.Module;
 import onl.netfishers.netshot.device.Network4Address;
 import onl.netfishers.netshot.device.Network6Address;
-import onl.netfishers.netshot.device.NetworkAddress;
+import onl.netfishers.netshot.device.NetworkAddressIndex;
 import onl.netfishers.netshot.device.NetworkInterface;
 import onl.netfishers.netshot.device.StaticDeviceGroup;
-import onl.netfishers.netshot.device.Device.MissingDeviceDriverException;
 import onl.netfishers.netshot.device.Device.Status;
 import onl.netfishers.netshot.device.Finder.Expression.FinderParseException;
 import onl.netfishers.netshot.device.attribute.AttributeDefinition;
@@ -118,7 +134,9 @@ import onl.netfishers.netshot.diagnostic.DiagnosticResult;
 import onl.netfishers.netshot.diagnostic.JavaScriptDiagnostic;
 import onl.netfishers.netshot.diagnostic.SimpleDiagnostic;
 import onl.netfishers.netshot.work.DebugLog;
+import onl.netfishers.netshot.work.DeviceWorkerPool;
 import onl.netfishers.netshot.work.Task;
+import onl.netfishers.netshot.work.TaskLogStore;
 import onl.netfishers.netshot.work.TaskLogger;
 import onl.netfishers.netshot.work.Task.ScheduleType;
 import onl.netfishers.netshot.work.tasks.CheckComplianceTask;
@@ -126,6 +144,7 @@ import onl.netfishers.netshot.work.tasks.CheckGroupComplianceTask;
 import onl.netfishers.netshot.work.tasks.CheckGroupSoftwareTask;
 import onl.netfishers.netshot.work.tasks.DeviceJsScript;
 import onl.netfishers.netshot.work.tasks.DiscoverDeviceTypeTask;
+import onl.netfishers.netshot.work.tasks.GenerateReportTask;
 import onl.netfishers.netshot.work.tasks.PurgeDatabaseTask;
 import onl.netfishers.netshot.work.tasks.RunDeviceGroupScriptTask;
 import onl.netfishers.netshot.work.tasks.RunDeviceScriptTask;
@@ -135,17 +154,10 @@ import onl.netfishers.netshot.work.tasks.ScanSubnetsTask;
 import onl.netfishers.netshot.work.tasks.TakeGroupSnapshotTask;
 import onl.netfishers.netshot.work.tasks.TakeSnapshotTask;
 
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.CreationHelper;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.streaming.SXSSFSheet;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.glassfish.grizzly.http.server.CLStaticHttpHandler;
 import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
 import org.glassfish.grizzly.servlet.ServletRegistration;
 import org.glassfish.grizzly.servlet.WebappContext;
 import org.glassfish.grizzly.ssl.SSLContextConfigurator;
@@ -158,15 +170,17 @@ import org.glassfish.jersey.server.ServerProperties;
 import org.glassfish.jersey.server.filter.RolesAllowedDynamicFeature;
 import org.glassfish.jersey.servlet.ServletContainer;
 import org.glassfish.jersey.servlet.ServletProperties;
+import org.hibernate.Cache;
 import org.hibernate.Criteria;
-import org.hibernate.FetchMode;
 import org.hibernate.HibernateException;
 import org.hibernate.ObjectNotFoundException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
-import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Property;
-import org.hibernate.criterion.Restrictions;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
 import org.hibernate.transform.Transformers;
 import org.quartz.SchedulerException;
 import org.slf4j.Logger;
@@ -174,10 +188,12 @@ import org.slf4j.LoggerFactory;
 import org.slf4j.MarkerFactory;
 
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotationIntrospectorPair;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.module.jaxb.JaxbAnnotationIntrospector;
 
-import difflib.Delta;
-import difflib.DiffUtils;
-import difflib.Patch;
 
 /**
  * The RestService class exposes the Netshot methods as a REST service.
@@ -193,6 +209,18 @@ public class RestService extends Thread {
 	/** The logger. */
 	private static Logger logger = LoggerFactory.getLogger(RestService.class);
 
+	/** The response header which gives the full size of a task log. */
+	public static final String LOG_SIZE_HEADER = "X-Netshot-Log-Size";
+
+	/** Number of bulk device operations persisted per transaction. */
+	private static final int BULK_CHUNK_SIZE = 100;
+
+	/** Number of bulk device operations checked per parallel job. */
+	private static final int BULK_CHECK_SLICE = 200;
+
+	/** Default number of HTTP worker threads. */
+	public static final int DEFAULT_THREAD_COUNT = 20;
+
 	/** The static instance service. */
 	private static RestService nsRestService;
 
@@ -217,6 +245,8 @@ public class RestService extends Thread {
 
 		@Override
 		public void filter(ContainerRequestContext requestContext) throws IOException {
+			// The database sessions of the request use the REST connection pool
+			ConnectionPools.use(ConnectionPools.Pool.REST);
 			User user = (User) httpRequest.getSession().getAttribute("user");
 			Netshot.aaaLogger.info("HTTP Request {} by user {}.", requestContext.getUriInfo().getRequestUri(), user == null ? "<null>" : user.getUsername());
 			requestContext.setSecurityContext(new Authorizer(user));
@@ -311,6 +341,19 @@ public class RestService extends Thread {
 			logger.warn("Unable to understand the HTTP base port configuration, using {}.",
 					httpBasePort);
 		}
+		httpThreadCount = DEFAULT_THREAD_COUNT;
+		try {
+			httpThreadCount = Integer.parseInt(Netshot.getConfig("netshot.http.threadcount",
+					Integer.toString(httpThreadCount)));
+			if (httpThreadCount < 1) {
+				throw new Exception();
+			}
+		}
+		catch (Exception e) {
+			httpThreadCount = DEFAULT_THREAD_COUNT;
+			logger.warn("Unable to understand the HTTP thread count configuration, using {}.",
+					httpThreadCount);
+		}
 	}
 
 	private String httpStaticPath;
@@ -319,6 +362,7 @@ public class RestService extends Thread {
 	private String httpSslKeystoreFile;
 	private String httpSslKeystorePass;
 	private int httpBasePort;
+	private int httpThreadCount;
 
 	/* (non-Javadoc)
 	 * @see java.lang.Thread#run()
@@ -338,11 +382,18 @@ public class RestService extends Thread {
 			URI url = UriBuilder.fromUri(httpBaseUrl).port(httpBasePort).build();
 			HttpServer server = GrizzlyHttpServerFactory.createHttpServer(
 					url, (GrizzlyHttpContainer) null, true, sslConfig, false);
+			// Fixed number of worker threads, matching the size of the REST connection pool
+			for (NetworkListener listener : server.getListeners()) {
+				listener.getTransport().getWorkerThreadPoolConfig()
+					.setCorePoolSize(httpThreadCount).setMaxPoolSize(httpThreadCount);
+			}
 
 			WebappContext context = new WebappContext("GrizzlyContext", httpApiPath);
 			ServletRegistration registration = context.addServlet("Jersey", ServletContainer.class);
 			registration.setInitParameter(ServletProperties.JAXRS_APPLICATION_CLASS,
 					NetshotWebApplication.class.getName());
+			// For the event stream
+			registration.setAsyncSupported(true);
 			registration.addMapping(httpApiPath);
 			context.deploy(server);
 			HttpHandler staticHandler = new CLStaticHttpHandler(Netshot.class.getClassLoader(), "/www/");
@@ -461,6 +512,15 @@ public class RestService extends Thread {
 		/** The Constant NETSHOT_DATABASE_ACCESS_ERROR. */
 		public static final int NETSHOT_DATABASE_ACCESS_ERROR = 20;
 
+		/** The Constant NETSHOT_INVALID_PAGE. */
+		public static final int NETSHOT_INVALID_PAGE = 21;
+
+		/** The Constant NETSHOT_INVALID_EVENT_TYPE. */
+		public static final int NETSHOT_INVALID_EVENT_TYPE = 22;
+
+		/** The Constant NETSHOT_INVALID_BULK_OPERATION. */
+		public static final int NETSHOT_INVALID_BULK_OPERATION = 23;
+
 		/** The Constant NETSHOT_INVALID_IP_ADDRESS. */
 		public static final int NETSHOT_INVALID_IP_ADDRESS = 100;
 
@@ -651,7 +711,7 @@ public class RestService extends Thread {
 		Session session = Database.getSession();
 		List<Domain> domains;
 		try {
-			domains = session.createCriteria(Domain.class).list();
+			domains = session.createCriteria(Domain.class).setCacheable(true).list();
 			List<RsDomain> rsDomains = new ArrayList<RsDomain>();
 			for (Domain domain : domains) {
 				rsDomains.add(new RsDomain(domain));
@@ -979,7 +1039,7 @@ public class RestService extends Thread {
 	public List<NetworkInterface> getDeviceInterfaces(@PathParam("id") Long id)
 			throws WebApplicationException {
 		logger.debug("REST request, get device {} interfaces.", id);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			List<NetworkInterface> deviceInterfaces;
 			deviceInterfaces = session
@@ -1017,7 +1077,7 @@ public class RestService extends Thread {
 	public List<Module> getDeviceModules(@PathParam("id") Long id)
 			throws WebApplicationException {
 		logger.debug("REST request, get device {} modules.", id);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			List<Module> deviceModules = session
 					.createQuery("from Module m where device = :device")
@@ -1042,12 +1102,11 @@ public class RestService extends Thread {
 	 * @return the device tasks
 	 * @throws WebApplicationException the web application exception
 	 */
-	@SuppressWarnings("unchecked")
 	@GET
 	@Path("devices/{id}/tasks")
 	@RolesAllowed("readonly")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public List<Task> getDeviceTasks(@PathParam("id") Long id)
+	public List<RsLightTask> getDeviceTasks(@PathParam("id") Long id)
 			throws WebApplicationException {
 		logger.debug("REST request, get device {} tasks.", id);
 		Session session = Database.getSession();
@@ -1060,22 +1119,21 @@ public class RestService extends Thread {
 					RunDeviceScriptTask.class,
 					RunDiagnosticsTask.class,
 			};
-			final Criterion[] restrictions = new Criterion[] {
-					Restrictions.eq("t.device.id", id),
-					Restrictions.eq("t.deviceId", id),
-					Restrictions.eq("t.device.id", id),
-					Restrictions.eq("t.device.id", id),
-					Restrictions.eq("t.device.id", id)
+			final String[] restrictions = new String[] {
+					"t.device.id = :id",
+					"t.deviceId = :id",
+					"t.device.id = :id",
+					"t.device.id = :id",
+					"t.device.id = :id"
 			};
-			List<Task> tasks = new ArrayList<Task>();
+			List<RsLightTask> tasks = new ArrayList<RsLightTask>();
 			for (int i = 0; i < taskTypes.length; i++) {
-				List<Task> typeTasks = session
-						.createCriteria(taskTypes[i], "t")
-						.add(restrictions[i])
-						.list();
-				tasks.addAll(typeTasks);
+				tasks.addAll(RsLightTask.list(session
+						.createQuery(String.format("select %s from %s t where %s",
+								RsLightTask.COLUMNS, taskTypes[i].getSimpleName(), restrictions[i]))
+						.setLong("id", id)));
 			}
-			Collections.sort(tasks, new Comparator<Task>() {
+			Collections.sort(tasks, new Comparator<RsLightTask>() {
 				private int getPriority(Task.Status status) {
 					switch (status) {
 					case RUNNING: return 1;
@@ -1086,7 +1144,7 @@ public class RestService extends Thread {
 					}
 				}
 				
-				private Date getSignificantDate(Task t) {
+				private Date getSignificantDate(RsLightTask t) {
 					if (t.getExecutionDate() == null) {
 						return t.getChangeDate();
 					}
@@ -1096,7 +1154,7 @@ public class RestService extends Thread {
 				}
 
 				@Override
-				public int compare(Task o1, Task o2) {
+				public int compare(RsLightTask o1, RsLightTask o2) {
 					int statusDiff = Integer.compare(
 							this.getPriority(o1.getStatus()), this.getPriority(o2.getStatus()));
 					if (statusDiff == 0) {
@@ -1135,10 +1193,13 @@ public class RestService extends Thread {
 	}
 
 	/**
-	 * Gets the device configs.
+	 * Gets the device configs. With a limit, one page is returned, and the cursor
+	 * of the next one is given in the X-Netshot-Next-Cursor header.
 	 *
-	 * @param request the request
 	 * @param id the id
+	 * @param limit the page size (optional)
+	 * @param cursor the cursor of the page (optional)
+	 * @param sort the sort key (id or changeDate, '-' prefix for descending order)
 	 * @return the device configs
 	 * @throws WebApplicationException the web application exception
 	 */
@@ -1146,17 +1207,44 @@ public class RestService extends Thread {
 	@Path("devices/{id}/configs")
 	@RolesAllowed("readonly")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public List<Config> getDeviceConfigs(@PathParam("id") Long id)
+	public Response getDeviceConfigs(@PathParam("id") Long id, @QueryParam("limit") Integer limit,
+			@QueryParam("cursor") String cursor, @QueryParam("sort") String sort)
 			throws WebApplicationException {
 		logger.debug("REST request, get device {} configs.", id);
-		Session session = Database.getSession();
+		KeysetPage page = null;
+		if (limit != null) {
+			page = getPage(limit, cursor, sort, "-changeDate",
+					new KeysetPage.SortKey("id", "c.id", KeysetPage.KeyType.NUMBER),
+					new KeysetPage.SortKey("changeDate", "c.changeDate", KeysetPage.KeyType.DATE));
+		}
+		Session session = Database.getReadOnlySession();
 		try {
 			session.enableFilter("lightAttributesOnly");
+			if (page == null) {
+				@SuppressWarnings("unchecked")
+				List<Config> deviceConfigs = session
+					.createQuery("from Config c left join fetch c.attributes ca where c.device = :device")
+					.setLong("device", id).list();
+				return Response.ok(new GenericEntity<List<Config>>(deviceConfigs) {}).build();
+			}
+			// Select the page first, then fetch the attributes of these configs only
 			@SuppressWarnings("unchecked")
-			List<Config> deviceConfigs = session
-				.createQuery("from Config c left join fetch c.attributes ca where c.device = :device")
-				.setLong("device", id).list();
-			return deviceConfigs;
+			List<Config> deviceConfigs = page.apply(session
+					.createQuery("select c from Config c where c.device = :device and " + page.getCondition() + page.getOrderBy())
+					.setLong("device", id))
+				.list();
+			deviceConfigs = page.getPage(deviceConfigs);
+			if (deviceConfigs.size() > 0) {
+				List<Long> configIds = new ArrayList<Long>();
+				for (Config config : deviceConfigs) {
+					configIds.add(config.getId());
+				}
+				session
+					.createQuery("select distinct c from Config c left join fetch c.attributes ca where c.id in (:ids)")
+					.setParameterList("ids", configIds)
+					.list();
+			}
+			return getPageResponse(page, new GenericEntity<List<Config>>(deviceConfigs) {});
 		}
 		catch (HibernateException e) {
 			logger.error("Unable to fetch the configs.", e);
@@ -1184,7 +1272,7 @@ public class RestService extends Thread {
 	public Response getDeviceConfigPlain(@PathParam("id") Long id,
 			@PathParam("item") String item) throws WebApplicationException {
 		logger.debug("REST request, get device {} config {}.", id, item);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			Config config = (Config) session.get(Config.class, id);
 			if (config == null) {
@@ -1224,76 +1312,6 @@ public class RestService extends Thread {
 		}
 	}
 
-	/**
-	 * The Class RsConfigDiff.
-	 */
-	@XmlRootElement
-	public static class RsConfigDiff {
-
-		/** The original date. */
-		private Date originalDate;
-
-		/** The revised date. */
-		private Date revisedDate;
-
-		/** The deltas. */
-		private Map<String, List<RsConfigDelta>> deltas = new HashMap<String, List<RsConfigDelta>>();
-
-		/**
-		 * Instantiates a new rs config diff.
-		 *
-		 * @param originalDate the original date
-		 * @param revisedDate the revised date
-		 */
-		public RsConfigDiff(Date originalDate, Date revisedDate) {
-			this.originalDate = originalDate;
-			this.revisedDate = revisedDate;
-		}
-
-		/**
-		 * Adds the delta.
-		 *
-		 * @param item the item
-		 * @param delta the delta
-		 */
-		public void addDelta(String item, RsConfigDelta delta) {
-			if (!deltas.containsKey(item)) {
-				deltas.put(item, new ArrayList<RsConfigDelta>());
-			}
-			deltas.get(item).add(delta);
-		}
-
-		/**
-		 * Gets the original date.
-		 *
-		 * @return the original date
-		 */
-		@XmlElement
-		public Date getOriginalDate() {
-			return originalDate;
-		}
-
-		/**
-		 * Gets the revised date.
-		 *
-		 * @return the revised date
-		 */
-		@XmlElement
-		public Date getRevisedDate() {
-			return revisedDate;
-		}
-
-		/**
-		 * Gets the deltas.
-		 *
-		 * @return the deltas
-		 */
-		@XmlElement
-		public Map<String, List<RsConfigDelta>> getDeltas() {
-			return deltas;
-		}
-	}
-
 	/**
 	 * The Class RsConfigDelta.
 	 */
@@ -1342,11 +1360,10 @@ public class RestService extends Thread {
 		/**
 		 * Instantiates a new rs config delta.
 		 *
-		 * @param delta the delta
-		 * @param context the context
+		 * @param hunk the hunk
 		 */
-		public RsConfigDelta(Delta<String> delta, List<String> context) {
-			switch (delta.getType()) {
+		public RsConfigDelta(ConfigDiffService.Hunk hunk) {
+			switch (hunk.getType()) {
 			case INSERT:
 				this.diffType = Type.INSERT;
 				break;
@@ -1357,16 +1374,12 @@ public class RestService extends Thread {
 			default:
 				this.diffType = Type.CHANGE;
 			}
-			this.originalPosition = delta.getOriginal().getPosition();
-			this.originalLines = delta.getOriginal().getLines();
-			this.revisedPosition = delta.getRevised().getPosition();
-			this.revisedLines = delta.getRevised().getLines();
-			this.preContext = context.subList(Math.max(this.originalPosition - 3, 0),
-					this.originalPosition);
-			this.postContext = context.subList(Math.min(this.originalPosition
-					+ this.originalLines.size(), context.size() - 1),
-					Math.min(this.originalPosition + this.originalLines.size() + 3,
-							context.size() - 1));
+			this.originalPosition = hunk.getOriginalPosition();
+			this.originalLines = hunk.getOriginalLines();
+			this.revisedPosition = hunk.getRevisedPosition();
+			this.revisedLines = hunk.getRevisedLines();
+			this.preContext = hunk.getPreContext();
+			this.postContext = hunk.getPostContext();
 		}
 
 		/**
@@ -1451,82 +1464,43 @@ public class RestService extends Thread {
 	}
 
 	/**
-	 * Gets the device config diff.
+	 * Gets the device config diff. The result is streamed (as the JSON form of
+	 * an object with originalDate, revisedDate and the list of deltas per
+	 * attribute title), hunk by hunk.
 	 *
-	 * @param request the request
-	 * @param id1 the id1
-	 * @param id2 the id2
+	 * @param id1 the id of the original config (0 for the previous config of the same device)
+	 * @param id2 the id of the revised config
 	 * @return the device config diff
 	 */
 	@GET
 	@Path("configs/{id1}/vs/{id2}")
 	@RolesAllowed("readonly")
 	@Produces({ MediaType.APPLICATION_JSON })
-	public RsConfigDiff getDeviceConfigDiff(@PathParam("id1") Long id1,
+	public Response getDeviceConfigDiff(@PathParam("id1") Long id1,
 			@PathParam("id2") Long id2) {
 		logger.debug("REST request, get device config diff, id {} and {}.", id1,
 				id2);
-		RsConfigDiff configDiffs;
-		Session session = Database.getSession();
-		Config config1 = null;
-		Config config2 = null;
+		final ConfigDiffService.ConfigInfo config1;
+		final ConfigDiffService.ConfigInfo config2;
+		Session session = Database.getReadOnlySession();
 		try {
-			config2 = (Config) session.get(Config.class, id2);
+			config2 = ConfigDiffService.getConfig(session, id2);
 			if (config2 != null && id1 == 0) {
-				config1 = (Config) session
-					.createQuery("from Config c where c.device = :device and c.changeDate < :date2 order by c.changeDate desc")
-					.setEntity("device", config2.getDevice())
-					.setTimestamp("date2", config2.getChangeDate())
-					.setMaxResults(1)
-					.uniqueResult();
-				if (config1 == null) {
-					config1 = new Config(config2.getDevice());
-				}
+				config1 = ConfigDiffService.getPreviousConfig(session, config2);
 			}
 			else {
-				config1 = (Config) session.get(Config.class, id1);
+				config1 = ConfigDiffService.getConfig(session, id1);
+				if (config1 == null) {
+					logger.error("Non existing config {}.", id1);
+					throw new NetshotBadRequestException("Unable to fetch the configs",
+							NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+				}
 			}
-			if (config1 == null || config2 == null) {
-				logger.error("Non existing config, {} or {}.", id1, id2);
+			if (config2 == null) {
+				logger.error("Non existing config {}.", id2);
 				throw new NetshotBadRequestException("Unable to fetch the configs",
 						NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
 			}
-			DeviceDriver driver1;
-			DeviceDriver driver2;
-			try {
-				driver1 = config1.getDevice().getDeviceDriver();
-				driver2 = config2.getDevice().getDeviceDriver();
-			}
-			catch (MissingDeviceDriverException e) {
-				logger.error("Missing driver.");
-				throw new NetshotBadRequestException("Missing driver",
-						NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
-			}
-			if (!driver1.equals(driver2)) {
-				logger.error("Incompatible configurations, {} and {} (different drivers).", id1, id2);
-				throw new NetshotBadRequestException("Incompatible configurations",
-						NetshotBadRequestException.NETSHOT_INCOMPATIBLE_CONFIGS);
-			}
-			
-			configDiffs = new RsConfigDiff(config1.getChangeDate(),
-					config2.getChangeDate());
-			Map<String, ConfigAttribute> attributes1 = config1.getAttributeMap();
-			Map<String, ConfigAttribute> attributes2 = config2.getAttributeMap();
-			for (AttributeDefinition definition : driver1.getAttributes()) {
-				if (definition.isComparable()) {
-					ConfigAttribute attribute1 = attributes1.get(definition.getName());
-					ConfigAttribute attribute2 = attributes2.get(definition.getName());
-					String text1 = (attribute1 == null ? "" : attribute1.getAsText());
-					String text2 = (attribute2 == null ? "" : attribute2.getAsText());
-					List<String> lines1 = Arrays.asList(text1.replace("\r", "").split("\n"));
-					List<String> lines2 = Arrays.asList(text2.replace("\r", "").split("\n"));
-					Patch<String> patch = DiffUtils.diff(lines1, lines2);
-					for (Delta<String> delta : patch.getDeltas()) {
-						configDiffs.addDelta(definition.getTitle(), new RsConfigDelta(delta, lines1));
-					}
-				}
-			}
-			return configDiffs;
 		}
 		catch (HibernateException e) {
 			logger.error("Unable to fetch the configs", e);
@@ -1536,6 +1510,58 @@ public class RestService extends Thread {
 		finally {
 			session.close();
 		}
+		final DeviceDriver driver = DeviceDriver.getDriverByName(config2.getDriver());
+		if (driver == null || (config1 != null && !config2.getDriver().equals(config1.getDriver()))) {
+			if (driver == null) {
+				logger.error("Missing driver.");
+				throw new NetshotBadRequestException("Missing driver",
+						NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+			}
+			logger.error("Incompatible configurations, {} and {} (different drivers).", id1, id2);
+			throw new NetshotBadRequestException("Incompatible configurations",
+					NetshotBadRequestException.NETSHOT_INCOMPATIBLE_CONFIGS);
+		}
+
+		StreamingOutput output = new StreamingOutput() {
+			@Override
+			public void write(OutputStream stream) throws IOException, WebApplicationException {
+				JsonGenerator generator = getStreamMapper().getFactory().createGenerator(stream);
+				Session session = Database.getReadOnlySession();
+				try {
+					generator.writeStartObject();
+					generator.writeObjectField("originalDate", config1 == null ? null : config1.getChangeDate());
+					generator.writeObjectField("revisedDate", config2.getChangeDate());
+					generator.writeObjectFieldStart("deltas");
+					for (AttributeDefinition definition : driver.getAttributes()) {
+						if (definition.isComparable()) {
+							List<ConfigDiffService.Hunk> hunks = ConfigDiffService.getDiff(session,
+									config1 == null ? 0 : config1.getId(), config2.getId(), definition.getName());
+							if (hunks.isEmpty()) {
+								continue;
+							}
+							generator.writeArrayFieldStart(definition.getTitle());
+							for (ConfigDiffService.Hunk hunk : hunks) {
+								generator.writeObject(new RsConfigDelta(hunk));
+							}
+							generator.writeEndArray();
+							generator.flush();
+						}
+					}
+					generator.writeEndObject();
+					generator.writeEndObject();
+				}
+				catch (HibernateException e) {
+					logger.error("Unable to compute the config diff", e);
+					throw new NetshotBadRequestException("Unable to fetch the configs",
+							NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+				}
+				finally {
+					generator.close();
+					session.close();
+				}
+			}
+		};
+		return Response.ok(output, MediaType.APPLICATION_JSON_TYPE).build();
 	}
 
 	/**
@@ -1553,7 +1579,25 @@ public class RestService extends Thread {
 	public Device getDevice(@PathParam("id") Long id)
 			throws WebApplicationException {
 		logger.debug("REST request, device {}.", id);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
+		try {
+			return getDevice(session, id);
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Reads a device, with its details, using the given session (the replica
+	 * one, or the primary one to read a device right after changing it).
+	 *
+	 * @param session the session
+	 * @param id the id
+	 * @return the device
+	 * @throws WebApplicationException the web application exception
+	 */
+	private Device getDevice(Session session, Long id) throws WebApplicationException {
 		Device device;
 		try {
 			device = (Device) session
@@ -1581,9 +1625,6 @@ public class RestService extends Thread {
 			throw new NetshotBadRequestException("Unable to fetch the device",
 					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
 		}
-		finally {
-			session.close();
-		}
 		return device;
 	}
 
@@ -1706,10 +1747,194 @@ public class RestService extends Thread {
 
 	}
 
+	/** The JSON mapper for the streamed responses. */
+	private static ObjectMapper streamMapper = null;
+
 	/**
-	 * Gets the devices.
+	 * Gets the JSON mapper for the streamed responses, which reads the same
+	 * (Jackson then JAXB) annotations as the JSON provider.
 	 *
-	 * @param request the request
+	 * @return the mapper
+	 */
+	private static synchronized ObjectMapper getStreamMapper() {
+		if (streamMapper == null) {
+			ObjectMapper mapper = new ObjectMapper();
+			mapper.setAnnotationIntrospector(new AnnotationIntrospectorPair(
+					new JacksonAnnotationIntrospector(), new JaxbAnnotationIntrospector(mapper.getTypeFactory())));
+			streamMapper = mapper;
+		}
+		return streamMapper;
+	}
+
+	/**
+	 * A list of objects read by scrolling through a query, and streamed
+	 * as a JSON array, without ever holding the whole list in memory.
+	 * The list is read from the read-only replica (if available), unless
+	 * the primary database is requested, as for the paged version of the same list.
+	 */
+	private static abstract class ScrolledList implements StreamingOutput {
+
+		/** Whether to read from the replica. */
+		private boolean readOnly;
+
+		/**
+		 * Instantiates a new scrolled list.
+		 *
+		 * @param readOnly true to read from the replica (if available), false to read from the primary
+		 */
+		public ScrolledList(boolean readOnly) {
+			this.readOnly = readOnly;
+		}
+
+		/**
+		 * Runs the query.
+		 *
+		 * @param session the session
+		 * @return the scrollable results
+		 * @throws HibernateException in case of error
+		 */
+		protected abstract ScrollableResults scroll(Session session) throws HibernateException;
+
+		/**
+		 * Gets the object to write, from the current row.
+		 *
+		 * @param results the scrollable results
+		 * @return the object, by default the first column of the row
+		 */
+		protected Object getObject(ScrollableResults results) {
+			return results.get(0);
+		}
+
+		/* (non-Javadoc)
+		 * @see javax.ws.rs.core.StreamingOutput#write(java.io.OutputStream)
+		 */
+		@Override
+		public void write(OutputStream output) throws IOException, WebApplicationException {
+			JsonGenerator generator = getStreamMapper().getFactory().createGenerator(output);
+			Session session = readOnly ? Database.getReadOnlySession() : Database.getSession();
+			boolean flushed = false;
+			try {
+				// Within a transaction, otherwise the PostgreSQL driver ignores the fetch size
+				session.beginTransaction();
+				ScrollableResults results = scroll(session);
+				try {
+					generator.writeStartArray();
+					int count = 0;
+					while (results.next()) {
+						generator.writeObject(getObject(results));
+						if (++count % 100 == 0) {
+							// Don't keep the already written entities in the session
+							session.clear();
+							generator.flush();
+							flushed = true;
+						}
+					}
+					generator.writeEndArray();
+				}
+				finally {
+					results.close();
+				}
+				generator.close();
+			}
+			catch (HibernateException e) {
+				logger.error("Error while streaming the results.", e);
+				if (flushed) {
+					// Too late for an error response: abort the response rather than
+					// closing the array, so that the client can't take the truncated list as complete
+					generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+					throw new IOException("Error while streaming the results", e);
+				}
+				throw new NetshotBadRequestException("Unable to fetch the data",
+						NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+			}
+			finally {
+				if (session.getTransaction().isActive()) {
+					// Nothing was written
+					session.getTransaction().rollback();
+				}
+				session.close();
+			}
+		}
+
+		/**
+		 * Builds the response. The list is only streamed in JSON.
+		 *
+		 * @param headers the headers of the request
+		 * @return the response
+		 * @throws NotAcceptableException if the client doesn't accept JSON
+		 */
+		public Response toResponse(HttpHeaders headers) throws NotAcceptableException {
+			for (MediaType type : headers.getAcceptableMediaTypes()) {
+				if (type.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+					return Response.ok(this, MediaType.APPLICATION_JSON_TYPE).build();
+				}
+			}
+			throw new NotAcceptableException("The full list is only available in JSON, use the limit parameter to get it in XML.");
+		}
+	}
+
+	/**
+	 * Parses the pagination parameters of a request.
+	 *
+	 * @return the page
+	 * @throws NetshotBadRequestException if the parameters are invalid
+	 */
+	private static KeysetPage getPage(int limit, String cursor, String sort, String defaultSort,
+			KeysetPage.SortKey id, KeysetPage.SortKey... keys) throws NetshotBadRequestException {
+		try {
+			return new KeysetPage(limit, cursor, sort, defaultSort, id, keys);
+		}
+		catch (IllegalArgumentException e) {
+			throw new NetshotBadRequestException(e.getMessage(),
+					NetshotBadRequestException.NETSHOT_INVALID_PAGE);
+		}
+	}
+
+	/**
+	 * Builds the response for a page of results, with the cursor of the next page
+	 * in the X-Netshot-Next-Cursor header.
+	 *
+	 * @param page the page
+	 * @param entity the results
+	 * @return the response
+	 */
+	private static Response getPageResponse(KeysetPage page, GenericEntity<?> entity) {
+		Response.ResponseBuilder response = Response.ok(entity);
+		if (page.getNextCursor() != null) {
+			response.header(KeysetPage.NEXT_CURSOR_HEADER, page.getNextCursor());
+		}
+		return response.build();
+	}
+
+	/**
+	 * Sets the named parameters of a query.
+	 *
+	 * @param query the query
+	 * @param parameters the parameters
+	 */
+	private static void setParameters(Query query, Map<String, Object> parameters) {
+		for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+			if (parameter.getValue() instanceof Date) {
+				query.setTimestamp(parameter.getKey(), (Date) parameter.getValue());
+			}
+			else {
+				query.setParameter(parameter.getKey(), parameter.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Gets the devices. Without limit, the whole list is streamed (in JSON only); with a limit,
+	 * one page is returned, and the cursor of the next one is given in the
+	 * X-Netshot-Next-Cursor header.
+	 *
+	 * @param headers the headers of the request
+	 * @param limit the page size (optional)
+	 * @param cursor the cursor of the page (optional)
+	 * @param sort the sort key (id, name or family, '-' prefix for descending order)
+	 * @param name filter on the device name (part of)
+	 * @param status filter on the device status
+	 * @param domain filter on the management domain ID
 	 * @return the devices
 	 * @throws WebApplicationException the web application exception
 	 */
@@ -1717,15 +1942,57 @@ public class RestService extends Thread {
 	@Path("devices")
 	@RolesAllowed("readonly")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public List<RsLightDevice> getDevices() throws WebApplicationException {
+	public Response getDevices(@Context HttpHeaders headers, @QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+			@QueryParam("sort") String sort, @QueryParam("name") String name,
+			@QueryParam("status") String status, @QueryParam("domain") Long domain) throws WebApplicationException {
 		logger.debug("REST request, devices.");
-		Session session = Database.getSession();
+		StringBuilder hql = new StringBuilder(DEVICELIST_BASEQUERY + "from Device d where 1 = 1");
+		final Map<String, Object> parameters = new HashMap<String, Object>();
+		if (name != null && !name.isEmpty()) {
+			hql.append(" and lower(d.name) like :name");
+			parameters.put("name", "%" + name.toLowerCase() + "%");
+		}
+		if (status != null && !status.isEmpty()) {
+			try {
+				parameters.put("status", Device.Status.valueOf(status));
+			}
+			catch (IllegalArgumentException e) {
+				throw new NetshotBadRequestException("Invalid device status.",
+						NetshotBadRequestException.NETSHOT_INVALID_PAGE);
+			}
+			hql.append(" and d.status = :status");
+		}
+		if (domain != null) {
+			hql.append(" and d.mgmtDomain.id = :domain");
+			parameters.put("domain", domain);
+		}
+		if (limit == null) {
+			final String listHql = hql.toString() + " order by d.id";
+			return new ScrolledList(true) {
+				@Override
+				protected ScrollableResults scroll(Session session) throws HibernateException {
+					Query query = session.createQuery(listHql);
+					setParameters(query, parameters);
+					return query
+						.setResultTransformer(Transformers.aliasToBean(RsLightDevice.class))
+						.setFetchSize(Database.getStreamingFetchSize())
+						.scroll(ScrollMode.FORWARD_ONLY);
+				}
+			}.toResponse(headers);
+		}
+		KeysetPage page = getPage(limit, cursor, sort, "id",
+				new KeysetPage.SortKey("id", "d.id", KeysetPage.KeyType.NUMBER),
+				new KeysetPage.SortKey("name", "coalesce(d.name, '')", KeysetPage.KeyType.STRING),
+				new KeysetPage.SortKey("family", "coalesce(d.family, '')", KeysetPage.KeyType.STRING));
+		Session session = Database.getReadOnlySession();
 		try {
+			Query query = session.createQuery(hql.toString() + " and " + page.getCondition() + page.getOrderBy());
+			setParameters(query, parameters);
 			@SuppressWarnings("unchecked")
-			List<RsLightDevice> devices = session.createQuery(DEVICELIST_BASEQUERY + "from Device d")
+			List<RsLightDevice> devices = page.apply(query)
 				.setResultTransformer(Transformers.aliasToBean(RsLightDevice.class))
 				.list();
-			return devices;
+			return getPageResponse(page, new GenericEntity<List<RsLightDevice>>(page.getPage(devices)) {});
 		}
 		catch (HibernateException e) {
 			logger.error("Unable to fetch the devices", e);
@@ -1825,7 +2092,7 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<RsDeviceFamily> getDeviceFamilies() throws WebApplicationException {
 		logger.debug("REST request, device families.");
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			@SuppressWarnings("unchecked")
 			List<RsDeviceFamily> deviceFamilies = session
@@ -1873,7 +2140,7 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<RsPartNumber> getPartNumbers() throws WebApplicationException {
 		logger.debug("REST request, dpart numbers.");
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			@SuppressWarnings("unchecked")
 			List<RsPartNumber> partNumbers = session
@@ -2114,25 +2381,38 @@ public class RestService extends Thread {
 	}
 
 	/**
-	 * Adds the device.
+	 * The checked parameters of a new device.
+	 */
+	private static class NewDeviceParams {
+
+		/** The management address. */
+		private Network4Address deviceAddress;
+
+		/** The connect address (optional). */
+		private Network4Address connectAddress;
+
+		/** The SSH port (optional). */
+		private Integer sshPort;
+
+		/** The Telnet port (optional). */
+		private Integer telnetPort;
+
+		/** The driver (null for automatic discovery). */
+		private DeviceDriver driver;
+	}
+
+	/**
+	 * Checks the definition of a new device (without database access).
 	 *
-	 * @param request the request
-	 * @param device the device
-	 * @return the task
-	 * @throws WebApplicationException the web application exception
+	 * @param newDevice the new device
+	 * @return the parsed parameters
+	 * @throws NetshotBadRequestException if the definition is invalid
 	 */
-	@SuppressWarnings("unchecked")
-	@POST
-	@Path("devices")
-	@RolesAllowed("readwrite")
-	@Consumes({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Task addDevice(@Context HttpServletRequest request, RsNewDevice device) throws WebApplicationException {
-		logger.debug("REST request, new device.");
-		Network4Address deviceAddress;
+	private static NewDeviceParams parseNewDevice(RsNewDevice newDevice) throws NetshotBadRequestException {
+		NewDeviceParams params = new NewDeviceParams();
 		try {
-			deviceAddress = new Network4Address(device.getIpAddress());
-			if (!deviceAddress.isNormalUnicast()) {
+			params.deviceAddress = new Network4Address(newDevice.getIpAddress());
+			if (!params.deviceAddress.isNormalUnicast()) {
 				logger.warn("User posted an invalid IP address (not normal unicast).");
 				throw new NetshotBadRequestException("Invalid IP address",
 						NetshotBadRequestException.NETSHOT_INVALID_IP_ADDRESS);
@@ -2143,11 +2423,10 @@ public class RestService extends Thread {
 			throw new NetshotBadRequestException("Malformed IP address",
 					NetshotBadRequestException.NETSHOT_MALFORMED_IP_ADDRESS);
 		}
-		Network4Address connectAddress = null;
-		if (device.getConnectIpAddress() != null && !device.getConnectIpAddress().equals("")) {
+		if (newDevice.getConnectIpAddress() != null && !newDevice.getConnectIpAddress().equals("")) {
 			try {
-				connectAddress = new Network4Address(device.getConnectIpAddress());
-				if (!deviceAddress.isNormalUnicast()) {
+				params.connectAddress = new Network4Address(newDevice.getConnectIpAddress());
+				if (!params.connectAddress.isNormalUnicast()) {
 					logger.warn("User posted an invalid connect IP address (not normal unicast).");
 					throw new NetshotBadRequestException("Invalid connect IP address",
 							NetshotBadRequestException.NETSHOT_INVALID_IP_ADDRESS);
@@ -2159,34 +2438,64 @@ public class RestService extends Thread {
 						NetshotBadRequestException.NETSHOT_MALFORMED_IP_ADDRESS);
 			}
 		}
-		Integer sshPort = null;
-		if (device.getSshPort() != null && !"".equals(device.getSshPort())) {
+		if (newDevice.getSshPort() != null && !"".equals(newDevice.getSshPort())) {
 			try {
-				int port = Integer.parseInt(device.getSshPort());
+				int port = Integer.parseInt(newDevice.getSshPort());
 				if (port < 1 || port > 65535) {
 					throw new Exception();
 				}
-				sshPort = port;
+				params.sshPort = port;
 			}
 			catch (Exception e) {
 				throw new NetshotBadRequestException("Invalid SSH port",
 						NetshotBadRequestException.NETSHOT_INVALID_PORT);
 			}
 		}
-		Integer telnetPort = null;
-		if (device.getTelnetPort() != null && !"".equals(device.getTelnetPort())) {
+		if (newDevice.getTelnetPort() != null && !"".equals(newDevice.getTelnetPort())) {
 			try {
-				int port = Integer.parseInt(device.getTelnetPort());
+				int port = Integer.parseInt(newDevice.getTelnetPort());
 				if (port < 1 || port > 65535) {
 					throw new Exception();
 				}
-				telnetPort = port;
+				params.telnetPort = port;
 			}
 			catch (Exception e) {
 				throw new NetshotBadRequestException("Invalid Telnet port",
 						NetshotBadRequestException.NETSHOT_INVALID_PORT);
 			}
 		}
+		if (!newDevice.isAutoDiscover()) {
+			params.driver = DeviceDriver.getDriverByName(newDevice.getDeviceType());
+			if (params.driver == null) {
+				logger.warn("Invalid posted device driver.");
+				throw new NetshotBadRequestException("Invalid device type.",
+						NetshotBadRequestException.NETSHOT_INVALID_DEVICE_CLASSNAME);
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * Adds the device.
+	 *
+	 * @param request the request
+	 * @param device the device
+	 * @return the task
+	 * @throws WebApplicationException the web application exception
+	 */
+	@SuppressWarnings("unchecked")
+	@POST
+	@Path("devices")
+	@RolesAllowed("readwrite")
+	@Consumes({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Task addDevice(@Context HttpServletRequest request, RsNewDevice device) throws WebApplicationException {
+		logger.debug("REST request, new device.");
+		NewDeviceParams params = parseNewDevice(device);
+		Network4Address deviceAddress = params.deviceAddress;
+		Network4Address connectAddress = params.connectAddress;
+		Integer sshPort = params.sshPort;
+		Integer telnetPort = params.telnetPort;
 		Domain domain;
 		List<DeviceCredentialSet> knownCommunities;
 		Session session = Database.getSession();
@@ -2208,6 +2517,7 @@ public class RestService extends Thread {
 					.createQuery("from DeviceSnmpCommunity c where (mgmtDomain = :domain or mgmtDomain is null) and (not (c.deviceSpecific = :true))")
 					.setEntity("domain", domain)
 					.setBoolean("true", true)
+					.setCacheable(true)
 					.list();
 			if (knownCommunities.size() == 0 && device.isAutoDiscover()) {
 				logger.error("No available SNMP community");
@@ -2254,12 +2564,7 @@ public class RestService extends Thread {
 			}
 		}
 		else {
-			DeviceDriver driver = DeviceDriver.getDriverByName(device.getDeviceType());
-			if (driver == null) {
-				logger.warn("Invalid posted device driver.");
-				throw new NetshotBadRequestException("Invalid device type.",
-						NetshotBadRequestException.NETSHOT_INVALID_DEVICE_CLASSNAME);
-			}
+			DeviceDriver driver = params.driver;
 			session = Database.getSession();
 			TakeSnapshotTask task;
 			Device newDevice = null;
@@ -2339,8 +2644,11 @@ public class RestService extends Thread {
 			for (DeviceGroup group : device.getOwnerGroups()) {
 				group.deleteCachedDevice(device);
 			}
+			CheckResultChange.recordDeviceRemoval(session, id);
 			session.delete(device);
 			session.getTransaction().commit();
+			NetworkAddressIndex.removeDevice(id);
+			ReportAggregates.removeDevice(id);
 		}
 		catch (HibernateException e) {
 			session.getTransaction().rollback();
@@ -2626,7 +2934,156 @@ public class RestService extends Thread {
 	}
 
 	/**
-	 * Sets the device.
+	 * Applies the changes to a device (within the transaction of the caller).
+	 *
+	 * @param session the session
+	 * @param device the device to change
+	 * @param rsDevice the changes
+	 * @throws UnknownHostException if an IP address is malformed
+	 * @throws NetshotBadRequestException if a change is invalid
+	 * @throws HibernateException in case of database error
+	 */
+	private static void applyDeviceChanges(Session session, Device device, RsDevice rsDevice)
+			throws UnknownHostException, NetshotBadRequestException, HibernateException {
+		if (rsDevice.isEnabled() != null) {
+			if (rsDevice.isEnabled()) {
+				device.setStatus(Status.INPRODUCTION);
+			}
+			else {
+				device.setStatus(Status.DISABLED);
+			}
+		}
+		if (rsDevice.getIpAddress() != null) {
+			Network4Address v4Address = new Network4Address(rsDevice.getIpAddress());
+			if (!v4Address.isNormalUnicast()) {
+				throw new NetshotBadRequestException("Invalid IP address",
+						NetshotBadRequestException.NETSHOT_INVALID_IP_ADDRESS);
+			}
+			device.setMgmtAddress(v4Address);
+		}
+		if (rsDevice.getConnectIpAddress() != null) {
+			if ("".equals(rsDevice.getConnectIpAddress())) {
+				device.setConnectAddress(null);
+			}
+			else {
+				Network4Address v4ConnectAddress = new Network4Address(rsDevice.getConnectIpAddress());
+				if (!v4ConnectAddress.isNormalUnicast() && !v4ConnectAddress.isLoopback()) {
+					throw new NetshotBadRequestException("Invalid Connect IP address",
+							NetshotBadRequestException.NETSHOT_INVALID_IP_ADDRESS);
+				}
+				device.setConnectAddress(v4ConnectAddress);
+			}
+		}
+		if (rsDevice.getSshPort() != null) {
+			if ("".equals(rsDevice.getSshPort())) {
+				device.setSshPort(0);
+			}
+			else {
+				try {
+					int port = Integer.parseInt(rsDevice.getSshPort());
+					if (port < 1 || port > 65535) {
+						throw new Exception();
+					}
+					device.setSshPort(port);
+				}
+				catch (Exception e) {
+					throw new NetshotBadRequestException("Invalid SSH port",
+							NetshotBadRequestException.NETSHOT_INVALID_PORT);
+				}
+			}
+		}
+		if (rsDevice.getTelnetPort() != null) {
+			if ("".equals(rsDevice.getTelnetPort())) {
+				device.setTelnetPort(0);
+			}
+			else {
+				try {
+					int port = Integer.parseInt(rsDevice.getTelnetPort());
+					if (port < 1 || port > 65535) {
+						throw new Exception();
+					}
+					device.setTelnetPort(port);
+				}
+				catch (Exception e) {
+					throw new NetshotBadRequestException("Invalid Telnet port",
+							NetshotBadRequestException.NETSHOT_INVALID_PORT);
+				}
+			}
+		}
+		if (rsDevice.getComments() != null) {
+			device.setComments(rsDevice.getComments());
+		}
+		if (rsDevice.getCredentialSetIds() != null) {
+			if (rsDevice.getClearCredentialSetIds() == null) {
+				device.clearCredentialSets();
+			}
+			else {
+				Iterator<DeviceCredentialSet> csIterator = device.getCredentialSets().iterator();
+				while (csIterator.hasNext()) {
+					if (rsDevice.getClearCredentialSetIds().contains(csIterator.next().getId())) {
+						csIterator.remove();
+					}
+				}
+			}
+			for (Long credentialSetId : rsDevice.getCredentialSetIds()) {
+				try {
+					DeviceCredentialSet credentialSet = (DeviceCredentialSet) session
+							.load(DeviceCredentialSet.class, credentialSetId);
+					device.addCredentialSet(credentialSet);
+				}
+				catch (ObjectNotFoundException e) {
+					logger.error("Non existing credential set {}.", credentialSetId);
+				}
+			}
+		}
+		if (rsDevice.isAutoTryCredentials() != null) {
+			device.setAutoTryCredentials(rsDevice.isAutoTryCredentials());
+		}
+		DeviceCredentialSet rsCredentialSet = rsDevice.getSpecificCredentialSet();
+		DeviceCredentialSet credentialSet = device.getSpecificCredentialSet();
+		
+		if (rsCredentialSet == null) {
+			if (credentialSet != null) {
+				session.delete(credentialSet);
+				device.setSpecificCredentialSet(null);
+			}
+		}
+		else if (DeviceCliAccount.class.isInstance(rsCredentialSet)) {
+			if (credentialSet != null && !credentialSet.getClass().equals(rsCredentialSet.getClass())) {
+				session.delete(credentialSet);
+				credentialSet = null;
+			}
+			if (credentialSet == null) {
+				credentialSet = rsCredentialSet;
+				credentialSet.setDeviceSpecific(true);
+				credentialSet.setName(DeviceCredentialSet.generateSpecificName());
+				session.save(credentialSet);
+				device.setSpecificCredentialSet(credentialSet);
+			}
+			else {
+				DeviceCliAccount cliAccount = (DeviceCliAccount) credentialSet;
+				DeviceCliAccount rsCliAccount = (DeviceCliAccount) rsCredentialSet;
+				cliAccount.setUsername(rsCliAccount.getUsername());
+				if (!rsCliAccount.getPassword().equals("=")) {
+					cliAccount.setPassword(rsCliAccount.getPassword());
+				}
+				if (!rsCliAccount.getSuperPassword().equals("=")) {
+					cliAccount.setSuperPassword(rsCliAccount.getSuperPassword());
+				}
+				if (DeviceSshKeyAccount.class.isInstance(credentialSet)) {
+					((DeviceSshKeyAccount) cliAccount).setPublicKey(((DeviceSshKeyAccount) rsCliAccount).getPublicKey());
+					((DeviceSshKeyAccount) cliAccount).setPrivateKey(((DeviceSshKeyAccount) rsCliAccount).getPrivateKey());
+				}
+			}
+		}
+		if (rsDevice.getMgmtDomain() != null) {
+			Domain domain = (Domain) session.load(Domain.class, rsDevice.getMgmtDomain());
+			device.setMgmtDomain(domain);
+		}
+	}
+
+	/**
+	 * Sets the device.
 	 *
 	 * @param request the request
 	 * @param id the id
@@ -2647,181 +3104,769 @@ public class RestService extends Thread {
 		try {
 			session.beginTransaction();
 			device = (Device) session.load(Device.class, id);
-			if (rsDevice.isEnabled() != null) {
-				if (rsDevice.isEnabled()) {
-					device.setStatus(Status.INPRODUCTION);
+			applyDeviceChanges(session, device, rsDevice);
+			session.update(device);
+			session.getTransaction().commit();
+		}
+		catch (NetshotBadRequestException e) {
+			session.getTransaction().rollback();
+			throw e;
+		}
+		catch (UnknownHostException e) {
+			session.getTransaction().rollback();
+			logger.warn("User posted an invalid IP address.", e);
+			throw new NetshotBadRequestException("Malformed IP address",
+					NetshotBadRequestException.NETSHOT_MALFORMED_IP_ADDRESS);
+		}
+		catch (ObjectNotFoundException e) {
+			session.getTransaction().rollback();
+			logger.error("The device doesn't exist.", e);
+			throw new NetshotBadRequestException("The device doesn't exist anymore.",
+					NetshotBadRequestException.NETSHOT_INVALID_DEVICE);
+		}
+		catch (HibernateException e) {
+			session.getTransaction().rollback();
+			logger.error("Cannot edit the device.", e);
+			Throwable t = e.getCause();
+			if (t != null && t.getMessage().contains("Duplicate entry")) {
+				throw new NetshotBadRequestException(
+						"A device with this IP address already exists.",
+						NetshotBadRequestException.NETSHOT_DUPLICATE_DEVICE);
+			}
+			if (t != null && t.getMessage().contains("domain")) {
+				throw new NetshotBadRequestException("Unable to find the domain",
+						NetshotBadRequestException.NETSHOT_INVALID_DOMAIN);
+			}
+			throw new NetshotBadRequestException("Unable to save the device.",
+					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+		}
+		finally {
+			session.close();
+		}
+		DynamicDeviceGroup.refreshAllGroups(device);
+		// Read back on the primary database, the replica may not have the change yet
+		session = Database.getSession();
+		try {
+			return this.getDevice(session, id);
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * An operation of a bulk device request.
+	 */
+	@XmlRootElement(name = "operation")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsBulkDeviceOperation {
+
+		/** The action: ADD, UPDATE or DELETE. */
+		private String action = "";
+
+		/** The ID of the device to update or delete. */
+		private long id = -1;
+
+		/** The device to add (ADD). */
+		private RsNewDevice newDevice;
+
+		/** The changes to apply to the device (UPDATE). */
+		private RsDevice device;
+
+		/**
+		 * Gets the action.
+		 *
+		 * @return the action
+		 */
+		@XmlElement
+		public String getAction() {
+			return action;
+		}
+
+		/**
+		 * Sets the action.
+		 *
+		 * @param action the new action
+		 */
+		public void setAction(String action) {
+			this.action = action;
+		}
+
+		/**
+		 * Gets the ID of the device to update or delete.
+		 *
+		 * @return the ID
+		 */
+		@XmlElement
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * Sets the ID of the device to update or delete.
+		 *
+		 * @param id the new ID
+		 */
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		/**
+		 * Gets the device to add.
+		 *
+		 * @return the new device
+		 */
+		@XmlElement
+		public RsNewDevice getNewDevice() {
+			return newDevice;
+		}
+
+		/**
+		 * Sets the device to add.
+		 *
+		 * @param newDevice the new device
+		 */
+		public void setNewDevice(RsNewDevice newDevice) {
+			this.newDevice = newDevice;
+		}
+
+		/**
+		 * Gets the changes to apply to the device.
+		 *
+		 * @return the changes
+		 */
+		@XmlElement
+		public RsDevice getDevice() {
+			return device;
+		}
+
+		/**
+		 * Sets the changes to apply to the device.
+		 *
+		 * @param device the changes
+		 */
+		public void setDevice(RsDevice device) {
+			this.device = device;
+		}
+	}
+
+	/**
+	 * The result of an operation of a bulk device request.
+	 */
+	@XmlRootElement(name = "result")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsBulkDeviceResult {
+
+		/** The position of the operation in the request. */
+		private int index;
+
+		/** The action. */
+		private String action;
+
+		/** Whether the operation succeeded. */
+		private boolean success = false;
+
+		/** The device ID (unknown for an added device to be discovered). */
+		private long deviceId = -1;
+
+		/** The ID of the task created by the operation. */
+		private long taskId = -1;
+
+		/** The error. */
+		private RsErrorBean error;
+
+		/**
+		 * Gets the position of the operation in the request.
+		 *
+		 * @return the index
+		 */
+		@XmlElement
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the action.
+		 *
+		 * @return the action
+		 */
+		@XmlElement
+		public String getAction() {
+			return action;
+		}
+
+		/**
+		 * Checks whether the operation succeeded.
+		 *
+		 * @return true if successful
+		 */
+		@XmlElement
+		public boolean isSuccess() {
+			return success;
+		}
+
+		/**
+		 * Gets the device ID.
+		 *
+		 * @return the device ID
+		 */
+		@XmlElement
+		public long getDeviceId() {
+			return deviceId;
+		}
+
+		/**
+		 * Gets the ID of the created task.
+		 *
+		 * @return the task ID
+		 */
+		@XmlElement
+		public long getTaskId() {
+			return taskId;
+		}
+
+		/**
+		 * Gets the error.
+		 *
+		 * @return the error, null if successful
+		 */
+		@XmlElement
+		public RsErrorBean getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * An operation of a bulk device request, being processed.
+	 */
+	private static class BulkDeviceItem {
+
+		/** The position in the request. */
+		private int index;
+
+		/** The operation. */
+		private RsBulkDeviceOperation operation;
+
+		/** The checked parameters (ADD). */
+		private NewDeviceParams params;
+
+		/** The error. */
+		private RsErrorBean error;
+
+		/** The added, changed or deleted device. */
+		private Device device;
+
+		/** The created task. */
+		private Task task;
+
+		private BulkDeviceItem(int index, RsBulkDeviceOperation operation) {
+			this.index = index;
+			this.operation = operation;
+		}
+
+		private void fail(String message, int code) {
+			this.error = new RsErrorBean(message, code);
+		}
+
+		private RsBulkDeviceResult toResult() {
+			RsBulkDeviceResult result = new RsBulkDeviceResult();
+			result.index = index;
+			result.action = operation == null ? null : operation.getAction();
+			result.error = error;
+			result.success = (error == null);
+			if (error == null) {
+				if (device != null) {
+					result.deviceId = device.getId();
 				}
-				else {
-					device.setStatus(Status.DISABLED);
+				if (task != null) {
+					result.taskId = task.getId();
 				}
 			}
+			return result;
+		}
+	}
+
+	/**
+	 * Checks the changes to apply to a device (without database access).
+	 *
+	 * @param rsDevice the changes
+	 * @throws NetshotBadRequestException if a change is invalid
+	 */
+	private static void checkDeviceChanges(RsDevice rsDevice) throws NetshotBadRequestException {
+		try {
 			if (rsDevice.getIpAddress() != null) {
-				Network4Address v4Address = new Network4Address(rsDevice.getIpAddress());
-				if (!v4Address.isNormalUnicast()) {
-					session.getTransaction().rollback();
+				if (!(new Network4Address(rsDevice.getIpAddress())).isNormalUnicast()) {
 					throw new NetshotBadRequestException("Invalid IP address",
 							NetshotBadRequestException.NETSHOT_INVALID_IP_ADDRESS);
 				}
-				device.setMgmtAddress(v4Address);
 			}
-			if (rsDevice.getConnectIpAddress() != null) {
-				if ("".equals(rsDevice.getConnectIpAddress())) {
-					device.setConnectAddress(null);
+			if (rsDevice.getConnectIpAddress() != null && !"".equals(rsDevice.getConnectIpAddress())) {
+				Network4Address v4ConnectAddress = new Network4Address(rsDevice.getConnectIpAddress());
+				if (!v4ConnectAddress.isNormalUnicast() && !v4ConnectAddress.isLoopback()) {
+					throw new NetshotBadRequestException("Invalid Connect IP address",
+							NetshotBadRequestException.NETSHOT_INVALID_IP_ADDRESS);
+				}
+			}
+		}
+		catch (UnknownHostException e) {
+			throw new NetshotBadRequestException("Malformed IP address",
+					NetshotBadRequestException.NETSHOT_MALFORMED_IP_ADDRESS);
+		}
+		String[][] ports = { { rsDevice.getSshPort(), "SSH" }, { rsDevice.getTelnetPort(), "Telnet" } };
+		for (String[] port : ports) {
+			if (port[0] != null && !"".equals(port[0])) {
+				try {
+					int value = Integer.parseInt(port[0]);
+					if (value < 1 || value > 65535) {
+						throw new Exception();
+					}
+				}
+				catch (Exception e) {
+					throw new NetshotBadRequestException(String.format("Invalid %s port", port[1]),
+							NetshotBadRequestException.NETSHOT_INVALID_PORT);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks an operation of a bulk device request (without database access).
+	 *
+	 * @param item the operation
+	 */
+	private static void checkBulkDeviceItem(BulkDeviceItem item) {
+		RsBulkDeviceOperation operation = item.operation;
+		try {
+			if (operation == null) {
+				throw new NetshotBadRequestException("Empty operation.",
+						NetshotBadRequestException.NETSHOT_INVALID_BULK_OPERATION);
+			}
+			if ("ADD".equals(operation.getAction())) {
+				if (operation.getNewDevice() == null) {
+					throw new NetshotBadRequestException("Missing device to add.",
+							NetshotBadRequestException.NETSHOT_INVALID_BULK_OPERATION);
+				}
+				item.params = parseNewDevice(operation.getNewDevice());
+			}
+			else if ("UPDATE".equals(operation.getAction())) {
+				if (operation.getId() <= 0 || operation.getDevice() == null) {
+					throw new NetshotBadRequestException("Missing device ID or changes.",
+							NetshotBadRequestException.NETSHOT_INVALID_BULK_OPERATION);
+				}
+				checkDeviceChanges(operation.getDevice());
+			}
+			else if ("DELETE".equals(operation.getAction())) {
+				if (operation.getId() <= 0) {
+					throw new NetshotBadRequestException("Missing device ID.",
+							NetshotBadRequestException.NETSHOT_INVALID_BULK_OPERATION);
+				}
+			}
+			else {
+				throw new NetshotBadRequestException("Invalid action (ADD, UPDATE or DELETE expected).",
+						NetshotBadRequestException.NETSHOT_INVALID_BULK_OPERATION);
+			}
+		}
+		catch (NetshotBadRequestException e) {
+			item.error = (RsErrorBean) e.getResponse().getEntity();
+		}
+	}
+
+	/**
+	 * Persists the operations of a bulk device request, chunk by chunk.
+	 */
+	private static class BulkDeviceWriter {
+
+		/** The user name. */
+		private String userName;
+
+		/** The domains, per ID. */
+		private Map<Long, Domain> domains = new HashMap<Long, Domain>();
+
+		/** The shared SNMP communities, with the ID of their domain (null for any). */
+		private List<Object[]> communities;
+
+		/** The management addresses of the devices added so far. */
+		private Set<Integer> addedAddresses = new HashSet<Integer>();
+
+		/** The IDs of the devices added or changed so far. */
+		private Set<Long> changedDeviceIds = new HashSet<Long>();
+
+		/**
+		 * Reads the reference data (domains and communities).
+		 *
+		 * @param userName the name of the user
+		 * @throws HibernateException in case of database error
+		 */
+		@SuppressWarnings("unchecked")
+		private BulkDeviceWriter(String userName) throws HibernateException {
+			this.userName = userName;
+			Session session = Database.getSession();
+			try {
+				for (Domain domain : (List<Domain>) session.createQuery("from Domain").list()) {
+					domains.put(domain.getId(), domain);
+				}
+				communities = session
+					.createQuery("select c, md.id from DeviceSnmpCommunity c left join c.mgmtDomain md "
+							+ "where not (c.deviceSpecific = :true)")
+					.setBoolean("true", true)
+					.list();
+			}
+			finally {
+				session.close();
+			}
+		}
+
+		/**
+		 * Persists a chunk of operations within one transaction. If the
+		 * transaction fails, the operations are retried one by one, so that one
+		 * faulty operation doesn't fail the others.
+		 *
+		 * @param chunk the operations
+		 */
+		private void write(List<BulkDeviceItem> chunk) {
+			List<BulkDeviceItem> pending = new ArrayList<BulkDeviceItem>();
+			for (BulkDeviceItem item : chunk) {
+				if (item.error == null) {
+					pending.add(item);
+				}
+			}
+			if (pending.isEmpty()) {
+				return;
+			}
+			try {
+				this.attempt(pending);
+			}
+			catch (HibernateException e) {
+				if (pending.size() > 1) {
+					logger.warn("Error while persisting {} bulk device operations, retrying one by one.",
+							pending.size(), e);
+					for (BulkDeviceItem item : pending) {
+						this.write(Collections.singletonList(item));
+					}
 				}
 				else {
-					Network4Address v4ConnectAddress = new Network4Address(rsDevice.getConnectIpAddress());
-					if (!v4ConnectAddress.isNormalUnicast() && !v4ConnectAddress.isLoopback()) {
-						session.getTransaction().rollback();
-						throw new NetshotBadRequestException("Invalid Connect IP address",
-								NetshotBadRequestException.NETSHOT_INVALID_IP_ADDRESS);
+					logger.error("Error while persisting the bulk device operation {}.", pending.get(0).index, e);
+					Throwable t = e.getCause();
+					if (t != null && t.getMessage() != null && t.getMessage().contains("Duplicate entry")) {
+						pending.get(0).fail("A device with this IP address already exists.",
+								NetshotBadRequestException.NETSHOT_DUPLICATE_DEVICE);
+					}
+					else if (t != null && t.getMessage() != null && t.getMessage().contains("foreign key constraint fails")) {
+						pending.get(0).fail("Unable to delete the device, there must be other objects using it.",
+								NetshotBadRequestException.NETSHOT_USED_DEVICE);
+					}
+					else {
+						pending.get(0).fail("Database error",
+								NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
 					}
-					device.setConnectAddress(v4ConnectAddress);
 				}
 			}
-			if (rsDevice.getSshPort() != null) {
-				if ("".equals(rsDevice.getSshPort())) {
-					device.setSshPort(0);
+		}
+
+		/**
+		 * Persists operations within one transaction.
+		 *
+		 * @param pending the operations
+		 * @throws HibernateException in case of database error (nothing is persisted)
+		 */
+		@SuppressWarnings("unchecked")
+		private void attempt(List<BulkDeviceItem> pending) throws HibernateException {
+			Set<Long> ids = new HashSet<Long>();
+			Set<Integer> addresses = new HashSet<Integer>();
+			for (BulkDeviceItem item : pending) {
+				item.device = null;
+				item.task = null;
+				if (item.params != null) {
+					addresses.add(item.params.deviceAddress.getIntAddress());
 				}
 				else {
-					try {
-						int port = Integer.parseInt(rsDevice.getSshPort());
-						if (port < 1 || port > 65535) {
-							throw new Exception();
+					ids.add(item.operation.getId());
+				}
+			}
+			Session session = Database.getSession();
+			try {
+				session.beginTransaction();
+				// The existing devices and addresses of the chunk, read at once
+				Map<Long, Device> devices = new HashMap<Long, Device>();
+				if (ids.size() > 0) {
+					for (Device device : (List<Device>) session
+							.createQuery("from Device d where d.id in (:ids)")
+							.setParameterList("ids", ids)
+							.list()) {
+						devices.put(device.getId(), device);
+					}
+				}
+				Set<Integer> usedAddresses = new HashSet<Integer>(addedAddresses);
+				if (addresses.size() > 0) {
+					usedAddresses.addAll((List<Integer>) session
+						.createQuery("select d.mgmtAddress.address from Device d where d.mgmtAddress.address in (:addresses)")
+						.setParameterList("addresses", addresses)
+						.list());
+				}
+
+				for (BulkDeviceItem item : pending) {
+					RsBulkDeviceOperation operation = item.operation;
+					if (item.params != null) {
+						RsNewDevice newDevice = operation.getNewDevice();
+						Network4Address deviceAddress = item.params.deviceAddress;
+						if (!usedAddresses.add(deviceAddress.getIntAddress())) {
+							item.fail("A device already exists with this IP address.",
+									NetshotBadRequestException.NETSHOT_DUPLICATE_DEVICE);
+							continue;
+						}
+						Domain domain = domains.get(newDevice.getDomainId());
+						if (domain == null) {
+							item.fail("Invalid domain", NetshotBadRequestException.NETSHOT_INVALID_DOMAIN);
+							continue;
+						}
+						if (newDevice.isAutoDiscover()) {
+							DiscoverDeviceTypeTask task = new DiscoverDeviceTypeTask(deviceAddress, domain,
+									String.format("Device added by %s", userName), userName);
+							task.setComments(String.format("Autodiscover device %s", deviceAddress.getIp()));
+							for (Object[] community : communities) {
+								if (community[1] == null || domain.getId() == (Long) community[1]) {
+									task.addCredentialSet((DeviceCredentialSet) community[0]);
+								}
+							}
+							if (task.getCredentialSets().size() == 0) {
+								item.fail("There is no known SNMP community in the database to poll the device.",
+										NetshotBadRequestException.NETSHOT_CREDENTIALS_NOTFOUND);
+								continue;
+							}
+							TaskManager.prepareTask(task);
+							session.save(task);
+							item.task = task;
+						}
+						else {
+							Device device = new Device(item.params.driver.getName(), deviceAddress, domain, userName);
+							if (item.params.connectAddress != null) {
+								device.setConnectAddress(item.params.connectAddress);
+							}
+							if (item.params.sshPort != null) {
+								device.setSshPort(item.params.sshPort);
+							}
+							if (item.params.telnetPort != null) {
+								device.setTelnetPort(item.params.telnetPort);
+							}
+							DeviceCredentialSet credentialSet = newDevice.getSpecificCredentialSet();
+							if (credentialSet != null && credentialSet instanceof DeviceCliAccount) {
+								// Might have been given an ID by a failed attempt
+								credentialSet.setId(0);
+								credentialSet.setName(DeviceCredentialSet.generateSpecificName());
+								credentialSet.setDeviceSpecific(true);
+								session.save(credentialSet);
+								device.setSpecificCredentialSet(credentialSet);
+								device.setAutoTryCredentials(false);
+							}
+							session.save(device);
+							TakeSnapshotTask task = new TakeSnapshotTask(device, "Initial snapshot after device creation",
+									userName, true, false, false);
+							TaskManager.prepareTask(task);
+							session.save(task);
+							item.device = device;
+							item.task = task;
 						}
-						device.setSshPort(port);
 					}
-					catch (Exception e) {
-						session.getTransaction().rollback();
-						throw new NetshotBadRequestException("Invalid SSH port",
-								NetshotBadRequestException.NETSHOT_INVALID_PORT);
+					else {
+						Device device = devices.get(operation.getId());
+						if (device == null) {
+							item.fail("The device doesn't exist.", NetshotBadRequestException.NETSHOT_INVALID_DEVICE);
+							continue;
+						}
+						if ("UPDATE".equals(operation.getAction())) {
+							RsDevice rsDevice = operation.getDevice();
+							if (rsDevice.getMgmtDomain() != null && !domains.containsKey(rsDevice.getMgmtDomain())) {
+								item.fail("Unable to find the domain", NetshotBadRequestException.NETSHOT_INVALID_DOMAIN);
+								continue;
+							}
+							try {
+								applyDeviceChanges(session, device, rsDevice);
+							}
+							catch (NetshotBadRequestException e) {
+								// Forget the changes already applied to this device
+								session.evict(device);
+								item.error = (RsErrorBean) e.getResponse().getEntity();
+								continue;
+							}
+							catch (UnknownHostException e) {
+								session.evict(device);
+								item.fail("Malformed IP address", NetshotBadRequestException.NETSHOT_MALFORMED_IP_ADDRESS);
+								continue;
+							}
+							session.update(device);
+						}
+						else {
+							for (DeviceGroup group : device.getOwnerGroups()) {
+								group.deleteCachedDevice(device);
+							}
+							CheckResultChange.recordDeviceRemoval(session, device.getId());
+							session.delete(device);
+						}
+						item.device = device;
 					}
 				}
+				session.getTransaction().commit();
 			}
-			if (rsDevice.getTelnetPort() != null) {
-				if ("".equals(rsDevice.getTelnetPort())) {
-					device.setTelnetPort(0);
+			catch (HibernateException e) {
+				session.getTransaction().rollback();
+				throw e;
+			}
+			finally {
+				session.close();
+			}
+
+			// Once committed
+			for (BulkDeviceItem item : pending) {
+				if (item.error != null) {
+					continue;
 				}
-				else {
+				if ("DELETE".equals(item.operation.getAction())) {
+					NetworkAddressIndex.removeDevice(item.device.getId());
+					ReportAggregates.removeDevice(item.device.getId());
+					changedDeviceIds.remove(item.device.getId());
+				}
+				else if (item.device != null) {
+					changedDeviceIds.add(item.device.getId());
+				}
+				if (item.params != null) {
+					addedAddresses.add(item.params.deviceAddress.getIntAddress());
+				}
+				if (item.task != null) {
 					try {
-						int port = Integer.parseInt(rsDevice.getTelnetPort());
-						if (port < 1 || port > 65535) {
-							throw new Exception();
-						}
-						device.setTelnetPort(port);
+						TaskManager.scheduleTask(item.task);
 					}
-					catch (Exception e) {
-						session.getTransaction().rollback();
-						throw new NetshotBadRequestException("Invalid Telnet port",
-								NetshotBadRequestException.NETSHOT_INVALID_PORT);
+					catch (SchedulerException e) {
+						logger.error("Unable to schedule the task {}.", item.task.getId(), e);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Refreshes the groups after all the operations were persisted.
+		 */
+		private void finish() {
+			if (changedDeviceIds.size() > 0) {
+				DynamicDeviceGroup.refreshAllGroups(changedDeviceIds);
+			}
+		}
+	}
+
+	/**
+	 * Adds, updates or deletes devices in bulk.
+	 * The operations are first checked in parallel, then persisted by chunks
+	 * (one transaction per chunk). The result of each operation is streamed
+	 * back (JSON array, in the order of the request) as soon as its chunk is
+	 * committed. The dynamic groups are refreshed once at the end.
+	 * All the operations are processed, even if the client disconnects meanwhile.
+	 *
+	 * @param request the request
+	 * @param operations the operations
+	 * @return the results
+	 * @throws WebApplicationException the web application exception
+	 */
+	@POST
+	@Path("devices/bulk")
+	@RolesAllowed("readwrite")
+	@Consumes({ MediaType.APPLICATION_JSON })
+	@Produces({ MediaType.APPLICATION_JSON })
+	public Response bulkDevices(@Context HttpServletRequest request, List<RsBulkDeviceOperation> operations)
+			throws WebApplicationException {
+		logger.debug("REST request, bulk device operations.");
+		User user = (User) request.getSession().getAttribute("user");
+		final List<BulkDeviceItem> items = new ArrayList<BulkDeviceItem>();
+		if (operations != null) {
+			for (RsBulkDeviceOperation operation : operations) {
+				items.add(new BulkDeviceItem(items.size(), operation));
+			}
+		}
+		logger.trace("{} bulk device operations to process.", items.size());
+
+		// Check the operations in parallel
+		List<Future<?>> checks = new ArrayList<Future<?>>();
+		for (int start = 0; start < items.size(); start += BULK_CHECK_SLICE) {
+			final List<BulkDeviceItem> slice = items.subList(start, Math.min(start + BULK_CHECK_SLICE, items.size()));
+			checks.add(ForkJoinPool.commonPool().submit(new Runnable() {
+				@Override
+				public void run() {
+					for (BulkDeviceItem item : slice) {
+						checkBulkDeviceItem(item);
 					}
 				}
+			}));
+		}
+		for (Future<?> check : checks) {
+			try {
+				check.get();
 			}
-			if (rsDevice.getComments() != null) {
-				device.setComments(rsDevice.getComments());
+			catch (InterruptedException | ExecutionException e) {
+				logger.error("Error while checking the bulk device operations.", e);
+				throw new NetshotBadRequestException("Unable to check the operations.",
+						NetshotBadRequestException.NETSHOT_INVALID_BULK_OPERATION);
 			}
-			if (rsDevice.getCredentialSetIds() != null) {
-				if (rsDevice.getClearCredentialSetIds() == null) {
-					device.clearCredentialSets();
+		}
+
+		final BulkDeviceWriter writer;
+		try {
+			writer = new BulkDeviceWriter(user.getUsername());
+		}
+		catch (HibernateException e) {
+			logger.error("Unable to read the domains and communities.", e);
+			throw new NetshotBadRequestException("Database error",
+					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+		}
+
+		StreamingOutput stream = new StreamingOutput() {
+			@Override
+			public void write(OutputStream output) throws IOException, WebApplicationException {
+				JsonGenerator generator = getStreamMapper().getFactory().createGenerator(output);
+				// Once accepted, the operations are all persisted, even if the client goes away
+				IOException clientError = null;
+				try {
+					generator.writeStartArray();
 				}
-				else {
-					Iterator<DeviceCredentialSet> csIterator = device.getCredentialSets().iterator();
-					while (csIterator.hasNext()) {
-						if (rsDevice.getClearCredentialSetIds().contains(csIterator.next().getId())) {
-							csIterator.remove();
-						}
-					}
+				catch (IOException e) {
+					clientError = e;
 				}
-				for (Long credentialSetId : rsDevice.getCredentialSetIds()) {
-					try {
-						DeviceCredentialSet credentialSet = (DeviceCredentialSet) session
-								.load(DeviceCredentialSet.class, credentialSetId);
-						device.addCredentialSet(credentialSet);
-					}
-					catch (ObjectNotFoundException e) {
-						logger.error("Non existing credential set {}.", credentialSetId);
+				try {
+					for (int start = 0; start < items.size(); start += BULK_CHUNK_SIZE) {
+						List<BulkDeviceItem> chunk = items.subList(start, Math.min(start + BULK_CHUNK_SIZE, items.size()));
+						writer.write(chunk);
+						for (BulkDeviceItem item : chunk) {
+							if (clientError == null) {
+								try {
+									generator.writeObject(item.toResult());
+								}
+								catch (IOException e) {
+									clientError = e;
+								}
+							}
+							// Release the entities
+							item.device = null;
+							item.task = null;
+						}
+						if (clientError == null) {
+							try {
+								generator.flush();
+							}
+							catch (IOException e) {
+								clientError = e;
+							}
+						}
 					}
 				}
-			}
-			if (rsDevice.isAutoTryCredentials() != null) {
-				device.setAutoTryCredentials(rsDevice.isAutoTryCredentials());
-			}
-			DeviceCredentialSet rsCredentialSet = rsDevice.getSpecificCredentialSet();
-			DeviceCredentialSet credentialSet = device.getSpecificCredentialSet();
-			
-			if (rsCredentialSet == null) {
-				if (credentialSet != null) {
-					session.delete(credentialSet);
-					device.setSpecificCredentialSet(null);
-				}
-			}
-			else if (DeviceCliAccount.class.isInstance(rsCredentialSet)) {
-				if (credentialSet != null && !credentialSet.getClass().equals(rsCredentialSet.getClass())) {
-					session.delete(credentialSet);
-					credentialSet = null;
-				}
-				if (credentialSet == null) {
-					credentialSet = rsCredentialSet;
-					credentialSet.setDeviceSpecific(true);
-					credentialSet.setName(DeviceCredentialSet.generateSpecificName());
-					session.save(credentialSet);
-					device.setSpecificCredentialSet(credentialSet);
+				finally {
+					writer.finish();
 				}
-				else {
-					DeviceCliAccount cliAccount = (DeviceCliAccount) credentialSet;
-					DeviceCliAccount rsCliAccount = (DeviceCliAccount) rsCredentialSet;
-					cliAccount.setUsername(rsCliAccount.getUsername());
-					if (!rsCliAccount.getPassword().equals("=")) {
-						cliAccount.setPassword(rsCliAccount.getPassword());
-					}
-					if (!rsCliAccount.getSuperPassword().equals("=")) {
-						cliAccount.setSuperPassword(rsCliAccount.getSuperPassword());
-					}
-					if (DeviceSshKeyAccount.class.isInstance(credentialSet)) {
-						((DeviceSshKeyAccount) cliAccount).setPublicKey(((DeviceSshKeyAccount) rsCliAccount).getPublicKey());
-						((DeviceSshKeyAccount) cliAccount).setPrivateKey(((DeviceSshKeyAccount) rsCliAccount).getPrivateKey());
-					}
+				if (clientError != null) {
+					logger.warn("The client of the bulk device request went away, the operations were all processed anyway.");
+					throw clientError;
 				}
+				generator.writeEndArray();
+				generator.close();
 			}
-			if (rsDevice.getMgmtDomain() != null) {
-				Domain domain = (Domain) session.load(Domain.class, rsDevice.getMgmtDomain());
-				device.setMgmtDomain(domain);
-			}
-			session.update(device);
-			session.getTransaction().commit();
-		}
-		catch (UnknownHostException e) {
-			session.getTransaction().rollback();
-			logger.warn("User posted an invalid IP address.", e);
-			throw new NetshotBadRequestException("Malformed IP address",
-					NetshotBadRequestException.NETSHOT_MALFORMED_IP_ADDRESS);
-		}
-		catch (ObjectNotFoundException e) {
-			session.getTransaction().rollback();
-			logger.error("The device doesn't exist.", e);
-			throw new NetshotBadRequestException("The device doesn't exist anymore.",
-					NetshotBadRequestException.NETSHOT_INVALID_DEVICE);
-		}
-		catch (HibernateException e) {
-			session.getTransaction().rollback();
-			logger.error("Cannot edit the device.", e);
-			Throwable t = e.getCause();
-			if (t != null && t.getMessage().contains("Duplicate entry")) {
-				throw new NetshotBadRequestException(
-						"A device with this IP address already exists.",
-						NetshotBadRequestException.NETSHOT_DUPLICATE_DEVICE);
-			}
-			if (t != null && t.getMessage().contains("domain")) {
-				throw new NetshotBadRequestException("Unable to find the domain",
-						NetshotBadRequestException.NETSHOT_INVALID_DOMAIN);
-			}
-			throw new NetshotBadRequestException("Unable to save the device.",
-					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
-		}
-		finally {
-			session.close();
-		}
-		DynamicDeviceGroup.refreshAllGroups(device);
-		return this.getDevice(id);
+		};
+		return Response.ok(stream, MediaType.APPLICATION_JSON_TYPE).build();
 	}
 
 	/**
@@ -2900,6 +3945,375 @@ public class RestService extends Thread {
 		}
 	}
 
+	/**
+	 * A task, as listed: the task columns only, without the log (which is read
+	 * through the tasks/{id}/log resource).
+	 */
+	@XmlRootElement(name = "task")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsLightTask {
+
+		/** The HQL columns to select (from Task t) to build the light tasks. */
+		private static final String COLUMNS = "t.id, t.class, t.status, t.target, t.author, t.comments, "
+				+ "t.creationDate, t.changeDate, t.executionDate, t.scheduleReference, t.scheduleType";
+
+		/** The id. */
+		private long id;
+
+		/** The type, as given for the full task objects. */
+		private String type;
+
+		/** The task description. */
+		private String taskDescription;
+
+		/** The status. */
+		private Task.Status status;
+
+		/** The target. */
+		private String target;
+
+		/** The author. */
+		private String author;
+
+		/** The comments. */
+		private String comments;
+
+		/** The creation date. */
+		private Date creationDate;
+
+		/** The change date. */
+		private Date changeDate;
+
+		/** The execution date. */
+		private Date executionDate;
+
+		/** The schedule reference. */
+		private Date scheduleReference;
+
+		/** The schedule type. */
+		private Task.ScheduleType scheduleType;
+
+		/**
+		 * Builds a light task from a row of a query selecting the COLUMNS.
+		 *
+		 * @param row the row
+		 */
+		@SuppressWarnings("unchecked")
+		private RsLightTask(Object[] row) {
+			this.id = (Long) row[0];
+			Class<? extends Task> taskClass = Task.class;
+			if (row[1] instanceof Class) {
+				taskClass = (Class<? extends Task>) row[1];
+			}
+			else if (row[1] != null) {
+				// Entity name
+				try {
+					taskClass = (Class<? extends Task>) Class.forName(row[1].toString());
+				}
+				catch (ClassNotFoundException e) {
+					logger.warn("Unknown task class {}.", row[1]);
+				}
+			}
+			String basePackage = Task.class.getPackage().getName();
+			this.type = taskClass.getName().startsWith(basePackage + ".") ?
+					taskClass.getName().substring(basePackage.length()) : taskClass.getName();
+			this.taskDescription = Task.getTaskDescription(taskClass);
+			this.status = (Task.Status) row[2];
+			this.target = (String) row[3];
+			this.author = (String) row[4];
+			this.comments = (String) row[5];
+			this.creationDate = (Date) row[6];
+			this.changeDate = (Date) row[7];
+			this.executionDate = (Date) row[8];
+			this.scheduleReference = (Date) row[9];
+			this.scheduleType = (Task.ScheduleType) row[10];
+		}
+
+		/**
+		 * Lists light tasks.
+		 *
+		 * @param query the query, selecting the COLUMNS
+		 * @return the light tasks
+		 */
+		private static List<RsLightTask> list(Query query) {
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = query.list();
+			List<RsLightTask> tasks = new ArrayList<RsLightTask>(rows.size());
+			for (Object[] row : rows) {
+				tasks.add(new RsLightTask(row));
+			}
+			return tasks;
+		}
+
+		/**
+		 * Gets the id.
+		 *
+		 * @return the id
+		 */
+		@XmlElement
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * Gets the type.
+		 *
+		 * @return the type
+		 */
+		@XmlElement
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * Gets the task description.
+		 *
+		 * @return the task description
+		 */
+		@XmlElement
+		public String getTaskDescription() {
+			return taskDescription;
+		}
+
+		/**
+		 * Gets the status.
+		 *
+		 * @return the status
+		 */
+		@XmlElement
+		public Task.Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * Gets the target.
+		 *
+		 * @return the target
+		 */
+		@XmlElement
+		public String getTarget() {
+			return target;
+		}
+
+		/**
+		 * Gets the author.
+		 *
+		 * @return the author
+		 */
+		@XmlElement
+		public String getAuthor() {
+			return author;
+		}
+
+		/**
+		 * Gets the comments.
+		 *
+		 * @return the comments
+		 */
+		@XmlElement
+		public String getComments() {
+			return comments;
+		}
+
+		/**
+		 * Gets the creation date.
+		 *
+		 * @return the creation date
+		 */
+		@XmlElement
+		public Date getCreationDate() {
+			return creationDate;
+		}
+
+		/**
+		 * Gets the change date.
+		 *
+		 * @return the change date
+		 */
+		@XmlElement
+		public Date getChangeDate() {
+			return changeDate;
+		}
+
+		/**
+		 * Gets the execution date.
+		 *
+		 * @return the execution date
+		 */
+		@XmlElement
+		public Date getExecutionDate() {
+			return executionDate;
+		}
+
+		/**
+		 * Gets the schedule reference.
+		 *
+		 * @return the schedule reference
+		 */
+		@XmlElement
+		public Date getScheduleReference() {
+			return scheduleReference;
+		}
+
+		/**
+		 * Gets the schedule type.
+		 *
+		 * @return the schedule type
+		 */
+		@XmlElement
+		public Task.ScheduleType getScheduleType() {
+			return scheduleType;
+		}
+
+		/**
+		 * Gets the next execution date.
+		 *
+		 * @return the next execution date
+		 */
+		@XmlElement
+		public Date getNextExecutionDate() {
+			return Task.getNextExecutionDate(scheduleType, scheduleReference);
+		}
+
+		/**
+		 * Checks if is repeating.
+		 *
+		 * @return true, if is repeating
+		 */
+		@XmlElement
+		public boolean isRepeating() {
+			return Task.isRepeating(scheduleType);
+		}
+	}
+
+	/**
+	 * Gets the log of a task, or a part of it.
+	 * The full log size (in characters) is given in the X-Netshot-Log-Size header,
+	 * so that the client can read the log by ranges, or follow the log of a running
+	 * task by only reading what was added since the last call (offset = last size).
+	 *
+	 * @param id the id
+	 * @param offset the offset of the first character to read (default 0)
+	 * @param length the maximum number of characters to read (optional)
+	 * @return the log text
+	 * @throws WebApplicationException the web application exception
+	 */
+	@GET
+	@Path("tasks/{id}/log")
+	@RolesAllowed("readonly")
+	@Produces({ MediaType.TEXT_PLAIN })
+	public Response getTaskLog(@PathParam("id") Long id, @DefaultValue("0") @QueryParam("offset") int offset,
+			@QueryParam("length") Integer length) throws WebApplicationException {
+		logger.debug("REST request, get task {} log.", id);
+		if (offset < 0 || (length != null && length < 0)) {
+			throw new NetshotBadRequestException("Invalid offset or length",
+					NetshotBadRequestException.NETSHOT_INVALID_PAGE);
+		}
+		Session session = Database.getSession();
+		try {
+			TaskLogStore.LogPart part = TaskLogStore.read(session, id, offset, length);
+			if (part != null) {
+				return Response.ok(part.getText())
+						.header(LOG_SIZE_HEADER, part.getSize())
+						.build();
+			}
+			// Log of a task run by a previous version (in the task table)
+			// Only the requested part of the log is read from the database
+			Object[] row = (Object[]) session
+				.createQuery("select length(t.log), substring(t.log, :start, :length) from Task t where t.id = :id")
+				.setInteger("start", offset + 1)
+				.setInteger("length", length == null ? Integer.MAX_VALUE - offset : length)
+				.setLong("id", id)
+				.uniqueResult();
+			if (row == null) {
+				throw new NetshotBadRequestException("Task not found",
+						NetshotBadRequestException.NETSHOT_INVALID_TASK);
+			}
+			long size = row[0] == null ? 0 : ((Number) row[0]).longValue();
+			String text = row[1] == null ? "" : row[1].toString();
+			return Response.ok(text)
+					.header(LOG_SIZE_HEADER, size)
+					.build();
+		}
+		catch (HibernateException | IOException e) {
+			logger.error("Unable to fetch the log of task {}.", id, e);
+			throw new NetshotBadRequestException("Unable to fetch the task log",
+					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Subscribes to the server events, as a Server-Sent Events stream: task status
+	 * changes, task log lines, snapshots and compliance updates.
+	 * The events only carry IDs (and the new log lines), the client is expected
+	 * to read the actual data through the other resources.
+	 *
+	 * @param sink the event sink
+	 * @param sse the SSE context
+	 * @param types the comma separated types of event to receive (optional, all by default)
+	 * @param taskId only receive the events of this task (optional)
+	 * @param deviceId only receive the events of this device (optional)
+	 * @throws WebApplicationException the web application exception
+	 */
+	@GET
+	@Path("events")
+	@RolesAllowed("readonly")
+	@Produces(MediaType.SERVER_SENT_EVENTS)
+	public void getEvents(@Context final SseEventSink sink, @Context final Sse sse,
+			@QueryParam("types") String types, @QueryParam("task") Long taskId,
+			@QueryParam("device") Long deviceId) throws WebApplicationException {
+		logger.debug("REST request, subscribe to the events.");
+		Set<EventBus.Type> eventTypes = new HashSet<EventBus.Type>();
+		if (types != null) {
+			for (String type : types.split(",")) {
+				if (type.trim().isEmpty()) {
+					continue;
+				}
+				try {
+					eventTypes.add(EventBus.Type.valueOf(type.trim()));
+				}
+				catch (IllegalArgumentException e) {
+					throw new NetshotBadRequestException(String.format("Invalid event type '%s'", type.trim()),
+							NetshotBadRequestException.NETSHOT_INVALID_EVENT_TYPE);
+				}
+			}
+		}
+		EventBus.subscribe(new EventBus.Subscriber(eventTypes, taskId, deviceId) {
+			@Override
+			protected CompletionStage<?> send(EventBus.Event event) throws Exception {
+				if (sink.isClosed()) {
+					throw new IllegalStateException("The event stream is closed.");
+				}
+				OutboundSseEvent.Builder builder = sse.newEventBuilder();
+				if (event.getType() == EventBus.Type.HEARTBEAT) {
+					builder.comment("heartbeat");
+				}
+				else {
+					builder
+						.name(event.getType().toString())
+						.id(Long.toString(event.getId()))
+						.mediaType(MediaType.APPLICATION_JSON_TYPE)
+						.data(EventBus.Event.class, event);
+				}
+				// A client which doesn't read its events is dropped (by the event bus)
+				return sink.send(builder.build());
+			}
+
+			@Override
+			protected void onClose() {
+				try {
+					sink.close();
+				}
+				catch (Exception e) {
+					logger.debug("Error while closing the event stream.", e);
+				}
+			}
+		});
+	}
+
 	/**
 	 * Gets the tasks.
 	 *
@@ -2910,15 +4324,12 @@ public class RestService extends Thread {
 	@Path("tasks")
 	@RolesAllowed("readonly")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public List<Task> getTasks() {
+	public List<RsLightTask> getTasks() {
 		logger.debug("REST request, get tasks.");
 		Session session = Database.getSession();
 		try {
-			@SuppressWarnings("unchecked")
-			List<Task> tasks = session
-				.createQuery("from Task t order by t.id desc")
-				.list();
-			return tasks;
+			return RsLightTask.list(session
+				.createQuery("select " + RsLightTask.COLUMNS + " from Task t order by t.id desc"));
 		}
 		catch (HibernateException e) {
 			logger.error("Unable to fetch the tasks.", e);
@@ -2951,6 +4362,7 @@ public class RestService extends Thread {
 			credentialSets = session
 					.createQuery("select cs from DeviceCredentialSet cs where not (cs.deviceSpecific = :true)")
 					.setBoolean("true", true)
+					.setCacheable(true)
 					.list();
 		}
 		catch (HibernateException e) {
@@ -3231,6 +4643,9 @@ public class RestService extends Thread {
 		/** The devices. */
 		private List<RsLightDevice> devices;
 
+		/** The cursor of the next page, if paginated. */
+		private String nextCursor;
+
 		/**
 		 * Gets the query.
 		 *
@@ -3268,13 +4683,36 @@ public class RestService extends Thread {
 		public void setDevices(List<RsLightDevice> devices) {
 			this.devices = devices;
 		}
+
+		/**
+		 * Gets the cursor of the next page.
+		 *
+		 * @return the cursor of the next page, null if this is the last one
+		 */
+		@XmlElement
+		public String getNextCursor() {
+			return nextCursor;
+		}
+
+		/**
+		 * Sets the cursor of the next page.
+		 *
+		 * @param nextCursor the new cursor of the next page
+		 */
+		public void setNextCursor(String nextCursor) {
+			this.nextCursor = nextCursor;
+		}
 	}
 
 	/**
-	 * Search devices.
+	 * Search devices. Without limit, the whole list is returned; with a limit,
+	 * one page is returned, and the cursor of the next one is given in the
+	 * X-Netshot-Next-Cursor header.
 	 *
-	 * @param request the request
 	 * @param criteria the criteria
+	 * @param limit the page size (optional)
+	 * @param cursor the cursor of the page (optional)
+	 * @param sort the sort key (id, name or family, '-' prefix for descending order)
 	 * @return the rs search results
 	 * @throws WebApplicationException the web application exception
 	 */
@@ -3283,27 +4721,46 @@ public class RestService extends Thread {
 	@RolesAllowed("readonly")
 	@Consumes({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public RsSearchResults searchDevices(RsSearchCriteria criteria)
+	public Response searchDevices(RsSearchCriteria criteria, @QueryParam("limit") Integer limit,
+			@QueryParam("cursor") String cursor, @QueryParam("sort") String sort)
 			throws WebApplicationException {
 		logger.debug("REST request, search devices, query '{}', driver '{}'.",
 				criteria.getQuery(), criteria.getDriver());
 		
 		DeviceDriver driver = DeviceDriver.getDriverByName(criteria.getDriver());
+		KeysetPage page = null;
+		if (limit != null) {
+			page = getPage(limit, cursor, sort, "id",
+					new KeysetPage.SortKey("id", "d.id", KeysetPage.KeyType.NUMBER),
+					new KeysetPage.SortKey("name", "coalesce(d.name, '')", KeysetPage.KeyType.STRING),
+					new KeysetPage.SortKey("family", "coalesce(d.family, '')", KeysetPage.KeyType.STRING));
+		}
 		try {
 			Finder finder = new Finder(criteria.getQuery(), driver);
-			Session session = Database.getSession();
+			Session session = Database.getReadOnlySession();
 			try {
-				Query query = session.createQuery(DEVICELIST_BASEQUERY
-						+ finder.getHql());
+				Query query;
+				if (page == null) {
+					query = session.createQuery(DEVICELIST_BASEQUERY + finder.getHql());
+				}
+				else {
+					query = page.apply(session.createQuery(DEVICELIST_BASEQUERY + finder.getHql()
+							+ " and " + page.getCondition() + page.getOrderBy()));
+				}
 				finder.setVariables(query);
 				@SuppressWarnings("unchecked")
 				List<RsLightDevice> devices = query
 					.setResultTransformer(Transformers.aliasToBean(RsLightDevice.class))
 					.list();
 				RsSearchResults results = new RsSearchResults();
-				results.setDevices(devices);
 				results.setQuery(finder.getFormattedQuery());
-				return results;
+				if (page == null) {
+					results.setDevices(devices);
+					return Response.ok(results).build();
+				}
+				results.setDevices(page.getPage(devices));
+				results.setNextCursor(page.getNextCursor());
+				return getPageResponse(page, new GenericEntity<RsSearchResults>(results) {});
 			}
 			catch (HibernateException e) {
 				logger.error("Error while searching for the devices.", e);
@@ -3351,6 +4808,7 @@ public class RestService extends Thread {
 			session.beginTransaction();
 			session.save(deviceGroup);
 			session.getTransaction().commit();
+			ReportAggregates.refreshGroup(deviceGroup.getId());
 		}
 		catch (HibernateException e) {
 			session.getTransaction().rollback();
@@ -3425,6 +4883,8 @@ public class RestService extends Thread {
 			}
 			session.delete(deviceGroup);
 			session.getTransaction().commit();
+			SoftwareHardwareRuleSet.evict();
+			ReportAggregates.removeGroup(id);
 		}
 		catch (ObjectNotFoundException e) {
 			session.getTransaction().rollback();
@@ -3644,6 +5104,7 @@ public class RestService extends Thread {
 			group.setHiddenFromReports(rsGroup.isHiddenFromReports());
 			session.update(group);
 			session.getTransaction().commit();
+			ReportAggregates.refreshGroup(id);
 			return group;
 		}
 		catch (ObjectNotFoundException e) {
@@ -3683,7 +5144,7 @@ public class RestService extends Thread {
 	public List<RsLightDevice> getGroupDevices(@PathParam("id") Long id)
 			throws WebApplicationException {
 		logger.debug("REST request, get devices from group {}.", id);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		DeviceGroup group;
 		try {
 			group = (DeviceGroup) session.get(DeviceGroup.class, id);
@@ -4192,10 +5653,15 @@ public class RestService extends Thread {
 	}
 
 	/**
-	 * Search tasks.
+	 * Search tasks. Without limit, the whole list is streamed (in JSON only); with a limit,
+	 * one page is returned, and the cursor of the next one is given in the
+	 * X-Netshot-Next-Cursor header.
 	 *
-	 * @param request the request
+	 * @param headers the headers of the request
 	 * @param criteria the criteria
+	 * @param limit the page size (optional)
+	 * @param cursor the cursor of the page (optional)
+	 * @param sort the sort key (id, '-' prefix for descending order, the default)
 	 * @return the list
 	 * @throws WebApplicationException the web application exception
 	 */
@@ -4204,56 +5670,80 @@ public class RestService extends Thread {
 	@RolesAllowed("readonly")
 	@Consumes({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public List<Task> searchTasks(RsTaskCriteria criteria)
+	public Response searchTasks(@Context HttpHeaders headers, RsTaskCriteria criteria, @QueryParam("limit") Integer limit,
+			@QueryParam("cursor") String cursor, @QueryParam("sort") String sort)
 			throws WebApplicationException {
 
 		logger.debug("REST request, search for tasks.");
 
-		Session session = Database.getSession();
+		StringBuilder hql = new StringBuilder("select " + RsLightTask.COLUMNS + " from Task t where 1 = 1");
+		final Map<String, Object> parameters = new HashMap<String, Object>();
+		Task.Status status = null;
 		try {
-			Criteria c = session.createCriteria(Task.class);
-			Task.Status status = null;
-			try {
-				if (!"ANY".equals(criteria.getStatus())) {
-					status = Task.Status.valueOf(criteria.getStatus());
-					c.add(Property.forName("status").eq(status));
-				}
+			if (!"ANY".equals(criteria.getStatus())) {
+				status = Task.Status.valueOf(criteria.getStatus());
+				hql.append(" and t.status = :status");
+				parameters.put("status", status);
 			}
-			catch (Exception e) {
-				logger.warn("Invalid status {}.", criteria.getStatus());
-			}
-			Calendar min = Calendar.getInstance();
-			min.setTime(criteria.getDay());
-			min.set(Calendar.HOUR_OF_DAY, 0);
-			min.set(Calendar.MINUTE, 0);
-			min.set(Calendar.SECOND, 0);
-			min.set(Calendar.MILLISECOND, 0);
-			Calendar max = (Calendar) min.clone();
-			max.add(Calendar.DAY_OF_MONTH, 1);
-
-			if (status == Task.Status.SUCCESS || status == Task.Status.FAILURE) {
-				c.add(Property.forName("executionDate").between(min.getTime(),
-						max.getTime()));
-			}
-			else if (status == Task.Status.CANCELLED) {
-				c.add(Property.forName("changeDate").between(min.getTime(),
-						max.getTime()));
-			}
-			else if (status == null) {
-				c.add(Restrictions.or(
-						Property.forName("status").eq(Task.Status.RUNNING),
-						Property.forName("status").eq(Task.Status.SCHEDULED),
-						Property.forName("executionDate").between(min.getTime(),
-								max.getTime()), Restrictions.and(
-										Property.forName("executionDate").isNull(),
-										Property.forName("changeDate").between(min.getTime(),
-												max.getTime()))));
-			}
-			c.addOrder(Property.forName("id").desc());
+		}
+		catch (Exception e) {
+			logger.warn("Invalid status {}.", criteria.getStatus());
+		}
+		Calendar min = Calendar.getInstance();
+		min.setTime(criteria.getDay());
+		min.set(Calendar.HOUR_OF_DAY, 0);
+		min.set(Calendar.MINUTE, 0);
+		min.set(Calendar.SECOND, 0);
+		min.set(Calendar.MILLISECOND, 0);
+		Calendar max = (Calendar) min.clone();
+		max.add(Calendar.DAY_OF_MONTH, 1);
+
+		if (status == Task.Status.SUCCESS || status == Task.Status.FAILURE) {
+			hql.append(" and t.executionDate between :min and :max");
+			parameters.put("min", min.getTime());
+			parameters.put("max", max.getTime());
+		}
+		else if (status == Task.Status.CANCELLED) {
+			hql.append(" and t.changeDate between :min and :max");
+			parameters.put("min", min.getTime());
+			parameters.put("max", max.getTime());
+		}
+		else if (status == null) {
+			hql.append(" and (t.status = :running or t.status = :scheduled or t.executionDate between :min and :max"
+					+ " or (t.executionDate is null and t.changeDate between :min and :max))");
+			parameters.put("running", Task.Status.RUNNING);
+			parameters.put("scheduled", Task.Status.SCHEDULED);
+			parameters.put("min", min.getTime());
+			parameters.put("max", max.getTime());
+		}
+
+		if (limit == null) {
+			final String listHql = hql.toString() + " order by t.id desc";
+			// Like the paged search, on the primary (the task statuses change quickly)
+			return new ScrolledList(false) {
+				@Override
+				protected ScrollableResults scroll(Session session) throws HibernateException {
+					Query query = session.createQuery(listHql);
+					setParameters(query, parameters);
+					return query
+						.setFetchSize(Database.getStreamingFetchSize())
+						.scroll(ScrollMode.FORWARD_ONLY);
+				}
 
-			@SuppressWarnings("unchecked")
-			List<Task> tasks = c.list();
-			return tasks;
+				@Override
+				protected Object getObject(ScrollableResults results) {
+					return new RsLightTask(results.get());
+				}
+			}.toResponse(headers);
+		}
+		KeysetPage page = getPage(limit, cursor, sort, "-id",
+				new KeysetPage.SortKey("id", "t.id", KeysetPage.KeyType.NUMBER));
+		Session session = Database.getSession();
+		try {
+			Query query = session.createQuery(hql.toString() + " and " + page.getCondition() + page.getOrderBy());
+			setParameters(query, parameters);
+			List<RsLightTask> tasks = RsLightTask.list(page.apply(query));
+			return getPageResponse(page, new GenericEntity<List<RsLightTask>>(page.getPage(tasks)) {});
 		}
 		catch (HibernateException e) {
 			logger.error("Error while searching for tasks.", e);
@@ -4890,10 +6380,15 @@ public class RestService extends Thread {
 	}
 
 	/**
-	 * Gets the changes.
+	 * Gets the changes. Without limit, the whole list is streamed (in JSON only); with a limit,
+	 * one page is returned, and the cursor of the next one is given in the
+	 * X-Netshot-Next-Cursor header.
 	 *
-	 * @param request the request
+	 * @param headers the headers of the request
 	 * @param criteria the criteria
+	 * @param limit the page size (optional)
+	 * @param cursor the cursor of the page (optional)
+	 * @param sort the sort key (newId or newChangeDate, '-' prefix for descending order)
 	 * @return the changes
 	 * @throws WebApplicationException the web application exception
 	 */
@@ -4902,18 +6397,38 @@ public class RestService extends Thread {
 	@RolesAllowed("readonly")
 	@Consumes({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public List<RsConfigChange> getChanges(RsChangeCriteria criteria) throws WebApplicationException {
+	public Response getChanges(@Context HttpHeaders headers, final RsChangeCriteria criteria, @QueryParam("limit") Integer limit,
+			@QueryParam("cursor") String cursor, @QueryParam("sort") String sort) throws WebApplicationException {
 		logger.debug("REST request, config changes.");
-		Session session = Database.getSession();
+		final String hql = "select c.id as newId, c.changeDate as newChangeDate, c.device.id as deviceId, c.author as author, "
+				+ "c.device.name as deviceName from Config c where c.changeDate >= :start and c.changeDate <= :end";
+		if (limit == null) {
+			return new ScrolledList(true) {
+				@Override
+				protected ScrollableResults scroll(Session session) throws HibernateException {
+					return session
+						.createQuery(hql + " order by c.id")
+						.setTimestamp("start", criteria.fromDate)
+						.setTimestamp("end", criteria.toDate)
+						.setResultTransformer(Transformers.aliasToBean(RsConfigChange.class))
+						.setFetchSize(Database.getStreamingFetchSize())
+						.scroll(ScrollMode.FORWARD_ONLY);
+				}
+			}.toResponse(headers);
+		}
+		KeysetPage page = getPage(limit, cursor, sort, "-newChangeDate",
+				new KeysetPage.SortKey("newId", "c.id", KeysetPage.KeyType.NUMBER),
+				new KeysetPage.SortKey("newChangeDate", "c.changeDate", KeysetPage.KeyType.DATE));
+		Session session = Database.getReadOnlySession();
 		try {
 			@SuppressWarnings("unchecked")
-			List<RsConfigChange> changes = session
-				.createQuery("select c.id as newId, c.changeDate as newChangeDate, c.device.id as deviceId, c.author as author, c.device.name as deviceName from Config c where c.changeDate >= :start and c.changeDate <= :end")
+			List<RsConfigChange> changes = page.apply(session
+					.createQuery(hql + " and " + page.getCondition() + page.getOrderBy()))
 				.setTimestamp("start", criteria.fromDate)
 				.setTimestamp("end", criteria.toDate)
 				.setResultTransformer(Transformers.aliasToBean(RsConfigChange.class))
 				.list();
-			return changes;
+			return getPageResponse(page, new GenericEntity<List<RsConfigChange>>(page.getPage(changes)) {});
 		}
 		catch (HibernateException e) {
 			logger.error("Unable to fetch the devices", e);
@@ -5152,8 +6667,18 @@ public class RestService extends Thread {
 		try {
 			session.beginTransaction();
 			Policy policy = (Policy) session.load(Policy.class, id);
+			List<Long> ruleIds = new ArrayList<Long>();
+			for (Rule rule : policy.getRules()) {
+				ruleIds.add(rule.getId());
+				CheckResultChange.recordRuleRemoval(session, rule.getId());
+			}
 			session.delete(policy);
 			session.getTransaction().commit();
+			TextRuleSet.evict(id);
+			for (Long ruleId : ruleIds) {
+				JavaScriptRuleCache.evict(ruleId);
+			}
+			ReportAggregates.refreshCompliance();
 		}
 		catch (ObjectNotFoundException e) {
 			session.getTransaction().rollback();
@@ -5524,6 +7049,8 @@ public class RestService extends Thread {
 
 			session.save(rule);
 			session.getTransaction().commit();
+			// The rule was only attached from its side, the cached rule list of the policy is stale
+			Database.getCache().evictCollection(Policy.class.getName() + ".rules", policy.getId());
 			return rule;
 		}
 		catch (ObjectNotFoundException e) {
@@ -5686,8 +7213,13 @@ public class RestService extends Thread {
 		try {
 			session.beginTransaction();
 			Rule rule = (Rule) session.load(Rule.class, id);
+			long policyId = rule.getPolicy().getId();
+			CheckResultChange.recordRuleRemoval(session, id);
 			session.delete(rule);
 			session.getTransaction().commit();
+			Database.getCache().evictCollection(Policy.class.getName() + ".rules", policyId);
+			JavaScriptRuleCache.evict(id);
+			ReportAggregates.refreshCompliance();
 		}
 		catch (ObjectNotFoundException e) {
 			session.getTransaction().rollback();
@@ -5818,25 +7350,7 @@ public class RestService extends Thread {
 						NetshotBadRequestException.NETSHOT_INVALID_DEVICE);
 			}
 			
-			Rule rule;
-			
-			if (".TextRule".equals(rsRule.getType())) {
-				TextRule txRule = new TextRule("TEST", null);
-				txRule.setDeviceDriver(rsRule.getDriver());
-				txRule.setField(rsRule.getField());
-				txRule.setInvert(rsRule.isInvert());
-				txRule.setContext(rsRule.getContext());
-				txRule.setRegExp(rsRule.isRegExp());
-				txRule.setText(rsRule.getText());
-				txRule.setAnyBlock(rsRule.isAnyBlock());
-				txRule.setMatchAll(rsRule.isMatchAll());
-				rule = txRule;
-			}
-			else {
-				JavaScriptRule jsRule = new JavaScriptRule("TEST", null);
-				jsRule.setScript(rsRule.getScript());
-				rule = jsRule;
-			}
+			Rule rule = RestService.createTestRule(rsRule);
 
 			RsRuleTestResult result = new RsRuleTestResult();
 
@@ -5869,7 +7383,6 @@ public class RestService extends Thread {
 				}
 			};
 
-			rule.setEnabled(true);
 			rule.check(device, session, taskLogger);
 			result.setResult(rule.getCheckResults().iterator().next().getResult());
 			result.setScriptError(log.toString());
@@ -5886,6 +7399,230 @@ public class RestService extends Thread {
 		}
 	}
 
+	/**
+	 * Creates an unsaved (enabled) rule from the posted test rule.
+	 *
+	 * @param rsRule the posted rule
+	 * @return the rule
+	 */
+	private static Rule createTestRule(RsRule rsRule) {
+		Rule rule;
+		if (".TextRule".equals(rsRule.getType())) {
+			TextRule txRule = new TextRule("TEST", null);
+			txRule.setDeviceDriver(rsRule.getDriver());
+			txRule.setField(rsRule.getField());
+			txRule.setInvert(rsRule.isInvert());
+			txRule.setContext(rsRule.getContext());
+			txRule.setRegExp(rsRule.isRegExp());
+			txRule.setText(rsRule.getText());
+			txRule.setAnyBlock(rsRule.isAnyBlock());
+			txRule.setMatchAll(rsRule.isMatchAll());
+			rule = txRule;
+		}
+		else {
+			JavaScriptRule jsRule = new JavaScriptRule("TEST", null);
+			jsRule.setScript(rsRule.getScript());
+			rule = jsRule;
+		}
+		rule.setEnabled(true);
+		return rule;
+	}
+
+	/**
+	 * The Class RsRuleDryRun.
+	 */
+	@XmlRootElement
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsRuleDryRun extends RsRule {
+
+		/** The group of devices to test the rule against. */
+		private long group = 0;
+
+		/** The time budget, in seconds. */
+		private int timeBudget = 60;
+
+		/**
+		 * Gets the group.
+		 *
+		 * @return the group
+		 */
+		@XmlElement
+		public long getGroup() {
+			return group;
+		}
+
+		/**
+		 * Sets the group.
+		 *
+		 * @param group the new group
+		 */
+		public void setGroup(long group) {
+			this.group = group;
+		}
+
+		/**
+		 * Gets the time budget.
+		 *
+		 * @return the time budget, in seconds
+		 */
+		@XmlElement
+		public int getTimeBudget() {
+			return timeBudget;
+		}
+
+		/**
+		 * Sets the time budget.
+		 *
+		 * @param timeBudget the new time budget, in seconds
+		 */
+		public void setTimeBudget(int timeBudget) {
+			this.timeBudget = timeBudget;
+		}
+	}
+
+	/** Maximum time budget of a rule dry run, in seconds. */
+	private static final int RULE_DRYRUN_MAX_TIME = 600;
+
+	/**
+	 * Tests an unsaved rule against the last configuration of all the devices
+	 * of a group, in parallel (using the interactive device workers), within a time budget.
+	 * Nothing is saved. The verdicts are streamed as they come, one JSON object per
+	 * line, each with the running totals; the last line is the summary.
+	 *
+	 * @param rsRule the rule, with the group and time budget
+	 * @return the streamed results
+	 * @throws WebApplicationException the web application exception
+	 */
+	@POST
+	@Path("rules/dryrun")
+	@RolesAllowed("readwrite")
+	@Consumes({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	@Produces({ "application/x-ndjson" })
+	public Response dryRunRule(final RsRuleDryRun rsRule) throws WebApplicationException {
+		logger.debug("REST request, rule dry run on group {}.", rsRule.getGroup());
+		final Map<Long, String> deviceNames = new HashMap<Long, String>();
+		Session session = Database.getSession();
+		try {
+			DeviceGroup group = (DeviceGroup) session.get(DeviceGroup.class, rsRule.getGroup());
+			if (group == null) {
+				throw new NetshotBadRequestException("Unable to find the group.",
+						NetshotBadRequestException.NETSHOT_INVALID_GROUP);
+			}
+			@SuppressWarnings("unchecked")
+			List<Object[]> devices = session
+				.createQuery("select d.id, d.name from DeviceGroup g join g.cachedDevices d where g.id = :id")
+				.setLong("id", rsRule.getGroup())
+				.list();
+			for (Object[] device : devices) {
+				deviceNames.put((Long) device[0], (String) device[1]);
+			}
+		}
+		catch (HibernateException e) {
+			logger.error("Unable to fetch the devices of the group.", e);
+			throw new NetshotBadRequestException("Unable to fetch the devices of the group.",
+					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+		}
+		finally {
+			session.close();
+		}
+		int timeBudget = Math.max(1, Math.min(rsRule.getTimeBudget(), RULE_DRYRUN_MAX_TIME));
+		final long startTime = System.currentTimeMillis();
+		final long deadline = startTime + timeBudget * 1000L;
+
+		StreamingOutput stream = new StreamingOutput() {
+			@Override
+			public void write(final OutputStream output) throws IOException, WebApplicationException {
+				final ObjectMapper mapper = new ObjectMapper();
+				final Map<String, Integer> totals = new HashMap<String, Integer>();
+				final int[] done = new int[] { 0 };
+				final IOException[] writeError = new IOException[] { null };
+				boolean complete = false;
+				try {
+					complete = DeviceWorkerPool.run(new ArrayList<Long>(deviceNames.keySet()),
+							new DeviceWorkerPool.DeviceFunction<CheckResult>() {
+						@Override
+						public CheckResult run(long deviceId, TaskLogger taskLogger) throws Exception {
+							Session session = Database.getSession();
+							try {
+								Device device = (Device) session
+									.createQuery("from Device d join fetch d.lastConfig where d.id = :id")
+									.setLong("id", deviceId)
+									.uniqueResult();
+								if (device == null) {
+									return null;
+								}
+								Rule rule = RestService.createTestRule(rsRule);
+								rule.check(device, session, taskLogger, new DeviceConfigModel(device, session, taskLogger));
+								return rule.getCheckResults().iterator().next();
+							}
+							finally {
+								session.close();
+							}
+						}
+					}, new DeviceWorkerPool.DeviceResultHandler<CheckResult>() {
+						@Override
+						public boolean handle(long deviceId, CheckResult result, Exception error, String log) {
+							String verdict;
+							String comment;
+							if (error != null) {
+								verdict = "ERROR";
+								comment = error.getMessage();
+							}
+							else if (result == null) {
+								verdict = ResultOption.NOTAPPLICABLE.toString();
+								comment = "No configuration.";
+							}
+							else {
+								verdict = result.getResult().toString();
+								comment = result.getComment();
+							}
+							Integer count = totals.get(verdict);
+							totals.put(verdict, count == null ? 1 : count + 1);
+							done[0]++;
+							Map<String, Object> line = new HashMap<String, Object>();
+							line.put("device", deviceId);
+							line.put("name", deviceNames.get(deviceId));
+							line.put("result", verdict);
+							line.put("comment", comment);
+							line.put("log", log);
+							line.put("done", done[0]);
+							line.put("total", deviceNames.size());
+							line.put("totals", totals);
+							try {
+								output.write(mapper.writeValueAsBytes(line));
+								output.write('\n');
+								output.flush();
+							}
+							catch (IOException e) {
+								// The client is gone, stop there
+								writeError[0] = e;
+								return false;
+							}
+							return true;
+						}
+					}, deadline);
+				}
+				catch (InterruptedException e) {
+					logger.warn("Rule dry run interrupted.", e);
+				}
+				if (writeError[0] != null) {
+					throw writeError[0];
+				}
+				Map<String, Object> summary = new HashMap<String, Object>();
+				summary.put("summary", true);
+				summary.put("done", done[0]);
+				summary.put("total", deviceNames.size());
+				summary.put("totals", totals);
+				summary.put("complete", complete);
+				summary.put("duration", System.currentTimeMillis() - startTime);
+				output.write(mapper.writeValueAsBytes(summary));
+				output.write('\n');
+				output.flush();
+			}
+		};
+		return Response.ok(stream).build();
+	}
+
 	/**
 	 * The Class RsLightExemptedDevice.
 	 */
@@ -5930,7 +7667,7 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<RsLightExemptedDevice> getExemptedDevices(@PathParam("id") Long id) throws WebApplicationException {
 		logger.debug("REST request, get exemptions for rule {}.", id);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			@SuppressWarnings("unchecked")
 			List<RsLightExemptedDevice> exemptions = session
@@ -6128,7 +7865,7 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<RsDeviceRule> getDeviceComplianceResults(@PathParam("id") Long id) throws WebApplicationException {
 		logger.debug("REST request, get compliance results for device {}.", id);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			@SuppressWarnings("unchecked")
 			List<RsDeviceRule> rules = session.createQuery("select r.id as id, r.name as ruleName, p.name as policyName, cr.result as result, cr.checkDate as checkDate, cr.comment as comment, e.expirationDate as expirationDate from Rule r join r.policy p join p.targetGroup g join g.cachedDevices d1 with d1.id = :id left join r.checkResults cr with cr.key.device.id = :id left join r.exemptions e with e.key.device.id = :id")
@@ -6219,7 +7956,7 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<RsConfigChangeNumberByDateStat> getLast7DaysChangesByDayStats(@QueryParam("tz") String jsTimeZone) throws WebApplicationException {
 		logger.debug("REST request, get last 7 day changes by day stats.");
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 
 		TimeZone timeZone = TimeZone.getDefault();
 		try {
@@ -6240,11 +7977,14 @@ public class RestService extends Thread {
 				Calendar dayEnd = (Calendar)today.clone();
 				dayStart.add(Calendar.DATE, -d + 1);
 				dayEnd.add(Calendar.DATE, -d + 2);
-				Long changeCount = (Long)session
-					.createQuery("select count(*) from Config c where c.changeDate >= :dayStart and c.changeDate < :dayEnd")
-					.setTimestamp("dayStart", dayStart.getTime())
-					.setTimestamp("dayEnd", dayEnd.getTime())
-					.uniqueResult();
+				Long changeCount = ReportAggregates.getConfigChangeCount(dayStart.getTime(), dayEnd.getTime());
+				if (changeCount == null) {
+					changeCount = (Long)session
+						.createQuery("select count(*) from Config c where c.changeDate >= :dayStart and c.changeDate < :dayEnd")
+						.setTimestamp("dayStart", dayStart.getTime())
+						.setTimestamp("dayEnd", dayEnd.getTime())
+						.uniqueResult();
+				}
 				stats.add(new RsConfigChangeNumberByDateStat(changeCount == null ? 0 : changeCount, dayStart.getTime()));
 			}
 			return stats;
@@ -6359,6 +8099,8 @@ public class RestService extends Thread {
 	 * Gets the group config compliance stats.
 	 *
 	 * @param request the request
+	 * @param domains the domains to filter on
+	 * @param date optional date (in ms) to compute the compliance at, from the result history
 	 * @return the group config compliance stats
 	 * @throws WebApplicationException the web application exception
 	 */
@@ -6366,18 +8108,42 @@ public class RestService extends Thread {
 	@Path("reports/groupconfigcompliancestats")
 	@RolesAllowed("readonly")
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public List<RsGroupConfigComplianceStat> getGroupConfigComplianceStats(@QueryParam("domain") Set<Long> domains) throws WebApplicationException {
+	public List<RsGroupConfigComplianceStat> getGroupConfigComplianceStats(@QueryParam("domain") Set<Long> domains,
+			@QueryParam("date") Long date) throws WebApplicationException {
 		logger.debug("REST request, group config compliance stats.");
-		Session session = Database.getSession();
+		if (date == null) {
+			List<ReportAggregates.GroupCounters> counters = ReportAggregates.getGroupCounters(domains);
+			if (counters != null) {
+				List<RsGroupConfigComplianceStat> stats = new ArrayList<RsGroupConfigComplianceStat>();
+				for (ReportAggregates.GroupCounters groupCounters : counters) {
+					RsGroupConfigComplianceStat stat = new RsGroupConfigComplianceStat();
+					stat.setGroupId(groupCounters.getGroupId());
+					stat.setGroupName(groupCounters.getGroupName());
+					stat.setCompliantDeviceCount(groupCounters.getCompliantDeviceCount());
+					stat.setDeviceCount(groupCounters.getDeviceCount());
+					stats.add(stat);
+				}
+				return stats;
+			}
+		}
+		Session session = Database.getReadOnlySession();
 		try {
 			String domainFilter = "";
 			if (domains.size() > 0) {
 				domainFilter = " d.mgmtDomain.id in (:domainIds) and";
 			}
+			String nonCompliantFilter = "(select count(ccr.result) from d.complianceCheckResults ccr where ccr.result = :nonConforming) = 0";
+			if (date != null) {
+				// Non-compliant at the given date: the last transition before the date, for at least one rule, was to non-conforming
+				nonCompliantFilter = "not exists (select h.id from CheckResultChange h where h.deviceId = d.id "
+						+ "and h.changeDate <= :date and h.newResult = :nonConforming and not exists "
+						+ "(select h2.id from CheckResultChange h2 where h2.deviceId = h.deviceId and h2.ruleId = h.ruleId "
+						+ "and h2.changeDate > h.changeDate and h2.changeDate <= :date))";
+			}
 			
 			Query query = session
 				.createQuery("select g.id as groupId, g.name as groupName, "
-						+ "(select count(d) from g.cachedDevices d where" + domainFilter + " d.status = :enabled and (select count(ccr.result) from d.complianceCheckResults ccr where ccr.result = :nonConforming) = 0) as compliantDeviceCount, "
+						+ "(select count(d) from g.cachedDevices d where" + domainFilter + " d.status = :enabled and " + nonCompliantFilter + ") as compliantDeviceCount, "
 						+ "(select count(d) from g.cachedDevices d where" + domainFilter + " d.status = :enabled) as deviceCount "
 						+ "from DeviceGroup g where g.hiddenFromReports <> true")
 				.setParameter("nonConforming", CheckResult.ResultOption.NONCONFORMING)
@@ -6385,6 +8151,9 @@ public class RestService extends Thread {
 			if (domains.size() > 0) {
 				query.setParameterList("domainIds", domains);
 			}
+			if (date != null) {
+				query.setTimestamp("date", new Date(date));
+			}
 			@SuppressWarnings("unchecked")
 			List<RsGroupConfigComplianceStat> stats = query
 				.setResultTransformer(Transformers.aliasToBean(RsGroupConfigComplianceStat.class))
@@ -6441,7 +8210,25 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<RsHardwareSupportStat> getHardwareSupportStats() throws WebApplicationException {
 		logger.debug("REST request, hardware support stats.");
-		Session session = Database.getSession();
+		Map<Date, Long> eosCounts = ReportAggregates.getEosCounts();
+		Map<Date, Long> eolCounts = ReportAggregates.getEolCounts();
+		if (eosCounts != null && eolCounts != null) {
+			List<RsHardwareSupportStat> stats = new ArrayList<RsHardwareSupportStat>();
+			for (Map.Entry<Date, Long> count : eosCounts.entrySet()) {
+				RsHardwareSupportStat stat = new RsHardwareSupportEoSStat();
+				stat.setEoxDate(count.getKey());
+				stat.setDeviceCount(count.getValue());
+				stats.add(stat);
+			}
+			for (Map.Entry<Date, Long> count : eolCounts.entrySet()) {
+				RsHardwareSupportStat stat = new RsHardwareSupportEoLStat();
+				stat.setEoxDate(count.getKey());
+				stat.setDeviceCount(count.getValue());
+				stats.add(stat);
+			}
+			return stats;
+		}
+		Session session = Database.getReadOnlySession();
 		try {
 			@SuppressWarnings("unchecked")
 			List<RsHardwareSupportStat> eosStats = session
@@ -6625,7 +8412,22 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<RsGroupSoftwareComplianceStat> getGroupSoftwareComplianceStats(@QueryParam("domain") Set<Long> domains) throws WebApplicationException {
 		logger.debug("REST request, group software compliance stats.");
-		Session session = Database.getSession();
+		List<ReportAggregates.GroupCounters> counters = ReportAggregates.getGroupCounters(domains);
+		if (counters != null) {
+			List<RsGroupSoftwareComplianceStat> stats = new ArrayList<RsGroupSoftwareComplianceStat>();
+			for (ReportAggregates.GroupCounters groupCounters : counters) {
+				RsGroupSoftwareComplianceStat stat = new RsGroupSoftwareComplianceStat();
+				stat.setGroupId(groupCounters.getGroupId());
+				stat.setGroupName(groupCounters.getGroupName());
+				stat.setGoldDeviceCount(groupCounters.getGoldDeviceCount());
+				stat.setSilverDeviceCount(groupCounters.getSilverDeviceCount());
+				stat.setBronzeDeviceCount(groupCounters.getBronzeDeviceCount());
+				stat.setDeviceCount(groupCounters.getDeviceCount());
+				stats.add(stat);
+			}
+			return stats;
+		}
+		Session session = Database.getReadOnlySession();
 		try {
 			String domainFilter = "";
 			if (domains.size() > 0) {
@@ -6770,7 +8572,7 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<RsLightPolicyRuleDevice> getGroupConfigNonCompliantDevices(@PathParam("id") Long id, @QueryParam("domain") Set<Long> domains) throws WebApplicationException {
 		logger.debug("REST request, group config non compliant devices.");
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			String domainFilter = "";
 			if (domains.size() > 0) {
@@ -6814,7 +8616,7 @@ public class RestService extends Thread {
 					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
 		}
 		Date eoxDate = new Date(date);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			if (date == 0) {
 				@SuppressWarnings("unchecked")
@@ -7025,6 +8827,7 @@ public class RestService extends Thread {
 
 			session.save(rule);
 			session.getTransaction().commit();
+			SoftwareHardwareRuleSet.evict();
 		}
 		catch (ObjectNotFoundException e) {
 			session.getTransaction().rollback();
@@ -7067,6 +8870,7 @@ public class RestService extends Thread {
 			HardwareRule rule = (HardwareRule) session.load(HardwareRule.class, id);
 			session.delete(rule);
 			session.getTransaction().commit();
+			SoftwareHardwareRuleSet.evict();
 		}
 		catch (ObjectNotFoundException e) {
 			session.getTransaction().rollback();
@@ -7134,6 +8938,7 @@ public class RestService extends Thread {
 
 			session.update(rule);
 			session.getTransaction().commit();
+			SoftwareHardwareRuleSet.evict();
 			return rule;
 		}
 		catch (HibernateException e) {
@@ -7422,6 +9227,7 @@ public class RestService extends Thread {
 
 			session.save(rule);
 			session.getTransaction().commit();
+			SoftwareHardwareRuleSet.evict();
 		}
 		catch (ObjectNotFoundException e) {
 			session.getTransaction().rollback();
@@ -7463,6 +9269,7 @@ public class RestService extends Thread {
 			SoftwareRule rule = (SoftwareRule) session.load(SoftwareRule.class, id);
 			session.delete(rule);
 			session.getTransaction().commit();
+			SoftwareHardwareRuleSet.evict();
 		}
 		catch (ObjectNotFoundException e) {
 			session.getTransaction().rollback();
@@ -7532,6 +9339,7 @@ public class RestService extends Thread {
 
 			session.update(rule);
 			session.getTransaction().commit();
+			SoftwareHardwareRuleSet.evict();
 			return rule;
 		}
 		catch (HibernateException e) {
@@ -7595,7 +9403,7 @@ public class RestService extends Thread {
 	public List<RsLightSoftwareLevelDevice> getGroupDevicesBySoftwareLevel(@PathParam("id") Long id, @PathParam("level") String level,
 			@QueryParam("domain") Set<Long> domains) throws WebApplicationException {
 		logger.debug("REST request, group {} devices by software level {}.", id, level);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 
 		ConformanceLevel filterLevel = ConformanceLevel.UNKNOWN;
 		for (ConformanceLevel l : ConformanceLevel.values()) {
@@ -7676,7 +9484,7 @@ public class RestService extends Thread {
 			days = 3;
 		}
 		
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 
 		try {
 			Calendar when = Calendar.getInstance();
@@ -7965,7 +9773,7 @@ public class RestService extends Thread {
 		Session session = Database.getSession();
 		try {
 			@SuppressWarnings("unchecked")
-			List<User> users = session.createCriteria(User.class).list();
+			List<User> users = session.createCriteria(User.class).setCacheable(true).list();
 			return users;
 		}
 		catch (HibernateException e) {
@@ -8274,6 +10082,20 @@ public class RestService extends Thread {
 		}
 	}
 
+	/**
+	 * Exports the devices (and optionally their interfaces and modules), synchronously.
+	 * The rows are streamed to the client while the devices are read by batches.
+	 *
+	 * @param request the request
+	 * @param group the group to export the devices of (-1 for all)
+	 * @param domains the domains to export the devices of (none for all)
+	 * @param exportInterfaces whether to export the interfaces
+	 * @param exportInventory whether to export the modules
+	 * @param exportLocations whether to export the locations and contacts
+	 * @param fileFormat the file format (only xlsx is supported)
+	 * @return the XLSX file
+	 * @throws WebApplicationException the web application exception
+	 */
 	@GET
 	@Path("reports/export")
 	@RolesAllowed("readonly")
@@ -8288,224 +10110,136 @@ public class RestService extends Thread {
 		logger.debug("REST request, export data.");
 		User user = (User) request.getSession().getAttribute("user");
 
-		if (fileFormat.compareToIgnoreCase("xlsx") == 0) {
-			String fileName = String.format("netshot-export_%s.xlsx", (new SimpleDateFormat("yyyyMMdd-HHmmss")).format(new Date()));
-
-			Session session = Database.getSession();
-			try {
-				Workbook workBook = new SXSSFWorkbook(100);
-				Row row;
-				Cell cell;
-
-				CreationHelper createHelper = workBook.getCreationHelper();
-				CellStyle datetimeCellStyle = workBook.createCellStyle();
-				datetimeCellStyle.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
-				CellStyle dateCellStyle = workBook.createCellStyle();
-				dateCellStyle.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd"));
-
-				Sheet summarySheet = workBook.createSheet("Summary");
-				row = summarySheet.createRow(0);
-				row.createCell(0).setCellValue("Netshot version");
-				row.createCell(1).setCellValue(Netshot.VERSION);
-				row = summarySheet.createRow(1);
-				row.createCell(0).setCellValue("Exported by");
-				row.createCell(1).setCellValue(user.getName());
-				row = summarySheet.createRow(2);
-				row.createCell(0).setCellValue("Date and time");
-				cell = row.createCell(1);
-				cell.setCellValue(new Date());
-				cell.setCellStyle(datetimeCellStyle);
-				
-
-				Criteria criteria = session.createCriteria(Device.class);
-				criteria.setFetchMode("mgmtDomain", FetchMode.SELECT);
-				criteria.setFetchMode("specificCredentialSet", FetchMode.SELECT);
-				
-				row = summarySheet.createRow(4);
-				row.createCell(0).setCellValue("Selected Domain");
-				if (domains.size() == 0) {
-					row.createCell(1).setCellValue("Any");
-				}
-				else {
-					@SuppressWarnings("unchecked")
-					List<Domain> deviceDomains = session
-							.createQuery("select d from Domain d where d.id in (:domainIds)")
-							.setParameterList("domainIds", domains)
-							.list();
-					List<String> domainNames = new ArrayList<String>();
-					for (Domain deviceDomain : deviceDomains) {
-						domainNames.add(String.format("%s (%d)", deviceDomain.getName(), deviceDomain.getId()));
-					}
-					row.createCell(1).setCellValue(String.join(", ", domainNames));
-					criteria.createCriteria("mgmtDomain", "md");
-					criteria.add(Restrictions.in("md.id", domains));
-				}
-				row = summarySheet.createRow(5);
-				row.createCell(0).setCellValue("Selected Group");
-				if (group == -1) {
-					row.createCell(1).setCellValue("Any");
-				}
-				else {
-					DeviceGroup deviceGroup = (DeviceGroup) session.get(DeviceGroup.class, group);
-					row.createCell(1).setCellValue(deviceGroup.getName());
-					criteria.createCriteria("ownerGroups", "g");
-					criteria.add(Restrictions.eq("g.id", group));
+		if (fileFormat.compareToIgnoreCase("xlsx") != 0) {
+			logger.warn("Invalid requested file format.");
+			throw new WebApplicationException(
+					"The requested file format is invalid or not supported.",
+					javax.ws.rs.core.Response.Status.BAD_REQUEST);
+		}
+		String fileName = String.format("netshot-export_%s.xlsx", (new SimpleDateFormat("yyyyMMdd-HHmmss")).format(new Date()));
+		// Not saved, only used to write the report
+		final GenerateReportTask task = new GenerateReportTask("", user.getUsername(), group, domains,
+				exportInterfaces, exportInventory, exportLocations);
+		StreamingOutput stream = new StreamingOutput() {
+			@Override
+			public void write(OutputStream output) throws IOException, WebApplicationException {
+				Session session = Database.getReadOnlySession();
+				try {
+					task.write(session, output);
 				}
-				
-				
-
-				Sheet deviceSheet = workBook.createSheet("Devices");
-				((SXSSFSheet) deviceSheet).setRandomAccessWindowSize(100);
-				row = deviceSheet.createRow(0);
-				row.createCell(0).setCellValue("ID");
-				row.createCell(1).setCellValue("Name");
-				row.createCell(2).setCellValue("Management IP");
-				row.createCell(3).setCellValue("Domain");
-				row.createCell(4).setCellValue("Network Class");
-				row.createCell(5).setCellValue("Family");
-				row.createCell(6).setCellValue("Creation");
-				row.createCell(7).setCellValue("Last Change");
-				row.createCell(8).setCellValue("Software");
-				row.createCell(9).setCellValue("End of Sale Date");
-				row.createCell(10).setCellValue("End Of Life Date");
-				if (exportLocations) {
-					row.createCell(11).setCellValue("Location");
-					row.createCell(12).setCellValue("Contact");
-				}
-
-				int yDevice = 1;
-
-				@SuppressWarnings("unchecked")
-				List<Device> devices = criteria.list();
-				for (Device device : devices) {
-					row = deviceSheet.createRow(yDevice++);
-					row.createCell(0).setCellValue(device.getId());
-					row.createCell(1).setCellValue(device.getName());
-					row.createCell(2).setCellValue(device.getMgmtAddress().getIp());
-					row.createCell(3).setCellValue(device.getMgmtDomain().getName());
-					row.createCell(4).setCellValue(device.getNetworkClass().toString());
-					row.createCell(5).setCellValue(device.getFamily());
-					cell = row.createCell(6);
-					cell.setCellValue(device.getCreatedDate());
-					cell.setCellStyle(datetimeCellStyle);
-					cell = row.createCell(7);
-					cell.setCellValue(device.getChangeDate());
-					cell.setCellStyle(datetimeCellStyle);
-					row.createCell(8).setCellValue(device.getSoftwareVersion());
-					if (device.getEosDate() != null) {
-						cell = row.createCell(9);
-						cell.setCellValue(device.getEosDate());
-						cell.setCellStyle(dateCellStyle);
-					}
-					if (device.getEolDate() != null) {
-						cell = row.createCell(10);
-						cell.setCellValue(device.getEolDate());
-						cell.setCellStyle(dateCellStyle);
-					}
-					if (exportLocations) {
-						row.createCell(11).setCellValue(device.getLocation());
-						row.createCell(12).setCellValue(device.getContact());
-					}
+				catch (HibernateException e) {
+					logger.error("Unable to generate the report.", e);
+					throw new WebApplicationException("Unable to generate the report.",
+							javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR);
 				}
-
-				if (exportInterfaces) {
-					Sheet interfaceSheet = workBook.createSheet("Interfaces");
-					((SXSSFSheet) interfaceSheet).setRandomAccessWindowSize(100);
-					row = interfaceSheet.createRow(0);
-					row.createCell(0).setCellValue("Device ID");
-					row.createCell(1).setCellValue("Virtual Device");
-					row.createCell(2).setCellValue("Name");
-					row.createCell(3).setCellValue("Description");
-					row.createCell(4).setCellValue("VRF");
-					row.createCell(5).setCellValue("MAC Address");
-					row.createCell(6).setCellValue("Enabled");
-					row.createCell(7).setCellValue("Level 3");
-					row.createCell(8).setCellValue("IP Address");
-					row.createCell(9).setCellValue("Mask Length");
-					row.createCell(10).setCellValue("Usage");
-
-					int yInterface = 1;
-					for (Device device : devices) {
-						for (NetworkInterface networkInterface : device.getNetworkInterfaces()) {
-							if (networkInterface.getIpAddresses().size() == 0) {
-								row = interfaceSheet.createRow(yInterface++);
-								row.createCell(0).setCellValue(device.getId());
-								row.createCell(1).setCellValue(networkInterface.getVirtualDevice());
-								row.createCell(2).setCellValue(networkInterface.getInterfaceName());
-								row.createCell(3).setCellValue(networkInterface.getDescription());
-								row.createCell(4).setCellValue(networkInterface.getVrfInstance());
-								row.createCell(5).setCellValue(networkInterface.getMacAddress());
-								row.createCell(6).setCellValue(networkInterface.isEnabled());
-								row.createCell(7).setCellValue(networkInterface.isLevel3());
-								row.createCell(8).setCellValue("");
-								row.createCell(9).setCellValue("");
-								row.createCell(10).setCellValue("");
-							}
-							for (NetworkAddress address : networkInterface.getIpAddresses()) {
-								row = interfaceSheet.createRow(yInterface++);
-								row.createCell(0).setCellValue(device.getId());
-								row.createCell(1).setCellValue(networkInterface.getVirtualDevice());
-								row.createCell(2).setCellValue(networkInterface.getInterfaceName());
-								row.createCell(3).setCellValue(networkInterface.getDescription());
-								row.createCell(4).setCellValue(networkInterface.getVrfInstance());
-								row.createCell(5).setCellValue(networkInterface.getMacAddress());
-								row.createCell(6).setCellValue(networkInterface.isEnabled());
-								row.createCell(7).setCellValue(networkInterface.isLevel3());
-								row.createCell(8).setCellValue(address.getIp());
-								row.createCell(9).setCellValue(address.getPrefixLength());
-								row.createCell(10).setCellValue(address.getAddressUsage() == null ? "" : address.getAddressUsage().toString());
-							}
-						}
-					}
+				finally {
+					session.close();
 				}
+			}
+		};
+		return Response.ok(stream).header("Content-Disposition", "attachment; filename=" + fileName).build();
+	}
 
-				if (exportInventory) {
-					Sheet inventorySheet = workBook.createSheet("Inventory");
-					((SXSSFSheet) inventorySheet).setRandomAccessWindowSize(100);
-					row = inventorySheet.createRow(0);
-					row.createCell(0).setCellValue("Device ID");
-					row.createCell(1).setCellValue("Slot");
-					row.createCell(2).setCellValue("Part Number");
-					row.createCell(3).setCellValue("Serial Number");
-
-					int yInventory = 1;
-					for (Device device : devices) {
-						for (Module module : device.getModules()) {
-							row = inventorySheet.createRow(yInventory++);
-							row.createCell(0).setCellValue(device.getId());
-							row.createCell(1).setCellValue(module.getSlot());
-							row.createCell(2).setCellValue(module.getPartNumber());
-							row.createCell(3).setCellValue(module.getSerialNumber());
-						}
-					}
-				}
+	/**
+	 * Starts a data export in background (task).
+	 * Once the task is successful, the file is downloaded from reports/export/{id}.
+	 *
+	 * @param request the request
+	 * @param group the group to export the devices of (-1 for all)
+	 * @param domains the domains to export the devices of (none for all)
+	 * @param exportInterfaces whether to export the interfaces
+	 * @param exportInventory whether to export the modules
+	 * @param exportLocations whether to export the locations and contacts
+	 * @param fileFormat the file format (only xlsx is supported)
+	 * @return the task
+	 * @throws WebApplicationException the web application exception
+	 */
+	@POST
+	@Path("reports/export")
+	@RolesAllowed("readwrite")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Task addDataExportTask(@Context HttpServletRequest request,
+			@DefaultValue("-1") @QueryParam("group") long group,
+			@QueryParam("domain") Set<Long> domains,
+			@DefaultValue("false") @QueryParam("interfaces") boolean exportInterfaces,
+			@DefaultValue("false") @QueryParam("inventory") boolean exportInventory,
+			@DefaultValue("false") @QueryParam("locations") boolean exportLocations,
+			@DefaultValue("xlsx") @QueryParam("format") String fileFormat) throws WebApplicationException {
+		logger.debug("REST request, export data (task).");
+		User user = (User) request.getSession().getAttribute("user");
 
-				ByteArrayOutputStream output = new ByteArrayOutputStream();
-				workBook.write(output);
-				workBook.close();
-				return Response.ok(output.toByteArray()).header("Content-Disposition", "attachment; filename=" + fileName).build();
-			}
-			catch (IOException e) {
-				logger.error("Unable to write the resulting file.", e);
-				throw new WebApplicationException(
-						"Unable to write the resulting file.",
-						javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR);
-			}
-			catch (Exception e) {
-				logger.error("Unable to generate the report.", e);
-				throw new WebApplicationException("Unable to generate the report.",
-						javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR);
-			}
-			finally {
-				session.close();
-			}
+		if (fileFormat.compareToIgnoreCase("xlsx") != 0) {
+			logger.warn("Invalid requested file format.");
+			throw new NetshotBadRequestException("The requested file format is invalid or not supported.",
+					NetshotBadRequestException.NETSHOT_INVALID_TASK);
+		}
+		Task task = new GenerateReportTask("Data export", user.getUsername(), group, domains,
+				exportInterfaces, exportInventory, exportLocations);
+		try {
+			TaskManager.addTask(task);
 		}
+		catch (HibernateException e) {
+			logger.error("Unable to add the task.", e);
+			throw new NetshotBadRequestException(
+					"Unable to add the task to the database.",
+					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+		}
+		catch (SchedulerException e) {
+			logger.error("Unable to schedule the task.", e);
+			throw new NetshotBadRequestException("Unable to schedule the task.",
+					NetshotBadRequestException.NETSHOT_SCHEDULE_ERROR);
+		}
+		return task;
+	}
 
-		logger.warn("Invalid requested file format.");
-		throw new WebApplicationException(
-				"The requested file format is invalid or not supported.",
-				javax.ws.rs.core.Response.Status.BAD_REQUEST);
-
+	/**
+	 * Downloads the file generated by a data export task.
+	 * Only the author of the task (or an admin) can download it.
+	 *
+	 * @param request the request
+	 * @param id the task ID
+	 * @return the XLSX file
+	 * @throws WebApplicationException the web application exception
+	 */
+	@GET
+	@Path("reports/export/{id}")
+	@RolesAllowed("readonly")
+	@Produces({ "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet" })
+	public Response getDataExportFile(@Context HttpServletRequest request, @PathParam("id") Long id)
+			throws WebApplicationException {
+		logger.debug("REST request, get data export file, task {}.", id);
+		User user = (User) request.getSession().getAttribute("user");
+		GenerateReportTask task;
+		Session session = Database.getSession();
+		try {
+			task = (GenerateReportTask) session.get(GenerateReportTask.class, id);
+		}
+		catch (HibernateException e) {
+			logger.error("Unable to fetch the task {}.", id, e);
+			throw new NetshotBadRequestException("Unable to fetch the task.",
+					NetshotBadRequestException.NETSHOT_DATABASE_ACCESS_ERROR);
+		}
+		finally {
+			session.close();
+		}
+		if (task == null || task.getStatus() != Task.Status.SUCCESS) {
+			logger.warn("The export task {} doesn't exist or isn't successful.", id);
+			throw new NetshotBadRequestException("The export task doesn't exist or isn't successful.",
+					NetshotBadRequestException.NETSHOT_INVALID_TASK);
+		}
+		if (!user.getUsername().equals(task.getAuthor()) && user.getLevel() < User.LEVEL_ADMIN) {
+			logger.warn("User {} tried to download the export of task {}, started by {}.",
+					user.getUsername(), id, task.getAuthor());
+			throw new NetshotBadRequestException("The export task doesn't exist or isn't successful.",
+					NetshotBadRequestException.NETSHOT_INVALID_TASK);
+		}
+		File file = task.getFile();
+		if (file == null || !file.isFile()) {
+			logger.warn("The file of export task {} doesn't exist anymore.", id);
+			throw new NetshotBadRequestException("The export file doesn't exist anymore.",
+					NetshotBadRequestException.NETSHOT_INVALID_TASK);
+		}
+		return Response.ok(file).header("Content-Disposition", "attachment; filename=" + file.getName()).build();
 	}
 	
 	@POST
@@ -9206,7 +10940,7 @@ public class RestService extends Thread {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public List<DiagnosticResult> getDeviceDiagnosticResults(@PathParam("id") Long id) throws WebApplicationException {
 		logger.debug("REST request, get diagnostic results for device {}.", id);
-		Session session = Database.getSession();
+		Session session = Database.getReadOnlySession();
 		try {
 			@SuppressWarnings("unchecked")
 			List<DiagnosticResult> results = session
@@ -9225,6 +10959,402 @@ public class RestService extends Thread {
 		}
 	}
 
+	/**
+	 * The statistics of a region of the second-level cache.
+	 */
+	@XmlRootElement(name = "cacheRegion")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsCacheRegionStatistics {
+
+		/** The region name. */
+		private String name;
+
+		/** The number of hits. */
+		private long hitCount;
+
+		/** The number of misses. */
+		private long missCount;
+
+		/** The number of puts. */
+		private long putCount;
+
+		/** The number of elements in memory. */
+		private long elementCount;
+
+		private RsCacheRegionStatistics(String name, long hitCount, long missCount, long putCount, long elementCount) {
+			this.name = name;
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.putCount = putCount;
+			this.elementCount = elementCount;
+		}
+
+		/**
+		 * Gets the region name.
+		 *
+		 * @return the name
+		 */
+		@XmlElement
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the number of hits.
+		 *
+		 * @return the hit count
+		 */
+		@XmlElement
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		/**
+		 * Gets the number of misses.
+		 *
+		 * @return the miss count
+		 */
+		@XmlElement
+		public long getMissCount() {
+			return missCount;
+		}
+
+		/**
+		 * Gets the number of puts.
+		 *
+		 * @return the put count
+		 */
+		@XmlElement
+		public long getPutCount() {
+			return putCount;
+		}
+
+		/**
+		 * Gets the number of elements in memory (-1 for a global counter).
+		 *
+		 * @return the element count
+		 */
+		@XmlElement
+		public long getElementCount() {
+			return elementCount;
+		}
+
+		/**
+		 * Gets the hit ratio.
+		 *
+		 * @return the hit ratio, between 0 and 1
+		 */
+		@XmlElement
+		public double getHitRatio() {
+			long total = hitCount + missCount;
+			return total == 0 ? 0 : (double) hitCount / total;
+		}
+	}
+
+	/**
+	 * The statistics of the second-level cache.
+	 */
+	@XmlRootElement(name = "cacheStatistics")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsCacheStatistics {
+
+		/** Whether the cache is enabled. */
+		private boolean enabled;
+
+		/** Since when the statistics are collected. */
+		private Date since;
+
+		/** The totals of the entity and collection regions. */
+		private RsCacheRegionStatistics entities;
+
+		/** The totals of the query cache. */
+		private RsCacheRegionStatistics queries;
+
+		/** The totals of the natural ID cache. */
+		private RsCacheRegionStatistics naturalIds;
+
+		/** The statistics per region. */
+		private List<RsCacheRegionStatistics> regions = new ArrayList<RsCacheRegionStatistics>();
+
+		/**
+		 * Checks whether the cache is enabled.
+		 *
+		 * @return true if enabled
+		 */
+		@XmlElement
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Gets the date since when the statistics are collected.
+		 *
+		 * @return the date
+		 */
+		@XmlElement
+		public Date getSince() {
+			return since;
+		}
+
+		/**
+		 * Gets the totals of the entity and collection regions.
+		 *
+		 * @return the entity statistics
+		 */
+		@XmlElement
+		public RsCacheRegionStatistics getEntities() {
+			return entities;
+		}
+
+		/**
+		 * Gets the totals of the query cache.
+		 *
+		 * @return the query statistics
+		 */
+		@XmlElement
+		public RsCacheRegionStatistics getQueries() {
+			return queries;
+		}
+
+		/**
+		 * Gets the totals of the natural ID cache.
+		 *
+		 * @return the natural ID statistics
+		 */
+		@XmlElement
+		public RsCacheRegionStatistics getNaturalIds() {
+			return naturalIds;
+		}
+
+		/**
+		 * Gets the statistics per region.
+		 *
+		 * @return the regions
+		 */
+		@XmlElement
+		public List<RsCacheRegionStatistics> getRegions() {
+			return regions;
+		}
+	}
+
+	/**
+	 * Gets the statistics (hits, misses) of the second-level cache.
+	 *
+	 * @return the cache statistics
+	 * @throws WebApplicationException the web application exception
+	 */
+	@GET
+	@Path("database/cache")
+	@RolesAllowed("admin")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public RsCacheStatistics getCacheStatistics() throws WebApplicationException {
+		logger.debug("REST request, get cache statistics.");
+		Statistics statistics = Database.getStatistics();
+		RsCacheStatistics rsStatistics = new RsCacheStatistics();
+		rsStatistics.enabled = statistics.isStatisticsEnabled();
+		if (!rsStatistics.enabled) {
+			return rsStatistics;
+		}
+		rsStatistics.since = new Date(statistics.getStartTime());
+		rsStatistics.entities = new RsCacheRegionStatistics("entities",
+				statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount(),
+				statistics.getSecondLevelCachePutCount(), -1);
+		rsStatistics.queries = new RsCacheRegionStatistics("queries",
+				statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(),
+				statistics.getQueryCachePutCount(), -1);
+		rsStatistics.naturalIds = new RsCacheRegionStatistics("naturalIds",
+				statistics.getNaturalIdCacheHitCount(), statistics.getNaturalIdCacheMissCount(),
+				statistics.getNaturalIdCachePutCount(), -1);
+		for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+			SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(regionName);
+			if (regionStatistics == null) {
+				continue;
+			}
+			rsStatistics.regions.add(new RsCacheRegionStatistics(regionName,
+					regionStatistics.getHitCount(), regionStatistics.getMissCount(),
+					regionStatistics.getPutCount(), regionStatistics.getElementCountInMemory()));
+		}
+		return rsStatistics;
+	}
+
+	/**
+	 * The state of a database connection pool.
+	 */
+	@XmlRootElement(name = "connectionPool")
+	@XmlAccessorType(XmlAccessType.NONE)
+	public static class RsConnectionPoolStatistics {
+
+		/** The pool statistics. */
+		private ConnectionPools.PoolStatistics statistics;
+
+		public RsConnectionPoolStatistics() {
+		}
+
+		public RsConnectionPoolStatistics(ConnectionPools.PoolStatistics statistics) {
+			this.statistics = statistics;
+		}
+
+		/**
+		 * Gets the name of the pool (tasks, rest or collectors).
+		 *
+		 * @return the name
+		 */
+		@XmlElement
+		public String getName() {
+			return statistics.getName();
+		}
+
+		/**
+		 * Gets the minimum number of connections.
+		 *
+		 * @return the min size
+		 */
+		@XmlElement
+		public int getMinSize() {
+			return statistics.getMinSize();
+		}
+
+		/**
+		 * Gets the maximum number of connections.
+		 *
+		 * @return the max size
+		 */
+		@XmlElement
+		public int getMaxSize() {
+			return statistics.getMaxSize();
+		}
+
+		/**
+		 * Gets the time to wait for a connection, in seconds (0 for no timeout).
+		 *
+		 * @return the acquire timeout
+		 */
+		@XmlElement
+		public int getAcquireTimeout() {
+			return statistics.getAcquireTimeout();
+		}
+
+		/**
+		 * Gets the number of open connections.
+		 *
+		 * @return the total
+		 */
+		@XmlElement
+		public int getTotal() {
+			return statistics.getTotal();
+		}
+
+		/**
+		 * Gets the number of connections in use.
+		 *
+		 * @return the active connection count
+		 */
+		@XmlElement
+		public int getActive() {
+			return statistics.getActive();
+		}
+
+		/**
+		 * Gets the number of idle connections.
+		 *
+		 * @return the idle connection count
+		 */
+		@XmlElement
+		public int getIdle() {
+			return statistics.getIdle();
+		}
+
+		/**
+		 * Gets the number of threads waiting for a connection.
+		 *
+		 * @return the waiting thread count
+		 */
+		@XmlElement
+		public int getWaiting() {
+			return statistics.getWaiting();
+		}
+
+		/**
+		 * Gets the number of connections acquired since the start.
+		 *
+		 * @return the acquire count
+		 */
+		@XmlElement
+		public long getAcquireCount() {
+			return statistics.getAcquireCount();
+		}
+
+		/**
+		 * Gets the number of failed connection requests (e.g. timeouts).
+		 *
+		 * @return the failure count
+		 */
+		@XmlElement
+		public long getAcquireFailures() {
+			return statistics.getAcquireFailures();
+		}
+
+		/**
+		 * Gets the average time to get a connection, in milliseconds.
+		 *
+		 * @return the average acquire time
+		 */
+		@XmlElement
+		public double getAverageAcquireTime() {
+			return statistics.getAverageAcquireTime();
+		}
+
+		/**
+		 * Gets the longest time to get a connection, in milliseconds.
+		 *
+		 * @return the max acquire time
+		 */
+		@XmlElement
+		public double getMaxAcquireTime() {
+			return statistics.getMaxAcquireTime();
+		}
+	}
+
+	/**
+	 * Gets the state of the database connection pools (one per subsystem).
+	 *
+	 * @return the pool statistics
+	 * @throws WebApplicationException the web application exception
+	 */
+	@GET
+	@Path("database/pools")
+	@RolesAllowed("admin")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public List<RsConnectionPoolStatistics> getConnectionPools() throws WebApplicationException {
+		logger.debug("REST request, get connection pool statistics.");
+		List<RsConnectionPoolStatistics> pools = new ArrayList<RsConnectionPoolStatistics>();
+		for (ConnectionPools.PoolStatistics statistics : Database.getPoolStatistics()) {
+			pools.add(new RsConnectionPoolStatistics(statistics));
+		}
+		return pools;
+	}
+
+	/**
+	 * Empties the second-level cache, e.g. after changes made directly in the
+	 * database, and resets the statistics.
+	 *
+	 * @throws WebApplicationException the web application exception
+	 */
+	@DELETE
+	@Path("database/cache")
+	@RolesAllowed("admin")
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public void clearCache() throws WebApplicationException {
+		logger.debug("REST request, clear the cache.");
+		Netshot.aaaLogger.info("The second-level cache is cleared via REST.");
+		Cache cache = Database.getCache();
+		cache.evictEntityRegions();
+		cache.evictCollectionRegions();
+		cache.evictQueryRegions();
+		cache.evictNaturalIdRegions();
+		Database.getStatistics().clear();
+	}
+
 }
 
 
@@ -25,14 +25,17 @@ import java.util.Properties;
 
 import onl.netfishers.netshot.work.Task;
 import onl.netfishers.netshot.work.TaskJob;
+import onl.netfishers.netshot.work.TaskLogStore;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.quartz.Job;
 import org.quartz.JobBuilder;
 import org.quartz.JobDetail;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.SchedulerFactory;
+import org.quartz.SimpleScheduleBuilder;
 import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
 import org.quartz.impl.StdSchedulerFactory;
@@ -95,6 +98,7 @@ public class TaskManager {
 			session.saveOrUpdate(task);
 			session.getTransaction().commit();
 			logger.trace("Task successfully cancelled.");
+			EventBus.publishTaskStatus(task);
 		}
 		catch (HibernateException e) {
 			session.getTransaction().rollback();
@@ -104,6 +108,7 @@ public class TaskManager {
 		finally {
 			session.close();
 		}
+		TaskLogStore.finish(task);
 	}
 
 	/**
@@ -119,8 +124,7 @@ public class TaskManager {
 		Session session = Database.getSession();
 		try {
 			session.beginTransaction();
-			task.onSchedule();
-			task.setScheduled();
+			TaskManager.prepareTask(task);
 			session.saveOrUpdate(task);
 			session.getTransaction().commit();
 			session.evict(task);
@@ -134,8 +138,29 @@ public class TaskManager {
 		finally {
 			session.close();
 		}
+		TaskManager.scheduleTask(task);
+	}
 
+	/**
+	 * Prepares a task to be saved by the caller, within its own transaction
+	 * (e.g. along with other objects). Once this transaction is committed, the
+	 * task must be passed to scheduleTask.
+	 *
+	 * @param task the task
+	 */
+	static public void prepareTask(Task task) {
+		task.onSchedule();
+		task.setScheduled();
+	}
 
+	/**
+	 * Adds a task, already prepared and saved to the database, to the scheduler.
+	 *
+	 * @param task the task
+	 * @throws SchedulerException the scheduler exception
+	 */
+	static public void scheduleTask(Task task) throws SchedulerException {
+		EventBus.publishTaskStatus(task);
 		JobDetail job = JobBuilder.newJob(TaskJob.class)
 				.withIdentity(task.getIdentity()).build();
 		job.getJobDataMap().put(TaskJob.NETSHOT_TASK, new Long(task.getId()));
@@ -151,6 +176,30 @@ public class TaskManager {
 		logger.trace("Task successfully added to the scheduler.");
 	}
 
+	/**
+	 * Schedules an internal job (which is not a task, i.e. not saved in the
+	 * database) to run every given number of minutes.
+	 *
+	 * @param jobClass the job class
+	 * @param name the job name
+	 * @param intervalMinutes the interval between two runs, in minutes
+	 * @throws SchedulerException the scheduler exception
+	 */
+	static public void scheduleInternalJob(Class<? extends Job> jobClass, String name, int intervalMinutes)
+			throws SchedulerException {
+		logger.debug("Scheduling the internal job {} every {} minute(s).", name, intervalMinutes);
+		JobDetail job = JobBuilder.newJob(jobClass)
+				.withIdentity(name, "Internal").build();
+		Calendar first = Calendar.getInstance();
+		first.add(Calendar.MINUTE, intervalMinutes);
+		Trigger trigger = TriggerBuilder.newTrigger()
+				.withIdentity(name, "Internal")
+				.startAt(first.getTime())
+				.withSchedule(SimpleScheduleBuilder.repeatMinutelyForever(intervalMinutes))
+				.build();
+		scheduler.scheduleJob(job, trigger);
+	}
+
 	/**
 	 * Repeat task.
 	 *
@@ -31,7 +31,10 @@ import javax.xml.bind.annotation.XmlRootElement;
 
 import onl.netfishers.netshot.Netshot;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.jasypt.util.password.BasicPasswordEncryptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +43,8 @@ import org.slf4j.LoggerFactory;
  * The User class represents a Netshot user.
  */
 @Entity(name = "\"user\"")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NaturalIdCache
 @XmlRootElement @XmlAccessorType(value = XmlAccessType.NONE)
 public class User implements Principal {
 
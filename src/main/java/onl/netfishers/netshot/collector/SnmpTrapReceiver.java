@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import onl.netfishers.netshot.ConnectionPools;
 import onl.netfishers.netshot.Netshot;
 import onl.netfishers.netshot.device.DeviceDriver;
 import onl.netfishers.netshot.device.Network4Address;
@@ -149,6 +150,7 @@ public class SnmpTrapReceiver extends Collector implements CommandResponder {
 	 */
 	@Override
 	public void processPdu(CommandResponderEvent event) {
+		ConnectionPools.use(ConnectionPools.Pool.COLLECTORS);
 		logger.trace("Incoming SNMP message from {}.", event.getPeerAddress());
 		if (event.getSecurityLevel() == SecurityLevel.NOAUTH_NOPRIV
 				&& (event.getSecurityModel() == SecurityModel.SECURITY_MODEL_SNMPv1 || event
@@ -25,6 +25,7 @@ import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.SocketException;
 
+import onl.netfishers.netshot.ConnectionPools;
 import onl.netfishers.netshot.Netshot;
 import onl.netfishers.netshot.device.DeviceDriver;
 import onl.netfishers.netshot.device.Network4Address;
@@ -89,6 +90,7 @@ public class SyslogServer extends Collector {
 	@Override
 	public void run() {
 
+		ConnectionPools.use(ConnectionPools.Pool.COLLECTORS);
 		try {
 			socket = new DatagramSocket(udpPort);
 			logger.debug("Now listening for Syslog messages on UDP port {}.",
@@ -21,6 +21,7 @@ package onl.netfishers.netshot.compliance;
 import java.io.Serializable;
 import java.util.Date;
 
+import javax.persistence.Column;
 import javax.persistence.Embeddable;
 import javax.persistence.EmbeddedId;
 import javax.persistence.Entity;
@@ -212,6 +213,9 @@ public class CheckResult {
 	/** The result. */
 	private CheckResult.ResultOption result = CheckResult.ResultOption.NOTAPPLICABLE;
 
+	/** The digest of the inputs (rule and device data) this result was computed from. */
+	private String inputDigest;
+
 	/**
 	 * Instantiates a new check result.
 	 */
@@ -346,6 +350,25 @@ public class CheckResult {
 		this.result = result;
 	}
 
+	/**
+	 * Gets the input digest.
+	 *
+	 * @return the input digest, null if the result can't be reused
+	 */
+	@Column(length = 64)
+	public String getInputDigest() {
+		return inputDigest;
+	}
+
+	/**
+	 * Sets the input digest.
+	 *
+	 * @param inputDigest the new input digest
+	 */
+	public void setInputDigest(String inputDigest) {
+		this.inputDigest = inputDigest;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
 	 */
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.compliance;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.hibernate.Session;
+
+/**
+ * A CheckResultChange records the transition of the compliance result of a
+ * device for a given rule (e.g. from conforming to non-conforming).
+ * Rule and device are only referenced by ID, so the history stays compact and
+ * doesn't prevent rules or devices from being deleted.
+ */
+@Entity
+@Table(indexes = {
+		@Index(name = "checkResultChangeDeviceRuleIndex", columnList = "deviceId, ruleId, changeDate"),
+		@Index(name = "checkResultChangeDateIndex", columnList = "changeDate") })
+@XmlRootElement @XmlAccessorType(value = XmlAccessType.NONE)
+public class CheckResultChange {
+
+	/** The id. */
+	private long id;
+
+	/** The rule ID. */
+	private long ruleId;
+
+	/** The device ID. */
+	private long deviceId;
+
+	/** The change date. */
+	private Date changeDate = new Date();
+
+	/** The previous result (null if there was none). */
+	private CheckResult.ResultOption oldResult;
+
+	/** The new result (null if the result was removed). */
+	private CheckResult.ResultOption newResult;
+
+	/**
+	 * Instantiates a new check result change.
+	 */
+	protected CheckResultChange() {
+	}
+
+	/**
+	 * Instantiates a new check result change.
+	 *
+	 * @param ruleId the rule ID
+	 * @param deviceId the device ID
+	 * @param oldResult the previous result
+	 * @param newResult the new result
+	 */
+	public CheckResultChange(long ruleId, long deviceId, CheckResult.ResultOption oldResult,
+			CheckResult.ResultOption newResult) {
+		this.ruleId = ruleId;
+		this.deviceId = deviceId;
+		this.oldResult = oldResult;
+		this.newResult = newResult;
+	}
+
+	/**
+	 * Records the removal of all the results of a device, before the device is
+	 * deleted (the results are then deleted by cascade).
+	 *
+	 * @param session the session
+	 * @param deviceId the device ID
+	 */
+	public static void recordDeviceRemoval(Session session, long deviceId) {
+		@SuppressWarnings("unchecked")
+		List<Object[]> results = session
+			.createQuery("select c.key.rule.id, c.result from CheckResult c where c.key.device.id = :id")
+			.setLong("id", deviceId)
+			.list();
+		for (Object[] result : results) {
+			session.save(new CheckResultChange((Long) result[0], deviceId, (CheckResult.ResultOption) result[1], null));
+		}
+	}
+
+	/**
+	 * Records the removal of all the results of a rule, before the rule is
+	 * deleted (the results are then deleted by cascade).
+	 *
+	 * @param session the session
+	 * @param ruleId the rule ID
+	 */
+	public static void recordRuleRemoval(Session session, long ruleId) {
+		@SuppressWarnings("unchecked")
+		List<Object[]> results = session
+			.createQuery("select c.key.device.id, c.result from CheckResult c where c.key.rule.id = :id")
+			.setLong("id", ruleId)
+			.list();
+		for (Object[] result : results) {
+			session.save(new CheckResultChange(ruleId, (Long) result[0], (CheckResult.ResultOption) result[1], null));
+		}
+	}
+
+	/**
+	 * Gets the id.
+	 *
+	 * @return the id
+	 */
+	@Id
+	@GeneratedValue
+	@XmlElement
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Sets the id.
+	 *
+	 * @param id the new id
+	 */
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Gets the rule ID.
+	 *
+	 * @return the rule ID
+	 */
+	@XmlElement
+	public long getRuleId() {
+		return ruleId;
+	}
+
+	/**
+	 * Sets the rule ID.
+	 *
+	 * @param ruleId the new rule ID
+	 */
+	public void setRuleId(long ruleId) {
+		this.ruleId = ruleId;
+	}
+
+	/**
+	 * Gets the device ID.
+	 *
+	 * @return the device ID
+	 */
+	@XmlElement
+	public long getDeviceId() {
+		return deviceId;
+	}
+
+	/**
+	 * Sets the device ID.
+	 *
+	 * @param deviceId the new device ID
+	 */
+	public void setDeviceId(long deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	/**
+	 * Gets the change date.
+	 *
+	 * @return the change date
+	 */
+	@XmlElement
+	public Date getChangeDate() {
+		return changeDate;
+	}
+
+	/**
+	 * Sets the change date.
+	 *
+	 * @param changeDate the new change date
+	 */
+	public void setChangeDate(Date changeDate) {
+		this.changeDate = changeDate;
+	}
+
+	/**
+	 * Gets the old result.
+	 *
+	 * @return the old result
+	 */
+	@XmlElement
+	public CheckResult.ResultOption getOldResult() {
+		return oldResult;
+	}
+
+	/**
+	 * Sets the old result.
+	 *
+	 * @param oldResult the new old result
+	 */
+	public void setOldResult(CheckResult.ResultOption oldResult) {
+		this.oldResult = oldResult;
+	}
+
+	/**
+	 * Gets the new result.
+	 *
+	 * @return the new result
+	 */
+	@XmlElement
+	public CheckResult.ResultOption getNewResult() {
+		return newResult;
+	}
+
+	/**
+	 * Sets the new result.
+	 *
+	 * @param newResult the new new result
+	 */
+	public void setNewResult(CheckResult.ResultOption newResult) {
+		this.newResult = newResult;
+	}
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.compliance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed configuration text: the normalized lines, the indentation of each
+ * line, and the indentation hierarchy (each line 'owns' the following lines which
+ * are more indented). It is built once and used to extract the sections (blocks)
+ * of a configuration, without splitting and joining the text again.
+ */
+public class ConfigSectionTree {
+
+	/**
+	 * A section of the configuration: the lines below a given (title) line.
+	 */
+	public static class Section {
+
+		/** The title line index, -1 for the whole text. */
+		private int line;
+
+		/** The title, including the parent titles. */
+		private String title;
+
+		private Section(int line, String title) {
+			this.line = line;
+			this.title = title;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+	}
+
+	/** The normalized text. */
+	private String text;
+
+	/** The lines. */
+	private String[] lines;
+
+	/** The offset of each line in the text. */
+	private int[] offsets;
+
+	/** The indentation level of each line. */
+	private int[] indents;
+
+	/** For each line, the index of the first line which is not part of its section. */
+	private int[] sectionEnds;
+
+	/**
+	 * Builds the tree from a configuration text.
+	 *
+	 * @param content the configuration text
+	 */
+	public ConfigSectionTree(String content) {
+		this.text = content.replace("\r", "");
+		this.lines = text.split("\\n");
+		this.offsets = new int[lines.length];
+		this.indents = new int[lines.length];
+		this.sectionEnds = new int[lines.length];
+		int offset = 0;
+		// Stack of the lines whose section is still open
+		int[] stack = new int[lines.length];
+		int depth = 0;
+		for (int l = 0; l < lines.length; l++) {
+			offsets[l] = offset;
+			offset += lines[l].length() + 1;
+			indents[l] = findIndent(lines[l]);
+			while (depth > 0 && indents[stack[depth - 1]] >= indents[l]) {
+				sectionEnds[stack[--depth]] = l;
+			}
+			stack[depth++] = l;
+		}
+		while (depth > 0) {
+			sectionEnds[stack[--depth]] = lines.length;
+		}
+	}
+
+	private static int findIndent(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			if (line.charAt(i) != ' ') {
+				return i;
+			}
+		}
+		return line.length();
+	}
+
+	/**
+	 * Gets the section representing the whole text.
+	 *
+	 * @return the root section
+	 */
+	public Section getRoot() {
+		return new Section(-1, "");
+	}
+
+	/**
+	 * Gets the number of lines.
+	 *
+	 * @return the line count
+	 */
+	public int getLineCount() {
+		return lines.length;
+	}
+
+	/**
+	 * Finds the sections, within the given parent section, whose title line
+	 * matches the pattern. The lines of a matching section are not searched
+	 * any further.
+	 *
+	 * @param parent the parent section
+	 * @param pattern the pattern to match the title lines against
+	 * @return the matching sections
+	 */
+	public List<Section> findSections(Section parent, Pattern pattern) {
+		List<Section> sections = new ArrayList<Section>();
+		int start = parent.line + 1;
+		int end = parent.line < 0 ? lines.length : sectionEnds[parent.line];
+		int l = start;
+		while (l < end) {
+			if (pattern.matcher(lines[l]).matches()) {
+				String trimmedLine = lines[l].trim();
+				String title = parent.title.length() > 0 ? parent.title + " > " + trimmedLine : trimmedLine;
+				sections.add(new Section(l, title));
+				l = sectionEnds[l];
+			}
+			else {
+				l++;
+			}
+		}
+		return sections;
+	}
+
+	/**
+	 * Gets the text of a section (without the title line).
+	 *
+	 * @param section the section
+	 * @return the text
+	 */
+	public String getText(Section section) {
+		if (section.line < 0) {
+			return text;
+		}
+		int first = section.line + 1;
+		int last = sectionEnds[section.line] - 1;
+		if (last < first) {
+			return "";
+		}
+		return text.substring(offsets[first], offsets[last] + lines[last].length());
+	}
+
+}
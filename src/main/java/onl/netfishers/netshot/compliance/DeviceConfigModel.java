@@ -0,0 +1,444 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.compliance;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.xml.bind.DatatypeConverter;
+
+import onl.netfishers.netshot.compliance.rules.TextRule;
+import onl.netfishers.netshot.compliance.rules.TextRuleSet;
+import onl.netfishers.netshot.device.Device;
+import onl.netfishers.netshot.device.Module;
+import onl.netfishers.netshot.device.Network4Address;
+import onl.netfishers.netshot.device.Network6Address;
+import onl.netfishers.netshot.device.NetworkInterface;
+import onl.netfishers.netshot.device.attribute.ConfigAttribute;
+import onl.netfishers.netshot.device.attribute.DeviceAttribute;
+import onl.netfishers.netshot.diagnostic.DiagnosticResult;
+import onl.netfishers.netshot.device.script.helper.JsDeviceHelper;
+import onl.netfishers.netshot.work.TaskLogger;
+
+import org.hibernate.Session;
+
+/**
+ * The parsed configuration of a device, for one compliance check run.
+ * The section tree of each field is built on first use, then shared by
+ * all the rules checked against the same device.
+ * It also holds the previous results of the device, and the digests of the
+ * device data, so that a rule isn't checked again when neither the rule nor
+ * the device changed since the last check.
+ */
+public class DeviceConfigModel {
+
+	/** The device. */
+	private Device device;
+
+	/** The device helper, to read the fields. */
+	private JsDeviceHelper deviceHelper;
+
+	/** The trees, per field (null when the field doesn't exist). */
+	private Map<String, ConfigSectionTree> trees = new HashMap<String, ConfigSectionTree>();
+
+	/** The blocks, per field and context. */
+	private Map<String, List<ConfigSectionTree.Section>> blocks = new HashMap<String, List<ConfigSectionTree.Section>>();
+
+	/** The groups of the compiled text rules, per rule ID. */
+	private Map<Long, TextRuleSet.Group> textRuleGroups = new HashMap<Long, TextRuleSet.Group>();
+
+	/** The block scans, per text rule group. */
+	private Map<TextRuleSet.Group, Map<ConfigSectionTree.Section, TextRuleSet.BlockScan>> blockScans =
+			new IdentityHashMap<TextRuleSet.Group, Map<ConfigSectionTree.Section, TextRuleSet.BlockScan>>();
+
+	/** The previous check results of the device, per rule ID. */
+	private Map<Long, CheckResult> previousResults = new HashMap<Long, CheckResult>();
+
+	/** The IDs of the rules checked during this run. */
+	private Set<Long> checkedRules = new HashSet<Long>();
+
+	/** The IDs of the rules whose result depends on more than the device data. */
+	private Set<Long> volatileRules = new HashSet<Long>();
+
+	/** The digest of the device data. */
+	private String deviceDigest;
+
+	/** The digest of the last configuration. */
+	private String configDigest;
+
+	/** The date of the check, exemptions expiring before don't apply. */
+	private Date checkDate = new Date();
+
+	/** The expiration date of the exemptions of the device, per rule ID (null if not loaded). */
+	private Map<Long, Date> exemptions;
+
+	/**
+	 * Instantiates a new model for the given device.
+	 *
+	 * @param device the device
+	 * @param session the session
+	 * @param taskLogger the task logger
+	 */
+	public DeviceConfigModel(Device device, Session session, TaskLogger taskLogger) {
+		this.device = device;
+		try {
+			this.deviceHelper = new JsDeviceHelper(device, session, taskLogger, true);
+		}
+		catch (Exception e) {
+			this.deviceHelper = null;
+		}
+	}
+
+	/**
+	 * Gets the device.
+	 *
+	 * @return the device
+	 */
+	public Device getDevice() {
+		return device;
+	}
+
+	/**
+	 * Gets the section tree of a field.
+	 *
+	 * @param field the field name
+	 * @return the tree, or null if there is no such field on the device
+	 */
+	public ConfigSectionTree getTree(String field) {
+		if (trees.containsKey(field)) {
+			return trees.get(field);
+		}
+		ConfigSectionTree tree = null;
+		if (deviceHelper != null) {
+			try {
+				Object value = deviceHelper.get(field);
+				if (value != null) {
+					tree = new ConfigSectionTree(value.toString());
+				}
+			}
+			catch (Exception e) {
+				tree = null;
+			}
+		}
+		trees.put(field, tree);
+		return tree;
+	}
+
+	/**
+	 * Gets the blocks of a field matching a context. The blocks are computed
+	 * once per field and context.
+	 *
+	 * @param field the field name
+	 * @param context the context (as defined in the rule)
+	 * @param hierarchy the compiled context, one pattern per level
+	 * @return the blocks, or null if there is no such field on the device
+	 */
+	public List<ConfigSectionTree.Section> getBlocks(String field, String context, List<Pattern> hierarchy) {
+		String key = String.format("%s\0%s", field, context == null ? "" : context);
+		if (blocks.containsKey(key)) {
+			return blocks.get(key);
+		}
+		ConfigSectionTree tree = this.getTree(field);
+		List<ConfigSectionTree.Section> fieldBlocks = null;
+		if (tree != null) {
+			fieldBlocks = new ArrayList<ConfigSectionTree.Section>();
+			fieldBlocks.add(tree.getRoot());
+			for (Pattern pattern : hierarchy) {
+				List<ConfigSectionTree.Section> selectedBlocks = new ArrayList<ConfigSectionTree.Section>();
+				for (ConfigSectionTree.Section block : fieldBlocks) {
+					selectedBlocks.addAll(tree.findSections(block, pattern));
+				}
+				fieldBlocks = selectedBlocks;
+			}
+		}
+		blocks.put(key, fieldBlocks);
+		return fieldBlocks;
+	}
+
+	/**
+	 * Registers the compiled text rules of a policy, so that the grouped
+	 * rules share the scans of the blocks.
+	 *
+	 * @param textRuleSet the compiled text rules
+	 */
+	public void addTextRules(TextRuleSet textRuleSet) {
+		textRuleGroups.putAll(textRuleSet.getGroups());
+	}
+
+	/**
+	 * Gets the group of a text rule.
+	 *
+	 * @param rule the text rule
+	 * @return the group, or null if the rule is to be checked alone
+	 */
+	public TextRuleSet.Group getTextRuleGroup(TextRule rule) {
+		return textRuleGroups.get(rule.getId());
+	}
+
+	/**
+	 * Gets the block scans of a text rule group, for this device.
+	 *
+	 * @param group the group
+	 * @return the scans, per block
+	 */
+	public Map<ConfigSectionTree.Section, TextRuleSet.BlockScan> getBlockScans(TextRuleSet.Group group) {
+		Map<ConfigSectionTree.Section, TextRuleSet.BlockScan> scans = blockScans.get(group);
+		if (scans == null) {
+			scans = new IdentityHashMap<ConfigSectionTree.Section, TextRuleSet.BlockScan>();
+			blockScans.put(group, scans);
+		}
+		return scans;
+	}
+
+	/**
+	 * Loads the existing check results of the device.
+	 *
+	 * @param session the session
+	 */
+	public void loadPreviousResults(Session session) {
+		@SuppressWarnings("unchecked")
+		List<CheckResult> results = session
+			.createQuery("select c from CheckResult c where c.key.device.id = :id")
+			.setLong("id", device.getId())
+			.list();
+		for (CheckResult result : results) {
+			previousResults.put(result.getRule().getId(), result);
+		}
+	}
+
+	/**
+	 * Loads the exemptions of the device (in one query).
+	 *
+	 * @param session the session
+	 */
+	public void loadExemptions(Session session) {
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = session
+			.createQuery("select e.key.rule.id, e.expirationDate from Exemption e where e.key.device.id = :id")
+			.setLong("id", device.getId())
+			.list();
+		this.exemptions = new HashMap<Long, Date>();
+		for (Object[] row : rows) {
+			exemptions.put((Long) row[0], (Date) row[1]);
+		}
+	}
+
+	/**
+	 * Sets the exemptions of the device, when they have been loaded in bulk
+	 * (see loadGroupExemptions).
+	 *
+	 * @param exemptions the expiration dates, per rule ID
+	 */
+	public void setExemptions(Map<Long, Date> exemptions) {
+		this.exemptions = exemptions == null ? new HashMap<Long, Date>() : exemptions;
+	}
+
+	/**
+	 * Loads the current exemptions of all the devices of a group, in one query.
+	 *
+	 * @param session the session
+	 * @param groupId the group ID
+	 * @return the expiration dates per rule ID, per device ID
+	 */
+	public static Map<Long, Map<Long, Date>> loadGroupExemptions(Session session, long groupId) {
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = session
+			.createQuery("select d.id, e.key.rule.id, e.expirationDate from Exemption e, DeviceGroup g "
+					+ "join g.cachedDevices d where g.id = :id and e.key.device = d and e.expirationDate > :now")
+			.setLong("id", groupId)
+			.setTimestamp("now", new Date())
+			.list();
+		Map<Long, Map<Long, Date>> exemptions = new HashMap<Long, Map<Long, Date>>();
+		for (Object[] row : rows) {
+			Map<Long, Date> deviceExemptions = exemptions.get((Long) row[0]);
+			if (deviceExemptions == null) {
+				deviceExemptions = new HashMap<Long, Date>();
+				exemptions.put((Long) row[0], deviceExemptions);
+			}
+			deviceExemptions.put((Long) row[1], (Date) row[2]);
+		}
+		return exemptions;
+	}
+
+	/**
+	 * Checks whether the device is exempted from the given rule. Uses the loaded
+	 * exemptions if any, otherwise falls back to the exemptions of the device.
+	 *
+	 * @param rule the rule
+	 * @return true if the device is exempted from the rule
+	 */
+	public boolean isExempted(Rule rule) {
+		if (exemptions == null) {
+			return device.isExempted(rule);
+		}
+		Date expirationDate = exemptions.get(rule.getId());
+		return expirationDate != null && expirationDate.after(checkDate);
+	}
+
+	/**
+	 * Gets the previous result of a rule on this device, and flags the rule as checked.
+	 *
+	 * @param rule the rule
+	 * @return the previous result, or null if none
+	 */
+	public CheckResult takePreviousResult(Rule rule) {
+		checkedRules.add(rule.getId());
+		return previousResults.get(rule.getId());
+	}
+
+	/**
+	 * Deletes the previous results of the rules which weren't checked during
+	 * this run (e.g. policies not applying to the device anymore).
+	 *
+	 * @param session the session
+	 */
+	public void removeStaleResults(Session session) {
+		for (CheckResult result : previousResults.values()) {
+			if (!checkedRules.contains(result.getRule().getId())) {
+				session.save(new CheckResultChange(result.getRule().getId(), device.getId(), result.getResult(), null));
+				session.delete(result);
+			}
+		}
+	}
+
+	/**
+	 * Flags the result of the rule as depending on more than the device data,
+	 * so it won't be reused.
+	 *
+	 * @param rule the rule
+	 */
+	public void setVolatile(Rule rule) {
+		volatileRules.add(rule.getId());
+	}
+
+	/**
+	 * Checks whether the result of the rule depends on more than the device data.
+	 *
+	 * @param rule the rule
+	 * @return true if the result of the rule can't be reused
+	 */
+	public boolean isVolatile(Rule rule) {
+		return volatileRules.contains(rule.getId());
+	}
+
+	/**
+	 * Computes the digest of the inputs of the check of a rule on this device:
+	 * rule ID and version, device data, last configuration and exemption state.
+	 *
+	 * @param rule the rule
+	 * @return the digest
+	 */
+	public String getInputDigest(Rule rule) {
+		if (deviceDigest == null) {
+			deviceDigest = this.computeDeviceDigest();
+		}
+		if (configDigest == null) {
+			configDigest = this.computeConfigDigest();
+		}
+		List<String> items = new ArrayList<String>();
+		items.add(Long.toString(rule.getId()));
+		items.add(Integer.toString(rule.getVersion()));
+		items.add(deviceDigest);
+		items.add(configDigest);
+		items.add(Boolean.toString(this.isExempted(rule)));
+		return digest(items);
+	}
+
+	private String computeDeviceDigest() {
+		List<String> items = new ArrayList<String>();
+		items.add(String.format("driver=%s", device.getDriver()));
+		items.add(String.format("name=%s", device.getName()));
+		items.add(String.format("family=%s", device.getFamily()));
+		items.add(String.format("location=%s", device.getLocation()));
+		items.add(String.format("contact=%s", device.getContact()));
+		items.add(String.format("softwareVersion=%s", device.getSoftwareVersion()));
+		items.add(String.format("serialNumber=%s", device.getSerialNumber()));
+		items.add(String.format("networkClass=%s", device.getNetworkClass()));
+		List<String> collectionItems = new ArrayList<String>();
+		for (DeviceAttribute attribute : device.getAttributes()) {
+			collectionItems.add(String.format("attribute:%s=%s", attribute.getName(), attribute.getData()));
+		}
+		for (String virtualDevice : device.getVirtualDevices()) {
+			collectionItems.add(String.format("virtualDevice:%s", virtualDevice));
+		}
+		for (String vrf : device.getVrfInstances()) {
+			collectionItems.add(String.format("vrf:%s", vrf));
+		}
+		for (Module module : device.getModules()) {
+			collectionItems.add(String.format("module:%s|%s|%s", module.getSlot(),
+					module.getPartNumber(), module.getSerialNumber()));
+		}
+		for (NetworkInterface networkInterface : device.getNetworkInterfaces()) {
+			List<String> ips = new ArrayList<String>();
+			for (Network4Address address : networkInterface.getIp4Addresses()) {
+				ips.add(String.format("%s/%d/%s", address.getIp(), address.getPrefixLength(), address.getAddressUsage()));
+			}
+			for (Network6Address address : networkInterface.getIp6Addresses()) {
+				ips.add(String.format("%s/%d/%s", address.getIp(), address.getPrefixLength(), address.getAddressUsage()));
+			}
+			Collections.sort(ips);
+			collectionItems.add(String.format("interface:%s|%s|%s|%s|%s|%b|%b|%s", networkInterface.getInterfaceName(),
+					networkInterface.getDescription(), networkInterface.getMacAddress(),
+					networkInterface.getVirtualDevice(), networkInterface.getVrfInstance(),
+					networkInterface.isEnabled(), networkInterface.isLevel3(), ips));
+		}
+		for (DiagnosticResult result : device.getDiagnosticResults()) {
+			collectionItems.add(String.format("diagnostic:%s=%s", result.getDiagnosticName(), result.getData()));
+		}
+		Collections.sort(collectionItems);
+		items.addAll(collectionItems);
+		return digest(items);
+	}
+
+	private String computeConfigDigest() {
+		List<String> items = new ArrayList<String>();
+		if (device.getLastConfig() != null) {
+			for (ConfigAttribute attribute : device.getLastConfig().getAttributes()) {
+				items.add(String.format("%s=%s", attribute.getName(), attribute.getData()));
+			}
+		}
+		Collections.sort(items);
+		return digest(items);
+	}
+
+	private static String digest(List<String> items) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String item : items) {
+				digest.update(item.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+			return DatatypeConverter.printHexBinary(digest.digest());
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Unable to compute the digest", e);
+		}
+	}
+
+}
@@ -19,7 +19,6 @@
 package onl.netfishers.netshot.compliance;
 
 import java.util.Date;
-import java.util.regex.PatternSyntaxException;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -31,15 +30,17 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
-import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DeviceDriver;
 import onl.netfishers.netshot.device.DeviceGroup;
-import onl.netfishers.netshot.device.Module;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * The Class HardwareRule.
  */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @XmlRootElement @XmlAccessorType(value = XmlAccessType.NONE)
 public class HardwareRule {
 
@@ -238,61 +239,6 @@ public class HardwareRule {
 		this.id = id;
 	}
 
-	/**
-	 * Check.
-	 *
-	 * @param device the device
-	 */
-	public void check(Device device) {
-		if (targetGroup != null && !targetGroup.getCachedDevices().contains(device)) {
-			return;
-		}
-		if (driver != null && !driver.equals(device.getDriver())) {
-			return;
-		}
-		if (familyRegExp) {
-			try {
-				if (!device.getFamily().matches(family)) {
-					return;
-				}
-			}
-			catch (PatternSyntaxException e) {
-				return;
-			}
-		}
-		else {
-			if (!family.equals("") && !device.getFamily().equals(family)) {
-				return;
-			}
-		}
-
-		for (Module module : device.getModules()) {
-			if (partNumberRegExp) {
-				try {
-					if (!module.getPartNumber().matches(partNumber)) {
-						continue;
-					}
-				}
-				catch (PatternSyntaxException e) {
-					return;
-				}
-			}
-			else {
-				if (!partNumber.equals("") && !module.getPartNumber().equals(partNumber)) {
-					continue;
-				}
-			}
-			if (endOfLife != null && (device.getEolDate() == null || endOfLife.before(device.getEolDate()))) {
-				device.setEolDate(endOfLife);
-				device.setEolModule(module);
-			}
-			if (endOfSale != null && (device.getEosDate() == null || endOfSale.before(device.getEosDate()))) {
-				device.setEosDate(endOfSale);
-				device.setEosModule(module);
-			}
-		}
-	}
-
 	/**
 	 * Checks if is family reg exp.
 	 *
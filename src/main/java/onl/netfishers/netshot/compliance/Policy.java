@@ -18,7 +18,9 @@
  */
 package onl.netfishers.netshot.compliance;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.persistence.CascadeType;
@@ -32,17 +34,22 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import onl.netfishers.netshot.compliance.rules.TextRuleSet;
 import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DeviceGroup;
 import onl.netfishers.netshot.work.TaskLogger;
 
+import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.NaturalId;
 
 /**
  * A policy is a set of rules, applied to a group of devices.
  */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @XmlRootElement @XmlAccessorType(value = XmlAccessType.NONE)
 public class Policy {
 
@@ -85,6 +92,28 @@ public class Policy {
 		rule.setPolicy(this);
 	}
 
+	/**
+	 * Gets the policies applied to any of the given groups (e.g. the groups of
+	 * a device). Only the policy table is involved, so the result is served by
+	 * the query cache until a policy is changed.
+	 *
+	 * @param session the session
+	 * @param groupIds the group IDs
+	 * @return the policies
+	 * @throws HibernateException in case of database error
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Policy> getGroupPolicies(Session session, Set<Long> groupIds) throws HibernateException {
+		if (groupIds.isEmpty()) {
+			return new ArrayList<Policy>();
+		}
+		return session
+			.createQuery("from Policy p where p.targetGroup.id in (:groupIds)")
+			.setParameterList("groupIds", groupIds)
+			.setCacheable(true)
+			.list();
+	}
+
 	/**
 	 * Check.
 	 *
@@ -106,8 +135,39 @@ public class Policy {
 	 * @param session the session
 	 */
 	public void check(Device device, Session session, TaskLogger taskLogger) {
+		this.check(device, session, taskLogger, new DeviceConfigModel(device, session, taskLogger));
+	}
+
+	/**
+	 * Check, sharing the parsed configuration of the device with the
+	 * other policies. A rule isn't checked again if its previous result
+	 * was computed from the same inputs (rule version, device data,
+	 * configuration and exemption state).
+	 *
+	 * @param device the device
+	 * @param session the session
+	 * @param taskLogger the task logger
+	 * @param configModel the parsed configuration of the device
+	 */
+	public void check(Device device, Session session, TaskLogger taskLogger, DeviceConfigModel configModel) {
+		configModel.addTextRules(TextRuleSet.forPolicy(this));
 		for (Rule rule : rules) {
-			rule.check(device, session, taskLogger);
+			String inputDigest = configModel.getInputDigest(rule);
+			CheckResult previousResult = configModel.takePreviousResult(rule);
+			if (previousResult != null) {
+				if (inputDigest.equals(previousResult.getInputDigest())) {
+					taskLogger.debug(String.format("Rule '%s': no change since the last check, keeping the result.",
+							rule.getName()));
+					continue;
+				}
+			}
+			rule.check(device, session, taskLogger, configModel);
+			if (!configModel.isVolatile(rule) && session.contains(rule)) {
+				CheckResult result = (CheckResult) session.get(CheckResult.class, new CheckResult.Key(rule, device));
+				if (result != null) {
+					result.setInputDigest(inputDigest);
+				}
+			}
 		}
 	}
 
@@ -140,6 +200,7 @@ public class Policy {
 	 * @return the rules
 	 */
 	@OneToMany(cascade = CascadeType.ALL, mappedBy = "policy")
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	public Set<Rule> getRules() {
 		return rules;
 	}
@@ -19,6 +19,7 @@
 package onl.netfishers.netshot.compliance;
 
 import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.persistence.CascadeType;
@@ -32,12 +33,15 @@ import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.hibernate.Session;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +59,7 @@ import onl.netfishers.netshot.work.TaskLogger;
  * A concrete implementation is the Javascript-based script rule.
  */
 @Entity @Inheritance(strategy = InheritanceType.JOINED)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @Table(uniqueConstraints = {@UniqueConstraint(columnNames = {"policy", "name"})})
 @XmlRootElement @XmlAccessorType(value = XmlAccessType.NONE)
 @JsonTypeInfo(use = JsonTypeInfo.Id.MINIMAL_CLASS, include = JsonTypeInfo.As.PROPERTY, property = "type")
@@ -94,6 +99,9 @@ public abstract class Rule {
 	/** The name. */
 	protected String name = "";
 
+	/** The version, incremented on each change of the rule. */
+	private int version;
+
 	/** The exemptions. */
 	private Set<Exemption> exemptions = new HashSet<Exemption>();
 
@@ -120,6 +128,8 @@ public abstract class Rule {
 
 	/**
 	 * Sets the check result.
+	 * When the rule is persistent, the existing result is only updated if it
+	 * changed, and the transitions are recorded as CheckResultChange.
 	 *
 	 * @param device the device
 	 * @param result the result
@@ -130,7 +140,21 @@ public abstract class Rule {
 		CheckResult checkResult = new CheckResult(this, device, result);
 		checkResult.setComment(comment);
 		if (session.contains(this)) {
-			session.saveOrUpdate(checkResult);
+			CheckResult existingResult = (CheckResult) session.get(CheckResult.class, checkResult.getKey());
+			if (existingResult == null) {
+				session.save(checkResult);
+				session.save(new CheckResultChange(this.getId(), device.getId(), null, result));
+			}
+			else if (existingResult.getResult() != result) {
+				session.save(new CheckResultChange(this.getId(), device.getId(), existingResult.getResult(), result));
+				existingResult.setResult(result);
+				existingResult.setComment(comment);
+				existingResult.setCheckDate(checkResult.getCheckDate());
+			}
+			else if (!Objects.equals(checkResult.getComment(), existingResult.getComment())) {
+				existingResult.setComment(comment);
+				existingResult.setCheckDate(checkResult.getCheckDate());
+			}
 		}
 		else {
 			this.checkResults.add(checkResult);
@@ -157,6 +181,34 @@ public abstract class Rule {
 		}
 	}
 
+	/**
+	 * Check, using the parsed configuration of the device, which is shared
+	 * between the rules checked against the same device.
+	 *
+	 * @param device the device
+	 * @param session the session
+	 * @param taskLogger the task logger
+	 * @param configModel the parsed configuration of the device
+	 */
+	public void check(Device device, Session session, TaskLogger taskLogger, DeviceConfigModel configModel) {
+		this.check(device, session, taskLogger);
+	}
+
+	/**
+	 * Checks whether the device is exempted from this rule, using the exemptions
+	 * loaded in the model if available.
+	 *
+	 * @param device the device
+	 * @param configModel the parsed configuration of the device (can be null)
+	 * @return true if the device is exempted
+	 */
+	protected boolean isExempted(Device device, DeviceConfigModel configModel) {
+		if (configModel != null) {
+			return configModel.isExempted(this);
+		}
+		return device.isExempted(this);
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#equals(java.lang.Object)
 	 */
@@ -263,6 +315,25 @@ public abstract class Rule {
 		this.name = name;
 	}
 
+	/**
+	 * Gets the version.
+	 *
+	 * @return the version
+	 */
+	@Version
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the version.
+	 *
+	 * @param version the new version
+	 */
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	/**
 	 * Gets the exemptions.
 	 *
@@ -0,0 +1,357 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.compliance;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import onl.netfishers.netshot.compliance.SoftwareRule.ConformanceLevel;
+import onl.netfishers.netshot.device.Device;
+import onl.netfishers.netshot.device.Module;
+
+import org.hibernate.Session;
+import org.hibernate.criterion.Property;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The software and hardware rules, compiled once (regular expressions included)
+ * and shared by the compliance tasks until the rules are edited.
+ * For each driver and family seen on the devices, the list of rules which can
+ * possibly apply is computed once and kept (in the original order), so that only
+ * the version and part number criteria remain to be evaluated for each device.
+ */
+public class SoftwareHardwareRuleSet {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(SoftwareHardwareRuleSet.class);
+
+	/** The current compiled set, null if it must be (re)built. */
+	private static volatile SoftwareHardwareRuleSet current;
+
+	/** Incremented each time the rules are edited. */
+	private static long generation = 0;
+
+	/**
+	 * A text criterion of a rule (exact text or regular expression).
+	 */
+	private static class Criterion {
+
+		/** The text, for exact match; empty for any. */
+		private String text;
+
+		/** The compiled regular expression, null for exact match. */
+		private Pattern pattern;
+
+		/** Whether the regular expression is invalid (i.e. never matches). */
+		private boolean invalid = false;
+
+		private Criterion(String text, boolean regExp) {
+			this.text = text == null ? "" : text;
+			if (regExp) {
+				try {
+					this.pattern = Pattern.compile(this.text);
+				}
+				catch (PatternSyntaxException e) {
+					this.invalid = true;
+				}
+			}
+		}
+
+		/**
+		 * Whether the criterion can only match a single value (given by text).
+		 *
+		 * @return true for an exact, non empty text
+		 */
+		private boolean isExact() {
+			return pattern == null && !invalid && !text.isEmpty();
+		}
+
+		private boolean matches(String value) {
+			if (value == null) {
+				value = "";
+			}
+			if (pattern != null) {
+				return pattern.matcher(value).matches();
+			}
+			return text.isEmpty() || text.equals(value);
+		}
+	}
+
+	/**
+	 * A compiled software rule.
+	 */
+	private static class CompiledSoftwareRule {
+
+		/** The ID of the target group, 0 if none. */
+		private long targetGroupId;
+
+		/** The driver, null for any. */
+		private String driver;
+
+		/** The family. */
+		private Criterion family;
+
+		/** The version. */
+		private Criterion version;
+
+		/** The part number (at least one module must match), null if none. */
+		private Criterion partNumber;
+
+		/** The level. */
+		private ConformanceLevel level;
+
+		private CompiledSoftwareRule(SoftwareRule rule) {
+			this.targetGroupId = rule.getTargetGroup() == null ? 0 : rule.getTargetGroup().getId();
+			this.driver = rule.getDriver();
+			this.family = new Criterion(rule.getFamily(), rule.isFamilyRegExp());
+			this.version = new Criterion(rule.getVersion(), rule.isVersionRegExp());
+			if (rule.getPartNumber() != null) {
+				this.partNumber = new Criterion(rule.getPartNumber(), rule.isPartNumberRegExp());
+			}
+			this.level = rule.getLevel();
+		}
+
+		private boolean matches(Device device, Set<Long> groupIds) {
+			if (targetGroupId != 0 && !groupIds.contains(targetGroupId)) {
+				return false;
+			}
+			if (family.invalid || version.invalid || (partNumber != null && partNumber.invalid)) {
+				return false;
+			}
+			if (!version.matches(device.getSoftwareVersion())) {
+				return false;
+			}
+			if (partNumber != null) {
+				for (Module module : device.getModules()) {
+					if (partNumber.matches(module.getPartNumber())) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A compiled hardware rule.
+	 */
+	private static class CompiledHardwareRule {
+
+		/** The ID of the target group, 0 if none. */
+		private long targetGroupId;
+
+		/** The driver, null for any. */
+		private String driver;
+
+		/** The family. */
+		private Criterion family;
+
+		/** The part number. */
+		private Criterion partNumber;
+
+		/** The end of sale date. */
+		private Date endOfSale;
+
+		/** The end of life date. */
+		private Date endOfLife;
+
+		private CompiledHardwareRule(HardwareRule rule) {
+			this.targetGroupId = rule.getTargetGroup() == null ? 0 : rule.getTargetGroup().getId();
+			this.driver = rule.getDriver();
+			this.family = new Criterion(rule.getFamily(), rule.isFamilyRegExp());
+			this.partNumber = new Criterion(rule.getPartNumber(), rule.isPartNumberRegExp());
+			this.endOfSale = rule.getEndOfSale();
+			this.endOfLife = rule.getEndOfLife();
+		}
+
+		private void apply(Device device, Set<Long> groupIds) {
+			if (targetGroupId != 0 && !groupIds.contains(targetGroupId)) {
+				return;
+			}
+			if (family.invalid || partNumber.invalid) {
+				return;
+			}
+			for (Module module : device.getModules()) {
+				if (!partNumber.matches(module.getPartNumber())) {
+					continue;
+				}
+				if (endOfLife != null && (device.getEolDate() == null || endOfLife.before(device.getEolDate()))) {
+					device.setEolDate(endOfLife);
+					device.setEolModule(module);
+				}
+				if (endOfSale != null && (device.getEosDate() == null || endOfSale.before(device.getEosDate()))) {
+					device.setEosDate(endOfSale);
+					device.setEosModule(module);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the compiled rules, loading and compiling them if the rules have been
+	 * edited since the last call.
+	 *
+	 * @param session the Hibernate session, to load the rules
+	 * @return the compiled rules
+	 */
+	public static SoftwareHardwareRuleSet get(Session session) {
+		SoftwareHardwareRuleSet ruleSet = current;
+		if (ruleSet != null) {
+			return ruleSet;
+		}
+		long startGeneration;
+		synchronized (SoftwareHardwareRuleSet.class) {
+			startGeneration = generation;
+		}
+		@SuppressWarnings("unchecked")
+		List<SoftwareRule> softwareRules = session.createCriteria(SoftwareRule.class)
+			.addOrder(Property.forName("priority").asc()).list();
+		@SuppressWarnings("unchecked")
+		List<HardwareRule> hardwareRules = session.createCriteria(HardwareRule.class)
+			.addOrder(Property.forName("id").asc()).list();
+		ruleSet = new SoftwareHardwareRuleSet(softwareRules, hardwareRules);
+		synchronized (SoftwareHardwareRuleSet.class) {
+			if (generation == startGeneration) {
+				current = ruleSet;
+			}
+		}
+		return ruleSet;
+	}
+
+	/**
+	 * Drops the compiled rules, to be called when a software or hardware rule is
+	 * added, edited or removed.
+	 */
+	public static void evict() {
+		synchronized (SoftwareHardwareRuleSet.class) {
+			generation++;
+			current = null;
+		}
+	}
+
+	/**
+	 * Gets the IDs of the groups a device belongs to.
+	 *
+	 * @param session the Hibernate session
+	 * @param deviceId the device ID
+	 * @return the group IDs
+	 */
+	public static Set<Long> getGroupIds(Session session, long deviceId) {
+		@SuppressWarnings("unchecked")
+		List<Long> groupIds = session
+			.createQuery("select g.id from DeviceGroup g join g.cachedDevices d where d.id = :id")
+			.setLong("id", deviceId)
+			.list();
+		return new HashSet<Long>(groupIds);
+	}
+
+	/** The software rules, by priority. */
+	private List<CompiledSoftwareRule> softwareRules = new ArrayList<CompiledSoftwareRule>();
+
+	/** The hardware rules. */
+	private List<CompiledHardwareRule> hardwareRules = new ArrayList<CompiledHardwareRule>();
+
+	/** The software rules which can apply, per driver and family. */
+	private Map<String, List<CompiledSoftwareRule>> softwareCandidates =
+			new ConcurrentHashMap<String, List<CompiledSoftwareRule>>();
+
+	/** The hardware rules which can apply, per driver and family. */
+	private Map<String, List<CompiledHardwareRule>> hardwareCandidates =
+			new ConcurrentHashMap<String, List<CompiledHardwareRule>>();
+
+	private SoftwareHardwareRuleSet(List<SoftwareRule> softwareRules, List<HardwareRule> hardwareRules) {
+		for (SoftwareRule rule : softwareRules) {
+			this.softwareRules.add(new CompiledSoftwareRule(rule));
+		}
+		for (HardwareRule rule : hardwareRules) {
+			this.hardwareRules.add(new CompiledHardwareRule(rule));
+		}
+		logger.debug("Compiled {} software rule(s) and {} hardware rule(s).",
+				this.softwareRules.size(), this.hardwareRules.size());
+	}
+
+	/**
+	 * Gets the software rules which can apply to the given driver and family.
+	 */
+	private List<CompiledSoftwareRule> getSoftwareCandidates(String driver, String family) {
+		String key = driver + "\0" + family;
+		List<CompiledSoftwareRule> candidates = softwareCandidates.get(key);
+		if (candidates == null) {
+			candidates = new ArrayList<CompiledSoftwareRule>();
+			for (CompiledSoftwareRule rule : softwareRules) {
+				if ((rule.driver == null || rule.driver.equals(driver)) &&
+						(rule.family.isExact() ? rule.family.text.equals(family) : rule.family.matches(family))) {
+					candidates.add(rule);
+				}
+			}
+			softwareCandidates.put(key, candidates);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Gets the hardware rules which can apply to the given driver and family.
+	 */
+	private List<CompiledHardwareRule> getHardwareCandidates(String driver, String family) {
+		String key = driver + "\0" + family;
+		List<CompiledHardwareRule> candidates = hardwareCandidates.get(key);
+		if (candidates == null) {
+			candidates = new ArrayList<CompiledHardwareRule>();
+			for (CompiledHardwareRule rule : hardwareRules) {
+				if ((rule.driver == null || rule.driver.equals(driver)) &&
+						(rule.family.isExact() ? rule.family.text.equals(family) : rule.family.matches(family))) {
+					candidates.add(rule);
+				}
+			}
+			hardwareCandidates.put(key, candidates);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Computes the software level and the end of sale/life status of the device.
+	 *
+	 * @param device the device (with its modules)
+	 * @param groupIds the IDs of the groups the device belongs to
+	 */
+	public void check(Device device, Set<Long> groupIds) {
+		String family = device.getFamily() == null ? "" : device.getFamily();
+		device.setSoftwareLevel(ConformanceLevel.UNKNOWN);
+		for (CompiledSoftwareRule rule : getSoftwareCandidates(device.getDriver(), family)) {
+			if (rule.matches(device, groupIds) && rule.level != ConformanceLevel.UNKNOWN) {
+				device.setSoftwareLevel(rule.level);
+				break;
+			}
+		}
+		device.resetEoX();
+		for (CompiledHardwareRule rule : getHardwareCandidates(device.getDriver(), family)) {
+			rule.apply(device, groupIds);
+		}
+	}
+
+}
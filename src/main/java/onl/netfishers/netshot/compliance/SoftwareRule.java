@@ -18,8 +18,6 @@
  */
 package onl.netfishers.netshot.compliance;
 
-import java.util.regex.PatternSyntaxException;
-
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
@@ -30,15 +28,17 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
-import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DeviceDriver;
 import onl.netfishers.netshot.device.DeviceGroup;
-import onl.netfishers.netshot.device.Module;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 /**
  * A software rule defines constraints that apply to the software versions.
  */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @XmlRootElement @XmlAccessorType(value = XmlAccessType.NONE)
 public class SoftwareRule implements Comparable<SoftwareRule> {
 
@@ -339,77 +339,6 @@ public class SoftwareRule implements Comparable<SoftwareRule> {
 		return deviceDriver.getDescription();
 	}
 
-	/**
-	 * Check.
-	 *
-	 * @param device the device
-	 */
-	public void check(Device device) {
-		device.setSoftwareLevel(ConformanceLevel.UNKNOWN);
-		if (targetGroup != null && !targetGroup.getCachedDevices().contains(device)) {
-			return;
-		}
-		if (driver != null && !driver.equals(device.getDriver())) {
-			return;
-		}
-		if (familyRegExp) {
-			try {
-				if (!device.getFamily().matches(family)) {
-					return;
-				}
-			}
-			catch (PatternSyntaxException e) {
-				return;
-			}
-		}
-		else {
-			if (!family.equals("") && !device.getFamily().equals(family)) {
-				return;
-			}
-		}
-		if (versionRegExp) {
-			try {
-				if (!device.getSoftwareVersion().matches(version)) {
-					return;
-				}
-			}
-			catch (PatternSyntaxException e) {
-				return;
-			}
-		}
-		else {
-			if (!version.equals("") && !device.getSoftwareVersion().equals(version)) {
-				return;
-			}
-		}
-		if (partNumber != null && partNumber != "") {
-			boolean moduleMatches = false;
-			for (Module module : device.getModules()) {
-				if (partNumberRegExp) {
-					try {
-						if (!module.getPartNumber().matches(partNumber)) {
-							continue;
-						}
-					}
-					catch (PatternSyntaxException e) {
-						return;
-					}
-				}
-				else {
-					if (!partNumber.equals("") && !module.getPartNumber().equals(partNumber)) {
-						continue;
-					}
-				}
-				moduleMatches = true;
-				break;
-			}
-			if (!moduleMatches) {
-				return;
-			}
-		}
-		device.setSoftwareLevel(this.level);
-	}
-
 	@XmlElement
 	public boolean isFamilyRegExp() {
 		return familyRegExp;
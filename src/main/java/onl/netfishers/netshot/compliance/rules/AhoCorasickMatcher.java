@@ -0,0 +1,186 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.compliance.rules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton, to find which ones of a set of literal strings
+ * are contained in a text, in a single pass over the text.
+ * Immutable once built, so it can be shared between threads.
+ */
+public class AhoCorasickMatcher {
+
+	/** For each node, the sorted transition characters. */
+	private char[][] keys;
+
+	/** For each node, the target nodes (same order as the keys). */
+	private int[][] targets;
+
+	/** For each node, the failure node. */
+	private int[] failures;
+
+	/** For each node, the patterns ending at this node. */
+	private int[][] outputs;
+
+	/** For each node, the next node (following the failure links) having outputs, or -1. */
+	private int[] outputLinks;
+
+	/** The patterns which are empty (found in any text). */
+	private BitSet emptyPatterns = new BitSet();
+
+	/** Number of patterns. */
+	private int patternCount;
+
+	/**
+	 * Builds the automaton.
+	 *
+	 * @param patterns the literal strings to look for
+	 */
+	public AhoCorasickMatcher(List<String> patterns) {
+		this.patternCount = patterns.size();
+
+		// Build the trie
+		List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+		List<List<Integer>> nodeOutputs = new ArrayList<List<Integer>>();
+		trie.add(new TreeMap<Character, Integer>());
+		nodeOutputs.add(new ArrayList<Integer>());
+		for (int p = 0; p < patterns.size(); p++) {
+			String pattern = patterns.get(p);
+			if (pattern.isEmpty()) {
+				emptyPatterns.set(p);
+				continue;
+			}
+			int node = 0;
+			for (int i = 0; i < pattern.length(); i++) {
+				Integer next = trie.get(node).get(pattern.charAt(i));
+				if (next == null) {
+					next = trie.size();
+					trie.add(new TreeMap<Character, Integer>());
+					nodeOutputs.add(new ArrayList<Integer>());
+					trie.get(node).put(pattern.charAt(i), next);
+				}
+				node = next;
+			}
+			nodeOutputs.get(node).add(p);
+		}
+
+		int nodeCount = trie.size();
+		keys = new char[nodeCount][];
+		targets = new int[nodeCount][];
+		outputs = new int[nodeCount][];
+		failures = new int[nodeCount];
+		outputLinks = new int[nodeCount];
+		for (int n = 0; n < nodeCount; n++) {
+			TreeMap<Character, Integer> transitions = trie.get(n);
+			keys[n] = new char[transitions.size()];
+			targets[n] = new int[transitions.size()];
+			int t = 0;
+			for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+				keys[n][t] = transition.getKey();
+				targets[n][t] = transition.getValue();
+				t++;
+			}
+			List<Integer> nodeOutput = nodeOutputs.get(n);
+			outputs[n] = new int[nodeOutput.size()];
+			for (int o = 0; o < nodeOutput.size(); o++) {
+				outputs[n][o] = nodeOutput.get(o);
+			}
+		}
+
+		// Compute the failure and output links, breadth first
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		failures[0] = 0;
+		outputLinks[0] = -1;
+		for (int child : targets[0]) {
+			failures[child] = 0;
+			outputLinks[child] = -1;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int node = queue.poll();
+			for (int t = 0; t < keys[node].length; t++) {
+				char c = keys[node][t];
+				int child = targets[node][t];
+				int failure = failures[node];
+				int next = transition(failure, c);
+				while (next < 0 && failure != 0) {
+					failure = failures[failure];
+					next = transition(failure, c);
+				}
+				failures[child] = next < 0 ? 0 : next;
+				int failureNode = failures[child];
+				outputLinks[child] = outputs[failureNode].length > 0 ? failureNode : outputLinks[failureNode];
+				queue.add(child);
+			}
+		}
+	}
+
+	private int transition(int node, char c) {
+		int index = Arrays.binarySearch(keys[node], c);
+		return index < 0 ? -1 : targets[node][index];
+	}
+
+	/**
+	 * Gets the number of patterns.
+	 *
+	 * @return the pattern count
+	 */
+	public int getPatternCount() {
+		return patternCount;
+	}
+
+	/**
+	 * Finds the patterns which are contained in the text.
+	 *
+	 * @param text the text to scan
+	 * @return the set of indexes of the found patterns
+	 */
+	public BitSet findAll(CharSequence text) {
+		BitSet found = (BitSet) emptyPatterns.clone();
+		int foundCount = found.cardinality();
+		int node = 0;
+		int length = text.length();
+		for (int i = 0; i < length && foundCount < patternCount; i++) {
+			char c = text.charAt(i);
+			int next = transition(node, c);
+			while (next < 0 && node != 0) {
+				node = failures[node];
+				next = transition(node, c);
+			}
+			node = next < 0 ? 0 : next;
+			for (int o = outputs[node].length > 0 ? node : outputLinks[node]; o >= 0; o = outputLinks[o]) {
+				for (int p : outputs[o]) {
+					if (!found.get(p)) {
+						found.set(p);
+						foundCount++;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+}
@@ -21,17 +21,15 @@ package onl.netfishers.netshot.compliance.rules;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Map;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.script.Bindings;
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
 import javax.xml.bind.annotation.XmlElement;
 
 import onl.netfishers.netshot.compliance.CheckResult;
+import onl.netfishers.netshot.compliance.DeviceConfigModel;
 import onl.netfishers.netshot.compliance.Policy;
 import onl.netfishers.netshot.compliance.Rule;
 import onl.netfishers.netshot.compliance.CheckResult.ResultOption;
@@ -92,8 +90,6 @@ public class JavaScriptRule extends Rule {
 		}
 	}
 	
-	private ScriptEngine engine;
-
 	/**
 	 * Instantiates a new java script rule.
 	 */
@@ -137,44 +133,13 @@ public class JavaScriptRule extends Rule {
 		CheckResult.ResultOption.CONFORMING, CheckResult.ResultOption.NONCONFORMING,
 		CheckResult.ResultOption.NOTAPPLICABLE };
 
-	/** The prepared. */
-	private boolean prepared = false;
-
-	/** The js valid. */
-	private boolean jsValid = false;
-
 	/**
-	 * Prepare.
+	 * Gets the JavaScript rule loader code.
+	 *
+	 * @return the loader code
 	 */
-	private void prepare(TaskLogger taskLogger) {
-		if (prepared) {
-			return;
-		}
-		prepared = true;
-		
-		try {
-			engine = new ScriptEngineManager().getEngineByName("nashorn");
-			engine.eval("delete load, com, edu, java, javafx, javax, org, JavaImporter, Java, loadWithNewGlobal;");
-			engine.eval(script);
-			engine.eval(JSLOADER);
-
-			try {
-				((Invocable) engine).invokeFunction("check");
-				jsValid = true;
-			}
-			catch (NoSuchMethodException e) {
-				logger.warn("The check function wasn't found in the script");
-				taskLogger.error("The 'check' function couldn't be found in the script.");
-			}
-			catch (Exception e) {
-				jsValid = true;
-			}
-		}
-		catch (ScriptException e) {
-			taskLogger.error("Error while evaluating the Javascript script.");
-			logger.warn("Error while evaluating the Javascript script.", e);
-			jsValid = false;
-		}
+	static String getJsLoader() {
+		return JSLOADER;
 	}
 
 	/* (non-Javadoc)
@@ -182,30 +147,45 @@ public class JavaScriptRule extends Rule {
 	 */
 	@Override
 	public void check(Device device, Session session, TaskLogger taskLogger) {
+		this.check(device, session, taskLogger, (DeviceConfigModel) null);
+	}
+
+	/* (non-Javadoc)
+	 * @see onl.netfishers.netshot.compliance.Rule#check(onl.netfishers.netshot.device.Device, org.hibernate.Session, onl.netfishers.netshot.work.TaskLogger, onl.netfishers.netshot.compliance.DeviceConfigModel)
+	 */
+	@Override
+	public void check(Device device, Session session, TaskLogger taskLogger, DeviceConfigModel configModel) {
 		if (!this.isEnabled()) {
 			this.setCheckResult(device, ResultOption.DISABLED, "", session);
 			return;
 		}
-		prepare(taskLogger);
-		if (!this.jsValid) {
+		JavaScriptRuleCache.CompiledRule compiledRule = JavaScriptRuleCache.get(this);
+		if (!compiledRule.isValid()) {
+			taskLogger.error(compiledRule.getError());
 			this.setCheckResult(device, ResultOption.INVALIDRULE, "", session);
 			return;
 		}
-		if (device.isExempted(this)) {
+		if (this.isExempted(device, configModel)) {
 			this.setCheckResult(device, ResultOption.EXEMPTED, "", session);
 			return;
 		}
 
+		Bindings context = null;
 		try {
+			context = compiledRule.borrowContext();
 			JsDeviceHelper deviceHelper = new JsDeviceHelper(device, session, taskLogger, true);
-			Object result = ((Invocable) engine).invokeFunction("_check", deviceHelper);
-			if (result != null && result instanceof Bindings) {
+			Object result = compiledRule.call(context, "_check", deviceHelper);
+			if (configModel != null && deviceHelper.isExternalDataUsed()) {
+				// The result depends on other devices or external data
+				configModel.setVolatile(this);
+			}
+			if (result != null && result instanceof Map) {
 				String comment = "";
-				Object jsComment = ((Bindings) result).get("comment");
+				Object jsComment = ((Map<?, ?>) result).get("comment");
 				if (jsComment != null && jsComment instanceof String) {
 					comment = (String) jsComment;
 				}
-				Object jsResult = ((Bindings) result).get("result");
+				Object jsResult = ((Map<?, ?>) result).get("result");
 				for (CheckResult.ResultOption allowedResult : ALLOWED_RESULTS) {
 					if (allowedResult.toString().equals(jsResult)) {
 						taskLogger.info(String.format("The script returned %s (%d), comment '%s'.",
@@ -222,6 +202,9 @@ public class JavaScriptRule extends Rule {
 			logger.error("Error while running the script on device {}.", device.getId(), e);
 		}
 		finally {
+			if (context != null) {
+				compiledRule.releaseContext(context);
+			}
 			taskLogger.debug("End of check");
 		}
 		this.setCheckResult(device, ResultOption.INVALIDRULE, "", session);
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.compliance.rules;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import onl.netfishers.netshot.device.script.engine.ScriptEngineBackend;
+
+/**
+ * Process-wide cache of the compiled JavaScript rules, keyed by rule ID and version.
+ * The script of a rule is compiled once; each compiled rule then keeps a pool of
+ * contexts (JavaScript globals) in which the script is loaded, so that the same rule
+ * can be checked on several devices in parallel, without sharing a context.
+ */
+public class JavaScriptRuleCache {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(JavaScriptRuleCache.class);
+
+	/** The engine, used to compile the scripts. */
+	private static ScriptEngine engine;
+
+	/** The compiled prelude. */
+	private static CompiledScript compiledPrelude;
+
+	/** The compiled rule loader. */
+	private static CompiledScript compiledLoader;
+
+	/** The compiled rules, per rule ID. */
+	private static Map<Long, CompiledRule> cache = new ConcurrentHashMap<Long, CompiledRule>();
+
+	/** Maximum number of compiled unsaved rules (tests and dry runs) to keep. */
+	private static final int MAX_DRAFTS = 20;
+
+	/** The compiled unsaved rules (tests and dry runs), per script, least recently used first. */
+	private static Map<String, CompiledRule> drafts = new LinkedHashMap<String, CompiledRule>(16, 0.75f, true) {
+		private static final long serialVersionUID = -2871693713473434853L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompiledRule> eldest) {
+			return size() > MAX_DRAFTS;
+		}
+	};
+
+	/**
+	 * A compiled rule script.
+	 */
+	public static class CompiledRule {
+
+		/** The rule version. */
+		private int version;
+
+		/** The source script. */
+		private String script;
+
+		/** The compiled script. */
+		private CompiledScript compiledScript;
+
+		/** The error message, if the script is invalid. */
+		private String error;
+
+		/** The available contexts. */
+		private Queue<Bindings> contexts = new ConcurrentLinkedQueue<Bindings>();
+
+		private CompiledRule(int version, String script) {
+			this.version = version;
+			this.script = script;
+			try {
+				this.compiledScript = ((Compilable) engine).compile(script);
+				Bindings context = this.borrowContext();
+				Object check = context.get("check");
+				if (ScriptEngineBackend.getBackend().isFunction(check)) {
+					this.releaseContext(context);
+				}
+				else {
+					logger.warn("The check function wasn't found in the script");
+					this.error = "The 'check' function couldn't be found in the script.";
+				}
+			}
+			catch (Exception e) {
+				logger.warn("Error while evaluating the Javascript script.", e);
+				this.error = "Error while evaluating the Javascript script.";
+			}
+		}
+
+		/**
+		 * Checks whether the script is valid.
+		 *
+		 * @return true if the script is valid
+		 */
+		public boolean isValid() {
+			return error == null;
+		}
+
+		/**
+		 * Gets the error message.
+		 *
+		 * @return the error message, if the script is invalid
+		 */
+		public String getError() {
+			return error;
+		}
+
+		/**
+		 * Takes a context from the pool (or creates a new one) in which the rule
+		 * script is loaded. It must be given back with releaseContext.
+		 *
+		 * @return the context
+		 * @throws ScriptException in case of error while loading the script
+		 */
+		public Bindings borrowContext() throws ScriptException {
+			Bindings context = contexts.poll();
+			if (context == null) {
+				context = engine.createBindings();
+				compiledPrelude.eval(context);
+				compiledScript.eval(context);
+				compiledLoader.eval(context);
+			}
+			return context;
+		}
+
+		/**
+		 * Gives back a context to the pool.
+		 *
+		 * @param context the context
+		 */
+		public void releaseContext(Bindings context) {
+			contexts.offer(context);
+		}
+
+		/**
+		 * Calls a function of the script.
+		 *
+		 * @param context the context (from borrowContext)
+		 * @param name the name of the function
+		 * @param args the arguments
+		 * @return the value returned by the function
+		 * @throws ScriptException if there is no such function
+		 */
+		public Object call(Bindings context, String name, Object... args) throws ScriptException {
+			Object function = context.get(name);
+			if (!ScriptEngineBackend.getBackend().isFunction(function)) {
+				throw new ScriptException(String.format("No function %s in the script.", name));
+			}
+			return ScriptEngineBackend.getBackend().call(function, args);
+		}
+	}
+
+	/**
+	 * Gets the compiled script of a rule, compiling it if it isn't in the cache
+	 * yet or if the rule has changed.
+	 *
+	 * @param rule the rule
+	 * @return the compiled rule
+	 */
+	public static CompiledRule get(JavaScriptRule rule) {
+		String script = rule.getScript() == null ? "" : rule.getScript();
+		if (rule.getId() == 0) {
+			return getDraft(script);
+		}
+		CompiledRule compiledRule = cache.get(rule.getId());
+		if (compiledRule != null && compiledRule.version == rule.getVersion() &&
+				compiledRule.script.equals(script)) {
+			return compiledRule;
+		}
+		synchronized (JavaScriptRuleCache.class) {
+			compiledRule = cache.get(rule.getId());
+			if (compiledRule != null && compiledRule.version == rule.getVersion() &&
+					compiledRule.script.equals(script)) {
+				return compiledRule;
+			}
+			initEngine();
+			logger.debug("Compiling the script of JavaScript rule {} (version {}).", rule.getId(), rule.getVersion());
+			compiledRule = new CompiledRule(rule.getVersion(), script);
+			cache.put(rule.getId(), compiledRule);
+			return compiledRule;
+		}
+	}
+
+	/**
+	 * Gets the compiled script of an unsaved rule (e.g. rule being tested against
+	 * a whole group), so that it is compiled once rather than for each device.
+	 *
+	 * @param script the script
+	 * @return the compiled rule
+	 */
+	private static CompiledRule getDraft(String script) {
+		synchronized (JavaScriptRuleCache.class) {
+			CompiledRule compiledRule = drafts.get(script);
+			if (compiledRule == null) {
+				initEngine();
+				logger.debug("Compiling the script of an unsaved JavaScript rule.");
+				compiledRule = new CompiledRule(0, script);
+				drafts.put(script, compiledRule);
+			}
+			return compiledRule;
+		}
+	}
+
+	/**
+	 * Creates the engine and compiles the prelude and loader if not done yet.
+	 * Must be called while holding the class lock.
+	 */
+	private static void initEngine() {
+		if (compiledLoader == null) {
+			try {
+				engine = ScriptEngineBackend.getBackend().createEngine();
+				compiledPrelude = ((Compilable) engine).compile(ScriptEngineBackend.PRELUDE);
+				compiledLoader = ((Compilable) engine).compile(JavaScriptRule.getJsLoader());
+			}
+			catch (ScriptException e) {
+				logger.error("Unable to compile the JavaScript rule loader.", e);
+			}
+		}
+	}
+
+	/**
+	 * Removes a rule from the cache.
+	 *
+	 * @param ruleId the rule ID
+	 */
+	public static void evict(long ruleId) {
+		cache.remove(ruleId);
+	}
+
+}
@@ -20,7 +20,6 @@ package onl.netfishers.netshot.compliance.rules;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.StringJoiner;
 import java.util.regex.Pattern;
 
 import javax.persistence.Column;
@@ -28,12 +27,13 @@ import javax.persistence.Entity;
 import javax.persistence.Transient;
 import javax.xml.bind.annotation.XmlElement;
 
+import onl.netfishers.netshot.compliance.ConfigSectionTree;
+import onl.netfishers.netshot.compliance.DeviceConfigModel;
 import onl.netfishers.netshot.compliance.Policy;
 import onl.netfishers.netshot.compliance.Rule;
 import onl.netfishers.netshot.compliance.CheckResult.ResultOption;
 import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DeviceDriver;
-import onl.netfishers.netshot.device.script.helper.JsDeviceHelper;
 import onl.netfishers.netshot.work.TaskLogger;
 
 import org.hibernate.Session;
@@ -198,49 +198,33 @@ public class TextRule extends Rule {
 		valid = true;
 	}
 	
-	private int findIndent(String line) {
-		for (int i = 0; i < line.length(); i++) {
-			if (line.charAt(i) != ' ') {
-				return i;
-			}
-		}
-		return line.length();
-	}
-	
-	private List<String[]> findSections(String lines, Pattern pattern, String where) {
-		return findSections(lines.split("\\n"), pattern, where);
+	/**
+	 * Checks whether the rule is valid (context and text can be compiled).
+	 *
+	 * @return true if the rule is valid
+	 */
+	boolean isValid() {
+		prepare();
+		return valid;
 	}
-	
-	private List<String[]> findSections(String[] lines, Pattern pattern, String where) {
-		List<String[]> blocks = new ArrayList<String[]>();
-		StringJoiner joiner = new StringJoiner("\n");
-		String title = "";
-		int indent = -1;
-		for (String line : lines) {
-			if (indent >= 0) {
-				if (findIndent(line) > indent) {
-					joiner.add(line);
-				}
-				else {
-					blocks.add(new String[] { title, joiner.toString() });
-					indent = -1;
-				}
-			}
-			if (indent < 0 && pattern.matcher(line).matches()) {
-				indent = findIndent(line);
-				joiner = new StringJoiner("\n");
-				String trimmedLine = line.trim();
-				title = (where.length() > 0 ? where + " > " + trimmedLine : trimmedLine);
-			}
-		}
-		if (indent >= 0) {
-			blocks.add(new String[] { title, joiner.toString() });
-		}
-		return blocks;
+
+	/**
+	 * Gets the compiled regular expression.
+	 *
+	 * @return the pattern, null if this isn't a regular expression rule
+	 */
+	Pattern getPattern() {
+		prepare();
+		return pattern;
 	}
 
 	@Override
 	public void check(Device device, Session session, TaskLogger taskLogger) {
+		this.check(device, session, taskLogger, new DeviceConfigModel(device, session, taskLogger));
+	}
+
+	@Override
+	public void check(Device device, Session session, TaskLogger taskLogger, DeviceConfigModel configModel) {
 		if (!this.isEnabled()) {
 			this.setCheckResult(device, ResultOption.DISABLED, "", session);
 			return;
@@ -254,37 +238,40 @@ public class TextRule extends Rule {
 			this.setCheckResult(device, ResultOption.NOTAPPLICABLE, "", session);
 			return;
 		}
-		if (device.isExempted(this)) {
+		if (this.isExempted(device, configModel)) {
 			this.setCheckResult(device, ResultOption.EXEMPTED, "", session);
 			return;
 		}
 		try {
-			JsDeviceHelper deviceHelper = new JsDeviceHelper(device, session, taskLogger, true);
-			String content = deviceHelper.get(field).toString();
-			content = content.replace("\r", "");
-			List<String[]> blocks = new ArrayList<String[]>();
-			blocks.add(new String[] { "", content });
-			for (Pattern pattern : hierarchy) {
-				List<String[]> selectedBlocks = new ArrayList<String[]>();
-				for (String[] block : blocks) {
-					selectedBlocks.addAll(findSections(block[1], pattern, block[0]));
-				}
-				blocks = selectedBlocks;
+			ConfigSectionTree tree = configModel.getTree(field);
+			List<ConfigSectionTree.Section> blocks = configModel.getBlocks(field, context, hierarchy);
+			if (tree == null || blocks == null) {
+				this.setCheckResult(device, ResultOption.NOTAPPLICABLE, "No such field.", session);
+				taskLogger.info("No such field '" + field + "' on this device");
+				return;
 			}
+			TextRuleSet.Group group = matchAll ? null : configModel.getTextRuleGroup(this);
 			taskLogger.debug(String.format("Found %d block(s) matching the context.", blocks.size()));
 			int b = 1;
-			for (String[] block : blocks) {
-				boolean doesMatch =
-						regExp && (matchAll && pattern.matcher(block[1]).matches() || !matchAll && pattern.matcher(block[1]).find()) ||
-						!regExp && (matchAll && block[1].equals(text) || !matchAll && block[1].contains(text));
+			for (ConfigSectionTree.Section block : blocks) {
+				boolean doesMatch;
+				if (group != null) {
+					doesMatch = group.find(this, tree, block, configModel);
+				}
+				else {
+					String blockText = tree.getText(block);
+					doesMatch =
+							regExp && (matchAll && pattern.matcher(blockText).matches() || !matchAll && pattern.matcher(blockText).find()) ||
+							!regExp && (matchAll && blockText.equals(text) || !matchAll && blockText.contains(text));
+				}
 				doesMatch = doesMatch ^ invert;
 				if (!doesMatch) {
-					taskLogger.debug(String.format("Non matching block, number %d (in [%s])", b++, block[0]));
+					taskLogger.debug(String.format("Non matching block, number %d (in [%s])", b++, block.getTitle()));
 					this.setCheckResult(device, ResultOption.NONCONFORMING, "", session);
 					return;
 				}
 				else if (anyBlock) {
-					taskLogger.debug(String.format("Matching block, number %d (in [%s])", b++, block[0]));
+					taskLogger.debug(String.format("Matching block, number %d (in [%s])", b++, block.getTitle()));
 					this.setCheckResult(device, ResultOption.CONFORMING, "", session);
 					return;
 				}
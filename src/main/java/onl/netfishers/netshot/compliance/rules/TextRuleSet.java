@@ -0,0 +1,280 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.compliance.rules;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import onl.netfishers.netshot.compliance.ConfigSectionTree;
+import onl.netfishers.netshot.compliance.DeviceConfigModel;
+import onl.netfishers.netshot.compliance.Policy;
+import onl.netfishers.netshot.compliance.Rule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The text rules of a policy, compiled so that the rules sharing the same field,
+ * context and driver are resolved in a single scan of each block: an Aho-Corasick
+ * automaton finds all the literal texts at once, and a combined regular expression
+ * tells whether any of the regular expressions can match the block at all.
+ * Only the 'contains'/'find' rules (i.e. without the 'match all' option) are grouped.
+ * The compiled sets are cached per policy, and recompiled when the rules change.
+ */
+public class TextRuleSet {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(TextRuleSet.class);
+
+	/** Regular expressions which can't be safely embedded into a bigger one. */
+	private static final Pattern UNSAFE_REGEXP = Pattern.compile(".*(\\\\[0-9]|\\\\k<|\\\\Q|\\(\\?[a-zA-Z-]*x).*", Pattern.DOTALL);
+
+	/** The compiled sets, per policy ID. */
+	private static Map<Long, TextRuleSet> cache = new ConcurrentHashMap<Long, TextRuleSet>();
+
+	/**
+	 * The result of the scan of a block by a group.
+	 */
+	public static class BlockScan {
+
+		/** The literal texts found in the block. */
+		private BitSet literals;
+
+		/** Whether at least one of the regular expressions of the group is found in the block. */
+		private boolean regExpFound;
+
+		private BlockScan(BitSet literals, boolean regExpFound) {
+			this.literals = literals;
+			this.regExpFound = regExpFound;
+		}
+	}
+
+	/**
+	 * A group of rules sharing the same field, context and driver.
+	 */
+	public static class Group {
+
+		/** The field. */
+		private String field;
+
+		/** The context. */
+		private String context;
+
+		/** Index of each literal rule (by ID) in the automaton. */
+		private Map<Long, Integer> literalIndexes = new HashMap<Long, Integer>();
+
+		/** The automaton for the literal rules. */
+		private AhoCorasickMatcher literalMatcher;
+
+		/** Rule IDs of the regular expression rules part of the combined pattern. */
+		private List<Long> regExpRules = new ArrayList<Long>();
+
+		/** The combined pattern, null if there is no regular expression rule. */
+		private Pattern combinedPattern;
+
+		private Group(String field, String context) {
+			this.field = field;
+			this.context = context;
+		}
+
+		/**
+		 * Scans a block (or gets the result of the previous scan of the block,
+		 * for the same device).
+		 *
+		 * @param tree the section tree
+		 * @param block the block
+		 * @param configModel the parsed configuration of the device, to store the scan
+		 * @return the scan result
+		 */
+		private BlockScan scan(ConfigSectionTree tree, ConfigSectionTree.Section block, DeviceConfigModel configModel) {
+			Map<ConfigSectionTree.Section, BlockScan> scans = configModel.getBlockScans(this);
+			BlockScan scan = scans.get(block);
+			if (scan == null) {
+				String text = tree.getText(block);
+				BitSet literals = literalMatcher == null ? new BitSet() : literalMatcher.findAll(text);
+				boolean regExpFound = combinedPattern != null && combinedPattern.matcher(text).find();
+				scan = new BlockScan(literals, regExpFound);
+				scans.put(block, scan);
+			}
+			return scan;
+		}
+
+		/**
+		 * Checks whether the rule is found in the block.
+		 *
+		 * @param rule the rule
+		 * @param tree the section tree
+		 * @param block the block
+		 * @param configModel the parsed configuration of the device
+		 * @return true if the text or expression of the rule is found in the block
+		 */
+		public boolean find(TextRule rule, ConfigSectionTree tree, ConfigSectionTree.Section block,
+				DeviceConfigModel configModel) {
+			BlockScan scan = this.scan(tree, block, configModel);
+			Integer literalIndex = literalIndexes.get(rule.getId());
+			if (literalIndex != null) {
+				return scan.literals.get(literalIndex);
+			}
+			// No need to run the individual expression if none of them was found
+			return scan.regExpFound && rule.getPattern().matcher(tree.getText(block)).find();
+		}
+	}
+
+	/**
+	 * Gets the compiled text rules of the policy, from the cache if the rules didn't change.
+	 *
+	 * @param policy the policy
+	 * @return the compiled set
+	 */
+	public static TextRuleSet forPolicy(Policy policy) {
+		List<TextRule> textRules = new ArrayList<TextRule>();
+		for (Rule rule : policy.getRules()) {
+			if (rule instanceof TextRule) {
+				textRules.add((TextRule) rule);
+			}
+		}
+		Collections.sort(textRules, new Comparator<TextRule>() {
+			@Override
+			public int compare(TextRule o1, TextRule o2) {
+				return Long.compare(o1.getId(), o2.getId());
+			}
+		});
+		StringBuilder signature = new StringBuilder();
+		for (TextRule rule : textRules) {
+			signature.append(rule.getId()).append('|').append(rule.isEnabled()).append('|')
+				.append(rule.getField()).append('|').append(rule.getContext()).append('|')
+				.append(rule.getDeviceDriver()).append('|').append(rule.isRegExp()).append('|')
+				.append(rule.isMatchAll()).append('|').append(rule.getText()).append('\0');
+		}
+		String key = signature.toString();
+		TextRuleSet ruleSet = cache.get(policy.getId());
+		if (ruleSet == null || !ruleSet.signature.equals(key)) {
+			ruleSet = new TextRuleSet(key, textRules);
+			cache.put(policy.getId(), ruleSet);
+		}
+		return ruleSet;
+	}
+
+	/**
+	 * Removes the compiled rules of a policy from the cache.
+	 *
+	 * @param policyId the policy ID
+	 */
+	public static void evict(long policyId) {
+		cache.remove(policyId);
+	}
+
+	/** The signature of the rules this set was compiled from. */
+	private String signature;
+
+	/** The groups, per rule ID. */
+	private Map<Long, Group> groups = new HashMap<Long, Group>();
+
+	private TextRuleSet(String signature, List<TextRule> textRules) {
+		this.signature = signature;
+
+		Map<String, List<TextRule>> rulesByKey = new HashMap<String, List<TextRule>>();
+		for (TextRule rule : textRules) {
+			if (!rule.isEnabled() || !rule.isValid() || rule.isMatchAll()) {
+				continue;
+			}
+			if (rule.isRegExp() && UNSAFE_REGEXP.matcher(rule.getText()).matches()) {
+				continue;
+			}
+			String key = String.format("%s\0%s\0%s", rule.getField(),
+					rule.getContext() == null ? "" : rule.getContext(),
+					rule.getDeviceDriver() == null ? "" : rule.getDeviceDriver());
+			List<TextRule> keyRules = rulesByKey.get(key);
+			if (keyRules == null) {
+				keyRules = new ArrayList<TextRule>();
+				rulesByKey.put(key, keyRules);
+			}
+			keyRules.add(rule);
+		}
+
+		for (List<TextRule> keyRules : rulesByKey.values()) {
+			if (keyRules.size() < 2) {
+				continue;
+			}
+			Group group = new Group(keyRules.get(0).getField(), keyRules.get(0).getContext());
+			List<String> literals = new ArrayList<String>();
+			StringBuilder combined = new StringBuilder();
+			for (TextRule rule : keyRules) {
+				if (rule.isRegExp()) {
+					if (combined.length() > 0) {
+						combined.append('|');
+					}
+					combined.append("(?:").append(rule.getText()).append(')');
+					group.regExpRules.add(rule.getId());
+				}
+				else {
+					group.literalIndexes.put(rule.getId(), literals.size());
+					literals.add(rule.getText());
+				}
+			}
+			if (literals.size() > 0) {
+				group.literalMatcher = new AhoCorasickMatcher(literals);
+			}
+			if (group.regExpRules.size() > 0) {
+				try {
+					group.combinedPattern = Pattern.compile(combined.toString());
+				}
+				catch (Exception e) {
+					logger.warn("Unable to combine the regular expressions of the text rules ({} / {}).",
+							group.field, group.context, e);
+					group.regExpRules.clear();
+				}
+			}
+			for (long ruleId : group.literalIndexes.keySet()) {
+				groups.put(ruleId, group);
+			}
+			for (long ruleId : group.regExpRules) {
+				groups.put(ruleId, group);
+			}
+		}
+		logger.debug("Compiled the text rules, {} out of {} rule(s) are grouped.", groups.size(), textRules.size());
+	}
+
+	/**
+	 * Gets the group of a rule.
+	 *
+	 * @param rule the rule
+	 * @return the group, or null if the rule isn't part of any group
+	 */
+	public Group getGroup(TextRule rule) {
+		return groups.get(rule.getId());
+	}
+
+	/**
+	 * Gets the groups, per rule ID.
+	 *
+	 * @return the groups
+	 */
+	public Map<Long, Group> getGroups() {
+		return groups;
+	}
+
+}
@@ -41,7 +41,10 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.hibernate.annotations.Filter;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
+import onl.netfishers.netshot.Database;
 import onl.netfishers.netshot.device.attribute.ConfigAttribute;
 
 /**
@@ -50,7 +53,8 @@ import onl.netfishers.netshot.device.attribute.ConfigAttribute;
 @Entity
 @XmlRootElement @XmlAccessorType(value = XmlAccessType.NONE)
 @Table(indexes = {
-		@Index(name = "changeDateIndex", columnList = "changeDate")
+		@Index(name = "changeDateIndex", columnList = "changeDate"),
+		@Index(name = "configDeviceChangeDateIndex", columnList = "device, changeDate")
 })
 public class Config {
 
@@ -156,7 +160,12 @@ public class Config {
 	 */
 	@XmlElement
 	@Id
-	@GeneratedValue
+	@GeneratedValue(generator = "config_seq")
+	@GenericGenerator(name = "config_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+		@Parameter(name = "sequence_name", value = "config_seq"),
+		@Parameter(name = "increment_size", value = Database.ID_POOL_SIZE),
+		@Parameter(name = "optimizer", value = "pooled")
+	})
 	public long getId() {
 		return id;
 	}
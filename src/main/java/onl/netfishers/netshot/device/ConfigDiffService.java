@@ -0,0 +1,435 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.device;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import onl.netfishers.netshot.Netshot;
+import onl.netfishers.netshot.device.attribute.ConfigAttribute;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import difflib.Delta;
+import difflib.DiffUtils;
+import difflib.Patch;
+
+/**
+ * Computes the differences between two configurations, attribute per attribute.
+ * The configurations never change once saved, so the results are kept in a
+ * bounded cache, keyed by the two config IDs and the attribute name; the lines
+ * of the recently compared configs are kept too (split once), as the same
+ * config is typically compared with both its previous and its next one.
+ * Before the diff, each distinct line is mapped to an integer, so that the diff
+ * algorithm only compares integers rather than text lines.
+ */
+public class ConfigDiffService {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ConfigDiffService.class);
+
+	/** Maximum number of diff results (config pair and attribute) to keep. */
+	private static int CACHE_SIZE = 200;
+
+	/** Maximum number of split config texts (config and attribute) to keep. */
+	private static final int TEXT_CACHE_SIZE = 50;
+
+	/** Number of context lines around a hunk. */
+	private static final int CONTEXT_LINES = 3;
+
+	static {
+		try {
+			int cacheSize = Integer.parseInt(Netshot.getConfig("netshot.diff.cachesize",
+					Integer.toString(CACHE_SIZE)));
+			if (cacheSize < 0) {
+				throw new Exception();
+			}
+			CACHE_SIZE = cacheSize;
+		}
+		catch (Exception e) {
+			logger.error("Invalid value for netshot.diff.cachesize in the configuration file. Using default of {}.",
+					CACHE_SIZE);
+		}
+	}
+
+	/**
+	 * The identification of a config, without its attributes.
+	 */
+	public static class ConfigInfo {
+
+		/** The config ID. */
+		private long id;
+
+		/** The change date. */
+		private Date changeDate;
+
+		/** The device ID. */
+		private long deviceId;
+
+		/** The name of the device driver. */
+		private String driver;
+
+		private ConfigInfo(Object[] row) {
+			this.id = (Long) row[0];
+			this.changeDate = (Date) row[1];
+			this.deviceId = (Long) row[2];
+			this.driver = (String) row[3];
+		}
+
+		/**
+		 * Gets the config ID.
+		 *
+		 * @return the ID
+		 */
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * Gets the change date.
+		 *
+		 * @return the change date
+		 */
+		public Date getChangeDate() {
+			return changeDate;
+		}
+
+		/**
+		 * Gets the device ID.
+		 *
+		 * @return the device ID
+		 */
+		public long getDeviceId() {
+			return deviceId;
+		}
+
+		/**
+		 * Gets the device driver name.
+		 *
+		 * @return the driver name
+		 */
+		public String getDriver() {
+			return driver;
+		}
+	}
+
+	/**
+	 * A hunk, i.e. a block of changed lines.
+	 */
+	public static class Hunk {
+
+		/** The type. */
+		private Delta.TYPE type;
+
+		/** The original position. */
+		private int originalPosition;
+
+		/** The original lines. */
+		private List<String> originalLines;
+
+		/** The revised position. */
+		private int revisedPosition;
+
+		/** The revised lines. */
+		private List<String> revisedLines;
+
+		/** The lines before (in the original text). */
+		private List<String> preContext;
+
+		/** The lines after (in the original text). */
+		private List<String> postContext;
+
+		private Hunk(Delta<Integer> delta, List<String> lines1, List<String> lines2) {
+			// Copies rather than views, so that the cached hunks don't hold the whole configs
+			this.type = delta.getType();
+			this.originalPosition = delta.getOriginal().getPosition();
+			this.originalLines = Collections.unmodifiableList(new ArrayList<String>(
+					lines1.subList(originalPosition, originalPosition + delta.getOriginal().size())));
+			this.revisedPosition = delta.getRevised().getPosition();
+			this.revisedLines = Collections.unmodifiableList(new ArrayList<String>(
+					lines2.subList(revisedPosition, revisedPosition + delta.getRevised().size())));
+			this.preContext = Collections.unmodifiableList(new ArrayList<String>(
+					lines1.subList(Math.max(originalPosition - CONTEXT_LINES, 0), originalPosition)));
+			this.postContext = Collections.unmodifiableList(new ArrayList<String>(lines1.subList(
+					Math.min(originalPosition + originalLines.size(), lines1.size() - 1),
+					Math.min(originalPosition + originalLines.size() + CONTEXT_LINES, lines1.size() - 1))));
+		}
+
+		/**
+		 * Gets the type.
+		 *
+		 * @return the type
+		 */
+		public Delta.TYPE getType() {
+			return type;
+		}
+
+		/**
+		 * Gets the original position.
+		 *
+		 * @return the original position
+		 */
+		public int getOriginalPosition() {
+			return originalPosition;
+		}
+
+		/**
+		 * Gets the original lines.
+		 *
+		 * @return the original lines
+		 */
+		public List<String> getOriginalLines() {
+			return originalLines;
+		}
+
+		/**
+		 * Gets the revised position.
+		 *
+		 * @return the revised position
+		 */
+		public int getRevisedPosition() {
+			return revisedPosition;
+		}
+
+		/**
+		 * Gets the revised lines.
+		 *
+		 * @return the revised lines
+		 */
+		public List<String> getRevisedLines() {
+			return revisedLines;
+		}
+
+		/**
+		 * Gets the pre context.
+		 *
+		 * @return the pre context
+		 */
+		public List<String> getPreContext() {
+			return preContext;
+		}
+
+		/**
+		 * Gets the post context.
+		 *
+		 * @return the post context
+		 */
+		public List<String> getPostContext() {
+			return postContext;
+		}
+	}
+
+	/**
+	 * Key of the caches.
+	 */
+	private static class Key {
+
+		private long id1;
+
+		private long id2;
+
+		private String attribute;
+
+		private Key(long id1, long id2, String attribute) {
+			this.id1 = id1;
+			this.id2 = id2;
+			this.attribute = attribute;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + (int) (id1 ^ (id1 >>> 32));
+			result = prime * result + (int) (id2 ^ (id2 >>> 32));
+			result = prime * result + attribute.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return id1 == other.id1 && id2 == other.id2 && attribute.equals(other.attribute);
+		}
+	}
+
+	/** The diff results (hunks), least recently used first. */
+	private static Map<Key, List<Hunk>> diffs = new LinkedHashMap<Key, List<Hunk>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 5120483312893440275L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, List<Hunk>> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	/** The split config texts (key with id2 = 0), least recently used first. */
+	private static Map<Key, List<String>> texts = new LinkedHashMap<Key, List<String>>(16, 0.75f, true) {
+		private static final long serialVersionUID = -6423191427516437017L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, List<String>> eldest) {
+			return size() > TEXT_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * Gets a config (without its attributes).
+	 *
+	 * @param session the Hibernate session
+	 * @param id the config ID
+	 * @return the config info, null if there is no such config
+	 * @throws HibernateException in case of database error
+	 */
+	public static ConfigInfo getConfig(Session session, long id) throws HibernateException {
+		Object[] row = (Object[]) session
+			.createQuery("select c.id, c.changeDate, d.id, d.driver from Config c join c.device d where c.id = :id")
+			.setLong("id", id)
+			.uniqueResult();
+		return row == null ? null : new ConfigInfo(row);
+	}
+
+	/**
+	 * Gets the config of the same device which precedes the given one.
+	 * The lookup is served by the (device, changeDate) index.
+	 *
+	 * @param session the Hibernate session
+	 * @param config the config
+	 * @return the previous config info, null if this is the first config of the device
+	 * @throws HibernateException in case of database error
+	 */
+	public static ConfigInfo getPreviousConfig(Session session, ConfigInfo config) throws HibernateException {
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = session
+			.createQuery("select c.id, c.changeDate, d.id, d.driver from Config c join c.device d "
+					+ "where d.id = :device and c.changeDate = (select max(p.changeDate) from Config p "
+					+ "where p.device.id = :device and p.changeDate < :date)")
+			.setLong("device", config.getDeviceId())
+			.setTimestamp("date", config.getChangeDate())
+			.setMaxResults(1)
+			.list();
+		return rows.isEmpty() ? null : new ConfigInfo(rows.get(0));
+	}
+
+	/**
+	 * Gets the lines of a config attribute.
+	 */
+	private static List<String> getLines(Session session, long configId, String attribute) {
+		Key key = new Key(configId, 0, attribute);
+		synchronized (texts) {
+			List<String> lines = texts.get(key);
+			if (lines != null) {
+				return lines;
+			}
+		}
+		String text = "";
+		if (configId != 0) {
+			ConfigAttribute configAttribute = (ConfigAttribute) session
+				.createQuery("from ConfigAttribute a where a.config.id = :id and a.name = :name")
+				.setLong("id", configId)
+				.setString("name", attribute)
+				.setMaxResults(1)
+				.uniqueResult();
+			if (configAttribute != null) {
+				text = configAttribute.getAsText();
+				if (text == null) {
+					text = "";
+				}
+			}
+		}
+		List<String> lines = Collections.unmodifiableList(Arrays.asList(text.replace("\r", "").split("\n")));
+		synchronized (texts) {
+			texts.put(key, lines);
+		}
+		return lines;
+	}
+
+	/**
+	 * Gets the differences between two configs, for one attribute.
+	 *
+	 * @param session the Hibernate session (used if the result isn't cached)
+	 * @param id1 the ID of the original config (0 for none, i.e. empty)
+	 * @param id2 the ID of the revised config
+	 * @param attribute the name of the attribute
+	 * @return the hunks
+	 * @throws HibernateException in case of database error
+	 */
+	public static List<Hunk> getDiff(Session session, long id1, long id2, String attribute)
+			throws HibernateException {
+		Key key = new Key(id1, id2, attribute);
+		synchronized (diffs) {
+			List<Hunk> hunks = diffs.get(key);
+			if (hunks != null) {
+				return hunks;
+			}
+		}
+		List<String> lines1 = getLines(session, id1, attribute);
+		List<String> lines2 = getLines(session, id2, attribute);
+
+		// Map each distinct line to an integer
+		Map<String, Integer> symbols = new HashMap<String, Integer>();
+		List<Integer> symbols1 = toSymbols(lines1, symbols);
+		List<Integer> symbols2 = toSymbols(lines2, symbols);
+
+		Patch<Integer> patch = DiffUtils.diff(symbols1, symbols2);
+		List<Hunk> hunks = new ArrayList<Hunk>(patch.getDeltas().size());
+		for (Delta<Integer> delta : patch.getDeltas()) {
+			hunks.add(new Hunk(delta, lines1, lines2));
+		}
+		hunks = Collections.unmodifiableList(hunks);
+		logger.trace("Computed the diff of {} between configs {} and {}, {} hunk(s).",
+				attribute, id1, id2, hunks.size());
+		synchronized (diffs) {
+			diffs.put(key, hunks);
+		}
+		return hunks;
+	}
+
+	/**
+	 * Maps the lines to integers (the same line always giving the same integer).
+	 */
+	private static List<Integer> toSymbols(List<String> lines, Map<String, Integer> symbols) {
+		List<Integer> list = new ArrayList<Integer>(lines.size());
+		for (String line : lines) {
+			Integer symbol = symbols.get(line);
+			if (symbol == null) {
+				symbol = symbols.size();
+				symbols.put(line, symbol);
+			}
+			list.add(symbol);
+		}
+		return list;
+	}
+
+}
@@ -384,6 +384,7 @@ public class Device {
 				.createQuery("from DeviceCredentialSet cs where (cs.mgmtDomain = :domain or cs.mgmtDomain is null) and (not (cs.deviceSpecific = :true))")
 				.setEntity("domain", this.getMgmtDomain())
 				.setBoolean("true", true)
+				.setCacheable(true)
 				.list();
 	}
 
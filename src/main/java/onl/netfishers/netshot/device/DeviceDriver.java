@@ -36,10 +36,8 @@ import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 import javax.persistence.Transient;
-import javax.script.Bindings;
 import javax.script.Invocable;
 import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -55,6 +53,8 @@ import onl.netfishers.netshot.collector.SnmpTrapReceiver;
 import onl.netfishers.netshot.collector.SyslogServer;
 import onl.netfishers.netshot.device.attribute.AttributeDefinition;
 import onl.netfishers.netshot.device.attribute.AttributeDefinition.AttributeLevel;
+import onl.netfishers.netshot.device.script.CompiledScriptCache;
+import onl.netfishers.netshot.device.script.engine.ScriptEngineBackend;
 import onl.netfishers.netshot.device.script.helper.JsDeviceHelper;
 import onl.netfishers.netshot.work.TaskLogger;
 import onl.netfishers.netshot.work.Task;
@@ -303,6 +303,7 @@ public class DeviceDriver {
 			}
 		}
 		DeviceDriver.drivers = drivers;
+		CompiledScriptCache.clear();
 	}
 
 	/** The name of the driver */
@@ -335,9 +336,15 @@ public class DeviceDriver {
 	/** Set to true if the driver can identify a relevant device based on SNMP sysObjectId and name */
 	private boolean canSnmpAutodiscover = true;
 
-	/** The JS engine */
+	/** The JavaScript code of the driver */
+	private String source;
+
+	/** The JS engine (if the engines of the backend are thread-safe) */
 	private ScriptEngine engine;
 
+	/** The JS engine of each thread (if the engines of the backend aren't thread-safe) */
+	private ThreadLocal<ScriptEngine> threadEngines;
+
 	/** Instantiates a new device driver (empty constructor) */
 	protected DeviceDriver() {
 	}
@@ -348,12 +355,25 @@ public class DeviceDriver {
 	 * @throws Exception something went wrong
 	 */
 	protected DeviceDriver(InputStream in) throws Exception {
-		engine = new ScriptEngineManager().getEngineByName("nashorn");
-
-		engine.eval("delete load, com, edu, java, javafx, javax, org, JavaImporter, Java, loadWithNewGlobal;");
-		engine.eval(new InputStreamReader(in));
-		engine.eval(DeviceDriver.JSLOADER);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		StringBuilder buffer = new StringBuilder();
+		String line = null;
+		while ((line = reader.readLine()) != null) {
+			buffer.append(line).append("\n");
+		}
+		reader.close();
+		this.source = buffer.toString();
 
+		long start = System.currentTimeMillis();
+		ScriptEngine engine = this.createEngine();
+		if (ScriptEngineBackend.getBackend().isThreadSafe()) {
+			this.engine = engine;
+		}
+		else {
+			this.threadEngines = new ThreadLocal<ScriptEngine>();
+			this.threadEngines.set(engine);
+		}
+		long loadTime = System.currentTimeMillis() - start;
 
 		try {
 			Object info = JsDeviceHelper.toBindings(engine, "Info");
@@ -367,7 +387,7 @@ public class DeviceDriver {
 		}
 
 		try {
-			Bindings config = JsDeviceHelper.toBindings(engine, "Config");
+			Map<String, Object> config = JsDeviceHelper.toBindings(engine, "Config");
 			for (String key : config.keySet()) {
 				if (key == null || !key.matches("^[a-z][a-zA-Z0-9]+$")) {
 					throw new IllegalArgumentException(String.format("Invalid config item %s.", key));
@@ -386,7 +406,7 @@ public class DeviceDriver {
 			throw new IllegalArgumentException("Invalid Config object.", e);
 		}
 		try {
-			Bindings device = JsDeviceHelper.toBindings(engine, "Device");
+			Map<String, Object> device = JsDeviceHelper.toBindings(engine, "Device");
 			for (String key : device.keySet()) {
 				if (key == null || !key.matches("^[a-z][a-zA-Z0-9]+$")) {
 					throw new IllegalArgumentException(String.format("Invalid device item %s.", key));
@@ -406,23 +426,23 @@ public class DeviceDriver {
 		}
 
 		try {
-			Bindings cli = JsDeviceHelper.toBindings(engine, "CLI");
-			if (cli.containsKey("ssh") && cli.get("ssh") instanceof Bindings) {
+			Map<String, Object> cli = JsDeviceHelper.toBindings(engine, "CLI");
+			if (cli.containsKey("ssh") && cli.get("ssh") instanceof Map) {
 				this.protocols.add(DriverProtocol.SSH);
-				Bindings ssh = (Bindings) cli.get("ssh");
+				Map<?, ?> ssh = (Map<?, ?>) cli.get("ssh");
 				try {
-					Bindings macros = (Bindings) ssh.get("macros");
+					Map<String, ?> macros = (Map<String, ?>) ssh.get("macros");
 					this.cliMainModes.addAll(macros.keySet());
 				}
 				catch (Exception e) {
 					// Not a problem
 				}
 			}
-			if (cli.containsKey("telnet") && cli.get("telnet") instanceof Bindings) {
+			if (cli.containsKey("telnet") && cli.get("telnet") instanceof Map) {
 				this.protocols.add(DriverProtocol.TELNET);
-				Bindings telnet = (Bindings) cli.get("telnet");
+				Map<?, ?> telnet = (Map<?, ?>) cli.get("telnet");
 				try {
-					Bindings macros = (Bindings) telnet.get("macros");
+					Map<String, ?> macros = (Map<String, ?>) telnet.get("macros");
 					this.cliMainModes.addAll(macros.keySet());
 				}
 				catch (Exception e) {
@@ -441,7 +461,21 @@ public class DeviceDriver {
 
 		this.testFunction("snapshot");
 
-		logger.info("Loaded driver {}.", this);
+		logger.info("Loaded driver {} ({} engine initialized in {} ms).", this,
+				ScriptEngineBackend.getBackend().getName(), loadTime);
+	}
+
+	/**
+	 * Creates and initializes a JS engine with the code of the driver.
+	 * @return the new engine
+	 * @throws ScriptException in case of error in the driver code
+	 */
+	private ScriptEngine createEngine() throws ScriptException {
+		ScriptEngine engine = ScriptEngineBackend.getBackend().createEngine();
+		engine.eval(ScriptEngineBackend.PRELUDE);
+		engine.eval(this.source);
+		engine.eval(DeviceDriver.JSLOADER);
+		return engine;
 	}
 
 	/**
@@ -455,7 +489,7 @@ public class DeviceDriver {
 			return false;
 		}
 		try {
-			Object result = ((Invocable) engine).invokeFunction("_analyzeSyslog", message, JS_SYSLOG_LOGGER);
+			Object result = ((Invocable) getEngine()).invokeFunction("_analyzeSyslog", message, JS_SYSLOG_LOGGER);
 			if (result != null && result instanceof Boolean && (Boolean) result) {
 				return true;
 			}
@@ -478,7 +512,7 @@ public class DeviceDriver {
 			return false;
 		}
 		try {
-			Object result = ((Invocable) engine).invokeFunction("_analyzeTrap", data, JS_SNMP_LOGGER);
+			Object result = ((Invocable) getEngine()).invokeFunction("_analyzeTrap", data, JS_SNMP_LOGGER);
 			if (result != null && result instanceof Boolean && (Boolean) result) {
 				return true;
 			}
@@ -531,9 +565,30 @@ public class DeviceDriver {
 		return version;
 	}
 	
+	/**
+	 * Gets the JS engine loaded with the driver code, to be used by the current
+	 * thread.
+	 * @return the JS engine
+	 */
 	@Transient
 	public ScriptEngine getEngine() {
-		return engine;
+		if (threadEngines == null) {
+			return engine;
+		}
+		ScriptEngine threadEngine = threadEngines.get();
+		if (threadEngine == null) {
+			try {
+				long start = System.currentTimeMillis();
+				threadEngine = this.createEngine();
+				logger.debug("Initialized a {} engine for driver {} in {} ms.",
+						ScriptEngineBackend.getBackend().getName(), name, System.currentTimeMillis() - start);
+			}
+			catch (ScriptException e) {
+				throw new IllegalStateException(String.format("Unable to initialize the engine for driver %s.", name), e);
+			}
+			threadEngines.set(threadEngine);
+		}
+		return threadEngine;
 	}
 	
 	protected void setProtocols(Set<DriverProtocol> protocols) {
@@ -553,7 +608,7 @@ public class DeviceDriver {
 			return false;
 		}
 		try {
-			Object result = ((Invocable) engine).invokeFunction("_snmpAutoDiscover", sysObjectId, sysDesc, taskLogger);
+			Object result = ((Invocable) getEngine()).invokeFunction("_snmpAutoDiscover", sysObjectId, sysDesc, taskLogger);
 			if (result != null && result instanceof Boolean) {
 				return (Boolean) result;
 			}
@@ -578,7 +633,7 @@ public class DeviceDriver {
 	 */
 	protected void testFunction(String function) throws IllegalArgumentException {
 		try {
-			((Invocable) engine).invokeFunction(function);
+			((Invocable) getEngine()).invokeFunction(function);
 		}
 		catch (NoSuchMethodException e) {
 			throw new IllegalArgumentException(String.format("The function %s doesn't exist.", function));
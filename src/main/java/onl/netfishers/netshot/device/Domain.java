@@ -41,12 +41,15 @@ import onl.netfishers.netshot.device.credentials.DeviceCredentialSet;
 import onl.netfishers.netshot.work.tasks.DiscoverDeviceTypeTask;
 import onl.netfishers.netshot.work.tasks.ScanSubnetsTask;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.NaturalId;
 
 /**
  * A domain identifies a part of the network managed from the same IP address.
  */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @XmlRootElement
 @XmlAccessorType(value = XmlAccessType.NONE)
 public class Domain {
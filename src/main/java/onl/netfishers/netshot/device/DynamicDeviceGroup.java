@@ -18,6 +18,7 @@
  */
 package onl.netfishers.netshot.device;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.persistence.Column;
@@ -26,6 +27,7 @@ import javax.persistence.Transient;
 import javax.xml.bind.annotation.XmlElement;
 
 import onl.netfishers.netshot.Database;
+import onl.netfishers.netshot.ReportAggregates;
 import onl.netfishers.netshot.device.Finder.Expression.FinderParseException;
 
 import org.hibernate.HibernateException;
@@ -187,6 +189,8 @@ public class DynamicDeviceGroup extends DeviceGroup {
 		logger.debug("Refreshing all groups for device {}.", device.getId());
 		Session session = Database.getSession();
 		try {
+			// The IP based group queries rely on the address index
+			NetworkAddressIndex.refreshDevice(session, device.getId());
 			session.beginTransaction();
 			@SuppressWarnings("unchecked")
 			List<DynamicDeviceGroup> groups = session.createCriteria(DynamicDeviceGroup.class).list();
@@ -200,6 +204,47 @@ public class DynamicDeviceGroup extends DeviceGroup {
 				}
 			}
 			session.getTransaction().commit();
+			ReportAggregates.refreshDevice(session, device.getId());
+		}
+		catch (HibernateException e) {
+			session.getTransaction().rollback();
+			logger.error("Error while updating the groups.", e);
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Refreshes all groups after a set of devices was changed (e.g. by a bulk
+	 * import): each group is fully refreshed once, rather than once per device.
+	 *
+	 * @param deviceIds the IDs of the changed devices
+	 */
+	static synchronized public void refreshAllGroups(Collection<Long> deviceIds) {
+		logger.debug("Refreshing all groups for {} devices.", deviceIds.size());
+		Session session = Database.getSession();
+		try {
+			for (Long deviceId : deviceIds) {
+				NetworkAddressIndex.refreshDevice(session, deviceId);
+			}
+			session.beginTransaction();
+			@SuppressWarnings("unchecked")
+			List<DynamicDeviceGroup> groups = session.createCriteria(DynamicDeviceGroup.class).list();
+			for (DynamicDeviceGroup group : groups) {
+				try {
+					group.refreshCache(session);
+					session.update(group);
+				}
+				catch (FinderParseException e) {
+					logger.error("Parse error while updating the group {}.", group.getId(), e);
+				}
+			}
+			session.getTransaction().commit();
+			session.clear();
+			for (Long deviceId : deviceIds) {
+				ReportAggregates.refreshDevice(session, deviceId);
+			}
 		}
 		catch (HibernateException e) {
 			session.getTransaction().rollback();
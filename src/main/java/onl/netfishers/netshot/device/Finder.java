@@ -77,7 +77,7 @@ public class Finder {
 			}
 			Session session = Database.getSession();
 			try {
-				this.diagnostics = session.createCriteria(Diagnostic.class).list();
+				this.diagnostics = session.createCriteria(Diagnostic.class).setCacheable(true).list();
 			}
 			catch (HibernateException e) {
 				logger.error("Unable to fetch the diagnostics.", e);
@@ -1342,6 +1342,33 @@ public class Finder {
 		/** The target. */
 		public Network4Address target;
 
+		/** Whether the address index was already looked up. */
+		private boolean indexLookedUp = false;
+
+		/** The devices found using the address index (null if the index can't be used). */
+		private Set<Long> indexedDevices = null;
+
+		/**
+		 * Gets the matching devices from the address index.
+		 *
+		 * @return the IDs of the matching devices, or null if the index can't be used
+		 */
+		private Set<Long> getIndexedDevices() {
+			if (!this.indexLookedUp) {
+				this.indexLookedUp = true;
+				if (this.sign == TokenType.IN) {
+					this.indexedDevices = NetworkAddressIndex.findDevicesInSubnet(this.target);
+				}
+				else if (!this.withMask && this.sign == TokenType.CONTAINS) {
+					this.indexedDevices = NetworkAddressIndex.findDevicesContaining(this.target);
+				}
+				else {
+					this.indexedDevices = NetworkAddressIndex.findDevicesWithAddress(this.target, this.withMask);
+				}
+			}
+			return this.indexedDevices;
+		}
+
 		/**
 		 * Parses the tokens to create an expression.
 		 *
@@ -1425,6 +1452,11 @@ public class Finder {
 		@Override
 		public FinderCriteria buildHqlString(String itemPrefix) {
 			FinderCriteria criteria = super.buildHqlString(itemPrefix);
+			Set<Long> devices = this.getIndexedDevices();
+			if (devices != null) {
+				criteria.where = devices.isEmpty() ? "1 = 0" : String.format("d.id in (:%s_ids)", itemPrefix);
+				return criteria;
+			}
 			criteria.joins.add("d.networkInterfaces ni");
 			criteria.joins.add("ni.ip4Addresses ip4");
 			if (this.sign == TokenType.IN) {
@@ -1460,6 +1492,13 @@ public class Finder {
 		@Override
 		public void setVariables(Query query, String itemPrefix) {
 			super.setVariables(query, itemPrefix);
+			Set<Long> devices = this.getIndexedDevices();
+			if (devices != null) {
+				if (!devices.isEmpty()) {
+					query.setParameterList(itemPrefix + "_ids", devices);
+				}
+				return;
+			}
 			if (this.sign == TokenType.IN) {
 				int min = this.target.getSubnetMin();
 				int max = this.target.getSubnetMax();
@@ -1504,6 +1543,30 @@ public class Finder {
 		/** The target. */
 		public Network6Address target;
 
+		/** Whether the address index was already looked up. */
+		private boolean indexLookedUp = false;
+
+		/** The devices found using the address index (null if the index can't be used). */
+		private Set<Long> indexedDevices = null;
+
+		/**
+		 * Gets the matching devices from the address index.
+		 *
+		 * @return the IDs of the matching devices, or null if the index can't be used
+		 */
+		private Set<Long> getIndexedDevices() {
+			if (!this.indexLookedUp) {
+				this.indexLookedUp = true;
+				if (this.sign == TokenType.IN) {
+					this.indexedDevices = NetworkAddressIndex.findDevicesInSubnet(this.target);
+				}
+				else {
+					this.indexedDevices = NetworkAddressIndex.findDevicesWithAddress(this.target, this.withMask);
+				}
+			}
+			return this.indexedDevices;
+		}
+
 		/**
 		 * Parses the tokens to create an expression.
 		 *
@@ -1578,6 +1641,11 @@ public class Finder {
 		@Override
 		public FinderCriteria buildHqlString(String itemPrefix) {
 			FinderCriteria criteria = super.buildHqlString(itemPrefix);
+			Set<Long> devices = this.getIndexedDevices();
+			if (devices != null) {
+				criteria.where = devices.isEmpty() ? "1 = 0" : String.format("d.id in (:%s_ids)", itemPrefix);
+				return criteria;
+			}
 			criteria.joins.add("d.networkInterfaces ni");
 			criteria.joins.add("ni.ip6Addresses ip6");
 			if (this.sign == TokenType.IN) {
@@ -1613,6 +1681,13 @@ public class Finder {
 		@Override
 		public void setVariables(Query query, String itemPrefix) {
 			super.setVariables(query, itemPrefix);
+			Set<Long> devices = this.getIndexedDevices();
+			if (devices != null) {
+				if (!devices.isEmpty()) {
+					query.setParameterList(itemPrefix + "_ids", devices);
+				}
+				return;
+			}
 			if (this.sign == TokenType.IN) {
 				if (this.target.getPrefixLength() <= 64) {
 					long mask = 0xFFFFFFFFFFFFFFFFL << (64 - this.target
@@ -18,6 +18,8 @@
  */
 package onl.netfishers.netshot.device;
 
+import java.util.Objects;
+
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
@@ -27,6 +29,11 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import onl.netfishers.netshot.Database;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 /**
  * A network device line module.
  */
@@ -67,7 +74,12 @@ public class Module {
 	 * @return the id
 	 */
 	@XmlElement
-	@Id @GeneratedValue
+	@Id @GeneratedValue(generator = "module_seq")
+	@GenericGenerator(name = "module_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+		@Parameter(name = "sequence_name", value = "module_seq"),
+		@Parameter(name = "increment_size", value = Database.ID_POOL_SIZE),
+		@Parameter(name = "optimizer", value = "pooled")
+	})
 	public long getId() {
 		return id;
 	}
@@ -152,4 +164,19 @@ public class Module {
 		this.id = id;
 	}
 
+	/**
+	 * Updates this module with the data of another instance (typically read
+	 * by a new snapshot) having the same slot and serial number.
+	 *
+	 * @param other the module to take the data from
+	 * @return true, if something was changed
+	 */
+	public boolean update(Module other) {
+		if (Objects.equals(partNumber, other.partNumber)) {
+			return false;
+		}
+		partNumber = other.partNumber;
+		return true;
+	}
+
 }
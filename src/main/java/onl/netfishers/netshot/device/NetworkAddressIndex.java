@@ -0,0 +1,687 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.device;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import onl.netfishers.netshot.Database;
+import onl.netfishers.netshot.Netshot;
+
+import org.hibernate.CacheMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the IPv4 and IPv6 addresses of the devices (management
+ * address and interface addresses).
+ * It answers the subnet (IN), exact match (IS) and containment (CONTAINS)
+ * lookups of the Finder without joining the interface and address tables.
+ * The index is fully loaded at startup, then refreshed device per device
+ * (after snapshots, edits, etc.).
+ */
+public class NetworkAddressIndex {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(NetworkAddressIndex.class);
+
+	/** Is the index enabled? */
+	private static boolean ENABLED = true;
+
+	/**
+	 * Max number of devices a lookup can return. Above this, the caller
+	 * should go on with a database query (to avoid huge 'in' lists).
+	 */
+	private static int MAX_RESULTS = 2000;
+
+	static {
+		if (Netshot.getConfig("netshot.finder.addressindex", "true").equals("false")) {
+			ENABLED = false;
+		}
+		try {
+			int maxResults = Integer.parseInt(Netshot.getConfig("netshot.finder.addressindex.maxresults", "2000"));
+			if (maxResults < 1) {
+				throw new Exception();
+			}
+			MAX_RESULTS = maxResults;
+		}
+		catch (Exception e) {
+			logger.error("Invalid value for netshot.finder.addressindex.maxresults in the configuration file. Using default of {}.",
+					MAX_RESULTS);
+		}
+	}
+
+	/**
+	 * A 128-bit address key, compared as an unsigned number.
+	 * IPv4 addresses only use the lower 32 bits.
+	 */
+	private static class Key implements Comparable<Key> {
+
+		/** The upper 64 bits. */
+		private final long high;
+
+		/** The lower 64 bits. */
+		private final long low;
+
+		/**
+		 * Instantiates a new key.
+		 * @param high the upper 64 bits
+		 * @param low the lower 64 bits
+		 */
+		public Key(long high, long low) {
+			this.high = high;
+			this.low = low;
+		}
+
+		/**
+		 * Gets a mask of the n lower bits of a long.
+		 * @param n the number of bits (0 to 64)
+		 * @return the mask
+		 */
+		private static long lowMask(int n) {
+			return (n >= 64) ? -1L : (1L << n) - 1;
+		}
+
+		/**
+		 * Returns a copy of the key, with the n lower bits set to 0.
+		 * @param n the number of bits to clear
+		 * @return the new key
+		 */
+		public Key clearLowBits(int n) {
+			if (n <= 0) {
+				return this;
+			}
+			if (n >= 64) {
+				return new Key(this.high & ~lowMask(n - 64), 0L);
+			}
+			return new Key(this.high, this.low & ~lowMask(n));
+		}
+
+		/**
+		 * Returns a copy of the key, with the n lower bits set to 1.
+		 * @param n the number of bits to set
+		 * @return the new key
+		 */
+		public Key setLowBits(int n) {
+			if (n <= 0) {
+				return this;
+			}
+			if (n >= 64) {
+				return new Key(this.high | lowMask(n - 64), -1L);
+			}
+			return new Key(this.high, this.low | lowMask(n));
+		}
+
+		@Override
+		public int compareTo(Key other) {
+			int c = Long.compareUnsigned(this.high, other.high);
+			if (c != 0) {
+				return c;
+			}
+			return Long.compareUnsigned(this.low, other.low);
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + (int) (high ^ (high >>> 32));
+			result = prime * result + (int) (low ^ (low >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			Key other = (Key) obj;
+			return high == other.high && low == other.low;
+		}
+	}
+
+	/**
+	 * An address of a device, as stored in the index.
+	 */
+	private static class Entry {
+
+		/** The device ID. */
+		private final long deviceId;
+
+		/** The address. */
+		private final Key key;
+
+		/** The prefix length. */
+		private final int prefixLength;
+
+		/** Is it the management address (not attached to an interface)? */
+		private final boolean management;
+
+		/** Is it an IPv6 address? */
+		private final boolean v6;
+
+		public Entry(long deviceId, Key key, int prefixLength, boolean management, boolean v6) {
+			this.deviceId = deviceId;
+			this.key = key;
+			this.prefixLength = prefixLength;
+			this.management = management;
+			this.v6 = v6;
+		}
+	}
+
+	/**
+	 * The address tree of one address family.
+	 * Host addresses are kept sorted, so that a subnet lookup is a range lookup.
+	 * Interface networks are hashed per prefix length, so that finding the
+	 * subnets which contain an address takes one lookup per possible prefix length.
+	 */
+	private static class AddressTree {
+
+		/** The address width (32 or 128). */
+		private final int width;
+
+		/** The sorted host addresses. */
+		private final TreeMap<Key, List<Entry>> hosts = new TreeMap<Key, List<Entry>>();
+
+		/** The interface networks, by prefix length. */
+		private final List<Map<Key, Set<Long>>> networks;
+
+		public AddressTree(int width) {
+			this.width = width;
+			this.networks = new ArrayList<Map<Key, Set<Long>>>(width + 1);
+			for (int l = 0; l <= width; l++) {
+				this.networks.add(new HashMap<Key, Set<Long>>());
+			}
+		}
+
+		/**
+		 * Adds an entry to the tree.
+		 * @param entry the entry to add
+		 */
+		public void add(Entry entry) {
+			List<Entry> entries = hosts.get(entry.key);
+			if (entries == null) {
+				entries = new ArrayList<Entry>(1);
+				hosts.put(entry.key, entries);
+			}
+			entries.add(entry);
+			if (!entry.management && entry.prefixLength >= 0 && entry.prefixLength <= width) {
+				Key network = entry.key.clearLowBits(width - entry.prefixLength);
+				Map<Key, Set<Long>> lengthNetworks = networks.get(entry.prefixLength);
+				Set<Long> devices = lengthNetworks.get(network);
+				if (devices == null) {
+					devices = new HashSet<Long>(2);
+					lengthNetworks.put(network, devices);
+				}
+				devices.add(entry.deviceId);
+			}
+		}
+
+		/**
+		 * Removes an entry from the tree. All entries of the device
+		 * are supposed to be removed at once.
+		 * @param entry the entry to remove
+		 */
+		public void remove(Entry entry) {
+			List<Entry> entries = hosts.get(entry.key);
+			if (entries != null) {
+				entries.remove(entry);
+				if (entries.isEmpty()) {
+					hosts.remove(entry.key);
+				}
+			}
+			if (!entry.management && entry.prefixLength >= 0 && entry.prefixLength <= width) {
+				Key network = entry.key.clearLowBits(width - entry.prefixLength);
+				Map<Key, Set<Long>> lengthNetworks = networks.get(entry.prefixLength);
+				Set<Long> devices = lengthNetworks.get(network);
+				if (devices != null) {
+					devices.remove(entry.deviceId);
+					if (devices.isEmpty()) {
+						lengthNetworks.remove(network);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Finds the devices having an address within the given subnet.
+		 * @param key the subnet address
+		 * @param prefixLength the subnet prefix length
+		 * @return the device IDs, or null if there are too many
+		 */
+		public Set<Long> findWithin(Key key, int prefixLength) {
+			Key min = key.clearLowBits(width - prefixLength);
+			Key max = key.setLowBits(width - prefixLength);
+			Set<Long> devices = new HashSet<Long>();
+			for (List<Entry> entries : hosts.subMap(min, true, max, true).values()) {
+				for (Entry entry : entries) {
+					devices.add(entry.deviceId);
+				}
+				if (devices.size() > MAX_RESULTS) {
+					return null;
+				}
+			}
+			return devices;
+		}
+
+		/**
+		 * Finds the devices having exactly the given address.
+		 * @param key the address
+		 * @param prefixLength the prefix length to match, or -1 to ignore it
+		 * @return the device IDs, or null if there are too many
+		 */
+		public Set<Long> findExact(Key key, int prefixLength) {
+			Set<Long> devices = new HashSet<Long>();
+			List<Entry> entries = hosts.get(key);
+			if (entries != null) {
+				for (Entry entry : entries) {
+					if (prefixLength < 0 || entry.prefixLength == prefixLength) {
+						devices.add(entry.deviceId);
+					}
+				}
+			}
+			return devices.size() > MAX_RESULTS ? null : devices;
+		}
+
+		/**
+		 * Finds the devices having an interface subnet which contains the given address.
+		 * @param key the address
+		 * @return the device IDs, or null if there are too many
+		 */
+		public Set<Long> findContaining(Key key) {
+			Set<Long> devices = new HashSet<Long>();
+			for (int l = 0; l <= width; l++) {
+				Set<Long> lengthDevices = networks.get(l).get(key.clearLowBits(width - l));
+				if (lengthDevices != null) {
+					devices.addAll(lengthDevices);
+					if (devices.size() > MAX_RESULTS) {
+						return null;
+					}
+				}
+			}
+			return devices;
+		}
+
+		/**
+		 * Gets the number of distinct addresses in the tree.
+		 * @return the number of addresses
+		 */
+		public int size() {
+			return hosts.size();
+		}
+	}
+
+	/** The IPv4 address tree. */
+	private static AddressTree tree4 = new AddressTree(32);
+
+	/** The IPv6 address tree. */
+	private static AddressTree tree6 = new AddressTree(128);
+
+	/** The indexed entries, per device. */
+	private static Map<Long, List<Entry>> deviceEntries = new HashMap<Long, List<Entry>>();
+
+	/** Lock to protect the index. */
+	private static ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** Is the index loaded? */
+	private static volatile boolean ready = false;
+
+	/** Delay before reloading the index after an error, in seconds. */
+	private static final int RELOAD_DELAY = 60;
+
+	/** The executor which reloads the index after an error. */
+	private static ScheduledExecutorService reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Address Index Reloader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** Is a reload scheduled? */
+	private static AtomicBoolean reloadScheduled = new AtomicBoolean(false);
+
+	/**
+	 * Builds an IPv4 key.
+	 * @param address the IPv4 address, as int
+	 * @return the key
+	 */
+	private static Key key4(int address) {
+		return new Key(0L, address & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Adds an address to the index (the lock must be held).
+	 * @param entry the entry to add
+	 */
+	private static void addEntry(Entry entry) {
+		List<Entry> entries = deviceEntries.get(entry.deviceId);
+		if (entries == null) {
+			entries = new ArrayList<Entry>();
+			deviceEntries.put(entry.deviceId, entries);
+		}
+		entries.add(entry);
+		(entry.v6 ? tree6 : tree4).add(entry);
+	}
+
+	/**
+	 * Removes all the entries of a device (the lock must be held).
+	 * @param deviceId the device ID
+	 */
+	private static void removeEntries(long deviceId) {
+		List<Entry> entries = deviceEntries.remove(deviceId);
+		if (entries != null) {
+			for (Entry entry : entries) {
+				(entry.v6 ? tree6 : tree4).remove(entry);
+			}
+		}
+	}
+
+	/**
+	 * Reads the addresses from the database, using the given queries.
+	 * Each query must return the device ID, then the address and the prefix length
+	 * (or the two IPv6 address parts then the prefix length for IPv6).
+	 * @param query the query
+	 * @param management true for management addresses
+	 * @param v6 true for IPv6 queries
+	 * @return the list of read entries
+	 */
+	private static List<Entry> readEntries(Query query, boolean management, boolean v6) {
+		List<Entry> entries = new ArrayList<Entry>();
+		ScrollableResults results = query
+				.setCacheMode(CacheMode.IGNORE)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				Object[] row = results.get();
+				if (row[0] == null || row[1] == null) {
+					continue;
+				}
+				long deviceId = (Long) row[0];
+				if (v6) {
+					if (row[2] == null || row[3] == null) {
+						continue;
+					}
+					entries.add(new Entry(deviceId, new Key((Long) row[1], (Long) row[2]),
+							(Integer) row[3], management, true));
+				}
+				else {
+					int address = (Integer) row[1];
+					if (address == 0) {
+						continue;
+					}
+					entries.add(new Entry(deviceId, key4(address),
+							row[2] == null ? 32 : (Integer) row[2], management, false));
+				}
+			}
+		}
+		finally {
+			results.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * Reads the addresses of all devices, or of one device, from the database.
+	 * @param session the session
+	 * @param deviceId the device ID, or null for all devices
+	 * @return the list of read entries
+	 */
+	private static List<Entry> readEntries(Session session, Long deviceId) {
+		String deviceFilter = (deviceId == null ? "" : " where d.id = :id");
+		String niFilter = (deviceId == null ? "" : " where ni.device.id = :id");
+		Query mgmtQuery = session.createQuery(
+				"select d.id, d.mgmtAddress.address, d.mgmtAddress.prefixLength from Device d" + deviceFilter);
+		Query ip4Query = session.createQuery(
+				"select ni.device.id, ip4.address, ip4.prefixLength from NetworkInterface ni join ni.ip4Addresses ip4" + niFilter);
+		Query ip6Query = session.createQuery(
+				"select ni.device.id, ip6.address1, ip6.address2, ip6.prefixLength from NetworkInterface ni join ni.ip6Addresses ip6" + niFilter);
+		if (deviceId != null) {
+			mgmtQuery.setLong("id", deviceId);
+			ip4Query.setLong("id", deviceId);
+			ip6Query.setLong("id", deviceId);
+		}
+		List<Entry> entries = new ArrayList<Entry>();
+		entries.addAll(readEntries(mgmtQuery, true, false));
+		entries.addAll(readEntries(ip4Query, false, false));
+		entries.addAll(readEntries(ip6Query, false, true));
+		return entries;
+	}
+
+	/**
+	 * Loads the whole index from the database (to be run at startup).
+	 */
+	public static void init() {
+		if (!ENABLED) {
+			logger.info("The device address index is disabled.");
+			return;
+		}
+		Session session = Database.getSession();
+		try {
+			long start = System.currentTimeMillis();
+			List<Entry> entries = readEntries(session, null);
+			lock.writeLock().lock();
+			try {
+				deviceEntries.clear();
+				tree4 = new AddressTree(32);
+				tree6 = new AddressTree(128);
+				for (Entry entry : entries) {
+					addEntry(entry);
+				}
+				ready = true;
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+			logger.info("The device address index has been loaded ({} IPv4 and {} IPv6 addresses, {} devices) in {}ms.",
+					tree4.size(), tree6.size(), deviceEntries.size(), System.currentTimeMillis() - start);
+		}
+		catch (HibernateException e) {
+			logger.error("Unable to load the device address index, the Finder will use the database until it is reloaded.", e);
+			scheduleReload();
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Schedules a full reload of the index (retried until it succeeds).
+	 */
+	private static void scheduleReload() {
+		if (reloadScheduled.compareAndSet(false, true)) {
+			reloader.schedule(new Runnable() {
+				@Override
+				public void run() {
+					reloadScheduled.set(false);
+					init();
+				}
+			}, RELOAD_DELAY, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Refreshes the addresses of a device in the index.
+	 * @param session the session to use to read the device addresses
+	 * @param deviceId the device ID
+	 */
+	public static void refreshDevice(Session session, long deviceId) {
+		if (!ready) {
+			return;
+		}
+		logger.debug("Refreshing the address index for device {}.", deviceId);
+		List<Entry> entries;
+		try {
+			entries = readEntries(session, deviceId);
+		}
+		catch (HibernateException e) {
+			logger.error("Unable to refresh the address index for device {}, the index will be reloaded.", deviceId, e);
+			ready = false;
+			scheduleReload();
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			removeEntries(deviceId);
+			for (Entry entry : entries) {
+				addEntry(entry);
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a device from the index.
+	 * @param deviceId the device ID
+	 */
+	public static void removeDevice(long deviceId) {
+		lock.writeLock().lock();
+		try {
+			removeEntries(deviceId);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the devices with an IPv4 address (management or interface) within the given subnet.
+	 * @param subnet the subnet
+	 * @return the device IDs, or null if the index can't answer
+	 */
+	public static Set<Long> findDevicesInSubnet(Network4Address subnet) {
+		if (!ready) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			return tree4.findWithin(key4(subnet.getIntAddress()), subnet.getPrefixLength());
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the devices with an IPv6 interface address within the given subnet.
+	 * @param subnet the subnet
+	 * @return the device IDs, or null if the index can't answer
+	 */
+	public static Set<Long> findDevicesInSubnet(Network6Address subnet) {
+		if (!ready) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			return tree6.findWithin(new Key(subnet.getAddress1(), subnet.getAddress2()), subnet.getPrefixLength());
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the devices with the given IPv4 address (management or interface).
+	 * @param address the address
+	 * @param withMask true to also match the prefix length
+	 * @return the device IDs, or null if the index can't answer
+	 */
+	public static Set<Long> findDevicesWithAddress(Network4Address address, boolean withMask) {
+		if (!ready) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			return tree4.findExact(key4(address.getIntAddress()), withMask ? address.getPrefixLength() : -1);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the devices with the given IPv6 interface address.
+	 * @param address the address
+	 * @param withMask true to also match the prefix length
+	 * @return the device IDs, or null if the index can't answer
+	 */
+	public static Set<Long> findDevicesWithAddress(Network6Address address, boolean withMask) {
+		if (!ready) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			return tree6.findExact(new Key(address.getAddress1(), address.getAddress2()),
+					withMask ? address.getPrefixLength() : -1);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the devices with an IPv4 interface subnet containing the given address.
+	 * @param address the address
+	 * @return the device IDs, or null if the index can't answer
+	 */
+	public static Set<Long> findDevicesContaining(Network4Address address) {
+		if (!ready) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			return tree4.findContaining(key4(address.getIntAddress()));
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Is the index loaded and usable?
+	 * @return true if the index is ready
+	 */
+	public static boolean isReady() {
+		return ready;
+	}
+
+}
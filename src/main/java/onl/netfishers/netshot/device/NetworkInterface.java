@@ -19,8 +19,12 @@
 package onl.netfishers.netshot.device;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 import javax.persistence.ElementCollection;
@@ -35,10 +39,13 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import onl.netfishers.netshot.Database;
 import onl.netfishers.netshot.device.NetworkAddress.AddressUsage;
 
 import org.hibernate.annotations.Fetch;
 import org.hibernate.annotations.FetchMode;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 /**
  * A network interface is attached to a device, has a physical
@@ -49,7 +56,12 @@ import org.hibernate.annotations.FetchMode;
 public class NetworkInterface {
 	
 	/** The id. */
-	@Id @GeneratedValue
+	@Id @GeneratedValue(generator = "network_interface_seq")
+	@GenericGenerator(name = "network_interface_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+		@Parameter(name = "sequence_name", value = "network_interface_seq"),
+		@Parameter(name = "increment_size", value = Database.ID_POOL_SIZE),
+		@Parameter(name = "optimizer", value = "pooled")
+	})
 	private long id;
 	
 	/** The device. */
@@ -126,6 +138,15 @@ public class NetworkInterface {
 		return id;
 	}
 
+	/**
+	 * Gets the device.
+	 *
+	 * @return the device
+	 */
+	public Device getDevice() {
+		return device;
+	}
+
 	/**
 	 * Gets the interface name.
 	 *
@@ -339,6 +360,76 @@ public class NetworkInterface {
 		this.level3 = level3;
 	}
 
+	/**
+	 * Updates this interface with the data of another instance (typically read
+	 * by a new snapshot) having the same name and virtual device.
+	 * Only what actually differs is changed, so that Hibernate has nothing to
+	 * write back if the interface didn't change.
+	 *
+	 * @param other the interface to take the data from
+	 * @return true, if something was changed
+	 */
+	public boolean update(NetworkInterface other) {
+		boolean changed = false;
+		if (!Objects.equals(vrfInstance, other.vrfInstance)) {
+			vrfInstance = other.vrfInstance;
+			changed = true;
+		}
+		if (!Objects.equals(description, other.description)) {
+			description = other.description;
+			changed = true;
+		}
+		if (enabled != other.enabled) {
+			enabled = other.enabled;
+			changed = true;
+		}
+		if (level3 != other.level3) {
+			level3 = other.level3;
+			changed = true;
+		}
+		if (!Objects.equals(physicalAddress, other.physicalAddress)) {
+			physicalAddress = other.physicalAddress;
+			changed = true;
+		}
+		changed |= updateAddresses(ip4Addresses, other.ip4Addresses);
+		changed |= updateAddresses(ip6Addresses, other.ip6Addresses);
+		return changed;
+	}
+
+	/**
+	 * Updates a set of addresses in place: the addresses which are in both sets
+	 * (with the same usage) are kept as is, the other ones are removed or added.
+	 *
+	 * @param addresses the current addresses
+	 * @param newAddresses the new addresses
+	 * @return true, if the current set was changed
+	 */
+	private static <A extends NetworkAddress> boolean updateAddresses(Set<A> addresses, Set<A> newAddresses) {
+		boolean changed = false;
+		Map<A, A> toAdd = new HashMap<A, A>();
+		for (A address : newAddresses) {
+			toAdd.put(address, address);
+		}
+		Iterator<A> i = addresses.iterator();
+		while (i.hasNext()) {
+			A address = i.next();
+			A newAddress = toAdd.get(address);
+			// The address usage isn't part of equals()
+			if (newAddress != null && newAddress.getAddressUsage() == address.getAddressUsage()) {
+				toAdd.remove(address);
+			}
+			else {
+				i.remove();
+				changed = true;
+			}
+		}
+		if (!toAdd.isEmpty()) {
+			addresses.addAll(toAdd.values());
+			changed = true;
+		}
+		return changed;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
 	 */
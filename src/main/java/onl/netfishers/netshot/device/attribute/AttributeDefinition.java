@@ -1,6 +1,6 @@
 package onl.netfishers.netshot.device.attribute;
 
-import javax.script.Bindings;
+import java.util.Map;
 import javax.xml.bind.annotation.XmlElement;
 
 import onl.netfishers.netshot.device.script.helper.JsDeviceHelper;
@@ -80,7 +80,7 @@ public class AttributeDefinition {
 			if (dump instanceof Boolean) {
 				this.dump = (Boolean) dump;
 			}
-			else if (dump instanceof Bindings) {
+			else if (dump instanceof Map) {
 				this.dump = true;
 				try {
 					this.preDump = JsDeviceHelper.toString(dump, "pre");
@@ -34,7 +34,10 @@ import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.hibernate.annotations.FilterDef;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
+import onl.netfishers.netshot.Database;
 import onl.netfishers.netshot.device.Config;
 
 import com.fasterxml.jackson.annotation.JsonSubTypes;
@@ -68,7 +71,12 @@ public abstract class ConfigAttribute {
 		this.name = name;
 	}
 
-	@Id @GeneratedValue
+	@Id @GeneratedValue(generator = "config_attribute_seq")
+	@GenericGenerator(name = "config_attribute_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+		@Parameter(name = "sequence_name", value = "config_attribute_seq"),
+		@Parameter(name = "increment_size", value = Database.ID_POOL_SIZE),
+		@Parameter(name = "optimizer", value = "pooled")
+	})
 	public long getId() {
 		return id;
 	}
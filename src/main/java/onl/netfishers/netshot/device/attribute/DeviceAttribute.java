@@ -33,8 +33,12 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import onl.netfishers.netshot.Database;
 import onl.netfishers.netshot.device.Device;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.annotation.JsonSubTypes.Type;
@@ -65,7 +69,12 @@ public abstract class DeviceAttribute {
 		this.name = name;
 	}
 
-	@Id @GeneratedValue
+	@Id @GeneratedValue(generator = "device_attribute_seq")
+	@GenericGenerator(name = "device_attribute_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+		@Parameter(name = "sequence_name", value = "device_attribute_seq"),
+		@Parameter(name = "increment_size", value = Database.ID_POOL_SIZE),
+		@Parameter(name = "optimizer", value = "pooled")
+	})
 	public long getId() {
 		return id;
 	}
@@ -23,6 +23,11 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 
+import onl.netfishers.netshot.Database;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 @Entity
 public class LongTextConfiguration {
 	
@@ -37,7 +42,12 @@ public class LongTextConfiguration {
 	}
 	
 	@Id
-	@GeneratedValue
+	@GeneratedValue(generator = "long_text_configuration_seq")
+	@GenericGenerator(name = "long_text_configuration_seq", strategy = "org.hibernate.id.enhanced.SequenceStyleGenerator", parameters = {
+		@Parameter(name = "sequence_name", value = "long_text_configuration_seq"),
+		@Parameter(name = "increment_size", value = Database.ID_POOL_SIZE),
+		@Parameter(name = "optimizer", value = "pooled")
+	})
 	public long getId() {
 		return id;
 	}
@@ -36,6 +36,8 @@ import javax.xml.bind.annotation.XmlRootElement;
 
 import onl.netfishers.netshot.device.Domain;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.NaturalId;
 import org.hibernate.annotations.Parameter;
 import org.hibernate.annotations.TypeDef;
@@ -50,6 +52,7 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
  * A credential set. Authentication data to access a device.
  */
 @Entity @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @XmlAccessorType(value = XmlAccessType.NONE)
 @XmlRootElement()
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.device.script;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.xml.bind.DatatypeConverter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import onl.netfishers.netshot.Netshot;
+import onl.netfishers.netshot.device.DeviceDriver;
+import onl.netfishers.netshot.work.TaskLogger;
+
+/**
+ * Process-wide cache of the compiled user scripts (device scripts and JavaScript
+ * diagnostics), keyed by driver and script hash. A script run on many devices
+ * of the same driver is therefore parsed and compiled only once; each run only
+ * evaluates the compiled script into its own context.
+ * A compiled script is tied to the engine it was compiled with, so the entries
+ * are dropped when the drivers are reloaded.
+ */
+public class CompiledScriptCache {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(CompiledScriptCache.class);
+
+	/** Maximum number of compiled scripts to keep. */
+	private static int maxSize = 500;
+
+	static {
+		try {
+			maxSize = Integer.parseInt(Netshot.getConfig("netshot.scripts.cache.maxsize", "500"));
+			if (maxSize < 1) {
+				throw new IllegalArgumentException();
+			}
+		}
+		catch (IllegalArgumentException e) {
+			logger.error("Invalid value for netshot.scripts.cache.maxsize in the configuration file. Using default of {}.",
+					maxSize);
+			maxSize = 500;
+		}
+	}
+
+	/** The compiled scripts, least recently used first. */
+	private static Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 3640785342512117316L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > maxSize;
+		}
+	};
+
+	/**
+	 * A compiled script.
+	 */
+	private static class Entry {
+
+		/** The engine the script was compiled with. */
+		private ScriptEngine engine;
+
+		/** The compiled script. */
+		private CompiledScript compiledScript;
+
+		/** The time it took to compile the script, in nanoseconds. */
+		private long compileTime;
+
+		/** Number of times the compiled script was reused. */
+		private long hits;
+
+		private Entry(ScriptEngine engine, CompiledScript compiledScript, long compileTime) {
+			this.engine = engine;
+			this.compiledScript = compiledScript;
+			this.compileTime = compileTime;
+		}
+	}
+
+	/**
+	 * Computes the hash of a script.
+	 *
+	 * @param script the script
+	 * @return the hash, as hex string
+	 */
+	private static String hash(String script) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return DatatypeConverter.printHexBinary(digest.digest(script.getBytes(StandardCharsets.UTF_8)));
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Gets the compiled version of a script for the given driver, compiling it
+	 * if it isn't in the cache yet.
+	 *
+	 * @param driver the device driver the script is run with
+	 * @param script the script
+	 * @param taskLogger the task logger, to report the compilation time or savings
+	 * @return the compiled script
+	 * @throws ScriptException if the script can't be compiled
+	 */
+	public static CompiledScript get(DeviceDriver driver, String script, TaskLogger taskLogger)
+			throws ScriptException {
+		ScriptEngine engine = driver.getEngine();
+		// With some backends, each thread has its own engine for the driver
+		String key = String.format("%s/%x/%s", driver.getName(), System.identityHashCode(engine), hash(script));
+		Entry entry;
+		synchronized (cache) {
+			entry = cache.get(key);
+			if (entry != null && entry.engine == engine) {
+				entry.hits++;
+				taskLogger.debug(String.format("Reusing the compiled script (%.1f ms of compilation saved, %d reuse(s)).",
+						entry.compileTime / 1000000.0, entry.hits));
+				return entry.compiledScript;
+			}
+		}
+		long start = System.nanoTime();
+		CompiledScript compiledScript = ((Compilable) engine).compile(script);
+		long compileTime = System.nanoTime() - start;
+		logger.debug("Compiled a script for driver {} in {} ms.", driver.getName(), compileTime / 1000000);
+		taskLogger.debug(String.format("Script compiled in %.1f ms.", compileTime / 1000000.0));
+		synchronized (cache) {
+			cache.put(key, new Entry(engine, compiledScript, compileTime));
+		}
+		return compiledScript;
+	}
+
+	/**
+	 * Empties the cache (e.g. when the drivers are reloaded).
+	 */
+	public static void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+
+}
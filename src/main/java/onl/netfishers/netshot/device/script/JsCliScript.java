@@ -82,7 +82,7 @@ public class JsCliScript extends CliScript {
 			ScriptContext scriptContext = new SimpleScriptContext();
 			scriptContext.setBindings(engine.getContext().getBindings(ScriptContext.ENGINE_SCOPE),
 					ScriptContext.ENGINE_SCOPE);
-			engine.eval(code, scriptContext);
+			CompiledScriptCache.get(driver, code, taskLogger).eval(scriptContext);
 			JsCliScriptOptions options = new JsCliScriptOptions(jsCliHelper);
 			options.setDevice(new JsDeviceHelper(device, null, taskLogger, false));
 			((Invocable) engine).invokeFunction("_connect", "run", protocol.value(), options, taskLogger);
@@ -82,7 +82,7 @@ public class RunDiagnosticCliScript extends CliScript {
 			Map<String, Object> jsDiagnostics = new HashMap<String, Object>();
 			for (Diagnostic diagnostic : this.diagnostics) {
 				try {
-					Object jsObject = diagnostic.getJsObject(device, engine, scriptContext);
+					Object jsObject = diagnostic.getJsObject(device, driver, scriptContext, taskLogger);
 					if (jsObject == null) {
 						continue;
 					}
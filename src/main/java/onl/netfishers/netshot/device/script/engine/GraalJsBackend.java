@@ -0,0 +1,81 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.device.script.engine;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+
+import com.oracle.truffle.js.scriptengine.GraalJSScriptEngine;
+
+/**
+ * The GraalJS backend. All the script engines share the same polyglot engine,
+ * so that the code parsed (and optimized) by one context is reused by the others.
+ * A GraalJS context can't be used by two threads at the same time, hence
+ * the engines aren't thread-safe.
+ */
+public class GraalJsBackend extends ScriptEngineBackend {
+
+	/** The shared polyglot engine. */
+	private Engine sharedEngine = Engine.create();
+
+	@Override
+	public String getName() {
+		return "GraalJS";
+	}
+
+	@Override
+	public ScriptEngine createEngine() throws ScriptException {
+		return GraalJSScriptEngine.create(sharedEngine, Context.newBuilder("js")
+				.allowHostAccess(HostAccess.ALL)
+				.allowHostClassLookup(className -> false)
+				.option("js.nashorn-compat", "true"));
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return false;
+	}
+
+	@Override
+	public boolean isFunction(Object value) {
+		return value != null && Value.asValue(value).canExecute();
+	}
+
+	@Override
+	public Object call(Object function, Object... args) throws ScriptException {
+		if (!isFunction(function)) {
+			throw new ScriptException("Not a function.");
+		}
+		try {
+			return Value.asValue(function).execute(args).as(Object.class);
+		}
+		catch (PolyglotException e) {
+			ScriptException se = new ScriptException(e.getMessage());
+			se.initCause(e);
+			throw se;
+		}
+	}
+
+}
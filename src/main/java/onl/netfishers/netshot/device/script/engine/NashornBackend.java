@@ -0,0 +1,67 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.device.script.engine;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import jdk.nashorn.api.scripting.JSObject;
+
+/**
+ * The Nashorn backend (JavaScript engine embedded in the JRE).
+ */
+public class NashornBackend extends ScriptEngineBackend {
+
+	/** The engine manager. */
+	private ScriptEngineManager manager = new ScriptEngineManager();
+
+	@Override
+	public String getName() {
+		return "Nashorn";
+	}
+
+	@Override
+	public ScriptEngine createEngine() throws ScriptException {
+		ScriptEngine engine = manager.getEngineByName("nashorn");
+		if (engine == null) {
+			throw new ScriptException("The Nashorn script engine is not available.");
+		}
+		return engine;
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public boolean isFunction(Object value) {
+		return value instanceof JSObject && ((JSObject) value).isFunction();
+	}
+
+	@Override
+	public Object call(Object function, Object... args) throws ScriptException {
+		if (!isFunction(function)) {
+			throw new ScriptException("Not a function.");
+		}
+		return ((JSObject) function).call(null, args);
+	}
+
+}
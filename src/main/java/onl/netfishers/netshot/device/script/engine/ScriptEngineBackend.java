@@ -0,0 +1,115 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.device.script.engine;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import onl.netfishers.netshot.Netshot;
+
+/**
+ * The JavaScript engine implementation used to run the drivers, the JavaScript
+ * rules, the JavaScript diagnostics and the device scripts.
+ * The backend is selected with the netshot.scripts.engine configuration option
+ * ('nashorn', the default, or 'graaljs').
+ */
+public abstract class ScriptEngineBackend {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(ScriptEngineBackend.class);
+
+	/** Code run first in each engine, to restrict what the scripts can access. */
+	public static final String PRELUDE = "delete load, com, edu, java, javafx, javax, org, JavaImporter, Java, loadWithNewGlobal;";
+
+	/** The backend in use. */
+	private static ScriptEngineBackend backend;
+
+	static {
+		String name = Netshot.getConfig("netshot.scripts.engine", "nashorn");
+		if ("graaljs".equals(name)) {
+			try {
+				backend = new GraalJsBackend();
+			}
+			catch (LinkageError | RuntimeException e) {
+				logger.error("Unable to load the GraalJS script engine, falling back to Nashorn.", e);
+			}
+		}
+		else if (!"nashorn".equals(name)) {
+			logger.error("Invalid value for netshot.scripts.engine in the configuration file. Using default of nashorn.");
+		}
+		if (backend == null) {
+			backend = new NashornBackend();
+		}
+		logger.info("Using the {} JavaScript engine.", backend.getName());
+	}
+
+	/**
+	 * Gets the backend in use.
+	 *
+	 * @return the backend
+	 */
+	public static ScriptEngineBackend getBackend() {
+		return backend;
+	}
+
+	/**
+	 * Gets the name of the backend.
+	 *
+	 * @return the name
+	 */
+	public abstract String getName();
+
+	/**
+	 * Creates a new (empty) script engine. The engine is both Compilable and Invocable.
+	 *
+	 * @return the new engine
+	 * @throws ScriptException in case of error
+	 */
+	public abstract ScriptEngine createEngine() throws ScriptException;
+
+	/**
+	 * Checks whether an engine can be used by several threads at the same time.
+	 * If not, each thread must use its own engine.
+	 *
+	 * @return true if the engines are thread-safe
+	 */
+	public abstract boolean isThreadSafe();
+
+	/**
+	 * Checks whether a value (as returned by the engine) is a JavaScript function.
+	 *
+	 * @param value the value
+	 * @return true if the value is a function
+	 */
+	public abstract boolean isFunction(Object value);
+
+	/**
+	 * Calls a JavaScript function (as returned by the engine).
+	 *
+	 * @param function the function
+	 * @param args the arguments
+	 * @return the value returned by the function
+	 * @throws ScriptException in case of error while running the function
+	 */
+	public abstract Object call(Object function, Object... args) throws ScriptException;
+
+}
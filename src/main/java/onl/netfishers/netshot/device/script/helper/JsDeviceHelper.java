@@ -3,11 +3,12 @@ package onl.netfishers.netshot.device.script.helper;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import javax.script.Bindings;
 import javax.script.ScriptEngine;
 
 import org.hibernate.HibernateException;
@@ -47,12 +48,29 @@ public class JsDeviceHelper {
 	
 	private static Logger logger = LoggerFactory.getLogger(JsDeviceHelper.class);
 	
-	public static Bindings toBindings(Object o, String key) throws IllegalArgumentException {
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> toBindings(Object o, String key) throws IllegalArgumentException {
 		Object v = toObject(o, key);
-		if (!(v instanceof Bindings)) {
+		if (!(v instanceof Map)) {
 			throw new IllegalArgumentException(String.format("The value of %s is not a Javascript object.", key));
 		}
-		return (Bindings) v;
+		return (Map<String, Object>) v;
+	}
+
+	/**
+	 * Gets the elements of a JavaScript array (seen as a list or as an
+	 * index-keyed map depending on the script engine).
+	 * @param o the array
+	 * @return the elements
+	 */
+	public static Collection<?> toValues(Object o) throws IllegalArgumentException {
+		if (o instanceof Collection) {
+			return (Collection<?>) o;
+		}
+		if (o instanceof Map) {
+			return ((Map<?, ?>) o).values();
+		}
+		throw new IllegalArgumentException("The value is not a Javascript array.");
 	}
 
 	public static Boolean toBoolean(Object o, String key) throws IllegalArgumentException {
@@ -84,12 +102,12 @@ public class JsDeviceHelper {
 	}
 
 	public static Object toObject(Object o, String key, Object defaultValue) throws IllegalArgumentException {
-		if (o == null || !(o instanceof Bindings || o instanceof ScriptEngine)) {
+		if (o == null || !(o instanceof Map || o instanceof ScriptEngine)) {
 			throw new IllegalArgumentException("Invalid object.");
 		}
 		Object v = null;
-		if (o instanceof Bindings) {
-			v = ((Bindings) o).get(key);
+		if (o instanceof Map) {
+			v = ((Map<?, ?>) o).get(key);
 		}
 		if (o instanceof ScriptEngine) {
 			v = ((ScriptEngine) o).get(key);
@@ -125,6 +143,14 @@ public class JsDeviceHelper {
 	private Session session;
 	private TaskLogger taskLogger;
 	private boolean readOnly;
+	/** Whether the script got data from outside the device (other devices, DNS). */
+	private boolean externalDataUsed = false;
+	/** The interfaces of the device before the reset, per name and virtual device. */
+	private Map<String, LinkedList<NetworkInterface>> previousInterfaces =
+			new HashMap<String, LinkedList<NetworkInterface>>();
+	/** The modules of the device before the reset, per slot and serial number. */
+	private Map<String, LinkedList<Module>> previousModules =
+			new HashMap<String, LinkedList<Module>>();
 	
 	public JsDeviceHelper(Device device, Session session, TaskLogger taskLogger, boolean readOnly) throws MissingDeviceDriverException {
 		this.device = device;
@@ -133,7 +159,7 @@ public class JsDeviceHelper {
 		this.session = session;
 	}
 	
-	public void add(String key, Bindings data) {
+	public void add(String key, Map<String, Object> data) {
 		if (readOnly) {
 			logger.warn("Adding key '{}' is forbidden.", key);
 			taskLogger.error(String.format("Adding key %s is forbidden", key));
@@ -150,6 +176,12 @@ public class JsDeviceHelper {
 						(String) data.getOrDefault("serialNumber", ""),
 						device
 				);
+				Module previous = takePrevious(previousModules,
+						module.getSlot() + "\0" + module.getSerialNumber());
+				if (previous != null) {
+					previous.update(module);
+					module = previous;
+				}
 				device.getModules().add(module);
 			}
 			else if ("networkInterface".equals(key)) {
@@ -167,10 +199,10 @@ public class JsDeviceHelper {
 						(String) data.getOrDefault("description", "")
 				);
 				networkInterface.setPhysicalAddress(new PhysicalAddress((String) data.getOrDefault("mac", "0000.0000.0000")));
-				Bindings ipAddresses = (Bindings) (data.get("ip"));
+				Object ipAddresses = data.get("ip");
 				if (ipAddresses != null) {
-					for (Object ipAddress : ipAddresses.values()) {
-						Bindings ip = (Bindings) ipAddress;
+					for (Object ipAddress : toValues(ipAddresses)) {
+						Map<?, ?> ip = (Map<?, ?>) ipAddress;
 						NetworkAddress address = null;
 						if (ip.get("ipv6") != null) {
 							address = new Network6Address((String) ip.get("ipv6"), ((Number) ip.get("mask")).intValue());
@@ -189,6 +221,12 @@ public class JsDeviceHelper {
 					}
 				}
 				
+				NetworkInterface previous = takePrevious(previousInterfaces,
+						networkInterface.getInterfaceName() + "\0" + networkInterface.getVirtualDevice());
+				if (previous != null) {
+					previous.update(networkInterface);
+					networkInterface = previous;
+				}
 				device.getNetworkInterfaces().add(networkInterface);
 			}
 		}
@@ -235,6 +273,15 @@ public class JsDeviceHelper {
 		device.clearAttributes();
 		device.clearVrfInstance();
 		device.clearVirtualDevices();
+		// Keep the current interfaces and modules aside: those which are added back
+		// (same natural key) are updated in place rather than deleted and re-inserted
+		for (NetworkInterface networkInterface : device.getNetworkInterfaces()) {
+			keepPrevious(previousInterfaces,
+					networkInterface.getInterfaceName() + "\0" + networkInterface.getVirtualDevice(), networkInterface);
+		}
+		for (Module module : device.getModules()) {
+			keepPrevious(previousModules, module.getSlot() + "\0" + module.getSerialNumber(), module);
+		}
 		device.getNetworkInterfaces().clear();
 		device.getModules().clear();
 		device.setEolModule(null);
@@ -243,6 +290,27 @@ public class JsDeviceHelper {
 		device.setEosDate(null);
 	}
 
+	private static <T> void keepPrevious(Map<String, LinkedList<T>> previous, String key, T item) {
+		LinkedList<T> items = previous.get(key);
+		if (items == null) {
+			items = new LinkedList<T>();
+			previous.put(key, items);
+		}
+		items.add(item);
+	}
+
+	private static <T> T takePrevious(Map<String, LinkedList<T>> previous, String key) {
+		LinkedList<T> items = previous.get(key);
+		if (items == null) {
+			return null;
+		}
+		T item = items.poll();
+		if (items.isEmpty()) {
+			previous.remove(key);
+		}
+		return item;
+	}
+
 	public void set(String key, Boolean value) {
 		if (readOnly) {
 			logger.warn("Setting key '{}' is forbidden.", key);
@@ -534,10 +602,11 @@ public class JsDeviceHelper {
 		if (deviceId == this.device.getId()) {
 			return this.get(item);
 		}
+		externalDataUsed = true;
 		try {
-			device = loadDevice(deviceId);
-			Object result = this.getDeviceItem(device, item);
-			session.evict(device);
+			Device otherDevice = loadDevice(deviceId);
+			Object result = this.getDeviceItem(otherDevice, item);
+			session.evict(otherDevice);
 			return result;
 		}
 		catch (ObjectNotFoundException e) {
@@ -560,9 +629,10 @@ public class JsDeviceHelper {
 			if (device.getName().equals(deviceName)) {
 				return this.get(item);
 			}
-			device = loadDevice(deviceName);
-			Object result = this.getDeviceItem(device, item);
-			session.evict(device);
+			externalDataUsed = true;
+			Device otherDevice = loadDevice(deviceName);
+			Object result = this.getDeviceItem(otherDevice, item);
+			session.evict(otherDevice);
 			return result;
 		}
 		catch (ObjectNotFoundException e) {
@@ -582,6 +652,16 @@ public class JsDeviceHelper {
 		taskLogger.debug(message);
 	}
 
+	/**
+	 * Checks whether the script got data from outside the current device
+	 * (other devices or name resolution).
+	 *
+	 * @return true if external data was used
+	 */
+	public boolean isExternalDataUsed() {
+		return externalDataUsed;
+	}
+
 	/**
 	 * Resolve an hostname or an IP (reverse).
 	 *
@@ -589,6 +669,7 @@ public class JsDeviceHelper {
 	 * @return the object
 	 */
 	public Object nslookup(String host) {
+		externalDataUsed = true;
 		String name = "";
 		String address = "";
 		try {
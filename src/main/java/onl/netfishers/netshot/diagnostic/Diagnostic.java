@@ -34,20 +34,25 @@ import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Transient;
 import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.NaturalId;
 
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 import onl.netfishers.netshot.device.Device;
+import onl.netfishers.netshot.device.DeviceDriver;
 import onl.netfishers.netshot.device.DeviceGroup;
 import onl.netfishers.netshot.device.attribute.AttributeDefinition.AttributeType;
+import onl.netfishers.netshot.work.TaskLogger;
 
 /**
  * A diagnostic describes how to get some data from a group of devices, and to store
@@ -56,6 +61,7 @@ import onl.netfishers.netshot.device.attribute.AttributeDefinition.AttributeType
  *
  */
 @Entity @Inheritance(strategy = InheritanceType.JOINED)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 @XmlRootElement @XmlAccessorType(value = XmlAccessType.NONE)
 @JsonTypeInfo(use = JsonTypeInfo.Id.MINIMAL_CLASS, include = JsonTypeInfo.As.PROPERTY, property = "type")
 public abstract class Diagnostic {
@@ -78,6 +84,29 @@ public abstract class Diagnostic {
 		return DIAGNOSTIC_CLASSES;
 	}
 
+	/**
+	 * Gets the enabled diagnostics which apply to any of the given groups (e.g.
+	 * the groups of a device). Only the diagnostic tables are involved, so the
+	 * result is served by the query cache until a diagnostic is changed.
+	 *
+	 * @param session the session
+	 * @param groupIds the group IDs
+	 * @return the diagnostics
+	 * @throws HibernateException in case of database error
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Diagnostic> getGroupDiagnostics(Session session, Set<Long> groupIds) throws HibernateException {
+		if (groupIds.isEmpty()) {
+			return new ArrayList<Diagnostic>();
+		}
+		return session
+			.createQuery("from Diagnostic d where d.targetGroup.id in (:groupIds) and d.enabled = :enabled")
+			.setParameterList("groupIds", groupIds)
+			.setBoolean("enabled", true)
+			.setCacheable(true)
+			.list();
+	}
+
 	/** The id. */
 	private long id;
 
@@ -244,9 +273,20 @@ public abstract class Diagnostic {
 		}
 	}
 
+	/**
+	 * Gets the JavaScript object which will be passed to the driver to run the
+	 * diagnostic on the device.
+	 *
+	 * @param device the device
+	 * @param driver the driver of the device
+	 * @param scriptContext the script context of the run
+	 * @param taskLogger the task logger
+	 * @return the JS object, or null if the diagnostic doesn't apply to the device
+	 * @throws ScriptException in case of script error
+	 */
 	@Transient
-	abstract public Object getJsObject(Device device, ScriptEngine engine,
-			ScriptContext scriptContext) throws ScriptException;
+	abstract public Object getJsObject(Device device, DeviceDriver driver,
+			ScriptContext scriptContext, TaskLogger taskLogger) throws ScriptException;
 
 	@Override
 	public int hashCode() {
@@ -21,7 +21,6 @@ package onl.netfishers.netshot.diagnostic;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -29,8 +28,11 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import onl.netfishers.netshot.device.Device;
+import onl.netfishers.netshot.device.DeviceDriver;
 import onl.netfishers.netshot.device.DeviceGroup;
 import onl.netfishers.netshot.device.attribute.AttributeDefinition.AttributeType;
+import onl.netfishers.netshot.device.script.CompiledScriptCache;
+import onl.netfishers.netshot.work.TaskLogger;
 
 /**
  * This is a Javascript-based diagnostic. Declare the diagnostic type along with
@@ -96,8 +98,9 @@ public class JavaScriptDiagnostic extends Diagnostic {
 	}
 
 	@Override
-	public Object getJsObject(Device device, ScriptEngine engine, ScriptContext scriptContext) throws ScriptException {
-		engine.eval(this.getScript(), scriptContext);
+	public Object getJsObject(Device device, DeviceDriver driver, ScriptContext scriptContext,
+			TaskLogger taskLogger) throws ScriptException {
+		CompiledScriptCache.get(driver, this.getScript(), taskLogger).eval(scriptContext);
 		return scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).get("diagnose");
 	}
   
@@ -21,7 +21,6 @@ package onl.netfishers.netshot.diagnostic;
 import javax.persistence.Entity;
 import javax.persistence.Transient;
 import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -32,6 +31,7 @@ import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DeviceDriver;
 import onl.netfishers.netshot.device.DeviceGroup;
 import onl.netfishers.netshot.device.attribute.AttributeDefinition.AttributeType;
+import onl.netfishers.netshot.work.TaskLogger;
 
 /**
  * This is a simple diagnostic: runs a CLI command in a CLI mode, and optionally
@@ -267,8 +267,8 @@ public class SimpleDiagnostic extends Diagnostic {
 	}
 
 	@Override
-	public Object getJsObject(Device device, ScriptEngine engine,
-			ScriptContext scriptContext) throws ScriptException {
+	public Object getJsObject(Device device, DeviceDriver driver,
+			ScriptContext scriptContext, TaskLogger taskLogger) throws ScriptException {
 		if (!device.getDriver().equals(this.getDeviceDriver())) {
 			return null;
 		}
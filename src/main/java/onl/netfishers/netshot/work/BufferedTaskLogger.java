@@ -0,0 +1,64 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.work;
+
+/**
+ * A task logger which keeps the log lines in a private buffer, so that
+ * the logs of parallel jobs don't get mixed up in the task log.
+ */
+public class BufferedTaskLogger implements TaskLogger {
+
+	/** The buffer. */
+	private StringBuilder buffer = new StringBuilder();
+
+	@Override
+	public void trace(String message) {
+		buffer.append(String.format("[TRACE] %s\n", message));
+	}
+
+	@Override
+	public void debug(String message) {
+		buffer.append(String.format("[DEBUG] %s\n", message));
+	}
+
+	@Override
+	public void info(String message) {
+		buffer.append(String.format("[INFO] %s\n", message));
+	}
+
+	@Override
+	public void warn(String message) {
+		buffer.append(String.format("[WARN] %s\n", message));
+	}
+
+	@Override
+	public void error(String message) {
+		buffer.append(String.format("[ERROR] %s\n", message));
+	}
+
+	/**
+	 * Gets the buffered log.
+	 * @return the log lines
+	 */
+	@Override
+	public String toString() {
+		return buffer.toString();
+	}
+
+}
@@ -0,0 +1,332 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.work;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import onl.netfishers.netshot.ConnectionPools;
+import onl.netfishers.netshot.Netshot;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A shared pool of worker threads, used by the group tasks to process
+ * the devices of the group in parallel. Each device is handled by its own
+ * job (typically with its own database transaction), so that a failure on
+ * one device doesn't affect the others.
+ */
+public class DeviceWorkerPool {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(DeviceWorkerPool.class);
+
+	/** Number of worker threads. */
+	private static int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+	static {
+		try {
+			int threadCount = Integer.parseInt(Netshot.getConfig("netshot.tasks.workers.threadcount",
+					Integer.toString(THREAD_COUNT)));
+			if (threadCount < 1) {
+				throw new Exception();
+			}
+			THREAD_COUNT = threadCount;
+		}
+		catch (Exception e) {
+			logger.error("Invalid value for netshot.tasks.workers.threadcount in the configuration file. Using default of {} threads.",
+					THREAD_COUNT);
+		}
+	}
+
+	/** Number of worker threads for the interactive jobs (with a deadline). */
+	private static int INTERACTIVE_THREAD_COUNT = 2;
+
+	static {
+		try {
+			int threadCount = Integer.parseInt(Netshot.getConfig("netshot.tasks.workers.interactive.threadcount",
+					Integer.toString(INTERACTIVE_THREAD_COUNT)));
+			if (threadCount < 1) {
+				throw new Exception();
+			}
+			INTERACTIVE_THREAD_COUNT = threadCount;
+		}
+		catch (Exception e) {
+			logger.error("Invalid value for netshot.tasks.workers.interactive.threadcount in the configuration file. Using default of {} threads.",
+					INTERACTIVE_THREAD_COUNT);
+		}
+	}
+
+	/** The executor. */
+	private static ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// The workers have their own database connection pool
+					ConnectionPools.use(ConnectionPools.Pool.WORKERS);
+					runnable.run();
+				}
+			}, String.format("Device Worker %d", count.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * The executor of the interactive jobs (e.g. rule dry runs), separated so that
+	 * these requests can't hold the workers of the group tasks.
+	 */
+	private static ExecutorService interactiveExecutor = Executors.newFixedThreadPool(INTERACTIVE_THREAD_COUNT,
+			new ThreadFactory() {
+		private AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					// Started from the REST service
+					ConnectionPools.use(ConnectionPools.Pool.REST);
+					runnable.run();
+				}
+			}, String.format("Interactive Device Worker %d", count.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * A job to run on one device.
+	 */
+	public static interface DeviceJob {
+
+		/**
+		 * Runs the job on the given device.
+		 * @param deviceId the device ID
+		 * @param taskLogger the logger for this device
+		 * @throws Exception any error, which only fails this device
+		 */
+		public void run(long deviceId, TaskLogger taskLogger) throws Exception;
+	}
+
+	/**
+	 * A job to run on one device, which returns a value.
+	 */
+	public static interface DeviceFunction<T> {
+
+		/**
+		 * Runs the job on the given device.
+		 * @param deviceId the device ID
+		 * @param taskLogger the logger for this device
+		 * @return the value for this device
+		 * @throws Exception any error, which only fails this device
+		 */
+		public T run(long deviceId, TaskLogger taskLogger) throws Exception;
+	}
+
+	/**
+	 * Receives the outcome of a job on each device, as soon as it completes.
+	 */
+	public static interface DeviceResultHandler<T> {
+
+		/**
+		 * Handles the outcome of the job on one device.
+		 * @param deviceId the device ID
+		 * @param result the value returned by the job (null in case of error)
+		 * @param error the error thrown by the job, or null
+		 * @param log the log of the job for this device
+		 * @return false to stop and cancel the remaining jobs
+		 */
+		public boolean handle(long deviceId, T result, Exception error, String log);
+	}
+
+	/**
+	 * Gets the number of worker threads.
+	 * @return the number of threads
+	 */
+	public static int getThreadCount() {
+		return THREAD_COUNT;
+	}
+
+	/**
+	 * Runs a job on each of the given devices, using the worker threads,
+	 * and waits for all of them to complete.
+	 * The log of each device is appended as a block to the task log,
+	 * followed by a progress line.
+	 * @param deviceIds the IDs of the devices to process
+	 * @param job the job to run on each device
+	 * @param task the calling task
+	 * @return the number of devices on which the job failed
+	 * @throws InterruptedException if the calling thread is interrupted (pending jobs are then cancelled)
+	 */
+	public static int run(List<Long> deviceIds, final DeviceJob job, final Task task) throws InterruptedException {
+		CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		for (final Long deviceId : deviceIds) {
+			futures.add(completion.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					BufferedTaskLogger deviceLogger = new BufferedTaskLogger();
+					boolean success = false;
+					try {
+						job.run(deviceId, deviceLogger);
+						success = true;
+					}
+					catch (Exception e) {
+						logger.error("Error while processing device {}.", deviceId, e);
+						deviceLogger.error(String.format("Error while processing device %d: %s", deviceId, e.getMessage()));
+					}
+					task.log.append(deviceLogger.toString());
+					return success;
+				}
+			}));
+		}
+
+		int failures = 0;
+		try {
+			for (int d = 1; d <= futures.size(); d++) {
+				Future<Boolean> future = completion.take();
+				boolean success;
+				try {
+					success = future.get();
+				}
+				catch (ExecutionException e) {
+					success = false;
+				}
+				if (!success) {
+					failures++;
+				}
+				task.info(String.format("Progress: %d/%d device(s) done, %d failure(s).", d, futures.size(), failures));
+			}
+		}
+		catch (InterruptedException e) {
+			logger.warn("Interrupted while waiting for the device jobs, cancelling the remaining ones.");
+			for (Future<Boolean> future : futures) {
+				future.cancel(true);
+			}
+			throw e;
+		}
+		return failures;
+	}
+
+	/**
+	 * Runs a job on each of the given devices, using the interactive worker threads.
+	 * Each call has at most one job per interactive thread in flight, so that
+	 * concurrent calls share the threads. The handler is called from the calling
+	 * thread each time a device completes. The remaining jobs are cancelled when the
+	 * deadline is reached or when the handler asks to stop.
+	 * @param deviceIds the IDs of the devices to process
+	 * @param job the job to run on each device
+	 * @param handler the handler of the results
+	 * @param deadline the time (as System.currentTimeMillis) after which the remaining jobs are cancelled
+	 * @return true if all the devices were processed
+	 * @throws InterruptedException if the calling thread is interrupted (pending jobs are then cancelled)
+	 */
+	public static <T> boolean run(List<Long> deviceIds, final DeviceFunction<T> job,
+			DeviceResultHandler<T> handler, long deadline) throws InterruptedException {
+		CompletionService<Long> completion = new ExecutorCompletionService<Long>(interactiveExecutor);
+		final Map<Long, Object> results = new ConcurrentHashMap<Long, Object>();
+		final Map<Long, String> logs = new ConcurrentHashMap<Long, String>();
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		Iterator<Long> pending = deviceIds.iterator();
+
+		boolean complete = false;
+		try {
+			int d = 0;
+			while (d < deviceIds.size()) {
+				while (pending.hasNext() && futures.size() - d < INTERACTIVE_THREAD_COUNT) {
+					final Long deviceId = pending.next();
+					futures.add(completion.submit(new Callable<Long>() {
+						@Override
+						public Long call() throws Exception {
+							BufferedTaskLogger deviceLogger = new BufferedTaskLogger();
+							try {
+								T result = job.run(deviceId, deviceLogger);
+								if (result != null) {
+									results.put(deviceId, result);
+								}
+							}
+							catch (Exception e) {
+								logger.warn("Error while processing device {}.", deviceId, e);
+								results.put(deviceId, e);
+							}
+							logs.put(deviceId, deviceLogger.toString());
+							return deviceId;
+						}
+					}));
+				}
+				long timeout = deadline - System.currentTimeMillis();
+				Future<Long> future = timeout > 0 ? completion.poll(timeout, TimeUnit.MILLISECONDS) : null;
+				if (future == null) {
+					logger.debug("Deadline reached, {} device job(s) not completed.", deviceIds.size() - d);
+					break;
+				}
+				d++;
+				long deviceId;
+				try {
+					deviceId = future.get();
+				}
+				catch (ExecutionException e) {
+					continue;
+				}
+				Object result = results.remove(deviceId);
+				boolean goOn;
+				if (result instanceof Exception) {
+					goOn = handler.handle(deviceId, null, (Exception) result, logs.remove(deviceId));
+				}
+				else {
+					@SuppressWarnings("unchecked")
+					T value = (T) result;
+					goOn = handler.handle(deviceId, value, null, logs.remove(deviceId));
+				}
+				if (!goOn) {
+					break;
+				}
+			}
+			complete = (d == deviceIds.size());
+		}
+		finally {
+			if (!complete) {
+				for (Future<Long> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+		return complete;
+	}
+
+}
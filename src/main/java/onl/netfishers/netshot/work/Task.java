@@ -18,10 +18,13 @@
  */
 package onl.netfishers.netshot.work;
 
+import java.lang.reflect.Constructor;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -143,6 +146,33 @@ public abstract class Task implements Cloneable {
 		return TASK_CLASSES;
 	}
 
+	/** The descriptions of the task classes. */
+	private static final Map<Class<? extends Task>, String> TASK_DESCRIPTIONS =
+			new ConcurrentHashMap<Class<? extends Task>, String>();
+
+	/**
+	 * Gets the description of a type of task, without loading a task.
+	 *
+	 * @param taskClass the task class
+	 * @return the task description
+	 */
+	public static String getTaskDescription(Class<? extends Task> taskClass) {
+		String description = TASK_DESCRIPTIONS.get(taskClass);
+		if (description == null) {
+			try {
+				Constructor<? extends Task> constructor = taskClass.getDeclaredConstructor();
+				constructor.setAccessible(true);
+				description = constructor.newInstance().getTaskDescription();
+			}
+			catch (Exception e) {
+				logger.warn("Unable to get the description of task class {}.", taskClass.getName(), e);
+				description = taskClass.getSimpleName();
+			}
+			TASK_DESCRIPTIONS.put(taskClass, description);
+		}
+		return description;
+	}
+
 	protected String author = "";
 	
 	/** The change date. */
@@ -320,12 +350,14 @@ public abstract class Task implements Cloneable {
 	}
 
 	/**
-	 * Gets the log.
+	 * Gets the log. It's not part of the task object given over REST (it can be
+	 * large), but is read through the dedicated log resource.
+	 * The column is only read, for the tasks run by the previous versions: the logs
+	 * are now written to the TaskLogStore.
 	 *
 	 * @return the log
 	 */
-	@XmlElement
-	@Column(name = "log", length = 10000000)
+	@Column(name = "log", length = 10000000, insertable = false, updatable = false)
 	public String getLog() {
 		return log.toString();
 	}
@@ -338,15 +370,26 @@ public abstract class Task implements Cloneable {
 	@Transient
 	@XmlElement
 	public Date getNextExecutionDate() {
+		return getNextExecutionDate(this.scheduleType, this.scheduleReference);
+	}
+
+	/**
+	 * Computes the next execution date of a task, based on its schedule.
+	 *
+	 * @param scheduleType the schedule type
+	 * @param scheduleReference the schedule reference
+	 * @return the next execution date
+	 */
+	public static Date getNextExecutionDate(ScheduleType scheduleType, Date scheduleReference) {
 		Calendar reference = Calendar.getInstance();
-		reference.setTime(this.scheduleReference);
+		reference.setTime(scheduleReference);
 		Calendar target = Calendar.getInstance();
 		Calendar inOneMinute = Calendar.getInstance();
 		inOneMinute.add(Calendar.MINUTE, 1);
 
-		switch (this.scheduleType) {
+		switch (scheduleType) {
 		case AT:
-			return this.scheduleReference;
+			return scheduleReference;
 		case DAILY:
 			target.set(Calendar.HOUR_OF_DAY, reference.get(Calendar.HOUR_OF_DAY));
 			target.set(Calendar.MINUTE, reference.get(Calendar.MINUTE));
@@ -465,7 +508,17 @@ public abstract class Task implements Cloneable {
 	@Transient
 	@XmlElement
 	public boolean isRepeating() {
-		switch (this.scheduleType) {
+		return isRepeating(this.scheduleType);
+	}
+
+	/**
+	 * Checks whether a schedule type is repeating.
+	 *
+	 * @param scheduleType the schedule type
+	 * @return true, if is repeating
+	 */
+	public static boolean isRepeating(ScheduleType scheduleType) {
+		switch (scheduleType) {
 		case ASAP:
 		case AT:
 			return false;
@@ -19,6 +19,7 @@
 package onl.netfishers.netshot.work;
 
 import onl.netfishers.netshot.Database;
+import onl.netfishers.netshot.EventBus;
 import onl.netfishers.netshot.TaskManager;
 import onl.netfishers.netshot.work.Task.Status;
 
@@ -68,6 +69,7 @@ public class TaskJob implements Job {
 			task.setRunning();
 			session.update(task);
 			session.getTransaction().commit();
+			EventBus.publishTaskStatus(task);
 			logger.trace("Got the task.");
 			task.prepare();
 			logger.trace("The task has prepared its fields.");
@@ -87,7 +89,13 @@ public class TaskJob implements Job {
 		}
 
 		logger.trace("Running the task {} of type {}", id, task.getClass().getName());
-		task.run();
+		TaskLogStore.start(task);
+		try {
+			task.run();
+		}
+		finally {
+			TaskLogStore.finish(task);
+		}
 
 		if (task.getStatus() == Status.RUNNING) {
 			logger.error("The task {} exited with a status of RUNNING.", id);
@@ -100,6 +108,7 @@ public class TaskJob implements Job {
 			session.beginTransaction();
 			session.update(task);
 			session.getTransaction().commit();
+			EventBus.publishTaskStatus(task);
 		}
 		catch (Exception e) {
 			logger.error("Error while updating the task {} after execution.", id, e);
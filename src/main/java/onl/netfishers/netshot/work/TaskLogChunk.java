@@ -0,0 +1,242 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.work;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+
+/**
+ * A part of the log of a task.
+ * While the task runs, the new log lines are regularly appended as new chunks
+ * (plain text). Once the task is finished, the chunks are replaced by a single
+ * compressed one which holds the whole log.
+ * The task is only referenced by ID (the chunks are deleted along with the task
+ * by the database).
+ */
+@Entity
+@Table(indexes = {
+		@Index(name = "taskLogChunkTaskIndex", columnList = "taskId, startPosition") })
+public class TaskLogChunk {
+
+	/** The id. */
+	private long id;
+
+	/** The task ID. */
+	private long taskId;
+
+	/** The position of the first character of the chunk in the whole log. */
+	private long startPosition;
+
+	/** The number of characters of the chunk. */
+	private int length;
+
+	/** The plain text (null if compressed). */
+	private String text;
+
+	/** The compressed text (null if plain). */
+	private byte[] compressedText;
+
+	/**
+	 * Instantiates a new task log chunk.
+	 */
+	protected TaskLogChunk() {
+	}
+
+	/**
+	 * Instantiates a new task log chunk.
+	 *
+	 * @param taskId the task ID
+	 * @param startPosition the position of the chunk in the whole log
+	 * @param text the text
+	 * @param compress whether to compress the text
+	 * @throws IOException in case of compression error
+	 */
+	public TaskLogChunk(long taskId, long startPosition, String text, boolean compress) throws IOException {
+		this.taskId = taskId;
+		this.startPosition = startPosition;
+		this.length = text.length();
+		if (compress) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			OutputStream output = new GZIPOutputStream(buffer);
+			try {
+				output.write(text.getBytes(StandardCharsets.UTF_8));
+			}
+			finally {
+				output.close();
+			}
+			this.compressedText = buffer.toByteArray();
+		}
+		else {
+			this.text = text;
+		}
+	}
+
+	/**
+	 * Gets the id.
+	 *
+	 * @return the id
+	 */
+	@Id
+	@GeneratedValue
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Sets the id.
+	 *
+	 * @param id the new id
+	 */
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	/**
+	 * Gets the task ID.
+	 *
+	 * @return the task ID
+	 */
+	public long getTaskId() {
+		return taskId;
+	}
+
+	/**
+	 * Sets the task ID.
+	 *
+	 * @param taskId the new task ID
+	 */
+	public void setTaskId(long taskId) {
+		this.taskId = taskId;
+	}
+
+	/**
+	 * Gets the position of the chunk in the whole log.
+	 *
+	 * @return the start position
+	 */
+	public long getStartPosition() {
+		return startPosition;
+	}
+
+	/**
+	 * Sets the position of the chunk in the whole log.
+	 *
+	 * @param startPosition the new start position
+	 */
+	public void setStartPosition(long startPosition) {
+		this.startPosition = startPosition;
+	}
+
+	/**
+	 * Gets the number of characters of the chunk.
+	 *
+	 * @return the length
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Sets the number of characters of the chunk.
+	 *
+	 * @param length the new length
+	 */
+	public void setLength(int length) {
+		this.length = length;
+	}
+
+	/**
+	 * Gets the plain text.
+	 *
+	 * @return the text, null if the chunk is compressed
+	 */
+	@Column(length = 10000000)
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Sets the plain text.
+	 *
+	 * @param text the new text
+	 */
+	public void setText(String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Gets the compressed text.
+	 *
+	 * @return the compressed text, null if the chunk is plain
+	 */
+	@Column(length = 100000000)
+	public byte[] getCompressedText() {
+		return compressedText;
+	}
+
+	/**
+	 * Sets the compressed text.
+	 *
+	 * @param compressedText the new compressed text
+	 */
+	public void setCompressedText(byte[] compressedText) {
+		this.compressedText = compressedText;
+	}
+
+	/**
+	 * Gets the text of the chunk, uncompressing it if needed.
+	 *
+	 * @return the text
+	 * @throws IOException in case of decompression error
+	 */
+	@Transient
+	public String getContent() throws IOException {
+		if (compressedText == null) {
+			return text == null ? "" : text;
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		InputStream input = new GZIPInputStream(new ByteArrayInputStream(compressedText));
+		try {
+			byte[] bytes = new byte[8192];
+			int count;
+			while ((count = input.read(bytes)) > 0) {
+				buffer.write(bytes, 0, count);
+			}
+		}
+		finally {
+			input.close();
+		}
+		return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
+ *
+ * This file is part of Netshot.
+ *
+ * Netshot is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Netshot is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package onl.netfishers.netshot.work;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import onl.netfishers.netshot.Database;
+import onl.netfishers.netshot.EventBus;
+import onl.netfishers.netshot.Netshot;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the logs of the tasks.
+ * While a task runs, the lines added to its log are regularly appended to the
+ * database as new chunks, so that the log can be followed (tailed) over REST.
+ * When the task is over, the chunks are replaced by a single compressed chunk.
+ */
+public class TaskLogStore {
+
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(TaskLogStore.class);
+
+	/** Interval between two writes of the running task logs, in seconds. */
+	private static int FLUSH_INTERVAL = 5;
+
+	static {
+		try {
+			int flushInterval = Integer.parseInt(Netshot.getConfig("netshot.tasks.log.flushinterval",
+					Integer.toString(FLUSH_INTERVAL)));
+			if (flushInterval < 1) {
+				throw new Exception();
+			}
+			FLUSH_INTERVAL = flushInterval;
+		}
+		catch (Exception e) {
+			logger.error("Invalid value for netshot.tasks.log.flushinterval in the configuration file. Using default of {} seconds.",
+					FLUSH_INTERVAL);
+		}
+	}
+
+	/**
+	 * The log of a running task.
+	 */
+	private static class RunningLog {
+
+		/** The task. */
+		private Task task;
+
+		/** The number of characters of the log already written to the database. */
+		private int written = 0;
+
+		/** Whether the final (compressed) chunk was written, no more chunk to add then. */
+		private boolean finished = false;
+
+		private RunningLog(Task task) {
+			this.task = task;
+		}
+	}
+
+	/**
+	 * A part of a task log, as read from the store.
+	 */
+	public static class LogPart {
+
+		/** The full size of the log. */
+		private long size;
+
+		/** The text. */
+		private String text;
+
+		private LogPart(long size, String text) {
+			this.size = size;
+			this.text = text;
+		}
+
+		/**
+		 * Gets the full size of the log (in characters).
+		 *
+		 * @return the size
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the text of the requested part.
+		 *
+		 * @return the text
+		 */
+		public String getText() {
+			return text;
+		}
+	}
+
+	/** The logs of the running tasks, per task ID. */
+	private static Map<Long, RunningLog> runningLogs = new ConcurrentHashMap<Long, RunningLog>();
+
+	/** The executor which regularly writes the logs of the running tasks. */
+	private static ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Task Log Writer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	static {
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (RunningLog runningLog : runningLogs.values()) {
+					try {
+						flush(runningLog);
+					}
+					catch (Exception e) {
+						logger.error("Error while writing the log of task {}.", runningLog.task.getId(), e);
+					}
+				}
+			}
+		}, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Starts following the log of a task, which is about to run.
+	 * The chunks of a previous (interrupted) run are removed.
+	 *
+	 * @param task the task
+	 */
+	public static void start(Task task) {
+		Session session = Database.getSession();
+		try {
+			session.beginTransaction();
+			session.createQuery("delete from TaskLogChunk c where c.taskId = :id")
+				.setLong("id", task.getId())
+				.executeUpdate();
+			session.getTransaction().commit();
+		}
+		catch (HibernateException e) {
+			session.getTransaction().rollback();
+			logger.error("Unable to clear the log chunks of task {}.", task.getId(), e);
+		}
+		finally {
+			session.close();
+		}
+		runningLogs.put(task.getId(), new RunningLog(task));
+	}
+
+	/**
+	 * Writes the new lines of a running task log to the database.
+	 *
+	 * @param runningLog the running log
+	 */
+	private static void flush(RunningLog runningLog) {
+		synchronized (runningLog) {
+			if (runningLog.finished) {
+				return;
+			}
+			String text;
+			synchronized (runningLog.task.log) {
+				int length = runningLog.task.log.length();
+				if (length <= runningLog.written) {
+					return;
+				}
+				text = runningLog.task.log.substring(runningLog.written, length);
+			}
+			Session session = Database.getSession();
+			try {
+				session.beginTransaction();
+				session.save(new TaskLogChunk(runningLog.task.getId(), runningLog.written, text, false));
+				session.getTransaction().commit();
+				EventBus.publishTaskLog(runningLog.task.getId(), runningLog.written, text);
+				runningLog.written += text.length();
+			}
+			catch (HibernateException | IOException e) {
+				session.getTransaction().rollback();
+				logger.error("Unable to write the log of task {}.", runningLog.task.getId(), e);
+			}
+			finally {
+				session.close();
+			}
+		}
+	}
+
+	/**
+	 * Stops following the log of a task, which is over, and stores the
+	 * whole log as a single compressed chunk.
+	 * For a task which isn't running (e.g. cancelled), its current log lines
+	 * are appended to what is already stored.
+	 *
+	 * @param task the task
+	 */
+	public static void finish(Task task) {
+		RunningLog runningLog = runningLogs.remove(task.getId());
+		boolean running = (runningLog != null);
+		if (!running) {
+			runningLog = new RunningLog(task);
+		}
+		synchronized (runningLog) {
+			Session session = Database.getSession();
+			try {
+				session.beginTransaction();
+				String text = task.getLog();
+				if (!running) {
+					LogPart stored = read(session, task.getId(), 0, null);
+					if (stored != null) {
+						text = stored.getText() + text;
+					}
+				}
+				session.createQuery("delete from TaskLogChunk c where c.taskId = :id")
+					.setLong("id", task.getId())
+					.executeUpdate();
+				session.save(new TaskLogChunk(task.getId(), 0, text, true));
+				session.getTransaction().commit();
+				runningLog.finished = true;
+			}
+			catch (HibernateException | IOException e) {
+				session.getTransaction().rollback();
+				logger.error("Unable to store the log of task {}.", task.getId(), e);
+			}
+			finally {
+				session.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads a part of a task log.
+	 *
+	 * @param session the Hibernate session
+	 * @param taskId the task ID
+	 * @param offset the position of the first character to read
+	 * @param length the maximum number of characters to read (null for all)
+	 * @return the log part, or null if the log of this task isn't in the store
+	 * @throws HibernateException in case of database error
+	 * @throws IOException in case of decompression error
+	 */
+	public static LogPart read(Session session, long taskId, long offset, Integer length)
+			throws HibernateException, IOException {
+		Number size = (Number) session
+			.createQuery("select max(c.startPosition + c.length) from TaskLogChunk c where c.taskId = :id")
+			.setLong("id", taskId)
+			.uniqueResult();
+		if (size == null) {
+			return null;
+		}
+		StringBuilder text = new StringBuilder();
+		if (offset < size.longValue()) {
+			@SuppressWarnings("unchecked")
+			List<TaskLogChunk> chunks = session
+				.createQuery("from TaskLogChunk c where c.taskId = :id and c.startPosition + c.length > :offset "
+						+ "order by c.startPosition asc")
+				.setLong("id", taskId)
+				.setLong("offset", offset)
+				.list();
+			for (TaskLogChunk chunk : chunks) {
+				String content = chunk.getContent();
+				int from = (int) Math.max(0, offset - chunk.getStartPosition());
+				text.append(content, Math.min(from, content.length()), content.length());
+				if (length != null && text.length() >= length) {
+					text.setLength(length);
+					break;
+				}
+			}
+		}
+		return new LogPart(size.longValue(), text.toString());
+	}
+
+}
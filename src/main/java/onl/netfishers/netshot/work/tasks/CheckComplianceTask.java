@@ -19,6 +19,7 @@
 package onl.netfishers.netshot.work.tasks;
 
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -27,17 +28,17 @@ import javax.persistence.Transient;
 import javax.xml.bind.annotation.XmlElement;
 
 import onl.netfishers.netshot.Database;
-import onl.netfishers.netshot.compliance.HardwareRule;
+import onl.netfishers.netshot.EventBus;
+import onl.netfishers.netshot.ReportAggregates;
+import onl.netfishers.netshot.compliance.DeviceConfigModel;
 import onl.netfishers.netshot.compliance.Policy;
-import onl.netfishers.netshot.compliance.SoftwareRule;
-import onl.netfishers.netshot.compliance.SoftwareRule.ConformanceLevel;
+import onl.netfishers.netshot.compliance.SoftwareHardwareRuleSet;
 import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.work.Task;
 import onl.netfishers.netshot.work.TaskLogger;
 
 import org.hibernate.Hibernate;
 import org.hibernate.Session;
-import org.hibernate.criterion.Property;
 import org.quartz.JobKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -93,10 +94,6 @@ public class CheckComplianceTask extends Task {
 		Session session = Database.getSession();
 		try {
 			session.beginTransaction();
-			session
-				.createQuery("delete from CheckResult c where c.key.device.id = :id")
-				.setLong("id", this.device.getId())
-				.executeUpdate();
 			session.evict(this.device);
 			Device device = (Device) session
 				.createQuery("from Device d join fetch d.lastConfig where d.id = :id")
@@ -105,35 +102,23 @@ public class CheckComplianceTask extends Task {
 				logger.info("Unable to fetch the device with its last config... has it been captured at least once?");
 				throw new Exception("No last config for this device. Has it been captured at least once?");
 			}
-			@SuppressWarnings("unchecked")
-			List<Policy> policies = session
-				.createQuery("select p from Policy p join p.targetGroup g join g.cachedDevices d where d.id = :id")
-				.setLong("id", this.device.getId())
-				.list();
+			Set<Long> groupIds = SoftwareHardwareRuleSet.getGroupIds(session, device.getId());
+			List<Policy> policies = Policy.getGroupPolicies(session, groupIds);
 
 			TaskLogger taskLogger = this.getJsLogger();
+			DeviceConfigModel configModel = new DeviceConfigModel(device, session, taskLogger);
+			configModel.loadPreviousResults(session);
+			configModel.loadExemptions(session);
 			for (Policy policy : policies) {
-				policy.check(device, session, taskLogger);
+				policy.check(device, session, taskLogger, configModel);
 				session.merge(policy);
 			}
-			@SuppressWarnings("unchecked")
-			List<SoftwareRule> softwareRules = session.createCriteria(SoftwareRule.class)
-				.addOrder(Property.forName("priority").asc()).list();
-			device.setSoftwareLevel(ConformanceLevel.UNKNOWN);
-			for (SoftwareRule rule : softwareRules) {
-				rule.check(device);
-				if (device.getSoftwareLevel() != ConformanceLevel.UNKNOWN) {
-					break;
-				}
-			}
-			@SuppressWarnings("unchecked")
-			List<HardwareRule> hardwareRules = session.createCriteria(HardwareRule.class).list();
-			device.resetEoX();
-			for (HardwareRule rule : hardwareRules) {
-				rule.check(device);
-			}
+			configModel.removeStaleResults(session);
+			SoftwareHardwareRuleSet.get(session).check(device, groupIds);
 			session.merge(device);
 			session.getTransaction().commit();
+			ReportAggregates.refreshDevice(session, device.getId());
+			EventBus.publishCompliance(device.getId());
 			this.status = Status.SUCCESS;
 		}
 		catch (Exception e) {
@@ -18,7 +18,10 @@
  */
 package onl.netfishers.netshot.work.tasks;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -27,16 +30,20 @@ import javax.persistence.Transient;
 import javax.xml.bind.annotation.XmlElement;
 
 import onl.netfishers.netshot.Database;
+import onl.netfishers.netshot.EventBus;
+import onl.netfishers.netshot.ReportAggregates;
+import onl.netfishers.netshot.compliance.CheckResult;
+import onl.netfishers.netshot.compliance.CheckResultChange;
+import onl.netfishers.netshot.compliance.DeviceConfigModel;
 import onl.netfishers.netshot.compliance.Policy;
+import onl.netfishers.netshot.compliance.SoftwareHardwareRuleSet;
 import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DeviceGroup;
+import onl.netfishers.netshot.work.DeviceWorkerPool;
 import onl.netfishers.netshot.work.Task;
 import onl.netfishers.netshot.work.TaskLogger;
 
-import org.hibernate.CacheMode;
 import org.hibernate.Hibernate;
-import org.hibernate.ScrollMode;
-import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.quartz.JobKey;
 import org.slf4j.Logger;
@@ -128,34 +135,112 @@ public class CheckGroupComplianceTask extends Task {
 		this.trace(String.format("Check compliance task for group %s.",
 				deviceGroup.getName()));
 
+		List<Long> deviceIds;
+		final Map<Long, Map<Long, Date>> exemptions;
 		Session session = Database.getSession();
 		try {
 			@SuppressWarnings("unchecked")
-			List<Policy> policies = session.createCriteria(Policy.class).list();
+			List<Long> ids = session
+				.createQuery("select d.id from DeviceGroup g join g.cachedDevices d where g.id = :id")
+				.setLong("id", deviceGroup.getId())
+				.list();
+			deviceIds = ids;
+			exemptions = DeviceConfigModel.loadGroupExemptions(session, deviceGroup.getId());
+		}
+		catch (Exception e) {
+			logger.error("Error while listing the devices of the group.", e);
+			this.error("Error while listing the devices of the group: " + e.getMessage());
+			this.status = Status.FAILURE;
+			return;
+		}
+		finally {
+			session.close();
+		}
+
+		this.info(String.format("Checking %d device(s) using %d worker thread(s).",
+				deviceIds.size(), DeviceWorkerPool.getThreadCount()));
+
+		final AtomicLong ruleChecks = new AtomicLong();
+		long startTime = System.currentTimeMillis();
+		int failures;
+		try {
+			failures = DeviceWorkerPool.run(deviceIds, new DeviceWorkerPool.DeviceJob() {
+				@Override
+				public void run(long deviceId, TaskLogger taskLogger) throws Exception {
+					ruleChecks.addAndGet(CheckGroupComplianceTask.checkDevice(deviceId, exemptions.get(deviceId), taskLogger));
+				}
+			}, this);
+		}
+		catch (InterruptedException e) {
+			logger.error("Interrupted while checking compliance.", e);
+			this.error("The compliance check was interrupted.");
+			this.status = Status.FAILURE;
+			return;
+		}
 
-			TaskLogger taskLogger = this.getJsLogger();
+		long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+		this.info(String.format("%d rule check(s) on %d device(s) in %d ms (%.1f rule checks per second).",
+				ruleChecks.get(), deviceIds.size(), duration, ruleChecks.get() * 1000.0 / duration));
 
+		if (failures > 0) {
+			this.error(String.format("The compliance couldn't be checked on %d device(s) out of %d.",
+					failures, deviceIds.size()));
+			this.status = Status.FAILURE;
+		}
+		else {
+			this.status = Status.SUCCESS;
+		}
+	}
+
+	/**
+	 * Checks the compliance of one device against the policies applied to it,
+	 * within a dedicated transaction.
+	 *
+	 * @param deviceId the ID of the device to check
+	 * @param exemptions the current exemptions of the device, per rule ID
+	 * @param taskLogger the logger for this device
+	 * @return the number of checked rules
+	 * @throws Exception in case of error (the transaction is then rolled back)
+	 */
+	private static int checkDevice(long deviceId, Map<Long, Date> exemptions, TaskLogger taskLogger)
+			throws Exception {
+		int ruleCount = 0;
+		Session session = Database.getSession();
+		try {
 			session.beginTransaction();
-			session
-				.createQuery("delete from CheckResult c where c.key.device.id in (select d.id as id from DeviceGroup g1 join g1.cachedDevices d where g1.id = :id)")
-				.setLong("id", deviceGroup.getId())
-				.executeUpdate();
-			for (Policy policy : policies) {
-				ScrollableResults devices = session
-						.createQuery("from Device d join fetch d.lastConfig where d.id in (select d.id as id from DeviceGroup g1 join g1.cachedDevices d join d.ownerGroups g2 join g2.appliedPolicies p where g1.id = :id and p.id = :pid)")
-						.setLong("id", deviceGroup.getId())
-						.setLong("pid", policy.getId())
-						.setCacheMode(CacheMode.IGNORE)
-						.scroll(ScrollMode.FORWARD_ONLY);
-				while (devices.next()) {
-					Device device = (Device) devices.get(0);
-					policy.check(device, session, taskLogger);
-					session.flush();
-					session.evict(device);
+			Device device = (Device) session
+				.createQuery("from Device d join fetch d.lastConfig where d.id = :id")
+				.setLong("id", deviceId)
+				.uniqueResult();
+			if (device == null) {
+				taskLogger.info(String.format("Device %d has no configuration, skipping.", deviceId));
+				@SuppressWarnings("unchecked")
+				List<CheckResult> results = session
+					.createQuery("select c from CheckResult c where c.key.device.id = :id")
+					.setLong("id", deviceId)
+					.list();
+				for (CheckResult result : results) {
+					session.save(new CheckResultChange(result.getRule().getId(), deviceId, result.getResult(), null));
+					session.delete(result);
+				}
+			}
+			else {
+				taskLogger.info(String.format("Checking device %s (%d).", device.getName(), deviceId));
+				List<Policy> policies = Policy.getGroupPolicies(session,
+						SoftwareHardwareRuleSet.getGroupIds(session, deviceId));
+				DeviceConfigModel configModel = new DeviceConfigModel(device, session, taskLogger);
+				configModel.loadPreviousResults(session);
+				configModel.setExemptions(exemptions);
+				for (Policy policy : policies) {
+					policy.check(device, session, taskLogger, configModel);
+					ruleCount += policy.getRules().size();
 				}
+				configModel.removeStaleResults(session);
 			}
 			session.getTransaction().commit();
-			this.status = Status.SUCCESS;
+			ReportAggregates.refreshDevice(session, deviceId);
+			EventBus.publishCompliance(deviceId);
+			return ruleCount;
 		}
 		catch (Exception e) {
 			try {
@@ -164,10 +249,7 @@ public class CheckGroupComplianceTask extends Task {
 			catch (Exception e1) {
 
 			}
-			logger.error("Error while checking compliance.", e);
-			this.error("Error while checking compliance: " + e.getMessage());
-			this.status = Status.FAILURE;
-			return;
+			throw e;
 		}
 		finally {
 			session.close();
@@ -27,19 +27,17 @@ import javax.persistence.Transient;
 import javax.xml.bind.annotation.XmlElement;
 
 import onl.netfishers.netshot.Database;
-import onl.netfishers.netshot.compliance.HardwareRule;
-import onl.netfishers.netshot.compliance.SoftwareRule;
-import onl.netfishers.netshot.compliance.SoftwareRule.ConformanceLevel;
+import onl.netfishers.netshot.EventBus;
+import onl.netfishers.netshot.ReportAggregates;
+import onl.netfishers.netshot.compliance.SoftwareHardwareRuleSet;
 import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DeviceGroup;
+import onl.netfishers.netshot.work.DeviceWorkerPool;
 import onl.netfishers.netshot.work.Task;
+import onl.netfishers.netshot.work.TaskLogger;
 
-import org.hibernate.CacheMode;
 import org.hibernate.Hibernate;
-import org.hibernate.ScrollMode;
-import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
-import org.hibernate.criterion.Property;
 import org.quartz.JobKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -131,41 +129,81 @@ public class CheckGroupSoftwareTask extends Task {
 		this.trace(String.format("Check software compliance task for group %s.",
 				deviceGroup.getName()));
 
+		List<Long> deviceIds;
+		final SoftwareHardwareRuleSet ruleSet;
 		Session session = Database.getSession();
 		try {
-			logger.debug("Retrieving the software rules");
+			logger.debug("Retrieving the software and hardware rules");
+			ruleSet = SoftwareHardwareRuleSet.get(session);
 			@SuppressWarnings("unchecked")
-			List<SoftwareRule> softwareRules = session.createCriteria(SoftwareRule.class)
-			.addOrder(Property.forName("priority").asc()).list();
-			logger.debug("Retrieving the hardware rules");
-			@SuppressWarnings("unchecked")
-			List<HardwareRule> hardwareRules = session.createCriteria(HardwareRule.class).list();
+			List<Long> ids = session
+				.createQuery("select d.id from DeviceGroup g join g.cachedDevices d where g.id = :id")
+				.setLong("id", deviceGroup.getId())
+				.list();
+			deviceIds = ids;
+		}
+		catch (Exception e) {
+			logger.error("Error while listing the devices of the group.", e);
+			this.error("Error while listing the devices of the group: " + e.getMessage());
+			this.status = Status.FAILURE;
+			return;
+		}
+		finally {
+			session.close();
+		}
 
-			session.beginTransaction();
-			ScrollableResults devices = session
-					.createQuery("select d from DeviceGroup g join g.cachedDevices d where g.id = :id")
-					.setLong("id", deviceGroup.getId())
-					.setCacheMode(CacheMode.IGNORE)
-					.scroll(ScrollMode.FORWARD_ONLY);
-			while (devices.next()) {
-				Device device = (Device) devices.get(0);
-				device.setSoftwareLevel(ConformanceLevel.UNKNOWN);
-				for (SoftwareRule rule : softwareRules) {
-					rule.check(device);
-					if (device.getSoftwareLevel() != ConformanceLevel.UNKNOWN) {
-						break;
-					}
-				}
-				device.resetEoX();
-				for (HardwareRule rule : hardwareRules) {
-					rule.check(device);
+		this.info(String.format("Checking %d device(s) using %d worker thread(s).",
+				deviceIds.size(), DeviceWorkerPool.getThreadCount()));
+
+		long startTime = System.currentTimeMillis();
+		int failures;
+		try {
+			failures = DeviceWorkerPool.run(deviceIds, new DeviceWorkerPool.DeviceJob() {
+				@Override
+				public void run(long deviceId, TaskLogger taskLogger) throws Exception {
+					CheckGroupSoftwareTask.checkDevice(deviceId, ruleSet);
 				}
-				session.save(device);
-				session.flush();
-				session.evict(device);
+			}, this);
+		}
+		catch (InterruptedException e) {
+			logger.error("Interrupted while checking compliance.", e);
+			this.error("The compliance check was interrupted.");
+			this.status = Status.FAILURE;
+			return;
+		}
+		this.info(String.format("%d device(s) checked in %d ms.",
+				deviceIds.size(), System.currentTimeMillis() - startTime));
+
+		if (failures > 0) {
+			this.error(String.format("The compliance couldn't be checked on %d device(s) out of %d.",
+					failures, deviceIds.size()));
+			this.status = Status.FAILURE;
+		}
+		else {
+			this.status = Status.SUCCESS;
+		}
+	}
+
+	/**
+	 * Computes the software level and hardware support status of one device,
+	 * within a dedicated transaction.
+	 *
+	 * @param deviceId the ID of the device to check
+	 * @param ruleSet the compiled software and hardware rules
+	 * @throws Exception in case of error (the transaction is then rolled back)
+	 */
+	private static void checkDevice(long deviceId, SoftwareHardwareRuleSet ruleSet) throws Exception {
+		Session session = Database.getSession();
+		try {
+			session.beginTransaction();
+			Device device = (Device) session.get(Device.class, deviceId);
+			if (device != null) {
+				ruleSet.check(device, SoftwareHardwareRuleSet.getGroupIds(session, deviceId));
+				session.update(device);
 			}
 			session.getTransaction().commit();
-			this.status = Status.SUCCESS;
+			ReportAggregates.refreshDevice(session, deviceId);
+			EventBus.publishCompliance(deviceId);
 		}
 		catch (Exception e) {
 			try {
@@ -174,10 +212,7 @@ public class CheckGroupSoftwareTask extends Task {
 			catch (Exception e1) {
 
 			}
-			logger.error("Error while checking compliance.", e);
-			this.error("Error while checking compliance: " + e.getMessage());
-			this.status = Status.FAILURE;
-			return;
+			throw e;
 		}
 		finally {
 			session.close();
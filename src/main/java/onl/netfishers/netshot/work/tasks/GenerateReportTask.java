@@ -1,54 +1,557 @@
 /**
  * Copyright 2013-2016 Sylvain Cadilhac (NetFishers)
- * 
+ *
  * This file is part of Netshot.
- * 
+ *
  * Netshot is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License as published by
  * the Free Software Foundation, either version 3 of the License, or
  * (at your option) any later version.
- * 
+ *
  * Netshot is distributed in the hope that it will be useful,
  * but WITHOUT ANY WARRANTY; without even the implied warranty of
  * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
  * GNU General Public License for more details.
- * 
+ *
  * You should have received a copy of the GNU General Public License
  * along with Netshot.  If not, see <http://www.gnu.org/licenses/>.
  */
 package onl.netfishers.netshot.work.tasks;
 
-import javax.persistence.Transient;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
-import org.quartz.JobKey;
+import javax.persistence.Entity;
+import javax.persistence.Transient;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
 
+import onl.netfishers.netshot.Database;
+import onl.netfishers.netshot.Netshot;
+import onl.netfishers.netshot.device.Device;
+import onl.netfishers.netshot.device.DeviceGroup;
+import onl.netfishers.netshot.device.Domain;
+import onl.netfishers.netshot.device.Module;
+import onl.netfishers.netshot.device.NetworkAddress;
+import onl.netfishers.netshot.device.NetworkInterface;
 import onl.netfishers.netshot.work.Task;
 
-
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.hibernate.CacheMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.quartz.JobKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * The Class GenerateReportTask.
+ * This task exports the devices (with their interfaces and modules, optionally)
+ * to a XLSX file, stored on the server to be downloaded afterwards.
+ * The devices are read by batches (along with their interfaces and modules) and
+ * the rows are streamed to the file, so that the memory usage doesn't depend on
+ * the number of devices.
  */
+@Entity
 public class GenerateReportTask extends Task {
 
+	/** The logger. */
+	private static Logger logger = LoggerFactory.getLogger(GenerateReportTask.class);
+
+	/** Number of devices read at once. */
+	private static final int BATCH_SIZE = 100;
+
+	/** Number of rows kept in memory per sheet. */
+	private static final int WINDOW_SIZE = 100;
+
+	/** The folder where the report files are stored. */
+	private static String REPORT_PATH = Netshot.getConfig("netshot.reports.path",
+			System.getProperty("java.io.tmpdir"));
+
+	/** The ID of the group to export the devices of (-1 for all). */
+	private long deviceGroup = -1;
+
+	/** The IDs of the domains to export the devices of (comma separated, empty for all). */
+	private String domains = "";
+
+	/** Whether to export the interfaces. */
+	private boolean exportInterfaces = false;
+
+	/** Whether to export the modules. */
+	private boolean exportInventory = false;
+
+	/** Whether to export the device locations and contacts. */
+	private boolean exportLocations = false;
+
+	/** The name of the generated file. */
+	private String fileName;
+
+	/**
+	 * Instantiates a new task.
+	 */
+	protected GenerateReportTask() {
+	}
+
+	/**
+	 * Instantiates a new generate report task.
+	 *
+	 * @param comments the comments
+	 * @param author the author
+	 * @param deviceGroup the ID of the group to export (-1 for all)
+	 * @param domains the IDs of the domains to export (null or empty for all)
+	 * @param exportInterfaces whether to export the interfaces
+	 * @param exportInventory whether to export the modules
+	 * @param exportLocations whether to export the locations and contacts
+	 */
+	public GenerateReportTask(String comments, String author, long deviceGroup, Set<Long> domains,
+			boolean exportInterfaces, boolean exportInventory, boolean exportLocations) {
+		super(comments, "Global", author);
+		this.deviceGroup = deviceGroup;
+		this.setDomainIds(domains);
+		this.exportInterfaces = exportInterfaces;
+		this.exportInventory = exportInventory;
+		this.exportLocations = exportLocations;
+	}
+
 	/* (non-Javadoc)
 	 * @see onl.netfishers.netshot.work.Task#run()
 	 */
 	@Override
 	public void run() {
-		// TODO Auto-generated method stub
-		
+		logger.debug("Starting report generation task {}.", this.getId());
+		String name = String.format("netshot-export_%s_%d.xlsx",
+				(new SimpleDateFormat("yyyyMMdd-HHmmss")).format(new Date()), this.getId());
+		File file = new File(REPORT_PATH, name);
+		Session session = Database.getReadOnlySession();
+		try {
+			OutputStream output = new FileOutputStream(file);
+			try {
+				this.write(session, output);
+			}
+			finally {
+				output.close();
+			}
+			this.fileName = name;
+			this.info(String.format("The report was written to file %s (%d bytes).", name, file.length()));
+			this.status = Status.SUCCESS;
+		}
+		catch (HibernateException e) {
+			logger.error("Database error while generating the report.", e);
+			this.error("Database error while generating the report.");
+			this.status = Status.FAILURE;
+			file.delete();
+		}
+		catch (Exception e) {
+			logger.error("Error while generating the report.", e);
+			this.error("Error while generating the report: " + e.getMessage());
+			this.status = Status.FAILURE;
+			file.delete();
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Writes the report (XLSX workbook) to a stream.
+	 *
+	 * @param session the Hibernate session
+	 * @param output the output stream
+	 * @throws HibernateException in case of database error
+	 * @throws IOException in case of write error
+	 */
+	public void write(Session session, OutputStream output) throws HibernateException, IOException {
+		Set<Long> domainIds = this.getDomainIds();
+		SXSSFWorkbook workBook = new SXSSFWorkbook(WINDOW_SIZE);
+		try {
+			Row row;
+			Cell cell;
+
+			CreationHelper createHelper = workBook.getCreationHelper();
+			CellStyle datetimeCellStyle = workBook.createCellStyle();
+			datetimeCellStyle.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
+			CellStyle dateCellStyle = workBook.createCellStyle();
+			dateCellStyle.setDataFormat(createHelper.createDataFormat().getFormat("yyyy-mm-dd"));
+
+			Sheet summarySheet = workBook.createSheet("Summary");
+			row = summarySheet.createRow(0);
+			row.createCell(0).setCellValue("Netshot version");
+			row.createCell(1).setCellValue(Netshot.VERSION);
+			row = summarySheet.createRow(1);
+			row.createCell(0).setCellValue("Exported by");
+			row.createCell(1).setCellValue(this.getAuthor());
+			row = summarySheet.createRow(2);
+			row.createCell(0).setCellValue("Date and time");
+			cell = row.createCell(1);
+			cell.setCellValue(new Date());
+			cell.setCellStyle(datetimeCellStyle);
+
+			row = summarySheet.createRow(4);
+			row.createCell(0).setCellValue("Selected Domain");
+			if (domainIds.size() == 0) {
+				row.createCell(1).setCellValue("Any");
+			}
+			else {
+				@SuppressWarnings("unchecked")
+				List<Domain> deviceDomains = session
+						.createQuery("select d from Domain d where d.id in (:domainIds)")
+						.setParameterList("domainIds", domainIds)
+						.list();
+				List<String> domainNames = new ArrayList<String>();
+				for (Domain deviceDomain : deviceDomains) {
+					domainNames.add(String.format("%s (%d)", deviceDomain.getName(), deviceDomain.getId()));
+				}
+				row.createCell(1).setCellValue(String.join(", ", domainNames));
+			}
+			row = summarySheet.createRow(5);
+			row.createCell(0).setCellValue("Selected Group");
+			if (deviceGroup == -1) {
+				row.createCell(1).setCellValue("Any");
+			}
+			else {
+				DeviceGroup group = (DeviceGroup) session.get(DeviceGroup.class, deviceGroup);
+				row.createCell(1).setCellValue(group == null ? "" : group.getName());
+			}
+
+			SXSSFSheet deviceSheet = workBook.createSheet("Devices");
+			deviceSheet.setRandomAccessWindowSize(WINDOW_SIZE);
+			row = deviceSheet.createRow(0);
+			row.createCell(0).setCellValue("ID");
+			row.createCell(1).setCellValue("Name");
+			row.createCell(2).setCellValue("Management IP");
+			row.createCell(3).setCellValue("Domain");
+			row.createCell(4).setCellValue("Network Class");
+			row.createCell(5).setCellValue("Family");
+			row.createCell(6).setCellValue("Creation");
+			row.createCell(7).setCellValue("Last Change");
+			row.createCell(8).setCellValue("Software");
+			row.createCell(9).setCellValue("End of Sale Date");
+			row.createCell(10).setCellValue("End Of Life Date");
+			if (exportLocations) {
+				row.createCell(11).setCellValue("Location");
+				row.createCell(12).setCellValue("Contact");
+			}
+
+			SXSSFSheet interfaceSheet = null;
+			if (exportInterfaces) {
+				interfaceSheet = workBook.createSheet("Interfaces");
+				interfaceSheet.setRandomAccessWindowSize(WINDOW_SIZE);
+				row = interfaceSheet.createRow(0);
+				row.createCell(0).setCellValue("Device ID");
+				row.createCell(1).setCellValue("Virtual Device");
+				row.createCell(2).setCellValue("Name");
+				row.createCell(3).setCellValue("Description");
+				row.createCell(4).setCellValue("VRF");
+				row.createCell(5).setCellValue("MAC Address");
+				row.createCell(6).setCellValue("Enabled");
+				row.createCell(7).setCellValue("Level 3");
+				row.createCell(8).setCellValue("IP Address");
+				row.createCell(9).setCellValue("Mask Length");
+				row.createCell(10).setCellValue("Usage");
+			}
+
+			SXSSFSheet inventorySheet = null;
+			if (exportInventory) {
+				inventorySheet = workBook.createSheet("Inventory");
+				inventorySheet.setRandomAccessWindowSize(WINDOW_SIZE);
+				row = inventorySheet.createRow(0);
+				row.createCell(0).setCellValue("Device ID");
+				row.createCell(1).setCellValue("Slot");
+				row.createCell(2).setCellValue("Part Number");
+				row.createCell(3).setCellValue("Serial Number");
+			}
+
+			// The device IDs are read by batches, in ID order, each batch starting
+			// after the last ID of the previous one
+			StringBuilder idQuery = new StringBuilder("select d.id from Device d");
+			if (deviceGroup != -1) {
+				idQuery.append(" join d.ownerGroups g");
+			}
+			idQuery.append(" where d.id > :lastId");
+			if (domainIds.size() > 0) {
+				idQuery.append(" and d.mgmtDomain.id in (:domainIds)");
+			}
+			if (deviceGroup != -1) {
+				idQuery.append(" and g.id = :groupId");
+			}
+			idQuery.append(" order by d.id asc");
+
+			int yDevice = 1;
+			int yInterface = 1;
+			int yInventory = 1;
+			long lastId = 0;
+			while (true) {
+				Query query = session.createQuery(idQuery.toString())
+					.setLong("lastId", lastId)
+					.setMaxResults(BATCH_SIZE);
+				if (domainIds.size() > 0) {
+					query.setParameterList("domainIds", domainIds);
+				}
+				if (deviceGroup != -1) {
+					query.setLong("groupId", deviceGroup);
+				}
+				@SuppressWarnings("unchecked")
+				List<Long> deviceIds = query.list();
+				if (deviceIds.isEmpty()) {
+					break;
+				}
+				lastId = deviceIds.get(deviceIds.size() - 1);
+
+				@SuppressWarnings("unchecked")
+				List<Device> devices = session
+					.createQuery("select d from Device d left join fetch d.mgmtDomain where d.id in (:ids) order by d.id asc")
+					.setParameterList("ids", deviceIds)
+					.setCacheMode(CacheMode.IGNORE)
+					.list();
+				for (Device device : devices) {
+					row = deviceSheet.createRow(yDevice++);
+					row.createCell(0).setCellValue(device.getId());
+					row.createCell(1).setCellValue(device.getName());
+					row.createCell(2).setCellValue(device.getMgmtAddress().getIp());
+					row.createCell(3).setCellValue(device.getMgmtDomain().getName());
+					row.createCell(4).setCellValue(device.getNetworkClass().toString());
+					row.createCell(5).setCellValue(device.getFamily());
+					cell = row.createCell(6);
+					cell.setCellValue(device.getCreatedDate());
+					cell.setCellStyle(datetimeCellStyle);
+					cell = row.createCell(7);
+					cell.setCellValue(device.getChangeDate());
+					cell.setCellStyle(datetimeCellStyle);
+					row.createCell(8).setCellValue(device.getSoftwareVersion());
+					if (device.getEosDate() != null) {
+						cell = row.createCell(9);
+						cell.setCellValue(device.getEosDate());
+						cell.setCellStyle(dateCellStyle);
+					}
+					if (device.getEolDate() != null) {
+						cell = row.createCell(10);
+						cell.setCellValue(device.getEolDate());
+						cell.setCellStyle(dateCellStyle);
+					}
+					if (exportLocations) {
+						row.createCell(11).setCellValue(device.getLocation());
+						row.createCell(12).setCellValue(device.getContact());
+					}
+				}
+
+				if (interfaceSheet != null) {
+					// The interfaces of the whole batch, with their addresses, in one query
+					@SuppressWarnings("unchecked")
+					List<NetworkInterface> networkInterfaces = session
+						.createQuery("select distinct ni from NetworkInterface ni left join fetch ni.ip4Addresses "
+								+ "left join fetch ni.ip6Addresses where ni.device.id in (:ids) "
+								+ "order by ni.device.id asc, ni.id asc")
+						.setParameterList("ids", deviceIds)
+						.setCacheMode(CacheMode.IGNORE)
+						.list();
+					for (NetworkInterface networkInterface : networkInterfaces) {
+						long deviceId = networkInterface.getDevice().getId();
+						List<NetworkAddress> addresses = networkInterface.getIpAddresses();
+						if (addresses.size() == 0) {
+							row = interfaceSheet.createRow(yInterface++);
+							row.createCell(0).setCellValue(deviceId);
+							row.createCell(1).setCellValue(networkInterface.getVirtualDevice());
+							row.createCell(2).setCellValue(networkInterface.getInterfaceName());
+							row.createCell(3).setCellValue(networkInterface.getDescription());
+							row.createCell(4).setCellValue(networkInterface.getVrfInstance());
+							row.createCell(5).setCellValue(networkInterface.getMacAddress());
+							row.createCell(6).setCellValue(networkInterface.isEnabled());
+							row.createCell(7).setCellValue(networkInterface.isLevel3());
+							row.createCell(8).setCellValue("");
+							row.createCell(9).setCellValue("");
+							row.createCell(10).setCellValue("");
+						}
+						for (NetworkAddress address : addresses) {
+							row = interfaceSheet.createRow(yInterface++);
+							row.createCell(0).setCellValue(deviceId);
+							row.createCell(1).setCellValue(networkInterface.getVirtualDevice());
+							row.createCell(2).setCellValue(networkInterface.getInterfaceName());
+							row.createCell(3).setCellValue(networkInterface.getDescription());
+							row.createCell(4).setCellValue(networkInterface.getVrfInstance());
+							row.createCell(5).setCellValue(networkInterface.getMacAddress());
+							row.createCell(6).setCellValue(networkInterface.isEnabled());
+							row.createCell(7).setCellValue(networkInterface.isLevel3());
+							row.createCell(8).setCellValue(address.getIp());
+							row.createCell(9).setCellValue(address.getPrefixLength());
+							row.createCell(10).setCellValue(address.getAddressUsage() == null ? "" : address.getAddressUsage().toString());
+						}
+					}
+				}
+
+				if (inventorySheet != null) {
+					@SuppressWarnings("unchecked")
+					List<Module> modules = session
+						.createQuery("select m from Module m where m.device.id in (:ids) order by m.device.id asc, m.id asc")
+						.setParameterList("ids", deviceIds)
+						.setCacheMode(CacheMode.IGNORE)
+						.list();
+					for (Module module : modules) {
+						row = inventorySheet.createRow(yInventory++);
+						row.createCell(0).setCellValue(module.getDevice().getId());
+						row.createCell(1).setCellValue(module.getSlot());
+						row.createCell(2).setCellValue(module.getPartNumber());
+						row.createCell(3).setCellValue(module.getSerialNumber());
+					}
+				}
+
+				// Release the entities of this batch
+				session.clear();
+				this.info(String.format("%d devices exported.", yDevice - 1));
+			}
+
+			workBook.write(output);
+		}
+		finally {
+			workBook.close();
+			// Remove the temporary files of the streamed sheets
+			workBook.dispose();
+		}
+	}
+
+	/**
+	 * Gets the report file.
+	 *
+	 * @return the file, null if the report wasn't generated
+	 */
+	@Transient
+	public File getFile() {
+		if (fileName == null) {
+			return null;
+		}
+		return new File(REPORT_PATH, fileName);
+	}
+
+	/**
+	 * Deletes the report file, if any.
+	 */
+	public void deleteFile() {
+		File file = this.getFile();
+		if (file != null && file.exists() && !file.delete()) {
+			logger.warn("Unable to delete the report file {}.", file);
+		}
 	}
 
 	/* (non-Javadoc)
 	 * @see onl.netfishers.netshot.work.Task#getTaskDescription()
 	 */
 	@Override
+	@XmlElement
 	@Transient
 	public String getTaskDescription() {
 		return "Report generation";
 	}
 
+	/* (non-Javadoc)
+	 * @see onl.netfishers.netshot.work.Task#clone()
+	 */
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		GenerateReportTask task = (GenerateReportTask) super.clone();
+		task.setFileName(null);
+		return task;
+	}
+
+	@XmlElement
+	public long getDeviceGroup() {
+		return deviceGroup;
+	}
+
+	public void setDeviceGroup(long deviceGroup) {
+		this.deviceGroup = deviceGroup;
+	}
+
+	@XmlElement
+	public String getDomains() {
+		return domains;
+	}
+
+	public void setDomains(String domains) {
+		this.domains = domains;
+	}
+
+	/**
+	 * Gets the IDs of the domains to export.
+	 *
+	 * @return the domain IDs (empty for all)
+	 */
+	@Transient
+	public Set<Long> getDomainIds() {
+		Set<Long> domainIds = new LinkedHashSet<Long>();
+		if (domains != null) {
+			for (String domain : domains.split(",")) {
+				if (!domain.trim().isEmpty()) {
+					domainIds.add(Long.parseLong(domain.trim()));
+				}
+			}
+		}
+		return domainIds;
+	}
+
+	/**
+	 * Sets the IDs of the domains to export.
+	 *
+	 * @param domainIds the domain IDs (null or empty for all)
+	 */
+	public void setDomainIds(Set<Long> domainIds) {
+		List<String> ids = new ArrayList<String>();
+		if (domainIds != null) {
+			for (Long domainId : domainIds) {
+				ids.add(domainId.toString());
+			}
+		}
+		this.domains = String.join(",", ids);
+	}
+
+	@XmlElement
+	public boolean isExportInterfaces() {
+		return exportInterfaces;
+	}
+
+	public void setExportInterfaces(boolean exportInterfaces) {
+		this.exportInterfaces = exportInterfaces;
+	}
+
+	@XmlElement
+	public boolean isExportInventory() {
+		return exportInventory;
+	}
+
+	public void setExportInventory(boolean exportInventory) {
+		this.exportInventory = exportInventory;
+	}
+
+	@XmlElement
+	public boolean isExportLocations() {
+		return exportLocations;
+	}
+
+	public void setExportLocations(boolean exportLocations) {
+		this.exportLocations = exportLocations;
+	}
+
+	@XmlTransient
+	public String getFileName() {
+		return fileName;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see onl.netfishers.netshot.work.Task#getIdentity()
@@ -112,6 +112,9 @@ public class PurgeDatabaseTask extends Task {
 				int count = 0;
 				while (tasks.next()) {
 					Task task = (Task) tasks.get(0);
+					if (task instanceof GenerateReportTask) {
+						((GenerateReportTask) task).deleteFile();
+					}
 					session.delete(task);
 					if (++count % 50 == 0) {
 						session.flush();
@@ -18,6 +18,7 @@ import org.slf4j.LoggerFactory;
 
 import onl.netfishers.netshot.Database;
 import onl.netfishers.netshot.TaskManager;
+import onl.netfishers.netshot.compliance.SoftwareHardwareRuleSet;
 import onl.netfishers.netshot.device.Device;
 import onl.netfishers.netshot.device.DynamicDeviceGroup;
 import onl.netfishers.netshot.device.script.RunDiagnosticCliScript;
@@ -184,12 +185,8 @@ public class RunDiagnosticsTask extends Task {
 			}
 			
 
-			@SuppressWarnings("unchecked")
-			List<Diagnostic> diagnostics = session.createQuery(
-					"select distinct dg from Device d left join d.ownerGroups g left join g.diagnostics dg where d = :device and dg.enabled = :enabled")
-				.setEntity("device", device)
-				.setBoolean("enabled", true)
-				.list();
+			List<Diagnostic> diagnostics = Diagnostic.getGroupDiagnostics(session,
+					SoftwareHardwareRuleSet.getGroupIds(session, device.getId()));
 			if (diagnostics.size() > 0) {
 				cliScript = new RunDiagnosticCliScript(diagnostics, this.debugEnabled);
 				cliScript.connectRun(session, device);
@@ -137,6 +137,7 @@ public class ScanSubnetsTask extends Task {
 				knownCommunities = session
 						.createQuery("from DeviceSnmpCommunity c where c.mgmtDomain is null or c.mgmtDomain = :domain")
 						.setEntity("domain", domain)
+						.setCacheable(true)
 						.list();
 			}
 			catch (Exception e) {
@@ -29,6 +29,7 @@ import javax.persistence.Transient;
 import javax.xml.bind.annotation.XmlElement;
 
 import onl.netfishers.netshot.Database;
+import onl.netfishers.netshot.EventBus;
 import onl.netfishers.netshot.Netshot;
 import onl.netfishers.netshot.TaskManager;
 import onl.netfishers.netshot.device.Device;
@@ -180,6 +181,7 @@ public class TakeSnapshotTask extends Task {
 
 		Session session = Database.getSession();
 		CliScript cliScript = new SnapshotCliScript(this.debugEnabled);
+		long statementCount = Database.getStatementCount();
 		try {
 			session.beginTransaction();
 			session.refresh(device);
@@ -201,7 +203,12 @@ public class TakeSnapshotTask extends Task {
 			this.log.append(cliScript.getPlainJsLog());
 			session.update(device);
 			session.getTransaction().commit();
+			statementCount = Database.getStatementCount() - statementCount;
+			logger.debug("{} SQL statements sent to the database for the snapshot of device {}.",
+					statementCount, device.getId());
+			this.trace(String.format("%d SQL statements sent to the database.", statementCount));
 			this.status = Status.SUCCESS;
+			EventBus.publishSnapshot(this.getId(), device.getId());
 		}
 		catch (Exception e) {
 			session.getTransaction().rollback();
@@ -32,6 +32,10 @@ define([
 			}
 		},
 
+		getLogUrl: function() {
+			return this.urlRoot + "/" + this.get('id') + "/log";
+		},
+
 		getDebugLogUrl: function() {
 			return this.urlRoot + "/" + this.get('id') + "/debuglog";
 		},
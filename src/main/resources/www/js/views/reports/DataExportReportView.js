@@ -7,9 +7,11 @@ define([
 	'models/device/DeviceGroupCollection',
 	'models/reports/DataExportReportParamsModel',
 	'models/domain/DomainCollection',
+	'views/tasks/MonitorTaskDialog',
 	'text!templates/reports/dataExportReport.html',
 ], function($, _, Backbone, ReportView, DeviceGroupCollection,
-		DataExportReportParamsModel, DomainCollection, dataExportReportTemplate) {
+		DataExportReportParamsModel, DomainCollection, MonitorTaskDialog,
+		dataExportReportTemplate) {
 
 	return ReportView.extend({
 
@@ -45,7 +47,27 @@ define([
 					inventory: that.$('#filterinventory').prop('checked'),
 					locations: that.$('#filterlocations').prop('checked'),
 				});
-				window.location = exportParams.getDownloadUrl();
+				// The file is generated by a background task, then downloaded
+				// from the task dialog
+				var $button = $(this);
+				$button.button('disable');
+				that.$('#error').hide();
+				$.ajax({
+					url: exportParams.getDownloadUrl(),
+					type: "POST",
+					dataType: "json"
+				}).done(function(data) {
+					var monitorTaskDialog = new MonitorTaskDialog({
+						taskId: data.id,
+						delay: 1200
+					});
+				}).fail(function(data) {
+					var error = $.parseJSON(data.responseText || '{ "errorMsg": "Unknown" }');
+					that.$("#errormsg").text("Error: " + error.errorMsg);
+					that.$("#error").show();
+				}).always(function() {
+					$button.button('enable');
+				});
 				return false;
 			});
 			
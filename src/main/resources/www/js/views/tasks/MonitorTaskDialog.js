@@ -15,6 +15,9 @@ define([
 		initialize: function() {
 			var that = this;
 			this.active = false;
+			this.logText = "";
+			this.logSize = 0;
+			this.logShown = false;
 			this.model = new TaskModel({
 				id: this.options.taskId
 			});
@@ -42,7 +45,25 @@ define([
 		},
 
 		onCreate: function() {
+			var that = this;
 			this.active = true;
+			if (typeof window.EventSource !== "undefined") {
+				// Pushed task events, rather than polling
+				var reload = function() {
+					that.model.fetch().complete(function() {
+						that.refresh();
+					});
+				};
+				this.eventSource = new EventSource("api/events?types=TASK_STATUS,TASK_LOG,OVERFLOW&task="
+						+ this.model.get('id'));
+				// Events may have been missed before the subscription
+				this.eventSource.addEventListener("open", reload);
+				this.eventSource.addEventListener("TASK_STATUS", reload);
+				this.eventSource.addEventListener("OVERFLOW", reload);
+				this.eventSource.addEventListener("TASK_LOG", function() {
+					that.refreshLog();
+				});
+			}
 			this.refresh();
 		},
 
@@ -54,25 +75,27 @@ define([
 			var compiledTemplate = _.template(monitorTaskTemplate);
 			this.$el.html(compiledTemplate(this.model.toJSON()));
 			this.$("#nstask-showlog a").click(function() {
-				$(this).closest("#nstask-tasklog").find(".nsdialog-log").show();
-				$(this).hide();
+				that.logShown = true;
+				that.renderLog();
 				return false;
 			});
+			this.renderLog();
+			this.refreshLog();
 			if ($.inArray(this.model.get('status'), [
 				"SUCCESS",
 				"FAILURE",
 				"CANCELLED"
 			]) == -1) {
-				this.model.fetch().complete(function() {
-					setTimeout(function() {
-						that.refresh();
-					}, 10000);
-				});
+				if (!this.eventSource) {
+					this.model.fetch().complete(function() {
+						setTimeout(function() {
+							that.refresh();
+						}, 10000);
+					});
+				}
 			}
 			else {
-				this.$("#nstask-tasklog .nsdialog-log").html(this.model.get('log')
-						.replace(/\n/g, "<br/>"));
-				this.$("#nstask-showlog").show();
+				this.closeEvents();
 				if (this.model.get('status') == "SUCCESS"
 						&& this.model.get('type') == ".DiscoverDeviceTypeTask") {
 					this.$("#gotosnapshot").click(function() {
@@ -101,8 +124,58 @@ define([
 			}
 		},
 
+		refreshLog: function() {
+			var that = this;
+			if (this.logLoading) {
+				this.logPending = true;
+				return;
+			}
+			this.logLoading = true;
+			this.logPending = false;
+			// Only read what was added to the log since the last call
+			$.ajax({
+				url: this.model.getLogUrl(),
+				data: {
+					offset: this.logSize
+				},
+				dataType: "text",
+				success: function(log, status, xhr) {
+					that.logText += log;
+					var size = parseInt(xhr.getResponseHeader("X-Netshot-Log-Size"));
+					that.logSize = isNaN(size) ? that.logText.length : size;
+					that.renderLog();
+				},
+				complete: function() {
+					that.logLoading = false;
+					if (that.logPending) {
+						that.refreshLog();
+					}
+				}
+			});
+		},
+
+		renderLog: function() {
+			this.$("#nstask-tasklog .nsdialog-log").html(this.logText
+					.replace(/\n/g, "<br/>"));
+			if (this.logShown) {
+				this.$("#nstask-showlog").hide();
+				this.$("#nstask-tasklog .nsdialog-log").show();
+			}
+			else if (this.logText.length > 0) {
+				this.$("#nstask-showlog").show();
+			}
+		},
+
+		closeEvents: function() {
+			if (this.eventSource) {
+				this.eventSource.close();
+				this.eventSource = null;
+			}
+		},
+
 		onClose: function() {
 			this.active = false;
+			this.closeEvents();
 		}
 
 	});